@@ -2,22 +2,31 @@ package org.reactome.addlinks;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
@@ -29,6 +38,7 @@ import org.gk.model.GKInstance;
 import org.gk.model.ReactomeJavaConstants;
 import org.gk.persistence.MySQLAdaptor;
 import org.gk.schema.InvalidAttributeException;
+import org.gk.schema.SchemaClass;
 
 import org.reactome.addlinks.dataretrieval.UniprotFileRetriever;
 import org.reactome.addlinks.dataretrieval.ensembl.EnsemblBatchLookup;
@@ -39,11 +49,14 @@ import org.reactome.addlinks.dataretrieval.executor.UniprotFileRetrieverExecutor
 import org.reactome.addlinks.db.CrossReferenceReporter;
 import org.reactome.addlinks.db.DuplicateIdentifierReporter;
 import org.reactome.addlinks.db.DuplicateIdentifierReporter.REPORT_KEYS;
+import org.reactome.addlinks.db.ReferenceCreator;
 import org.reactome.addlinks.db.ReferenceDatabaseCreator;
 import org.reactome.addlinks.db.ReferenceObjectCache;
 import org.reactome.addlinks.ensembl.EnsemblFileRetrieverExecutor;
 import org.reactome.addlinks.ensembl.EnsemblReferenceDatabaseGenerator;
 import org.reactome.addlinks.fileprocessors.FileProcessor;
+import org.reactome.addlinks.fileprocessors.GlobbedFileProcessor;
+import org.reactome.addlinks.fileprocessors.IdentifierSymbolTable;
 import org.reactome.addlinks.fileprocessors.ensembl.EnsemblFileProcessorExecutor;
 import org.reactome.addlinks.kegg.KEGGReferenceDatabaseGenerator;
 import org.reactome.addlinks.linkchecking.LinkCheckInfo;
@@ -57,15 +70,23 @@ import org.reactome.addlinks.referencecreators.EntrezGeneBasedReferenceCreator;
 import org.reactome.addlinks.referencecreators.NCBIGeneBasedReferenceCreator;
 import org.reactome.addlinks.referencecreators.OneToOneReferenceCreator;
 import org.reactome.addlinks.referencecreators.RHEAReferenceCreator;
+import org.reactome.addlinks.referencecreators.SimpleReferenceCreator;
 import org.reactome.addlinks.referencecreators.TargetPathogenReferenceCreator;
 import org.reactome.addlinks.referencecreators.UPMappedIdentifiersReferenceCreator;
 import org.reactome.release.common.dataretrieval.FileRetriever;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
 
 
 public class AddLinks
 {
 	private static final String PROTEIN = "PROTEIN";
 	private static final String CTD_PROCESSOR = "CTDProcessor";
+	private static final String ENSEMBL_FILE_PROCESSOR = "ENSEMBLFileProcessor";
+	private static final String ENSEMBL_NON_CORE_FILE_PROCESSOR = "ENSEMBLNonCoreFileProcessor";
+	private static final String KEGG_RETRIEVER = "KEGGRetriever";
+	private static final String UNIPROT_TO_KEGG_RETRIEVER = "UniProtToKEGG";
+	private static final String ENSEMBL_RETRIEVER = "EnsemblToALL";
 	private static final String KEGG = "KEGG";
 	private static final String ENSEMBL = "ENSEMBL";
 	private static final String REACTOME = "Reactome";
@@ -104,7 +125,6 @@ public class AddLinks
 
 	private MySQLAdaptor dbAdapter;
 
-	@SuppressWarnings("unchecked")
 	public void doAddLinks() throws Exception
 	{
 		// Create report directories.
@@ -135,6 +155,9 @@ public class AddLinks
 
 		long personID = Long.valueOf(applicationProps.getProperty("executeAsPersonID"));
 		int numUniprotDownloadThreads = Integer.valueOf(applicationProps.getProperty("numberOfUniprotDownloadThreads"));
+		int numFileProcessorThreads = Integer.valueOf(applicationProps.getProperty("numberOfFileProcessorThreads", "1"));
+		int numReferenceCreatorThreads = Integer.valueOf(applicationProps.getProperty("numberOfReferenceCreatorThreads", "1"));
+		boolean pipelineFileRetrievers = Boolean.valueOf(applicationProps.getProperty("pipelineFileRetrievers", "false"));
 
 		boolean filterRetrievers = applicationProps.containsKey("filterFileRetrievers") && applicationProps.getProperty("filterFileRetrievers") != null
 									? Boolean.valueOf(applicationProps.getProperty("filterFileRetrievers"))
@@ -144,57 +167,37 @@ public class AddLinks
 			logger.info("Only the specified FileRetrievers will be executed: {}", this.fileRetrieverFilter);
 		}
 		// Start by creating ReferenceDatabase objects that we might need later.
+		// ReferenceDatabaseCreator registers new ref dbs with the ReferenceObjectCache as it creates them, so the caches don't need to be rebuilt afterwards.
 		this.executeCreateReferenceDatabases(personID);
-		// Now that we've *created* new ref dbs, rebuild any caches that might have depended on them.
-		ReferenceObjectCache.clearAndRebuildAllCaches();
 		CrossReferenceReporter xrefReporter = new CrossReferenceReporter(this.dbAdapter);
 		DuplicateIdentifierReporter duplicateIdentifierReporter = new DuplicateIdentifierReporter(this.dbAdapter);
 		Map<String, Map<String, Integer>> preAddLinksReport = this.reportsBeforeAddLinks(xrefReporter, duplicateIdentifierReporter);
 
-		ExecutorService execSrvc = Executors.newFixedThreadPool(5);
-		List<Callable<Boolean>> retrieverJobs = createRetrieverJobs(numUniprotDownloadThreads);
-		// Execute the file retrievers.
-		execSrvc.invokeAll(retrieverJobs);
-
-		retrieverJobs = new ArrayList<>();
-		// Now that uniprot file retrievers have run, we can run the KEGG file retriever.
-		retrieverJobs.add(new KeggFileRetrieverExecutor(this.fileRetrievers, this.uniprotFileRetrievers, this.fileRetrieverFilter, this.objectCache));
-		execSrvc.invokeAll(retrieverJobs);
-
-		logger.info("Finished downloading files.");
-		execSrvc.shutdown();
-		logger.info("Now processing the files...");
-
-		// TODO: Link the file processors to the file retrievers so that if
-		// any are filtered, only the appropriate processors will execute. Maybe?
-		Map<String, Map<String, ?>> dbMappings = executeFileProcessors();
-
-		// Special extra work for ENSEMBL...
-		if (this.fileProcessorFilter.contains("ENSEMBLFileProcessor") || this.fileProcessorFilter.contains("ENSEMBLNonCoreFileProcessor"))
+		if (pipelineFileRetrievers)
 		{
-			EnsemblFileProcessorExecutor ensemblFileProcessorExecutor = new EnsemblFileProcessorExecutor(this.dbAdapter, this.objectCache);
-			ensemblFileProcessorExecutor.processENSEMBLFiles(dbMappings);
+			// Each file processor will run as soon as the files it needs have been downloaded.
+			logger.info("Now downloading and processing the files and creating references...");
 		}
-
-		// Print stats on results of file processing.
-		logger.info("{} keys in mapping object.", dbMappings.keySet().size());
-
-		for (String k : dbMappings.keySet().stream().sorted().collect(Collectors.toList()))
+		else
 		{
-			logger.info("DB Key: {} has {} submaps.", k, dbMappings.get(k).keySet().size());
-			for (String subk : dbMappings.get(k).keySet())
-			{
-				if (dbMappings.get(k).get(subk) instanceof Map && !k.equals("HmdbMetabolitesFileProcessor")) // No need to print every single HMDB Metabolites ID.
-				{
-					logger.info("    subkey: {} has {} subkeys", subk, ((Map<String, ?>)dbMappings.get(k).get(subk)).keySet().size() );
-				}
-
-			}
+			ExecutorService execSrvc = Executors.newFixedThreadPool(5);
+			List<Callable<Boolean>> retrieverJobs = createRetrieverJobs(numUniprotDownloadThreads);
+			// Execute the file retrievers.
+			execSrvc.invokeAll(retrieverJobs);
+
+			retrieverJobs = new ArrayList<>();
+			// Now that uniprot file retrievers have run, we can run the KEGG file retriever.
+			retrieverJobs.add(new KeggFileRetrieverExecutor(this.fileRetrievers, this.uniprotFileRetrievers, this.fileRetrieverFilter, this.objectCache));
+			execSrvc.invokeAll(retrieverJobs);
+
+			logger.info("Finished downloading files.");
+			execSrvc.shutdown();
+			logger.info("Now processing the files and creating references...");
 		}
-		//Before each set of IDs is updated in the database, maybe take a database backup?
 
-		//Now we create references.
-		this.createReferences(personID, dbMappings);
+		// Each file processor is linked to the file retrievers that download its files by getFileRetrieverDependencies.
+		//Before each set of IDs is updated in the database, maybe take a database backup?
+		this.processFilesAndCreateReferences(personID, pipelineFileRetrievers, numUniprotDownloadThreads, numFileProcessorThreads, numReferenceCreatorThreads);
 		this.reportsAfterAddLinks(xrefReporter, duplicateIdentifierReporter, preAddLinksReport);
 		logger.info("Purging unused ReferenceDatabse objects.");
 		this.purgeUnusedRefDBs();
@@ -203,14 +206,13 @@ public class AddLinks
 	}
 
 	/**
-	 * Checks links for a specific ReferenceDatabase.
+	 * Checks links for a specific ReferenceDatabase. The links are checked in the background, so that AddLinks can carry on while they are checked.
 	 * @param linkCheckManager A LinkCheckManager that will be used to check links
 	 * @param refDBInst The ReferenceDatabase to check links for.
+	 * @return A future for the ReferenceDatabase's line in the link-check report.
 	 */
-	private String checkLinksForRefDB(LinkCheckManager linkCheckManager, GKInstance refDBInst)
+	private CompletableFuture<String> checkLinksForRefDB(LinkCheckManager linkCheckManager, GKInstance refDBInst)
 	{
-		 int numLinkOK = 0;
-		 int numLinkNotOK = 0;
 		logger.info("Link-checking for database: {}", refDBInst.getDisplayName());
 		StringBuilder reportLine = new StringBuilder();
 		if (!refDBInst.getDisplayName().toUpperCase().contains(ENSEMBL))
@@ -244,7 +246,21 @@ public class AddLinks
 
 		}
 		List<GKInstance> instancesToCheck = new ArrayList<>(LinksToCheckCache.removeRefDBFromCache(refDBInst));
-		Map<String, LinkCheckInfo> checkedLinks = linkCheckManager.checkLinks(refDBInst, instancesToCheck, this.proportionToLinkCheck, this.maxNumberLinksToCheck);
+		return linkCheckManager.checkLinksAsync(refDBInst, instancesToCheck, this.proportionToLinkCheck, this.maxNumberLinksToCheck)
+								.thenApply(checkedLinks -> AddLinks.summarizeLinkChecks(refDBInst, checkedLinks, reportLine));
+	}
+
+	/**
+	 * Counts the links that were OK and NOT OK, for the link-check report.
+	 * @param refDBInst The ReferenceDatabase whose links were checked.
+	 * @param checkedLinks The results of link-checking.
+	 * @param reportLine The start of the ReferenceDatabase's line in the link-check report. The counts will be appended to it.
+	 * @return The ReferenceDatabase's line in the link-check report.
+	 */
+	private static String summarizeLinkChecks(GKInstance refDBInst, Map<String, LinkCheckInfo> checkedLinks, StringBuilder reportLine)
+	{
+		int numLinkOK = 0;
+		int numLinkNotOK = 0;
 		// "results" is a map of DB IDs mapped to link-checking results, for each identifier.
 		for (LinkCheckInfo result : checkedLinks.values())
 		{
@@ -358,7 +374,7 @@ public class AddLinks
 		retrieverJobs.add(new UniprotFileRetrieverExecutor(this.uniprotFileRetrievers, this.fileRetrieverFilter, numUniprotDownloadThreads, this.objectCache));
 
 		// Check to see if we should do any Ensembl work
-		if (this.fileRetrieverFilter.contains("EnsemblToALL"))
+		if (this.fileRetrieverFilter.contains(ENSEMBL_RETRIEVER))
 		{
 			retrieverJobs.add(new EnsemblFileRetrieverExecutor(this.ensemblFileRetrievers, this.ensemblFileRetrieversNonCore , this.fileRetrieverFilter, this.ensemblBatchLookup, this.objectCache, this.dbAdapter));
 		}
@@ -396,6 +412,7 @@ public class AddLinks
 				{
 					logger.debug("NOTHING refers to ReferenceDatabase DB ID {} ({}) so it will now be deleted.", refDB.getDBID(), names.toString());
 					this.dbAdapter.deleteByDBID(refDB.getDBID());
+					ReferenceObjectCache.registerDeletedInstance(refDB);
 				}
 			}
 		}
@@ -409,156 +426,546 @@ public class AddLinks
 
 
 	/**
-	 * Create references.
+	 * Executes the file processors and creates references. Each file processor runs as soon as there is a thread for it, and each reference creator
+	 * runs as soon as the file processors it needs (see processorCreatorLink) have finished. Reference creators that could change the same objects
+	 * or create references in the same ReferenceDatabase (see referenceCreatorsConflict) do not run at the same time.
+	 * <br/>
+	 * If pipelineFileRetrievers is true, the file retrievers are run here too, and each file processor runs as soon as the retrievers that download
+	 * its files (see getFileRetrieverDependencies) have finished, instead of waiting for every file to be downloaded.
 	 * @param personID - the ID of the Person entity which these new references will be attributed to.
-	 * @param dbMappings - A mapping from source identifier to target identifier.
-	 * @throws IOException
+	 * @param pipelineFileRetrievers - true if the file retrievers should be run with the file processors.
+	 * @param numUniprotDownloadThreads - the number of threads for each UniProt file retriever, if the file retrievers are run here.
+	 * @param numFileProcessorThreads - the maximum number of file processors that will run at the same time.
+	 * @param numReferenceCreatorThreads - the maximum number of reference creators that will run at the same time. If this is more than 1,
+	 * each reference creator thread will have its own database adaptor.
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
-	private void createReferences(long personID, Map<String, Map<String, ?>> dbMappings) throws IOException, Exception
+	private void processFilesAndCreateReferences(long personID, boolean pipelineFileRetrievers, int numUniprotDownloadThreads, int numFileProcessorThreads, int numReferenceCreatorThreads) throws Exception
 	{
+		// Mappings, keyed by the *name* of the file processor. The values of this mapping are Map<String,?> - see the specific processor to know what it returns for "?".
+		Map<String, Map<String, ?>> dbMappings = new ConcurrentHashMap<>();
 		String linkCheckReportName = LINK_CHECK_REPORTS_PATH + "/linkCheckSummaryReport" + DateTimeFormatter.ofPattern(DATE_PATTERN_FOR_FILENAMES).format(LocalDateTime.now()) + ".tsv";
 		Files.write(Paths.get(linkCheckReportName), "RefDBName\tNumOK\tNumNotOK\n".getBytes(), StandardOpenOption.CREATE);
-		for (String refCreatorName : this.referenceCreatorFilter)
+		// Links are checked in the background while the next reference creators run. Lines are written to the report in the order of the reference creator filter.
+		CompletableFuture<Void> linkCheckReport = CompletableFuture.completedFuture(null);
+
+		ExecutorService fileRetrieverExecutor = Executors.newFixedThreadPool(5);
+		// The UniProt retrievers each use many threads, so they are run one at a time, as they were before.
+		ExecutorService uniprotFileRetrieverExecutor = Executors.newSingleThreadExecutor();
+		ExecutorService fileProcessorExecutor = Executors.newFixedThreadPool(numFileProcessorThreads);
+		ExecutorService referenceCreatorExecutor = Executors.newFixedThreadPool(numReferenceCreatorThreads);
+		// Database adaptors for the threads that need their own, keyed by thread ID.
+		Map<Long, MySQLAdaptor> threadAdapters = new ConcurrentHashMap<>();
+		DependencyScheduler scheduler = new DependencyScheduler(this::referenceCreatorsConflict);
+		try
 		{
-			logger.info("Executing reference creator: {}", refCreatorName);
-			List<GKInstance> sourceReferences = new ArrayList<>();
-			// Try to get the processor name, except for E
-			Optional<?> fileProcessorName = this.processorCreatorLink.keySet().stream().filter(k -> {
-				if (this.processorCreatorLink.get(k) instanceof String)
+			if (pipelineFileRetrievers)
+			{
+				this.addFileRetrieverTasks(scheduler, fileRetrieverExecutor, uniprotFileRetrieverExecutor, numUniprotDownloadThreads, threadAdapters);
+			}
+			logger.info("{} file processors to execute.", this.fileProcessorFilter.size());
+			this.fileProcessors.keySet().stream().filter(k -> this.fileProcessorFilter.contains(k)).forEach(k ->
+				scheduler.addTask(k, fileProcessorExecutor, pipelineFileRetrievers ? this.getFileRetrieverDependencies(this.fileProcessors.get(k)) : Collections.emptyList(), () -> {
+					logger.info("Executing file processor: {}", k);
+					Map<String, ?> mapping = this.fileProcessors.get(k).getIdMappingsFromFile();
+					if (mapping != null)
+					{
+						dbMappings.put(k, mapping);
+					}
+					AddLinks.logMappingStats(k, mapping);
+				})
+			);
+			// Special extra work for ENSEMBL...
+			if (this.fileProcessorFilter.contains(ENSEMBL_FILE_PROCESSOR) || this.fileProcessorFilter.contains(ENSEMBL_NON_CORE_FILE_PROCESSOR))
+			{
+				scheduler.addTask(ENSEMBL, fileProcessorExecutor, Arrays.asList(ENSEMBL_FILE_PROCESSOR, ENSEMBL_NON_CORE_FILE_PROCESSOR), () -> {
+					// Reference creators could be using this.dbAdapter at the same time, so this needs its own adaptor.
+					MySQLAdaptor adapter = AddLinks.getAdaptorForThread(this.dbAdapter, threadAdapters);
+					EnsemblFileProcessorExecutor ensemblFileProcessorExecutor = new EnsemblFileProcessorExecutor(adapter, this.objectCache);
+					ensemblFileProcessorExecutor.setParallelism(numFileProcessorThreads);
+					ensemblFileProcessorExecutor.processENSEMBLFiles(dbMappings);
+				});
+			}
+
+			for (String refCreatorName : this.referenceCreatorFilter)
+			{
+				if (this.referenceCreators.containsKey(refCreatorName) || this.uniprotReferenceCreators.containsKey(refCreatorName))
 				{
-					return this.processorCreatorLink.get(k).equals(refCreatorName);
+					CompletableFuture<String> linkCheckLines = new CompletableFuture<>();
+					scheduler.addTask(refCreatorName, referenceCreatorExecutor, this.getReferenceCreatorDependencies(refCreatorName), () -> {
+						MySQLAdaptor adapter = numReferenceCreatorThreads > 1
+												? AddLinks.getAdaptorForThread(this.dbAdapter, threadAdapters)
+												: this.dbAdapter;
+						this.executeReferenceCreator(refCreatorName, personID, dbMappings, adapter).whenComplete((lines, e) -> {
+							if (e != null)
+							{
+								linkCheckLines.completeExceptionally(e);
+							}
+							else
+							{
+								linkCheckLines.complete(lines);
+							}
+						});
+						logger.info("Completed reference creator: {}", refCreatorName);
+					});
+					linkCheckReport = AddLinks.appendToLinkCheckReport(linkCheckReport, linkCheckLines, linkCheckReportName);
 				}
-				else if (this.processorCreatorLink.get(k) instanceof List)
+				else
 				{
-					List<String> sublist = ((List<String>)this.processorCreatorLink.get(k));
-					return sublist.stream().anyMatch( element -> element.equals(refCreatorName) );
+					logger.info("Reference creator {} is not a known reference creator, so it will not be executed.", refCreatorName);
 				}
-				else // if not a list and not a string, something is wrong.
+			}
+			scheduler.run();
+		}
+		finally
+		{
+			// The identifiers in the mappings are already interned, so the table isn't needed anymore.
+			IdentifierSymbolTable.clear();
+			fileRetrieverExecutor.shutdown();
+			uniprotFileRetrieverExecutor.shutdown();
+			fileProcessorExecutor.shutdown();
+			referenceCreatorExecutor.shutdown();
+			for (MySQLAdaptor adapter : threadAdapters.values())
+			{
+				adapter.cleanUp();
+			}
+			ReferenceCreator.closeDbIdAllocator();
+		}
+		logger.info("Waiting for link-checking to finish.");
+		linkCheckReport.join();
+	}
+
+	/**
+	 * Adds a task for each file retriever that will be executed. Retrievers that are run together by the non-pipelined mode are run the same way here:
+	 * the KEGG retriever needs the UniProt-to-KEGG mappings, so it runs after that UniProt retriever, and the ENSEMBL retrievers are all run by one task.
+	 * @param scheduler - the scheduler to add the tasks to.
+	 * @param fileRetrieverExecutor - the executor for most file retrievers.
+	 * @param uniprotFileRetrieverExecutor - the executor for the UniProt file retrievers.
+	 * @param numUniprotDownloadThreads - the number of threads for each UniProt file retriever.
+	 * @param threadAdapters - database adaptors for threads that need their own, keyed by thread ID.
+	 */
+	private void addFileRetrieverTasks(DependencyScheduler scheduler, ExecutorService fileRetrieverExecutor, ExecutorService uniprotFileRetrieverExecutor, int numUniprotDownloadThreads, Map<Long, MySQLAdaptor> threadAdapters)
+	{
+		for (String retrieverName : this.fileRetrievers.keySet())
+		{
+			// KEGGRetreiver is special: it depends on the result of the uniprotToKegg retriever as an input.
+			if (this.fileRetrieverFilter.contains(retrieverName) && !retrieverName.equals(KEGG_RETRIEVER))
+			{
+				scheduler.addTask(retrieverName, fileRetrieverExecutor, Collections.emptyList(),
+						() -> new SimpleFileRetrieverExecutor(Collections.singletonMap(retrieverName, this.fileRetrievers.get(retrieverName)), this.fileRetrieverFilter).call());
+			}
+		}
+		for (String retrieverName : this.uniprotFileRetrievers.keySet())
+		{
+			if (this.fileRetrieverFilter.contains(retrieverName))
+			{
+				scheduler.addTask(retrieverName, uniprotFileRetrieverExecutor, Collections.emptyList(),
+						() -> new UniprotFileRetrieverExecutor(Collections.singletonMap(retrieverName, this.uniprotFileRetrievers.get(retrieverName)), this.fileRetrieverFilter, numUniprotDownloadThreads, this.objectCache).call());
+			}
+		}
+		if (this.fileRetrieverFilter.contains(KEGG_RETRIEVER))
+		{
+			scheduler.addTask(KEGG_RETRIEVER, fileRetrieverExecutor, Arrays.asList(UNIPROT_TO_KEGG_RETRIEVER),
+					() -> new KeggFileRetrieverExecutor(this.fileRetrievers, this.uniprotFileRetrievers, this.fileRetrieverFilter, this.objectCache).call());
+		}
+		if (this.fileRetrieverFilter.contains(ENSEMBL_RETRIEVER))
+		{
+			scheduler.addTask(ENSEMBL_RETRIEVER, fileRetrieverExecutor, Collections.emptyList(), () -> {
+				// Reference creators could be using this.dbAdapter at the same time, so this needs its own adaptor.
+				MySQLAdaptor adapter = AddLinks.getAdaptorForThread(this.dbAdapter, threadAdapters);
+				new EnsemblFileRetrieverExecutor(this.ensemblFileRetrievers, this.ensemblFileRetrieversNonCore, this.fileRetrieverFilter, this.ensemblBatchLookup, this.objectCache, adapter).call();
+			});
+		}
+	}
+
+	/**
+	 * Gets the names of the file retriever tasks that download the files a file processor needs. A retriever downloads a processor's file if its
+	 * fetch destination is the processor's path (or is in the processor's directory), or matches the processor's file glob.
+	 * A retriever whose fetch destination can't be read could be downloading anything, so every processor depends on it. If none of the
+	 * configured retrievers match, the processor could need any of them, so it depends on all of them.
+	 * @param fileProcessor - the file processor.
+	 * @return The names of the file retriever tasks.
+	 */
+	private List<String> getFileRetrieverDependencies(FileProcessor<?> fileProcessor)
+	{
+		Map<String, List<String>> destinationsByRetrieverTask = new HashMap<>();
+		this.fileRetrievers.forEach((name, retriever) -> destinationsByRetrieverTask.computeIfAbsent(name, k -> new ArrayList<>()).add(AddLinks.getFetchDestination(retriever)));
+		this.uniprotFileRetrievers.forEach((name, retriever) -> destinationsByRetrieverTask.computeIfAbsent(name, k -> new ArrayList<>()).add(retriever.getFetchDestination()));
+		List<String> ensemblDestinations = destinationsByRetrieverTask.computeIfAbsent(ENSEMBL_RETRIEVER, k -> new ArrayList<>());
+		this.ensemblFileRetrievers.values().forEach(retriever -> ensemblDestinations.add(retriever.getFetchDestination()));
+		this.ensemblFileRetrieversNonCore.values().forEach(retriever -> ensemblDestinations.add(retriever.getFetchDestination()));
+		if (this.ensemblBatchLookup != null)
+		{
+			ensemblDestinations.add(this.ensemblBatchLookup.getFetchDestination());
+		}
+
+		Path processorPath = fileProcessor.getPath() != null ? fileProcessor.getPath().toAbsolutePath().normalize() : null;
+		PathMatcher globMatcher = fileProcessor instanceof GlobbedFileProcessor && ((GlobbedFileProcessor<?>) fileProcessor).getFileGlob() != null
+									? FileSystems.getDefault().getPathMatcher("glob:" + ((GlobbedFileProcessor<?>) fileProcessor).getFileGlob())
+									: null;
+		List<String> dependencies = destinationsByRetrieverTask.entrySet().stream().filter(entry -> entry.getValue().stream().filter(Objects::nonNull).anyMatch(destination -> {
+			Path destinationPath = Paths.get(destination).toAbsolutePath().normalize();
+			return destinationPath.equals(processorPath)
+					|| (globMatcher != null ? globMatcher.matches(destinationPath) : processorPath != null && destinationPath.startsWith(processorPath));
+		})).map(Entry::getKey).sorted().collect(Collectors.toList());
+
+		if (dependencies.isEmpty())
+		{
+			logger.debug("No file retriever downloads the files for {}, so it will wait for all of them.", fileProcessor.getPath());
+			return new ArrayList<>(destinationsByRetrieverTask.keySet());
+		}
+		destinationsByRetrieverTask.entrySet().stream().filter(entry -> entry.getValue().contains(null) && !dependencies.contains(entry.getKey()))
+										.forEach(entry -> dependencies.add(entry.getKey()));
+		return dependencies;
+	}
+
+	/**
+	 * Gets a file retriever's fetch destination. Not every FileRetriever has a getter for it, so the retriever is read as a bean,
+	 * the same way that Spring set the destination.
+	 * @param retriever - the file retriever.
+	 * @return The fetch destination, or null if it can't be read.
+	 */
+	private static String getFetchDestination(Object retriever)
+	{
+		BeanWrapper beanWrapper = new BeanWrapperImpl(retriever);
+		return beanWrapper.isReadableProperty("fetchDestination") ? (String) beanWrapper.getPropertyValue("fetchDestination") : null;
+	}
+
+	/**
+	 * Gets a database adaptor for the current thread, creating it if the thread does not have one yet.
+	 * The adaptor does not cache instances: an instance could be changed by a reference creator running on another thread (with another adaptor),
+	 * and a cached copy of it would not see that change.
+	 * @param adapter - the adaptor whose connection details will be used.
+	 * @param adapterPool - adaptors that have already been created, keyed by thread ID.
+	 * @return The adaptor for the current thread.
+	 */
+	private static MySQLAdaptor getAdaptorForThread(MySQLAdaptor adapter, Map<Long, MySQLAdaptor> adapterPool)
+	{
+		return adapterPool.computeIfAbsent(Thread.currentThread().getId(), threadID -> {
+			logger.debug("Creating new SQL Adaptor for thread {}", threadID);
+			try
+			{
+				MySQLAdaptor localAdapter = new MySQLAdaptor(adapter.getDBHost(), adapter.getDBName(), adapter.getDBUser(), adapter.getDBPwd(), adapter.getDBPort());
+				localAdapter.setUseCache(false);
+				return localAdapter;
+			}
+			catch (SQLException e)
+			{
+				e.printStackTrace();
+				throw new Error(e);
+			}
+		});
+	}
+
+	/**
+	 * Logs the size of a file processor's mapping.
+	 * @param fileProcessorName - the name of the file processor.
+	 * @param mapping - the mapping it produced.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void logMappingStats(String fileProcessorName, Map<String, ?> mapping)
+	{
+		if (mapping == null)
+		{
+			logger.warn("File processor {} did not produce a mapping.", fileProcessorName);
+			return;
+		}
+		logger.info("DB Key: {} has {} submaps.", fileProcessorName, mapping.keySet().size());
+		if (!fileProcessorName.equals("HmdbMetabolitesFileProcessor")) // No need to print every single HMDB Metabolites ID.
+		{
+			for (String subk : mapping.keySet())
+			{
+				if (mapping.get(subk) instanceof Map)
 				{
-					return false;
+					logger.info("    subkey: {} has {} subkeys", subk, ((Map<String, ?>)mapping.get(subk)).keySet().size() );
 				}
+			}
+		}
+	}
 
-			} ).map( m -> m ).findFirst();
-			if (this.referenceCreators.containsKey(refCreatorName))
+	/**
+	 * Gets the names of the file processors whose mappings are used by a reference creator.
+	 * @param refCreatorName - the name of the reference creator.
+	 * @return The names of the file processors, in the order they are in processorCreatorLink.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<String> getFileProcessorNames(String refCreatorName)
+	{
+		return this.processorCreatorLink.keySet().stream().filter(k -> {
+			if (this.processorCreatorLink.get(k) instanceof String)
+			{
+				return this.processorCreatorLink.get(k).equals(refCreatorName);
+			}
+			else if (this.processorCreatorLink.get(k) instanceof List)
+			{
+				List<String> sublist = ((List<String>)this.processorCreatorLink.get(k));
+				return sublist.stream().anyMatch( element -> element.equals(refCreatorName) );
+			}
+			else // if not a list and not a string, something is wrong.
 			{
-				@SuppressWarnings("rawtypes")
-				BatchReferenceCreator refCreator = this.referenceCreators.get(refCreatorName);
+				return false;
+			}
+		} ).collect(Collectors.toList());
+	}
 
-				if (refCreator instanceof NCBIGeneBasedReferenceCreator)
+	/**
+	 * Gets the names of the tasks that must finish before a reference creator can run: the file processors that are linked to it,
+	 * the CTD file processor for NCBI Gene-based reference creators, and the extra ENSEMBL processing for ENSEMBL-mapped reference creators.
+	 * @param refCreatorName - the name of the reference creator.
+	 * @return The names of the tasks.
+	 */
+	private List<String> getReferenceCreatorDependencies(String refCreatorName)
+	{
+		List<String> dependencies = new ArrayList<>(this.getFileProcessorNames(refCreatorName));
+		BatchReferenceCreator<?> refCreator = this.referenceCreators.containsKey(refCreatorName)
+												? this.referenceCreators.get(refCreatorName)
+												: this.uniprotReferenceCreators.get(refCreatorName);
+		if (refCreator instanceof NCBIGeneBasedReferenceCreator)
+		{
+			dependencies.add(CTD_PROCESSOR);
+		}
+		if (refCreator instanceof ENSMappedIdentifiersReferenceCreator)
+		{
+			dependencies.add(ENSEMBL);
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Checks if two reference creators must not run at the same time. They conflict if they could add references to the same objects
+	 * (they use the same attribute of the same class, or of classes where one is a subclass of the other), or if they (or their sub-creators)
+	 * create references in the same ReferenceDatabase. All KEGG and all ENSEMBL ReferenceDatabases are treated as one, since the
+	 * species-specific databases are only known at run-time.
+	 * @param name1 - the name of a task.
+	 * @param name2 - the name of another task.
+	 * @return true if both tasks are reference creators, and they conflict.
+	 */
+	private boolean referenceCreatorsConflict(String name1, String name2)
+	{
+		List<SimpleReferenceCreator<?>> creators1 = this.getReferenceCreatorAndSubCreators(name1);
+		List<SimpleReferenceCreator<?>> creators2 = this.getReferenceCreatorAndSubCreators(name2);
+		for (SimpleReferenceCreator<?> creator1 : creators1)
+		{
+			for (SimpleReferenceCreator<?> creator2 : creators2)
+			{
+				if (AddLinks.targetRefDBGroup(creator1).equals(AddLinks.targetRefDBGroup(creator2)))
 				{
-					((NCBIGeneBasedReferenceCreator) refCreator).setCTDGenes( (Map<String, String>) dbMappings.get(CTD_PROCESSOR) );
+					return true;
 				}
+				if (creator1.getReferringAttributeName().equals(creator2.getReferringAttributeName()))
+				{
+					SchemaClass class1 = this.dbAdapter.getSchema().getClassByName(creator1.getClassReferringToRefName());
+					SchemaClass class2 = this.dbAdapter.getSchema().getClassByName(creator2.getClassReferringToRefName());
+					if (class1 == null || class2 == null || class1.isa(class2.getName()) || class2.isa(class1.getName()))
+					{
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param name - the name of a task.
+	 * @return The reference creator with that name and its sub-creators, or an empty list if the task is not a reference creator.
+	 */
+	private List<SimpleReferenceCreator<?>> getReferenceCreatorAndSubCreators(String name)
+	{
+		List<SimpleReferenceCreator<?>> creators = new ArrayList<>();
+		BatchReferenceCreator<?> refCreator = this.referenceCreators.containsKey(name)
+												? this.referenceCreators.get(name)
+												: this.uniprotReferenceCreators.get(name);
+		if (refCreator instanceof SimpleReferenceCreator)
+		{
+			creators.add((SimpleReferenceCreator<?>) refCreator);
+		}
+		if (refCreator instanceof NCBIGeneBasedReferenceCreator)
+		{
+			creators.addAll(((NCBIGeneBasedReferenceCreator) refCreator).getSubCreators());
+		}
+		return creators;
+	}
+
+	/**
+	 * @param refCreator - a reference creator.
+	 * @return The name of the reference creator's target ReferenceDatabase, or KEGG or ENSEMBL for any KEGG or ENSEMBL ReferenceDatabase.
+	 */
+	private static String targetRefDBGroup(BatchReferenceCreator<?> refCreator)
+	{
+		String targetRefDB = refCreator.getTargetRefDB().toUpperCase();
+		if (targetRefDB.contains(KEGG))
+		{
+			return KEGG;
+		}
+		else if (targetRefDB.contains(ENSEMBL))
+		{
+			return ENSEMBL;
+		}
+		return targetRefDB;
+	}
+
+	/**
+	 * Executes a reference creator.
+	 * @param refCreatorName - the name of the reference creator.
+	 * @param personID - the ID of the Person entity which these new references will be attributed to.
+	 * @param dbMappings - the mappings produced by the file processors, keyed by the name of the file processor.
+	 * @param adapter - the database adaptor that the reference creator will use.
+	 * @return A future for the reference creator's lines in the link-check report.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private CompletableFuture<String> executeReferenceCreator(String refCreatorName, long personID, Map<String, Map<String, ?>> dbMappings, MySQLAdaptor adapter) throws Exception
+	{
+		CompletableFuture<String> linkCheckLines = CompletableFuture.completedFuture("");
+		logger.info("Executing reference creator: {}", refCreatorName);
+		List<GKInstance> sourceReferences = new ArrayList<>();
+		// Try to get the processor name, except for E
+		Optional<?> fileProcessorName = this.getFileProcessorNames(refCreatorName).stream().findFirst();
+		if (this.referenceCreators.containsKey(refCreatorName))
+		{
+			@SuppressWarnings("rawtypes")
+			BatchReferenceCreator refCreator = this.referenceCreators.get(refCreatorName);
+			if (refCreator instanceof SimpleReferenceCreator)
+			{
+				((SimpleReferenceCreator<?>) refCreator).setAdapter(adapter);
+			}
 
-				if (refCreator instanceof ENSMappedIdentifiersReferenceCreator)
+			if (refCreator instanceof NCBIGeneBasedReferenceCreator)
+			{
+				((NCBIGeneBasedReferenceCreator) refCreator).setCTDGenes( (Map<String, String>) dbMappings.get(CTD_PROCESSOR) );
+			}
+
+			if (refCreator instanceof ENSMappedIdentifiersReferenceCreator)
+			{
+				createEnsemblReferences(personID, dbMappings, refCreator);
+			}
+			else
+			{
+				// Rhea reference creator is special - its source references is a simple list of all Reactions.
+				if (refCreator instanceof RHEAReferenceCreator)
+				{
+					sourceReferences = this.objectCache.getReactionsByID().values().stream().collect(Collectors.toList());
+				}
+				else if (refCreator instanceof ComplexPortalReferenceCreator)
+				{
+					// The ComplexPortalReferenceCreator does not *need* a list of source references since the mapping it gets is sufficient.
+					sourceReferences = new ArrayList<>();
+				}
+				else if ( refCreator instanceof COSMICReferenceCreator)
+				{
+					// COSMIC should use ALL human ReferenceGeneProduct, regarless of source database.
+					sourceReferences = this.objectCache.getBySpecies(HUMAN_SPECIES_ID, ReactomeJavaConstants.ReferenceGeneProduct);
+				}
+				else if ( refCreator instanceof TargetPathogenReferenceCreator && refCreator.getSourceRefDB().equals(REACTOME))
 				{
-					createEnsemblReferences(personID, dbMappings, refCreator);
+					// The list of source references is a list of reactions. TargetPathogenReferenceCreator does
+					// not need special handling if it's *not* creating references for reactions.
+					// Creating ReferenceGeneProducts from UniProt identfiers works like other ReferenceCreators...
+					//
+					// The reason this code is here is because the database does not contain Reactome as a
+					// ReferenceDatabase so looking for Reactions in the cache whose source is Reactome will fail.
+					// And even if Reactome *was* a ReferenceDatabase, somewhere there would need to be code to check
+					// the stableIdentifier attribute (via DatabaseObject) instead of the regular identifier attribute
+					// attached to the Reaction.
+					sourceReferences = this.objectCache.getReactionsByID().values().stream().collect(Collectors.toList());
 				}
 				else
 				{
-					// Rhea reference creator is special - its source references is a simple list of all Reactions.
-					if (refCreator instanceof RHEAReferenceCreator)
-					{
-						sourceReferences = this.objectCache.getReactionsByID().values().stream().collect(Collectors.toList());
-					}
-					else if (refCreator instanceof ComplexPortalReferenceCreator)
-					{
-						// The ComplexPortalReferenceCreator does not *need* a list of source references since the mapping it gets is sufficient.
-						sourceReferences = new ArrayList<>();
-					}
-					else if ( refCreator instanceof COSMICReferenceCreator)
-					{
-						// COSMIC should use ALL human ReferenceGeneProduct, regarless of source database.
-						sourceReferences = this.objectCache.getBySpecies(HUMAN_SPECIES_ID, ReactomeJavaConstants.ReferenceGeneProduct);
-					}
-					else if ( refCreator instanceof TargetPathogenReferenceCreator && refCreator.getSourceRefDB().equals(REACTOME))
-					{
-						// The list of source references is a list of reactions. TargetPathogenReferenceCreator does
-						// not need special handling if it's *not* creating references for reactions.
-						// Creating ReferenceGeneProducts from UniProt identfiers works like other ReferenceCreators...
-						//
-						// The reason this code is here is because the database does not contain Reactome as a
-						// ReferenceDatabase so looking for Reactions in the cache whose source is Reactome will fail.
-						// And even if Reactome *was* a ReferenceDatabase, somewhere there would need to be code to check
-						// the stableIdentifier attribute (via DatabaseObject) instead of the regular identifier attribute
-						// attached to the Reaction.
-						sourceReferences = this.objectCache.getReactionsByID().values().stream().collect(Collectors.toList());
-					}
-					else
-					{
-						sourceReferences = this.getIdentifiersList(refCreator.getSourceRefDB(), refCreator.getClassReferringToRefName());
-					}
-					logger.debug("{} source references", sourceReferences.size());
-					if (refCreator instanceof OneToOneReferenceCreator)
-					{
-						// OneToOne Reference Creators do not take an input of mappings. They just create a 1:1 mapping from the source references.
-						refCreator.createIdentifiers(personID, null, sourceReferences);
-					}
-					else
+					sourceReferences = this.getIdentifiersList(refCreator.getSourceRefDB(), refCreator.getClassReferringToRefName());
+				}
+				logger.debug("{} source references", sourceReferences.size());
+				if (refCreator instanceof OneToOneReferenceCreator)
+				{
+					// OneToOne Reference Creators do not take an input of mappings. They just create a 1:1 mapping from the source references.
+					refCreator.createIdentifiers(personID, null, sourceReferences);
+				}
+				else
+				{
+					if (fileProcessorName.isPresent())
 					{
-						if (fileProcessorName.isPresent())
+						if (fileProcessorName.get() instanceof String)
 						{
-							if (fileProcessorName.get() instanceof String)
-							{
-								refCreator.createIdentifiers(personID, (Map<String, ?>) dbMappings.get(fileProcessorName.get()), sourceReferences);
-							}
-							// For all the extra ZINC references, they all use the same file processor so it's a string-to-list mapping.
-							else if (fileProcessorName.get() instanceof List<?>)
-							{
-								for (String fpName : (List<String>)fileProcessorName.get())
-								{
-									refCreator.createIdentifiers(personID, (Map<String, ?>) dbMappings.get(fpName), sourceReferences);
-								}
-							}
+							refCreator.createIdentifiers(personID, (Map<String, ?>) dbMappings.get(fileProcessorName.get()), sourceReferences);
 						}
-						else
+						// For all the extra ZINC references, they all use the same file processor so it's a string-to-list mapping.
+						else if (fileProcessorName.get() instanceof List<?>)
 						{
-							logger.warn("Reference Creator name \"{}\" could not be found it mapping between file processors and reference creators, so it will not be executed and references will not be created.", refCreatorName);
+							for (String fpName : (List<String>)fileProcessorName.get())
+							{
+								refCreator.createIdentifiers(personID, (Map<String, ?>) dbMappings.get(fpName), sourceReferences);
+							}
 						}
 					}
-				}
-				if (refCreator instanceof NCBIGeneBasedReferenceCreator) // remember this will execute for subclasses too...
-				{
-					for (EntrezGeneBasedReferenceCreator subCreator : ((NCBIGeneBasedReferenceCreator)refCreator).getSubCreators())
+					else
 					{
-						String line = checkLinksForRefCreator(subCreator);
-						Files.write(Paths.get(linkCheckReportName), line.getBytes(), StandardOpenOption.APPEND);
+						logger.warn("Reference Creator name \"{}\" could not be found it mapping between file processors and reference creators, so it will not be executed and references will not be created.", refCreatorName);
 					}
 				}
-				// Now check the links for the reference creator.
-				String line = checkLinksForRefCreator(refCreator);
-				Files.write(Paths.get(linkCheckReportName), line.getBytes(), StandardOpenOption.APPEND);
 			}
-			// There is a separate list of reference creators to create UniProt references.
-			else if (this.uniprotReferenceCreators.containsKey(refCreatorName))
+			// Make sure everything has been written before checking links.
+			refCreator.flushPendingReferences();
+			if (refCreator instanceof NCBIGeneBasedReferenceCreator) // remember this will execute for subclasses too...
 			{
-				UPMappedIdentifiersReferenceCreator refCreator = this.uniprotReferenceCreators.get(refCreatorName);
-				refCreator.setCTDGenes( (Map<String, String>) dbMappings.get(CTD_PROCESSOR) );
-
-				sourceReferences = this.getIdentifiersList(refCreator.getSourceRefDB(), refCreator.getClassReferringToRefName());
-				refCreator.createIdentifiers(personID, (Map<String, Map<String, List<String>>>) dbMappings.get(fileProcessorName.get()), sourceReferences);
-				// Now check the links for the reference creator (and sub-creators).
-				for (EntrezGeneBasedReferenceCreator subCreator : refCreator.getSubCreators())
+				for (EntrezGeneBasedReferenceCreator subCreator : ((NCBIGeneBasedReferenceCreator)refCreator).getSubCreators())
 				{
-					String line = checkLinksForRefCreator(subCreator);
-					Files.write(Paths.get(linkCheckReportName), line.getBytes(), StandardOpenOption.APPEND);
+					linkCheckLines = linkCheckLines.thenCombine(checkLinksForRefCreator(subCreator), String::concat);
 				}
-				String line = checkLinksForRefCreator(refCreator);
-				Files.write(Paths.get(linkCheckReportName), line.getBytes(), StandardOpenOption.APPEND);
 			}
-			logger.info("Completed reference creator: {}", refCreatorName);
+			// Now check the links for the reference creator.
+			linkCheckLines = linkCheckLines.thenCombine(checkLinksForRefCreator(refCreator), String::concat);
+		}
+		// There is a separate list of reference creators to create UniProt references.
+		else if (this.uniprotReferenceCreators.containsKey(refCreatorName))
+		{
+			UPMappedIdentifiersReferenceCreator refCreator = this.uniprotReferenceCreators.get(refCreatorName);
+			refCreator.setAdapter(adapter);
+			refCreator.setCTDGenes( (Map<String, String>) dbMappings.get(CTD_PROCESSOR) );
+
+			sourceReferences = this.getIdentifiersList(refCreator.getSourceRefDB(), refCreator.getClassReferringToRefName());
+			refCreator.createIdentifiers(personID, (Map<String, Map<String, List<String>>>) dbMappings.get(fileProcessorName.get()), sourceReferences);
+			refCreator.flushPendingReferences();
+			// Now check the links for the reference creator (and sub-creators).
+			for (EntrezGeneBasedReferenceCreator subCreator : refCreator.getSubCreators())
+			{
+				linkCheckLines = linkCheckLines.thenCombine(checkLinksForRefCreator(subCreator), String::concat);
+			}
+			linkCheckLines = linkCheckLines.thenCombine(checkLinksForRefCreator(refCreator), String::concat);
 		}
+		return linkCheckLines;
+	}
+
+	/**
+	 * Appends a line to the link-check report, once the line is ready.
+	 * @param previousLines A future that completes when the previous lines have been written.
+	 * @param line A future for the line to append.
+	 * @param linkCheckReportName The name of the link-check report file.
+	 * @return A future that completes when the line has been written.
+	 */
+	private static CompletableFuture<Void> appendToLinkCheckReport(CompletableFuture<Void> previousLines, CompletableFuture<String> line, String linkCheckReportName)
+	{
+		return previousLines.thenCombine(line, (previous, lineToWrite) -> {
+			try
+			{
+				Files.write(Paths.get(linkCheckReportName), lineToWrite.getBytes(), StandardOpenOption.APPEND);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				throw new UncheckedIOException(e);
+			}
+			return null;
+		});
 	}
 
 	/**
 	 * @param refCreator
-	 * @return
+	 * @return A future for the reference creator's lines in the link-check report.
 	 */
-	private String checkLinksForRefCreator(BatchReferenceCreator<?> refCreator)
+	private CompletableFuture<String> checkLinksForRefCreator(BatchReferenceCreator<?> refCreator)
 	{
 		String targetRefDB = refCreator.getTargetRefDB();
-		String line = "";
+		CompletableFuture<String> line = CompletableFuture.completedFuture("");
 		if (!targetRefDB.toUpperCase().contains(KEGG) && !targetRefDB.toUpperCase().contains(ENSEMBL))
 		{
 			Optional<GKInstance> refDBInst = LinksToCheckCache.getCache().keySet().stream()
@@ -570,7 +977,7 @@ public class AddLinks
 			}
 			else
 			{
-				line = targetRefDB + "\tN/A\tN/A\n";
+				line = CompletableFuture.completedFuture(targetRefDB + "\tN/A\tN/A\n");
 			}
 			return line;
 		}
@@ -588,19 +995,17 @@ public class AddLinks
 	/**
 	 * Check links for ReferenceDatabase(s) whose name contains a substring
 	 * @param substringInName The substring to match ReferenceDatabase names against.
-	 * @return
+	 * @return A future for the ReferenceDatabases' lines in the link-check report.
 	 */
-	private String checkLinksForRefDBWithNameMatching(String substringInName)
+	private CompletableFuture<String> checkLinksForRefDBWithNameMatching(String substringInName)
 	{
-		String line;
-		StringBuilder sb = new StringBuilder();
+		CompletableFuture<String> lines = CompletableFuture.completedFuture("");
 		Set<GKInstance> refDBInsts = LinksToCheckCache.getCache().keySet().stream().filter(inst -> inst.getDisplayName().toUpperCase().contains(substringInName)).collect(Collectors.toSet());
 		for (GKInstance refDB : refDBInsts)
 		{
-			sb.append(checkLinksForRefDB(new LinkCheckManager(), refDB));
+			lines = lines.thenCombine(checkLinksForRefDB(new LinkCheckManager(), refDB), String::concat);
 		}
-		line = sb.toString();
-		return line;
+		return lines;
 	}
 
 	/**
@@ -839,23 +1244,6 @@ public class AddLinks
 		return updatedAccessURL;
 	}
 
-	/**
-	 * Execute the file processors.
-	 * @return Mappings, keyed by the *name* of the file processor. The values of this mapping are Map<String,?> - see the specific processor to know what it returns for "?".
-	 */
-	private Map<String, Map<String, ?>> executeFileProcessors()
-	{
-		Map<String,Map<String,?>> dbMappings = new HashMap<>();
-		logger.info("{} file processors to execute.", this.fileProcessorFilter.size());
-		this.fileProcessors.keySet().stream().filter(k -> this.fileProcessorFilter.contains(k)).forEach( k ->
-			{
-				logger.info("Executing file processor: {}", k);
-				dbMappings.put(k, this.fileProcessors.get(k).getIdMappingsFromFile() );
-			}
-		);
-		return dbMappings;
-	}
-
 	public void setObjectCache(ReferenceObjectCache objectCache)
 	{
 		this.objectCache = objectCache;
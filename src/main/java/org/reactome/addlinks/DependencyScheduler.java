@@ -0,0 +1,190 @@
+package org.reactome.addlinks;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiPredicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs named tasks, each one as soon as all of the tasks it depends on have finished.
+ * <br/>
+ * Each task runs on the executor it was added with, so different kinds of tasks can be given different numbers of threads.
+ * Two tasks that conflict (according to the test given to the constructor) will never run at the same time. When more than one task
+ * is ready to run, they are started in the order in which they were added.
+ * <br/>
+ * If a task fails, no more tasks are started, and run() throws the failure once the tasks that were already running have finished.
+ */
+public class DependencyScheduler
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	/**
+	 * A unit of work.
+	 */
+	@FunctionalInterface
+	public interface Task
+	{
+		public void run() throws Exception;
+	}
+
+	private static class ScheduledTask
+	{
+		private final String name;
+		private final ExecutorService executor;
+		private final Set<String> dependencies;
+		private final Task task;
+
+		ScheduledTask(String name, ExecutorService executor, Collection<String> dependencies, Task task)
+		{
+			this.name = name;
+			this.executor = executor;
+			this.dependencies = new LinkedHashSet<>(dependencies);
+			this.task = task;
+		}
+	}
+
+	private final BiPredicate<String, String> conflicts;
+	private final Map<String, ScheduledTask> waitingTasks = new LinkedHashMap<>();
+	private final Set<String> runningTasks = new HashSet<>();
+	private final Set<String> finishedTasks = new HashSet<>();
+	private Throwable failure;
+
+	/**
+	 * Creates a scheduler whose tasks can all run at the same time (as long as their dependencies allow it).
+	 */
+	public DependencyScheduler()
+	{
+		this((name1, name2) -> false);
+	}
+
+	/**
+	 * @param conflicts - tests if two tasks (given by name) must not run at the same time.
+	 */
+	public DependencyScheduler(BiPredicate<String, String> conflicts)
+	{
+		this.conflicts = conflicts;
+	}
+
+	/**
+	 * Adds a task.
+	 * @param name - the name of the task. This must be unique.
+	 * @param executor - the executor that the task will run on.
+	 * @param dependencies - the names of the tasks that must finish before this task can start. Names that are not the names of tasks in this scheduler are ignored,
+	 * so that a task does not need to know which of the tasks it could depend on have been filtered out.
+	 * @param task - the task.
+	 */
+	public synchronized void addTask(String name, ExecutorService executor, Collection<String> dependencies, Task task)
+	{
+		if (this.waitingTasks.containsKey(name) || this.runningTasks.contains(name) || this.finishedTasks.contains(name))
+		{
+			throw new IllegalArgumentException("There is already a task named \"" + name + "\"");
+		}
+		this.waitingTasks.put(name, new ScheduledTask(name, executor, dependencies, task));
+	}
+
+	/**
+	 * Runs all of the tasks, and waits for them to finish.
+	 * @throws Exception - the first exception that was thrown by a task. Errors are rethrown as they are.
+	 * @throws IllegalStateException if the dependencies between the tasks contain a cycle.
+	 */
+	public synchronized void run() throws Exception
+	{
+		for (ScheduledTask scheduledTask : this.waitingTasks.values())
+		{
+			for (Iterator<String> dependencies = scheduledTask.dependencies.iterator(); dependencies.hasNext();)
+			{
+				String dependency = dependencies.next();
+				if (!this.waitingTasks.containsKey(dependency) && !this.finishedTasks.contains(dependency))
+				{
+					logger.debug("Task \"{}\" depends on \"{}\", which is not a task that will run, so that dependency is ignored.", scheduledTask.name, dependency);
+					dependencies.remove();
+				}
+			}
+		}
+		this.startReadyTasks();
+		while ((!this.waitingTasks.isEmpty() && this.failure == null) || !this.runningTasks.isEmpty())
+		{
+			if (this.runningTasks.isEmpty())
+			{
+				// Nothing is running, so nothing will ever finish and let the waiting tasks start.
+				throw new IllegalStateException("Tasks " + this.waitingTasks.keySet() + " can never run because their dependencies contain a cycle.");
+			}
+			this.wait();
+		}
+		if (this.failure instanceof Exception)
+		{
+			throw (Exception) this.failure;
+		}
+		else if (this.failure instanceof Error)
+		{
+			throw (Error) this.failure;
+		}
+	}
+
+	/**
+	 * Starts every waiting task whose dependencies have finished, and which does not conflict with a task that is running.
+	 */
+	private void startReadyTasks()
+	{
+		for (Iterator<ScheduledTask> tasks = this.waitingTasks.values().iterator(); tasks.hasNext() && this.failure == null;)
+		{
+			ScheduledTask scheduledTask = tasks.next();
+			if (this.finishedTasks.containsAll(scheduledTask.dependencies)
+				&& this.runningTasks.stream().noneMatch(runningTask -> this.conflicts.test(scheduledTask.name, runningTask)))
+			{
+				tasks.remove();
+				this.runningTasks.add(scheduledTask.name);
+				logger.debug("Starting task \"{}\"", scheduledTask.name);
+				try
+				{
+					scheduledTask.executor.execute(() -> {
+						Throwable taskFailure = null;
+						try
+						{
+							scheduledTask.task.run();
+						}
+						catch (Throwable t)
+						{
+							taskFailure = t;
+						}
+						this.taskFinished(scheduledTask.name, taskFailure);
+					});
+				}
+				catch (RuntimeException e)
+				{
+					// The executor could not accept the task (e.g. it has been shut down).
+					this.runningTasks.remove(scheduledTask.name);
+					this.failure = e;
+				}
+			}
+		}
+	}
+
+	private synchronized void taskFinished(String name, Throwable taskFailure)
+	{
+		this.runningTasks.remove(name);
+		if (taskFailure == null)
+		{
+			logger.debug("Task \"{}\" has finished", name);
+			this.finishedTasks.add(name);
+			this.startReadyTasks();
+		}
+		else
+		{
+			logger.error("Task \"{}\" failed: {}", name, taskFailure.getMessage());
+			if (this.failure == null)
+			{
+				this.failure = taskFailure;
+			}
+		}
+		this.notifyAll();
+	}
+}
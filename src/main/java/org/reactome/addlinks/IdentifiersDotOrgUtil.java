@@ -12,11 +12,10 @@ import javax.json.JsonReader;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.reactome.addlinks.http.client.SharedHttpClient;
 
 /**
  * Utility methods for querying the service endpoints at http://identifiers.org
@@ -60,8 +59,7 @@ public class IdentifiersDotOrgUtil
 		try
 		{
 			HttpGet get = new HttpGet(new URI(url));
-			try(CloseableHttpClient client = HttpClients.createDefault();
-				CloseableHttpResponse response = client.execute(get))
+			try(CloseableHttpResponse response = SharedHttpClient.getClient().execute(get))
 			{
 				int statusCode = response.getStatusLine().getStatusCode();
 				String responseString = EntityUtils.toString(response.getEntity());
@@ -1,25 +1,39 @@
 package org.reactome.addlinks.dataretrieval;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.time.Duration;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.gk.persistence.MySQLAdaptor;
+import org.reactome.addlinks.http.client.HostRateLimiter;
+import org.reactome.addlinks.http.client.SharedHttpClient;
 import org.reactome.release.common.dataretrieval.FileRetriever;
 
 /**
@@ -37,7 +51,6 @@ public class KEGGFileRetriever extends FileRetriever
 	// 4) Extract other xrefs from KEGG entry? Ask Robin. Answer: No.
 	// 5) KEGG for non-humans? ask Robin. Answer: Yes.
 
-	private static final int sleepIncrSeconds = 5;
 	private MySQLAdaptor adapter;
 
 	//private static final Logger logger = LogManager.getLogger();
@@ -46,6 +59,12 @@ public class KEGGFileRetriever extends FileRetriever
 	// This file will have the KEGG identifiers that we will look up.
 	private List<Path> uniprotToKEGGFiles;
 
+	// KEGG only accepts 10 identifiers at a time.
+	private static final int BATCH_SIZE = 10;
+	private static int maxConcurrentRequests = 3;
+	// KEGG asks for no more than 3 requests per second.
+	private static double maxRequestsPerSecond = 3.0;
+
 	public KEGGFileRetriever()
 	{
 		super(null);
@@ -56,143 +75,309 @@ public class KEGGFileRetriever extends FileRetriever
 		super(retrieverName);
 	}
 
+	/**
+	 * If an earlier download to this retriever's destination was interrupted, or could not get all of its entries, the download is continued
+	 * even if the destination file is not older than maxAge. Otherwise, this is the same as FileRetriever.fetchData.
+	 */
+	@Override
+	public void fetchData() throws Exception
+	{
+		Path checkpointPath = getCheckpointPath(getOutputFilePath());
+		if (Files.exists(checkpointPath))
+		{
+			this.logger.info("Found an unfinished KEGG download ({}), continuing it.", checkpointPath);
+			this.downloadData();
+		}
+		else
+		{
+			super.fetchData();
+		}
+	}
+
 	@Override
 	protected void downloadData() throws Exception
 	{
-		Random rand = new Random();
+		// All KEGG requests go through the same rate limiter, which backs off when KEGG responds with FORBIDDEN (which is what it does when it gets too many requests).
+		HostRateLimiter rateLimiter = HostRateLimiter.forURI(this.uri);
+		rateLimiter.setMaxRate(KEGGFileRetriever.maxRequestsPerSecond);
+		rateLimiter.setForbiddenMeansThrottled(true);
 		this.logger.debug("{} Uniprot-to-Kegg mapping files: {}", this.uniprotToKEGGFiles.size(), this.uniprotToKEGGFiles);
+
+		// All of the species' UniProt-to-KEGG files are downloaded to the same output file. Many UniProt identifiers can map to the same KEGG
+		// identifier, but each KEGG entry only needs to be downloaded once.
+		Set<String> keggIdentifierSet = new LinkedHashSet<>();
 		for (Path uniprot2kegg : this.uniprotToKEGGFiles)
 		{
 			// UniProt-to-KEGG files should be named like this: uniprot_mapping_Uniprot_To_KEGG.48887.2.txt
-			// We need to extract the species code from the file name, and then get its name from the ReferenceObject cache.
-			String[] parts = uniprot2kegg.getFileName().toString().split("\\.");
-			String speciesCode = parts[1];
-			this.logger.debug("Species code: {}", speciesCode);
-			//ReferenceObjectCache cache = new ReferenceObjectCache(this.adapter);
-			//String speciesName = cache.getSpeciesMappings().get(speciesCode).get(0);
-			// Get the KEGG species code:
-			//String keggSpeciesCode = KEGGSpeciesCache.getKEGGCode(speciesName);
-
+			this.logger.debug("Species code: {}", uniprot2kegg.getFileName().toString().split("\\.")[1]);
 			// The file has two columns: left is UniProt ID, right is KEGG ID.
-			// We want all the KEGG IDs, collected into a list.
-			List<String> keggIdentifiers = Files.lines(uniprot2kegg)
-												.filter(p -> !p.startsWith("From") && !p.trim().equals(""))
-												.map( line -> Arrays.asList(line.split("\t")).get(1) )
-												.collect(Collectors.toList());
-			Path path = Paths.get(new URI("file://" + this.destination));
-			// Delete any old files (if they weren't cleaned up before) - they could be incomplete
-			// files if a previous KEGG File Retriever was interrupted, so let's just get rid of them
-			// and start fresh.
-			try
-			{
-				if (Files.exists(path))
-				{
-					Files.delete(path);
-				}
-				Files.createDirectories(path.getParent());
-				//Create the file.
-				Files.createFile(path);
-			}
-			catch (IOException e)
+			try (Stream<String> lines = Files.lines(uniprot2kegg))
 			{
-				e.printStackTrace();
-				throw new Error(e);
+				lines.filter(p -> !p.startsWith("From") && !p.trim().equals(""))
+					.map(line -> line.split("\t")[1])
+					.forEach(keggIdentifierSet::add);
 			}
+		}
+		List<String> keggIdentifiers = new ArrayList<>(keggIdentifierSet);
+		int numBatches = (keggIdentifiers.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+		this.logger.debug("Total # of identifiers to lookup: {} ({} requests)", keggIdentifiers.size(), numBatches);
+
+		Path path = getOutputFilePath();
+		Path checkpointPath = getCheckpointPath(path);
+		Files.createDirectories(path.getParent());
+		DownloadCheckpoint checkpoint = DownloadCheckpoint.read(checkpointPath);
+		long identifiersHash = keggIdentifiers.hashCode();
+		boolean resuming = checkpoint != null && checkpoint.identifiersHash == identifiersHash && Files.exists(path) && Files.size(path) >= checkpoint.bytesWritten;
+		if (!resuming)
+		{
+			// Any existing file could be incomplete or for different identifiers, so start fresh.
+			checkpoint = new DownloadCheckpoint(identifiersHash);
+		}
+		else
+		{
+			this.logger.info("Resuming KEGG download to {}: {} of {} requests were already completed.", path, checkpoint.completedBatches.cardinality(), numBatches);
+		}
 
-			this.logger.debug("Total # of identifiers to lookup: {}", keggIdentifiers.size());
-			// Could these API requests be made in parallel? Probably not be a good idea if we're already running multiple KEGGFileRetrievers in parallel.
-			// We seem to run into problems when we send too many simultaneous requests to KEGG.
-			for (int i = 0; i < keggIdentifiers.size(); i+=10)
+		// Several batches are requested at once (still within KEGG's rate limit). Each batch's entries are appended to the output as soon as they
+		// arrive: the order of the entries in the file does not matter, and the checkpoint records which batches have been written.
+		ExecutorService executor = Executors.newFixedThreadPool(KEGGFileRetriever.maxConcurrentRequests);
+		CompletionService<BatchResult> completionService = new ExecutorCompletionService<>(executor);
+		int numIncompleteBatches = 0;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+		{
+			// Anything after the last checkpoint was written by a batch that was not recorded as complete, so it will be downloaded again.
+			channel.truncate(checkpoint.bytesWritten);
+			channel.position(checkpoint.bytesWritten);
+			// The checkpoint exists until every batch has been downloaded, so an interrupted download is always continued by the next run.
+			checkpoint.write(checkpointPath);
+			Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 1 << 16));
+			int nextBatch = checkpoint.completedBatches.nextClearBit(0);
+			int numInFlight = 0;
+			while (nextBatch < numBatches || numInFlight > 0)
 			{
-				int sleepMillis = 0;
-				String identifiersForRequest = "";
-				// KEGG only accepts 10 identifiers at a time.
-				for (int j = i; j < i+10; j++ )
+				while (nextBatch < numBatches && numInFlight < KEGGFileRetriever.maxConcurrentRequests)
 				{
-					if (j < keggIdentifiers.size())
+					int batchIndex = nextBatch;
+					List<String> batch = keggIdentifiers.subList(batchIndex * BATCH_SIZE, Math.min((batchIndex + 1) * BATCH_SIZE, keggIdentifiers.size()));
+					completionService.submit(() -> this.requestEntries(batchIndex, batch, rateLimiter, path));
+					numInFlight++;
+					nextBatch = checkpoint.completedBatches.nextClearBit(nextBatch + 1);
+				}
+				BatchResult result = completionService.take().get();
+				numInFlight--;
+				if (result.complete)
+				{
+					if (result.entries != null)
 					{
-						// You don't need to worry about prefixing with KEGG species code - that comes from the UniProt-to-KEGG mapping.
-						identifiersForRequest += (keggIdentifiers.get(j) + "+");
+						writer.write(result.entries);
+						// Flush before recording the checkpoint, so that the checkpoint never gets ahead of the output file.
+						writer.flush();
 					}
+					checkpoint.completedBatches.set(result.batchIndex);
+					checkpoint.bytesWritten = channel.position();
+					checkpoint.write(checkpointPath);
 				}
-				int attemptCount = 0;
-				boolean done = false;
-				while(!done)
+				else
 				{
-					URIBuilder builder = new URIBuilder();
-					// Append the list of identifiers to the URL string
-					builder.setHost(this.uri.getHost())
-							.setPath(this.uri.getPath() + identifiersForRequest)
-							.setScheme(this.uri.getScheme());
-					HttpGet get = new HttpGet(builder.build());
-					this.logger.trace("URI: "+get.getURI());
-
-					try (CloseableHttpClient getClient = HttpClients.createDefault();
-							CloseableHttpResponse getResponse = getClient.execute(get);)
-					{
-						attemptCount++;
-						switch (getResponse.getStatusLine().getStatusCode())
-						{
+					numIncompleteBatches++;
+				}
+			}
+			writer.flush();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
 
-							case HttpStatus.SC_OK:
-								// Write the response to a file. Because we can only do 10 at a time, we need to constantly APPEND to the file.
-								// File creation should have been performed earlier, outside the loop.
-								String responseEntityString = EntityUtils.toString(getResponse.getEntity());
-
-								Files.write(path,responseEntityString.getBytes(), StandardOpenOption.APPEND);
-								if (!Files.isReadable(path))
-								{
-									throw new Exception("The new file "+ path +" is not readable!");
-								}
-								done = true;
-								break;
-							case HttpStatus.SC_NOT_FOUND:
-								this.logger.error("\"NOT FOUND\" response was received: {}, URL was: {}", getResponse.getStatusLine().toString(), get.getURI());
-								done = true;
-								break;
-							case HttpStatus.SC_BAD_REQUEST:
-								this.logger.error("\"BAD REQUEST\" response was received: {}, URL was: {}", getResponse.getStatusLine().toString(), get.getURI());
-								done = true;
-								break;
-							case HttpStatus.SC_FORBIDDEN:
-								this.logger.error("\"FORBIDDEN\" response was received: {}, URL was: {}", getResponse.getStatusLine().toString(), get.getURI());
-								// If we get a FORBIDDEN response, we might have some luck if we back off and wait for a little bit.
-								if (attemptCount <= this.numRetries)
-								{
-									done = false;
-									// increase the sleep amount by sleepIncrSeconds PLUS some random number of milliseconds (could be *up to* 2 seconds' worth),
-									// to ensure that if multiple requests are happening, they don't all go at the exact same moment.
-									sleepMillis += ((KEGGFileRetriever.sleepIncrSeconds * 1000) + rand.nextInt(2000));
-									this.logger.info("Backing off for {} seconds after {} attempts, then will try again.", Duration.ofMillis(sleepMillis).toString(), attemptCount);
-									Thread.sleep(sleepMillis);
-								}
-								else
-								{
-									// We've exhausted all attempts and still couldn't get data. Log an error telling the user they may
-									// need to retry for this particular file.
-									this.logger.warn("Reached max number of attempts ({}), will not try again. Downloaded data might not be complete,"
-												+ "you may need to re-run the Download portion of AddLinks just for KEGG, for this file: {}\t "
-												+ "Suggested remdiation: (re)move/rename the aforementioned file and then re-run the download process to force repopulation of the file.",
-												this.numRetries, path);
-									done = true;
-								}
-								break;
-							default:
-								this.logger.info("Unexpected response code: {} ; full response message: {}, URL was: {}", getResponse.getStatusLine().getStatusCode(), getResponse.getStatusLine().toString(), get.getURI());
-								done = true;
-								break;
-								// From KEGG response: use DEFINITION as name,
-								// For Identifier: use the KEGG name if available, otherwise use the KEGG ID.
-								// Actually, maybe ALWAYS include the "hsa:####" as an extra ReferenceEntity name.
+		if (numIncompleteBatches == 0)
+		{
+			Files.deleteIfExists(checkpointPath);
+		}
+		else
+		{
+			// Keep the checkpoint, so that the next run only requests the batches that are missing.
+			this.logger.warn("{} of {} KEGG requests failed, so downloaded data is not complete. Re-run the Download portion of AddLinks just for KEGG "
+							+ "to download only the missing entries to {}", numIncompleteBatches, numBatches, path);
+		}
+		if (!Files.isReadable(path))
+		{
+			throw new Exception("The new file "+ path +" is not readable!");
+		}
+	}
+
+	/**
+	 * Requests the KEGG entries for a batch of identifiers, retrying if KEGG throttles the request.
+	 * @return The result. It is complete if KEGG gave a definite answer (including NOT FOUND), and incomplete if the request should be tried again by a later run.
+	 */
+	private BatchResult requestEntries(int batchIndex, List<String> identifiers, HostRateLimiter rateLimiter, Path path) throws URISyntaxException, InterruptedException
+	{
+		// You don't need to worry about prefixing with KEGG species code - that comes from the UniProt-to-KEGG mapping.
+		String identifiersForRequest = String.join("+", identifiers) + "+";
+		URIBuilder builder = new URIBuilder();
+		// Append the list of identifiers to the URL string
+		builder.setHost(this.uri.getHost())
+				.setPort(this.uri.getPort())
+				.setPath(this.uri.getPath() + identifiersForRequest)
+				.setScheme(this.uri.getScheme());
+		HttpGet get = new HttpGet(builder.build());
+		this.logger.trace("URI: "+get.getURI());
+
+		int attemptCount = 0;
+		while (true)
+		{
+			rateLimiter.acquire();
+			attemptCount++;
+			try (CloseableHttpResponse getResponse = SharedHttpClient.getClient().execute(get))
+			{
+				rateLimiter.onResponse(getResponse);
+				switch (getResponse.getStatusLine().getStatusCode())
+				{
+					case HttpStatus.SC_OK:
+						return new BatchResult(batchIndex, EntityUtils.toString(getResponse.getEntity(), StandardCharsets.UTF_8), true);
+					case HttpStatus.SC_NOT_FOUND:
+						this.logger.error("\"NOT FOUND\" response was received: {}, URL was: {}", getResponse.getStatusLine().toString(), get.getURI());
+						return new BatchResult(batchIndex, null, true);
+					case HttpStatus.SC_BAD_REQUEST:
+						this.logger.error("\"BAD REQUEST\" response was received: {}, URL was: {}", getResponse.getStatusLine().toString(), get.getURI());
+						return new BatchResult(batchIndex, null, true);
+					case HttpStatus.SC_FORBIDDEN:
+					case HttpStatus.SC_TOO_MANY_REQUESTS:
+						this.logger.error("{} response was received: {}, URL was: {}", getResponse.getStatusLine().getStatusCode(), getResponse.getStatusLine().toString(), get.getURI());
+						// If we get a FORBIDDEN response, we might have some luck if we back off and wait for a little bit.
+						// The rate limiter has already slowed down and paused requests to KEGG, so the next attempt will wait.
+						if (attemptCount > this.numRetries)
+						{
+							this.logger.warn("Reached max number of attempts ({}), will not try again. This request will be retried the next time KEGG data is downloaded to {}", this.numRetries, path);
+							return new BatchResult(batchIndex, null, false);
 						}
-					}
-					catch (Exception e)
+						this.logger.info("Backing off (now at {} requests/second) after {} attempts, then will try again.", String.format("%.2f", rateLimiter.getRate()), attemptCount);
+						break;
+					default:
+						this.logger.info("Unexpected response code: {} ; full response message: {}, URL was: {}", getResponse.getStatusLine().getStatusCode(), getResponse.getStatusLine().toString(), get.getURI());
+						return new BatchResult(batchIndex, null, true);
+				}
+			}
+			catch (IOException e)
+			{
+				this.logger.error("Error requesting {}: {}", get.getURI(), e.getMessage());
+				if (attemptCount > this.numRetries)
+				{
+					return new BatchResult(batchIndex, null, false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets how many KEGG requests each retriever sends at the same time, and the maximum rate of requests to KEGG (shared by all retrievers).
+	 * @param maxConcurrentRequests - the number of concurrent requests per retriever. 1 means that requests are sent one after another.
+	 * @param maxRequestsPerSecond - the maximum number of requests per second.
+	 */
+	public static void configureRequests(int maxConcurrentRequests, double maxRequestsPerSecond)
+	{
+		KEGGFileRetriever.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+		KEGGFileRetriever.maxRequestsPerSecond = maxRequestsPerSecond;
+	}
+
+	private Path getOutputFilePath() throws URISyntaxException
+	{
+		return Paths.get(new URI("file://" + this.destination));
+	}
+
+	private static Path getCheckpointPath(Path outputPath)
+	{
+		return outputPath.resolveSibling(outputPath.getFileName() + ".progress");
+	}
+
+	/**
+	 * The KEGG entries for one batch of identifiers.
+	 */
+	private static class BatchResult
+	{
+		private final int batchIndex;
+		private final String entries;
+		private final boolean complete;
+
+		BatchResult(int batchIndex, String entries, boolean complete)
+		{
+			this.batchIndex = batchIndex;
+			this.entries = entries;
+			this.complete = complete;
+		}
+	}
+
+	/**
+	 * Records which batches of a download have been written to the output file, and the length of the output file after the last of them.
+	 * The hash of the identifiers being downloaded is also recorded, so that a download is only continued if it is for the same identifiers.
+	 */
+	private static class DownloadCheckpoint
+	{
+		private static final String IDENTIFIERS_HASH = "identifiersHash";
+		private static final String COMPLETED_BATCHES = "completedBatches";
+		private static final String BYTES_WRITTEN = "bytesWritten";
+
+		private final long identifiersHash;
+		private final BitSet completedBatches = new BitSet();
+		private long bytesWritten;
+
+		DownloadCheckpoint(long identifiersHash)
+		{
+			this.identifiersHash = identifiersHash;
+		}
+
+		static DownloadCheckpoint read(Path checkpointPath)
+		{
+			if (!Files.isReadable(checkpointPath))
+			{
+				return null;
+			}
+			Properties properties = new Properties();
+			try (Reader reader = Files.newBufferedReader(checkpointPath))
+			{
+				properties.load(reader);
+				DownloadCheckpoint checkpoint = new DownloadCheckpoint(Long.parseLong(properties.getProperty(IDENTIFIERS_HASH)));
+				checkpoint.bytesWritten = Long.parseLong(properties.getProperty(BYTES_WRITTEN));
+				// Completed batches are stored as ranges, such as "0-41,43,45-99".
+				for (String range : properties.getProperty(COMPLETED_BATCHES).split(","))
+				{
+					if (!range.isEmpty())
 					{
-						e.printStackTrace();
+						String[] bounds = range.split("-");
+						checkpoint.completedBatches.set(Integer.parseInt(bounds[0]), Integer.parseInt(bounds[bounds.length - 1]) + 1);
 					}
 				}
+				return checkpoint;
+			}
+			catch (IOException | RuntimeException e)
+			{
+				// An unreadable checkpoint just means the download starts from the beginning.
+				return null;
 			}
+		}
 
+		void write(Path checkpointPath) throws IOException
+		{
+			StringBuilder ranges = new StringBuilder();
+			for (int start = this.completedBatches.nextSetBit(0); start >= 0; start = this.completedBatches.nextSetBit(start))
+			{
+				int end = this.completedBatches.nextClearBit(start);
+				ranges.append(ranges.length() > 0 ? "," : "").append(start);
+				if (end - 1 > start)
+				{
+					ranges.append('-').append(end - 1);
+				}
+				start = end;
+			}
+			Properties properties = new Properties();
+			properties.setProperty(IDENTIFIERS_HASH, String.valueOf(this.identifiersHash));
+			properties.setProperty(COMPLETED_BATCHES, ranges.toString());
+			properties.setProperty(BYTES_WRITTEN, String.valueOf(this.bytesWritten));
+			Path tempPath = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+			try (Writer writer = Files.newBufferedWriter(tempPath))
+			{
+				properties.store(writer, null);
+			}
+			Files.move(tempPath, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		}
 	}
 
@@ -3,17 +3,30 @@ package org.reactome.addlinks.dataretrieval;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.reactome.addlinks.http.client.HostRateLimiter;
 import org.reactome.release.common.dataretrieval.FileRetriever;
 import org.reactome.UniProtQuery;
 
@@ -26,6 +39,10 @@ public class UniprotFileRetriever extends FileRetriever {
 	private static List<String> actualFetchDestinations = Collections.synchronizedList(new ArrayList<String>());
 
 	private final int maxAttemptCount = 5;
+	// Limited by process builder allowed command length - command increases in size for every identifier queried
+	// in a batch
+	private static final int BATCH_SIZE = 4000;
+	private static int maxConcurrentBatches = 2;
 	/**
 	 * This enum provides a  mapping between Reactome names for reference
 	 * databases and the Uniprot ID that is used by their mapping service.
@@ -81,6 +98,21 @@ public class UniprotFileRetriever extends FileRetriever {
 		super(retrieverName);
 	}
 
+	/**
+	 * If an earlier download to this retriever's destination was interrupted, the download is continued even if the destination file
+	 * is not older than maxAge. Otherwise, this is the same as FileRetriever.fetchData.
+	 */
+	@Override
+	public void fetchData() throws Exception {
+		Path progressPath = getProgressPath(getOutputFilePath());
+		if (Files.exists(progressPath)) {
+			this.logger.info("Found an unfinished UniProt download ({}), continuing it.", progressPath);
+			this.downloadData();
+		} else {
+			super.fetchData();
+		}
+	}
+
 	/**
 	 * Getting data from UniProt is a 3-stage process:
 	 * 1) POST a list of identifiers to UniProt. The response received contains a URL to the mapped data.
@@ -98,61 +130,216 @@ public class UniprotFileRetriever extends FileRetriever {
 			throw new RuntimeException("You must provide a database name to map to!");
 		}
 
-		List<String> uniProtIdentifiers =
-			new BufferedReader(new InputStreamReader(this.inStream)).lines().collect(Collectors.toList());
+		// All UniProt retrievers share the same rate limiter, so that the number of requests sent to UniProt is limited no matter how many run in parallel.
+		HostRateLimiter rateLimiter = this.uri != null ? HostRateLimiter.forURI(this.uri) : HostRateLimiter.forHost("uniprot.org");
+		ExecutorService executor = Executors.newFixedThreadPool(UniprotFileRetriever.maxConcurrentBatches);
+		Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+		try (BufferedReader identifierReader = new BufferedReader(new InputStreamReader(this.inStream))) {
+			Path outputPath = getOutputFilePath();
+			Path progressPath = getProgressPath(outputPath);
+			Files.createDirectories(outputPath.getParent());
+			IdentifierBatchIterator batches = new IdentifierBatchIterator(identifierReader);
+			DownloadProgress progress = new DownloadProgress();
+			// Batches that were read while checking an earlier download's progress, but that turned out to need downloading again.
+			Deque<List<String>> batchesToRedo = new ArrayDeque<>();
 
-		List<List<String>> batchesOfUniProtIdentifiers = getBatchesOfUniProtIdentifiers(uniProtIdentifiers);
+			try (FileChannel channel = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				if (!resumeDownload(progressPath, channel, batches, progress, batchesToRedo)) {
+					channel.truncate(0);
+				}
+				channel.position(progress.bytesWritten);
+				Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), 1 << 16));
+				if (progress.bytesWritten == 0) {
+					writer.write("From\tTo");
+					writer.write(System.lineSeparator());
+				}
 
-		try {
-			Files.createDirectories(getOutputFilePath().getParent());
-			writeHeader();
-			for (List<String> uniProtIdentifierBatch : batchesOfUniProtIdentifiers) {
-				UniProtQuery uniprotQuery = UniProtQuery.getUniProtQuery();
-				Map<String, List<String>> uniProtIdentifierToTargetDatabaseIdentifiers =
-                    uniprotQuery.getMapping(uniProtIdentifierBatch, this.mapToDb);
-				writeUniProtMappings(uniProtIdentifierToTargetDatabaseIdentifiers);
+				// Several batches are queried at once, but they are written in order, so that the progress file can just record how many were written.
+				while (!batchesToRedo.isEmpty() || batches.hasNext()) {
+					List<String> batch = !batchesToRedo.isEmpty() ? batchesToRedo.poll() : batches.next();
+					pendingBatches.add(new PendingBatch(batch, executor.submit(() -> {
+						rateLimiter.acquire();
+						UniProtQuery uniprotQuery = UniProtQuery.getUniProtQuery();
+						return uniprotQuery.getMapping(batch, this.mapToDb);
+					})));
+					if (pendingBatches.size() >= UniprotFileRetriever.maxConcurrentBatches) {
+						writeBatch(pendingBatches.poll(), writer, channel, progress, progressPath);
+					}
+				}
+				while (!pendingBatches.isEmpty()) {
+					writeBatch(pendingBatches.poll(), writer, channel, progress, progressPath);
+				}
+				writer.flush();
 			}
+			// The download is complete, so there's nothing to resume.
+			Files.deleteIfExists(progressPath);
 		} catch (Exception e) {
+			for (PendingBatch pendingBatch : pendingBatches) {
+				pendingBatch.mappings.cancel(true);
+			}
 			throw new RuntimeException("Unable to create mapping file", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sets the number of UniProt queries that each retriever sends at the same time.
+	 * @param maxConcurrentBatches - the number of concurrent queries per retriever.
+	 */
+	public static void setMaxConcurrentBatches(int maxConcurrentBatches) {
+		UniprotFileRetriever.maxConcurrentBatches = Math.max(1, maxConcurrentBatches);
+	}
+
+	/**
+	 * Checks if an earlier download of the same identifiers to the same file was interrupted, and if so, prepares to continue it.
+	 * The batches that the earlier download completed are read from <code>batches</code>. If they are the same as the batches that were
+	 * downloaded before, the output file is truncated to the end of the last completed batch, and <code>progress</code> is updated to
+	 * match the earlier download. If they are not the same, they are put in <code>batchesToRedo</code>.
+	 * @return true if the earlier download will be continued, false if the download needs to start from the beginning.
+	 */
+	private boolean resumeDownload(Path progressPath, FileChannel channel, IdentifierBatchIterator batches, DownloadProgress progress, Deque<List<String>> batchesToRedo) throws IOException {
+		DownloadProgress earlierProgress = DownloadProgress.read(progressPath);
+		if (earlierProgress == null || earlierProgress.completedBatches == 0) {
+			return false;
+		}
+		DownloadProgress readProgress = new DownloadProgress();
+		while (readProgress.completedBatches < earlierProgress.completedBatches && batches.hasNext()) {
+			List<String> batch = batches.next();
+			readProgress.addBatch(batch);
+			batchesToRedo.add(batch);
+		}
+		if (readProgress.completedBatches != earlierProgress.completedBatches || readProgress.identifiersHash != earlierProgress.identifiersHash
+			|| channel.size() < earlierProgress.bytesWritten) {
+			this.logger.info("Progress file {} does not match the current download, so the download will start from the beginning.", progressPath);
+			return false;
 		}
+		this.logger.info("Resuming download to {} after {} completed batches.", this.destination, earlierProgress.completedBatches);
+		channel.truncate(earlierProgress.bytesWritten);
+		batchesToRedo.clear();
+		progress.completedBatches = earlierProgress.completedBatches;
+		progress.identifiersHash = earlierProgress.identifiersHash;
+		progress.bytesWritten = earlierProgress.bytesWritten;
+		return true;
 	}
 
-	private List<List<String>> getBatchesOfUniProtIdentifiers(List<String> identifiers) {
-		// Limited by process builder allowed command length - command increases in size for every identifier queried
-		// in a batch
-		final int batchSize = 4000;
-		List<List<String>> batchesOfUniProtIdentifiers = new ArrayList<>();
-		List<String> uniProtIdentifierBatch = new ArrayList<>();
-		for (String identifier: identifiers) {
-			uniProtIdentifierBatch.add(identifier);
-			if (uniProtIdentifierBatch.size() >= batchSize) {
-				batchesOfUniProtIdentifiers.add(new ArrayList<>(uniProtIdentifierBatch));
-				uniProtIdentifierBatch.clear();
+	/**
+	 * Waits for a batch's mappings, writes them, and records the batch as completed in the progress file.
+	 */
+	private static void writeBatch(PendingBatch pendingBatch, Writer writer, FileChannel channel, DownloadProgress progress, Path progressPath)
+		throws InterruptedException, ExecutionException, IOException {
+		Map<String, List<String>> uniProtMappings = pendingBatch.mappings.get();
+		for (Map.Entry<String, List<String>> uniProtMapping : uniProtMappings.entrySet()) {
+			for (String targetIdentifier : uniProtMapping.getValue()) {
+				writer.write(uniProtMapping.getKey());
+				writer.write('\t');
+				writer.write(targetIdentifier);
+				writer.write(System.lineSeparator());
 			}
 		}
-		if (uniProtIdentifierBatch.size() > 0) {
-			batchesOfUniProtIdentifiers.add(new ArrayList<>(uniProtIdentifierBatch));
+		// Flush before recording progress, so that the progress file never gets ahead of the output file.
+		writer.flush();
+		progress.addBatch(pendingBatch.identifiers);
+		progress.bytesWritten = channel.position();
+		progress.write(progressPath);
+	}
+
+	/**
+	 * A batch of identifiers, and the UniProt query that is mapping them.
+	 */
+	private static class PendingBatch {
+		private final List<String> identifiers;
+		private final Future<Map<String, List<String>>> mappings;
+
+		PendingBatch(List<String> identifiers, Future<Map<String, List<String>>> mappings) {
+			this.identifiers = identifiers;
+			this.mappings = mappings;
 		}
-		return batchesOfUniProtIdentifiers;
 	}
 
-	private void writeHeader() throws URISyntaxException, IOException {
-		Files.write(
-			getOutputFilePath(),
-			String.format("From\tTo%n").getBytes(),
-			StandardOpenOption.CREATE, StandardOpenOption.APPEND
-		);
+	/**
+	 * Reads identifiers, one per line, in batches. Only one batch is held in memory at a time.
+	 */
+	private static class IdentifierBatchIterator implements Iterator<List<String>> {
+		private final BufferedReader reader;
+		private String nextIdentifier;
+
+		IdentifierBatchIterator(BufferedReader reader) throws IOException {
+			this.reader = reader;
+			this.nextIdentifier = reader.readLine();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.nextIdentifier != null;
+		}
+
+		@Override
+		public List<String> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			List<String> batch = new ArrayList<>(BATCH_SIZE);
+			try {
+				while (this.nextIdentifier != null && batch.size() < BATCH_SIZE) {
+					batch.add(this.nextIdentifier);
+					this.nextIdentifier = this.reader.readLine();
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return batch;
+		}
 	}
 
-	private void writeUniProtMappings(Map<String, List<String>> uniProtMappings) throws URISyntaxException, IOException {
-		for (String uniProtIdentifier : uniProtMappings.keySet()) {
-			for (String targetIdentifier : uniProtMappings.get(uniProtIdentifier)) {
-				Files.write(
-					getOutputFilePath(),
-					String.format("%s\t%s%n", uniProtIdentifier, targetIdentifier).getBytes(),
-					StandardOpenOption.APPEND
-				);
+	/**
+	 * The progress of a download: how many batches have been written, a hash of the identifiers in those batches (so that a download is
+	 * only resumed if it is for the same identifiers), and the length of the output file after the last batch.
+	 */
+	private static class DownloadProgress {
+		private static final String COMPLETED_BATCHES = "completedBatches";
+		private static final String IDENTIFIERS_HASH = "identifiersHash";
+		private static final String BYTES_WRITTEN = "bytesWritten";
+
+		private int completedBatches;
+		private long identifiersHash;
+		private long bytesWritten;
+
+		void addBatch(List<String> identifiers) {
+			for (String identifier : identifiers) {
+				this.identifiersHash = 31 * this.identifiersHash + identifier.hashCode();
+			}
+			this.completedBatches++;
+		}
+
+		static DownloadProgress read(Path progressPath) {
+			if (!Files.isReadable(progressPath)) {
+				return null;
 			}
+			Properties properties = new Properties();
+			try (Reader reader = Files.newBufferedReader(progressPath)) {
+				properties.load(reader);
+				DownloadProgress progress = new DownloadProgress();
+				progress.completedBatches = Integer.parseInt(properties.getProperty(COMPLETED_BATCHES));
+				progress.identifiersHash = Long.parseLong(properties.getProperty(IDENTIFIERS_HASH));
+				progress.bytesWritten = Long.parseLong(properties.getProperty(BYTES_WRITTEN));
+				return progress;
+			} catch (IOException | RuntimeException e) {
+				// An unreadable progress file just means the download starts from the beginning.
+				return null;
+			}
+		}
+
+		void write(Path progressPath) throws IOException {
+			Properties properties = new Properties();
+			properties.setProperty(COMPLETED_BATCHES, String.valueOf(this.completedBatches));
+			properties.setProperty(IDENTIFIERS_HASH, String.valueOf(this.identifiersHash));
+			properties.setProperty(BYTES_WRITTEN, String.valueOf(this.bytesWritten));
+			Path tempPath = progressPath.resolveSibling(progressPath.getFileName() + ".tmp");
+			try (Writer writer = Files.newBufferedWriter(tempPath)) {
+				properties.store(writer, null);
+			}
+			Files.move(tempPath, progressPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		}
 	}
 
@@ -160,6 +347,10 @@ public class UniprotFileRetriever extends FileRetriever {
 		return Paths.get(new URI("file://" + this.destination));
 	}
 
+	private static Path getProgressPath(Path outputPath) {
+		return outputPath.resolveSibling(outputPath.getFileName() + ".progress");
+	}
+
 	public String getMapFromDb()
 	{
 		return this.mapFromDb;
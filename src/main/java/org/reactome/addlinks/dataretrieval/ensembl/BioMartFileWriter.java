@@ -0,0 +1,140 @@
+package org.reactome.addlinks.dataretrieval.ensembl;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes the lines of BioMart responses to one file, skipping lines that have already been written. Several queries can write to the same file
+ * at the same time. Instead of the lines themselves, only a 64-bit hash of each line is kept to find the duplicates, so a file with millions of
+ * lines needs a few tens of megabytes of memory. Two different lines could have the same hash, but with 64 bits the chance of that is about one
+ * in a million even for tens of millions of lines.
+ * <br/>
+ * The file is only created when the first line is written, so a file that would be empty is never created. Once the writer has been closed,
+ * writing another line is an error: the file is never reopened, so a query that is still running cannot replace a file that has been closed.
+ */
+public class BioMartFileWriter implements Closeable {
+
+    private static final long FNV_64_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_64_PRIME = 0x100000001b3L;
+
+    private final Path path;
+    private final LongHashSet lineHashes = new LongHashSet();
+    private BufferedWriter writer;
+    private long numLinesWritten = 0;
+    private boolean closed = false;
+
+    /**
+     * @param path - Path, file that the lines will be written to. If it already exists, it is replaced when the first line is written.
+     */
+    public BioMartFileWriter(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Writes a line to the file, unless the same line has already been written.
+     * @param line - String, line without a line terminator.
+     * @return - boolean, true if the line was written, false if it was a duplicate.
+     * @throws IOException - Thrown when unable to write to the file, or when the writer has been closed.
+     */
+    public synchronized boolean writeLine(String line) throws IOException {
+        if (this.closed) {
+            throw new IOException("Cannot write to " + this.path + ", its writer has been closed");
+        }
+        if (!this.lineHashes.add(hash(line))) {
+            return false;
+        }
+        if (this.writer == null) {
+            this.writer = Files.newBufferedWriter(this.path, StandardCharsets.UTF_8);
+        }
+        this.writer.write(line);
+        this.writer.write('\n');
+        this.numLinesWritten++;
+        return true;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public synchronized long getNumLinesWritten() {
+        return this.numLinesWritten;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.closed = true;
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    // FNV-1a over the characters of the line, followed by the MurmurHash3 finalizer so that all of the bits are well mixed.
+    static long hash(String line) {
+        long hash = FNV_64_OFFSET_BASIS;
+        for (int i = 0; i < line.length(); i++) {
+            hash ^= line.charAt(i);
+            hash *= FNV_64_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * A set of longs, stored in an open-addressing table of primitive longs so that each value takes 8 to 16 bytes (a HashSet<Long> takes
+     * over 50 bytes per value).
+     */
+    private static class LongHashSet {
+
+        private static final int INITIAL_CAPACITY = 1 << 10;
+        // 0 marks an empty slot in the table, so whether 0 is in the set is stored separately.
+        private boolean containsZero = false;
+        private long[] table = new long[INITIAL_CAPACITY];
+        private int size = 0;
+
+        boolean add(long value) {
+            if (value == 0) {
+                boolean added = !this.containsZero;
+                this.containsZero = true;
+                return added;
+            }
+            if (!insert(this.table, value)) {
+                return false;
+            }
+            this.size++;
+            // Keep the table at most three quarters full, so that the runs of filled slots stay short.
+            if (this.size > this.table.length - (this.table.length >> 2)) {
+                long[] largerTable = new long[this.table.length << 1];
+                for (long existingValue : this.table) {
+                    if (existingValue != 0) {
+                        insert(largerTable, existingValue);
+                    }
+                }
+                this.table = largerTable;
+            }
+            return true;
+        }
+
+        // Linear probing. The values are already hashes, so their low bits can be used as the slot directly.
+        private static boolean insert(long[] table, long value) {
+            int mask = table.length - 1;
+            int slot = (int) value & mask;
+            while (table[slot] != 0) {
+                if (table[slot] == value) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = value;
+            return true;
+        }
+    }
+}
@@ -1,10 +1,20 @@
 package org.reactome.addlinks.dataretrieval.ensembl;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
@@ -12,14 +22,18 @@ import org.apache.http.client.entity.EntityBuilder;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.reactome.addlinks.http.client.HostRateLimiter;
+import org.reactome.addlinks.http.client.SharedHttpClient;
 import org.reactome.util.ensembl.EnsemblServiceResponseProcessor.EnsemblServiceResult;
 import org.reactome.release.common.dataretrieval.FileRetriever;
 import org.reactome.util.ensembl.EnsemblServiceResponseProcessor;
 
 public class EnsemblBatchLookup  extends FileRetriever
 {
+	// Ensembl's lookup service accepts up to 1000 identifiers per request.
+	private static final int BATCH_SIZE = 1000;
+	private static int maxConcurrentBatches = 3;
+
 	private String species;
 	private List<String> identifiers;
 
@@ -46,145 +60,196 @@ public class EnsemblBatchLookup  extends FileRetriever
 	}
 
 	/**
-	 * Does a batch lookup by POSTing to http://rest.ensembl.org/lookup/id?${SPECIES}
+	 * Does a batch lookup by POSTing to http://rest.ensembl.org/lookup/id?${SPECIES}, and writes the results to a file.
+	 * The identifiers are sent in batches of 1000, and up to maxConcurrentBatches batches are in progress at the same time (the requests still go through
+	 * the Ensembl host's rate limiter). Each batch's result is written to the file as soon as it arrives, so the results are never all held in memory.
+	 * The order of the results in the file does not matter.
 	 * @param identifiers - a list of ENSEMBL identifiers to look up.
 	 * @param species - The species name, will be appended to the URL.
-	 * @return The result of the lookup, as an XML string.
+	 * @param path - the file that the results will be written to, as XML.
 	 */
-	private String doBatchLookup(List<String> identifiers, String species)
+	private void doBatchLookup(List<String> identifiers, String species, Path path) throws IOException, InterruptedException, ExecutionException
 	{
-		logger.debug("{} identifiers need to be looked up for species {}; will be done in batch sizes of 1000", identifiers.size(), species);
-		if (identifiers.size() > 0)
+		logger.debug("{} identifiers need to be looked up for species {}; will be done in batch sizes of {}", identifiers.size(), species, BATCH_SIZE);
+		Files.createDirectories(path.getParent());
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
 		{
-			// $ curl -H "Content-type: application/json" -H "Accept:text/xml" -X POST -d '{ "ids":["ENSGALP00000056694","ENSGALP00000056695","ENSGALP00000000000"]}' http://rest.ensembl.org/lookup/id/?species=gallus_gallus
-			// <opt>
-			//   <data ENSGALP00000000000="">
-			//     <ENSGALP00000056694 id="ENSGALP00000056694" Parent="ENSGALT00000080481" db_type="core" end="5024" length="324" object_type="Translation" species="gallus_gallus" start="4050" />
-			//     <ENSGALP00000056695 id="ENSGALP00000056695" Parent="ENSGALT00000061540" db_type="core" end="48345104" length="981" object_type="Translation" species="gallus_gallus" start="48335217" />
-			//   </data>
-			// </opt>
-			// # In the example above, you can see that unsuccessful IDs become attributes with no value in the "data" element.
-			// # In this example below, you can see that when everything maps successfully, the output looks a little different:
-			// <opt>
-			//   <!-- What ENSEMBL results look like when everything can be successfully looked up -->
-			//   <data name="ENSGALP00000056694" Parent="ENSGALT00000080481" db_type="core" end="5024" id="ENSGALP00000056694" length="324" object_type="Translation" species="gallus_gallus" start="4050" />
-			//   <data name="ENSGALP00000056695" Parent="ENSGALT00000061540" db_type="core" end="48345104" id="ENSGALP00000056695" length="981" object_type="Translation" species="gallus_gallus" start="48335217" />
-			//   <data name="ENSGALP00000056696" Parent="ENSGALT00000080370" db_type="core" end="3954" id="ENSGALP00000056696" length="139" object_type="Translation" species="gallus_gallus" start="409" />
-			// </opt>
-			////////////////////////////////////////////////////////////////////
-			////////////////////////////////////////////////////////////////////
-			// Use this XPath (2.0 - because of using concat on attributes)
-			// expression to combine the input IDs with the matching Trascript IDs:
-			//	//opt//.[@Parent != null]/concat(@id,',',@Parent)
-			// Actually, this might be better (faster):
-			//	//opt/(data|.)/*[@Parent ne null]/concat(@id,',',@Parent)
-			// See: ensembl-lookup-simplifier.xsl for actual implementation.
-			StringBuilder resultBuilder = new StringBuilder();
-			resultBuilder.append("<results>");
-
-			boolean done = false;
-			int index = 0;
-			// Loop on groups of 1000 identifiers because their service limits to 1000 per request.
-			while (!done)
+			if (identifiers.size() > 0)
 			{
-				StringBuilder sb = new StringBuilder("[");
-				int i = 0;
-				while ( i < 1000 && index + i < identifiers.size() )
+				// $ curl -H "Content-type: application/json" -H "Accept:text/xml" -X POST -d '{ "ids":["ENSGALP00000056694","ENSGALP00000056695","ENSGALP00000000000"]}' http://rest.ensembl.org/lookup/id/?species=gallus_gallus
+				// <opt>
+				//   <data ENSGALP00000000000="">
+				//     <ENSGALP00000056694 id="ENSGALP00000056694" Parent="ENSGALT00000080481" db_type="core" end="5024" length="324" object_type="Translation" species="gallus_gallus" start="4050" />
+				//     <ENSGALP00000056695 id="ENSGALP00000056695" Parent="ENSGALT00000061540" db_type="core" end="48345104" length="981" object_type="Translation" species="gallus_gallus" start="48335217" />
+				//   </data>
+				// </opt>
+				// # In the example above, you can see that unsuccessful IDs become attributes with no value in the "data" element.
+				// # In this example below, you can see that when everything maps successfully, the output looks a little different:
+				// <opt>
+				//   <!-- What ENSEMBL results look like when everything can be successfully looked up -->
+				//   <data name="ENSGALP00000056694" Parent="ENSGALT00000080481" db_type="core" end="5024" id="ENSGALP00000056694" length="324" object_type="Translation" species="gallus_gallus" start="4050" />
+				//   <data name="ENSGALP00000056695" Parent="ENSGALT00000061540" db_type="core" end="48345104" id="ENSGALP00000056695" length="981" object_type="Translation" species="gallus_gallus" start="48335217" />
+				//   <data name="ENSGALP00000056696" Parent="ENSGALT00000080370" db_type="core" end="3954" id="ENSGALP00000056696" length="139" object_type="Translation" species="gallus_gallus" start="409" />
+				// </opt>
+				////////////////////////////////////////////////////////////////////
+				////////////////////////////////////////////////////////////////////
+				// Use this XPath (2.0 - because of using concat on attributes)
+				// expression to combine the input IDs with the matching Trascript IDs:
+				//	//opt//.[@Parent != null]/concat(@id,',',@Parent)
+				// Actually, this might be better (faster):
+				//	//opt/(data|.)/*[@Parent ne null]/concat(@id,',',@Parent)
+					// See: ensembl-lookup-simplifier.xsl for actual implementation.
+				writer.write("<results>");
+				int numBatches = (identifiers.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+				ExecutorService executor = Executors.newFixedThreadPool(Math.min(EnsemblBatchLookup.maxConcurrentBatches, numBatches));
+				CompletionService<String> completionService = new ExecutorCompletionService<>(executor);
+				try
 				{
-					sb.append("\"").append(identifiers.get(index + i)).append("\",");
-					i ++;
+					int nextBatch = 0;
+					int numInFlight = 0;
+					while (nextBatch < numBatches || numInFlight > 0)
+					{
+						while (nextBatch < numBatches && numInFlight < EnsemblBatchLookup.maxConcurrentBatches)
+						{
+							List<String> batch = identifiers.subList(nextBatch * BATCH_SIZE, Math.min((nextBatch + 1) * BATCH_SIZE, identifiers.size()));
+							int batchNumber = nextBatch + 1;
+							completionService.submit(() -> this.lookUpBatch(batch, species, batchNumber, numBatches));
+							nextBatch++;
+							numInFlight++;
+						}
+						String responseString = completionService.take().get();
+						numInFlight--;
+						if (responseString != null)
+						{
+							writer.write(responseString);
+						}
+					}
 				}
-				index += i;
-				// Remove trailing "," and add the "]" to complete the JSON array.
-				String identifiersList = (sb.toString().substring(0, sb.toString().length() - 1)) + "]";
+				finally
+				{
+					executor.shutdownNow();
+				}
+				logger.info("{} requests remaining for ENSEMBL service.", EnsemblServiceResponseProcessor.getNumRequestsRemaining());
+				writer.write("</results>");
+			}
+			else
+			{
+				logger.info("Empty/null identifiers list was given for species {}; no lookup request was sent.", species);
+			}
+		}
+	}
 
+	/**
+	 * Looks up one batch of identifiers.
+	 * @return The result of the lookup, as an XML string, or null if Ensembl could not look up the batch.
+	 */
+	private String lookUpBatch(List<String> identifiers, String species, int batchNumber, int numBatches) throws IOException, InterruptedException
+	{
+		StringBuilder sb = new StringBuilder("[");
+		for (String identifier : identifiers)
+		{
+			sb.append("\"").append(identifier).append("\",");
+		}
+		// Remove trailing "," and add the "]" to complete the JSON array.
+		String identifiersList = sb.substring(0, sb.length() - 1) + "]";
 
-				HttpPost post = new HttpPost(this.getDataURL().toString()+"?species="+species);
+		HttpPost post = new HttpPost(this.getDataURL().toString()+"?species="+species);
 
-				HttpEntity attachment = EntityBuilder.create()
-										.setBinary(("{ \"ids\":"+identifiersList + " }").getBytes())
-										.setContentType(ContentType.APPLICATION_JSON)
-										.build();
-				post.setEntity(attachment);
-				post.addHeader("Accept","text/xml");
+		HttpEntity attachment = EntityBuilder.create()
+								.setBinary(("{ \"ids\":"+identifiersList + " }").getBytes())
+								.setContentType(ContentType.APPLICATION_JSON)
+								.build();
+		post.setEntity(attachment);
+		post.addHeader("Accept","text/xml");
 
-				try
+		EnsemblServiceResponseProcessor responseProcessor = new EnsemblServiceResponseProcessor(this.logger);
+		HostRateLimiter rateLimiter = HostRateLimiter.forURI(post.getURI());
+		int attemptCount = 0;
+		while (true)
+		{
+			logger.debug("Submitting batch request {} of {} for species {}", batchNumber, numBatches, species);
+			rateLimiter.acquire();
+			attemptCount++;
+			try (CloseableHttpResponse postResponse = SharedHttpClient.getClient().execute(post);)
+			{
+				rateLimiter.onResponse(postResponse);
+				EnsemblServiceResult result = responseProcessor.processResponse(postResponse, post.getURI());
+				// This means we need to wait, and then retry. Pausing the rate limiter makes every other request to ENSEMBL wait too.
+				if (!result.getWaitTime().equals(Duration.ZERO))
 				{
-					boolean requestDone = false;
-					EnsemblServiceResponseProcessor responseProcessor = new EnsemblServiceResponseProcessor(this.logger);
-					while (!requestDone)
-					{
-
-						logger.debug("Submitting batch request - {}", index);
-						try (CloseableHttpClient postClient = HttpClients.createDefault();
-								CloseableHttpResponse postResponse = postClient.execute(post);)
-						{
-							EnsemblServiceResult result = responseProcessor.processResponse(postResponse, post.getURI());
-							// This means we need to wait, and then retry
-							if (!result.getWaitTime().equals(Duration.ZERO))
-							{
-								logger.info("Need to wait: {} seconds.", result.getWaitTime().getSeconds());
-								Thread.sleep(result.getWaitTime().toMillis());
-							}
-							else
-							{
-								if (result.getStatus() == HttpStatus.SC_OK)
-								{
-
-									String responseString = result.getResult();
-									resultBuilder.append(responseString);
-									requestDone = true;
-								}
-								else if (result.isOkToRetry())
-								{
-									// The only case where isOkToRetry is true is when the rate limit was exceeded or when the endpoint timed out.
-									// So, setting requestDone to !isOkToRetry should terminate the request-loop.
-									requestDone = false;
-								}
-							}
-						}
-					}
+					logger.info("Need to wait: {} seconds.", result.getWaitTime().getSeconds());
+					rateLimiter.pause(result.getWaitTime());
 				}
-				catch (IOException e)
+				else if (result.getStatus() == HttpStatus.SC_OK)
 				{
-					e.printStackTrace();
-					logger.error("Error occurred while sending webservice request: {}", e.getMessage());
-					// This is probably not recoverable.
-					throw new Error(e);
+					return result.getResult();
 				}
-				catch (InterruptedException e)
+				// The only case where isOkToRetry is true is when the rate limit was exceeded or when the endpoint timed out.
+				else if (!result.isOkToRetry() || attemptCount > this.numRetries)
 				{
-					e.printStackTrace();
-					logger.error("Something bad happened while waiting to re-try the webservice request: {}", e.getMessage());
-					// Throw a new error, this is probably not recoverable.
-					throw new Error(e);
+					logger.error("Batch request {} of {} for species {} failed with status {}; its identifiers will not be looked up.", batchNumber, numBatches, species, result.getStatus());
+					return null;
 				}
-
-				if (index >= this.identifiers.size())
+			}
+			catch (IOException e)
+			{
+				logger.error("Error occurred while sending webservice request: {}", e.getMessage());
+				if (attemptCount > this.numRetries)
 				{
-					done = true;
+					// This is probably not recoverable.
+					throw e;
 				}
 			}
-			logger.info("{} requests remaining for ENSEMBL service.", EnsemblServiceResponseProcessor.getNumRequestsRemaining());
-			resultBuilder.append("</results>");
-			return resultBuilder.toString();
 		}
-		else
+	}
+
+	/**
+	 * Looks up identifiers and writes the results to a file, unless the file already exists and is newer than the maximum age of this retriever's files.
+	 * Unlike fetchData, this does not use the species, identifiers or fetch destination of this object, so lookups for different species can be done
+	 * at the same time.
+	 * @param species - the species name.
+	 * @param identifiers - the ENSEMBL identifiers to look up.
+	 * @param destination - the file that the results will be written to.
+	 */
+	public void lookUp(String species, List<String> identifiers, String destination)
+	{
+		Path path = Paths.get(destination);
+		try
 		{
-			logger.info("Empty/null identifiers list was given for species {}; no lookup request was sent.", species);
-			return "";
+			if (this.maxAge != null && Files.exists(path) && Files.getLastModifiedTime(path).toInstant().isAfter(Instant.now().minus(this.maxAge)))
+			{
+				logger.info("{} is newer than {}, so it will not be downloaded again.", path, this.maxAge);
+				return;
+			}
 		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			throw new Error(e);
+		}
+		this.writeBatchLookup(identifiers, species, path);
+	}
 
+	/**
+	 * Sets the number of batch requests that each lookup sends at the same time.
+	 * @param maxConcurrentBatches - the number of concurrent batch requests per lookup. 1 means that the batches are sent one after another.
+	 */
+	public static void setMaxConcurrentBatches(int maxConcurrentBatches)
+	{
+		EnsemblBatchLookup.maxConcurrentBatches = Math.max(1, maxConcurrentBatches);
 	}
 
 	@Override
 	public void downloadData()
 	{
-		String results = this.doBatchLookup(identifiers, species);
+		this.writeBatchLookup(this.identifiers, this.species, Paths.get(this.destination));
+	}
+
+	private void writeBatchLookup(List<String> identifiers, String species, Path path)
+	{
 		try
 		{
-			Files.createDirectories(Paths.get(this.destination).getParent());
-			Files.write(Paths.get(this.destination), results.getBytes());
+			this.doBatchLookup(identifiers, species, path);
 		}
 		catch (IOException e)
 		{
@@ -192,5 +257,19 @@ public class EnsemblBatchLookup  extends FileRetriever
 			e.printStackTrace();
 			throw new Error(e);
 		}
+		catch (InterruptedException e)
+		{
+			e.printStackTrace();
+			logger.error("Something bad happened while waiting for the webservice requests: {}", e.getMessage());
+			Thread.currentThread().interrupt();
+			throw new Error(e);
+		}
+		catch (ExecutionException e)
+		{
+			e.getCause().printStackTrace();
+			logger.error("Error occurred while sending webservice request: {}", e.getCause().getMessage());
+			// Throw a new error, this is probably not recoverable.
+			throw new Error(e.getCause());
+		}
 	}
 }
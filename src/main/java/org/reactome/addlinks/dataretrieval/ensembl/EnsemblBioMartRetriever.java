@@ -9,16 +9,27 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class EnsemblBioMartRetriever extends FileRetriever {
 
     private Properties properties;
 
+    // BioMart only runs a few queries at a time from each client, so the queries of all species share this limit.
+    private static int maxConcurrentQueries = 3;
+    // How long to wait for running queries to stop after one of them has failed.
+    private static final long QUERY_SHUTDOWN_TIMEOUT_SECONDS = 60;
+
     public EnsemblBioMartRetriever() { }
 
     public EnsemblBioMartRetriever(String retrieverName)
@@ -46,8 +57,20 @@ public class EnsemblBioMartRetriever extends FileRetriever {
     private static final String UNIPROT_TREMBL_BIOMART_SEARCH_TERM = "uniprotsptrembl";
     private static final String NCBI_ENTREZ_BIOMART_SEARCH_TERM = "entrezgene_id";
 
+    /**
+     * Sets the maximum number of queries that are sent to BioMart at the same time. BioMart limits the number of queries that it
+     * runs at once for each client, so this should be kept low.
+     * @param maxConcurrentQueries - int, maximum number of concurrent queries.
+     */
+    public static void setMaxConcurrentQueries(int maxConcurrentQueries) {
+        EnsemblBioMartRetriever.maxConcurrentQueries = Math.max(1, maxConcurrentQueries);
+    }
+
     /**
      * Downloads Ensembl-Microarray, Ensembl-GO, and Ensembl-Uniprot identifier mapping files for all species, if they exist.
+     * The queries for all species are run concurrently (up to the limit set with setMaxConcurrentQueries), and each response
+     * is written to its file as it is read, without duplicate lines. If a query fails, the other queries are stopped, and the files
+     * of all queries that did not complete are deleted so that they are downloaded again on the next run.
      * @throws IOException - Thrown when file can't be found during writing or by HTTPConnection class.
      * @throws InterruptedException - Thrown if Sleep is interrupted when waiting to retry BioMart query.
      * @throws BioMartQueryException - Thrown if BioMart query doesn't match any existing data in their database.
@@ -59,100 +82,190 @@ public class EnsemblBioMartRetriever extends FileRetriever {
         Files.createDirectories(Paths.get(this.destination));
         setProperties(EnsemblBioMartUtil.getProperties());
 
-        // Get names of all organisms we add links and/or microarray data for.
-        // Species names are in bioMart format (eg: hsapiens).
-        for (String speciesName : EnsemblBioMartUtil.getSpeciesNames()) {
-            String speciesBioMartName = EnsemblBioMartUtil.getBioMartSpeciesName(speciesName);
-            logger.info("Retrieving BioMart files for " + speciesBioMartName);
-            Set<String> biomartOtherIdentifierSearchTerms = new HashSet<>(Arrays.asList(GO_ID_BIOMART_SEARCH_TERM, GO_SLIM_BIOMART_SEARCH_TERM, NCBI_ENTREZ_BIOMART_SEARCH_TERM));
-            logger.info("Retrieving microarray data");
-            // Query BioMart for existing microarray 'types' (not ids) that exist for this species.
-            biomartOtherIdentifierSearchTerms.addAll(queryBioMart(getMicroarrayTypesQuery(speciesBioMartName), MICROARRAY_TYPES));
-            // Perform BioMart queries for OtherIdentifiers data. All mappings are stored in a single file, (eg: hsapiens_microarray_go_ncbi_ids).
-            queryBioMartForSearchTerms(speciesBioMartName, biomartOtherIdentifierSearchTerms, EnsemblBioMartUtil.OTHER_IDENTIFIERS_SUFFIX);
-
-            // Query Ensembl-Uniprot (swissprot and trembl) identifier mapping data from BioMart and write it to a file (eg: hsapiens_uniprot).
-            Set<String> biomartUniProtIdentifierSearchTerms = new HashSet<>(Arrays.asList(UNIPROT_SWISSPROT_BIOMART_SEARCH_TERM, UNIPROT_TREMBL_BIOMART_SEARCH_TERM));
-            queryBioMartForSearchTerms(speciesBioMartName, biomartUniProtIdentifierSearchTerms, EnsemblBioMartUtil.UNIPROT_SUFFIX);
-
-            logger.info("Completed BioMart data retrieval for " + speciesBioMartName);
+        ExecutorService executor = Executors.newFixedThreadPool(EnsemblBioMartRetriever.maxConcurrentQueries);
+        // The queries writing to each file.
+        Map<BioMartFileWriter, List<Future<?>>> queriesByFile = new LinkedHashMap<>();
+        try {
+            // Get names of all organisms we add links and/or microarray data for.
+            // Species names are in bioMart format (eg: hsapiens).
+            List<String> speciesBioMartNames = new ArrayList<>();
+            for (String speciesName : EnsemblBioMartUtil.getSpeciesNames()) {
+                speciesBioMartNames.add(EnsemblBioMartUtil.getBioMartSpeciesName(speciesName));
+            }
+
+            // Query BioMart for existing microarray 'types' (not ids) that exist for each species. These queries are small,
+            // and they are all sent first because the microarray types are needed to build the species' other identifier queries.
+            Map<String, Future<Set<String>>> microarrayTypesBySpecies = new HashMap<>();
+            for (String speciesBioMartName : speciesBioMartNames) {
+                if (!Files.exists(getBioMartFilePath(speciesBioMartName, EnsemblBioMartUtil.OTHER_IDENTIFIERS_SUFFIX))) {
+                    microarrayTypesBySpecies.put(speciesBioMartName, executor.submit(() -> {
+                        logger.info("Retrieving microarray types for {}", speciesBioMartName);
+                        Set<String> microarrayTypes = new HashSet<>();
+                        queryBioMart(getMicroarrayTypesQuery(speciesBioMartName), MICROARRAY_TYPES, microarrayTypes::add);
+                        return microarrayTypes;
+                    }));
+                }
+            }
+
+            for (String speciesBioMartName : speciesBioMartNames) {
+                logger.info("Retrieving BioMart files for " + speciesBioMartName);
+                Future<Set<String>> microarrayTypes = microarrayTypesBySpecies.get(speciesBioMartName);
+                if (microarrayTypes != null) {
+                    Set<String> biomartOtherIdentifierSearchTerms = new HashSet<>(Arrays.asList(GO_ID_BIOMART_SEARCH_TERM, GO_SLIM_BIOMART_SEARCH_TERM, NCBI_ENTREZ_BIOMART_SEARCH_TERM));
+                    biomartOtherIdentifierSearchTerms.addAll(getQueryResult(microarrayTypes));
+                    // Perform BioMart queries for OtherIdentifiers data. All mappings are stored in a single file, (eg: hsapiens_microarray_go_ncbi_ids).
+                    queryBioMartForSearchTerms(executor, queriesByFile, speciesBioMartName, biomartOtherIdentifierSearchTerms, EnsemblBioMartUtil.OTHER_IDENTIFIERS_SUFFIX);
+                } else {
+                    logFileExistsMessage(getBioMartFilePath(speciesBioMartName, EnsemblBioMartUtil.OTHER_IDENTIFIERS_SUFFIX).toString());
+                }
+
+                // Query Ensembl-Uniprot (swissprot and trembl) identifier mapping data from BioMart and write it to a file (eg: hsapiens_uniprot).
+                Set<String> biomartUniProtIdentifierSearchTerms = new HashSet<>(Arrays.asList(UNIPROT_SWISSPROT_BIOMART_SEARCH_TERM, UNIPROT_TREMBL_BIOMART_SEARCH_TERM));
+                queryBioMartForSearchTerms(executor, queriesByFile, speciesBioMartName, biomartUniProtIdentifierSearchTerms, EnsemblBioMartUtil.UNIPROT_SUFFIX);
+            }
+
+            for (List<Future<?>> queries : queriesByFile.values()) {
+                for (Future<?> query : queries) {
+                    getQueryResult(query);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            try {
+                // The writers must not be closed while queries are still writing to them.
+                if (!executor.awaitTermination(QUERY_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    logger.warn("BioMart queries were still running {} seconds after they were stopped", QUERY_SHUTDOWN_TIMEOUT_SECONDS);
+                }
+            } finally {
+                closeFileWriters(queriesByFile);
+            }
+        }
+        logger.info("Completed BioMart data retrieval");
+    }
+
+    /**
+     * Closes the file writers. The file of any writer whose queries did not all complete is deleted, since it would be missing data.
+     * @param queriesByFile - Map<BioMartFileWriter, List<Future<?>>>, the queries writing to each file.
+     * @throws IOException - Thrown when unable to close or delete a file.
+     */
+    private void closeFileWriters(Map<BioMartFileWriter, List<Future<?>>> queriesByFile) throws IOException {
+        for (Map.Entry<BioMartFileWriter, List<Future<?>>> entry : queriesByFile.entrySet()) {
+            BioMartFileWriter fileWriter = entry.getKey();
+            fileWriter.close();
+            if (entry.getValue().stream().allMatch(EnsemblBioMartRetriever::queryCompleted)) {
+                logger.info("{} lines written to {}", fileWriter.getNumLinesWritten(), fileWriter.getPath());
+            } else {
+                Files.deleteIfExists(fileWriter.getPath());
+                logger.warn("Not all BioMart queries for {} completed, the file has been deleted", fileWriter.getPath());
+            }
+        }
+    }
+
+    // Checks that a query has finished without throwing anything. It does not wait for queries that have not finished.
+    private static boolean queryCompleted(Future<?> query) {
+        if (!query.isDone() || query.isCancelled()) {
+            return false;
+        }
+        try {
+            query.get();
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits for a query that was submitted to the executor, and rethrows anything that it threw.
+     * @param query - Future, the query.
+     * @return - The result of the query.
+     */
+    private static <T> T getQueryResult(Future<T> query) throws IOException, InterruptedException, BioMartQueryException, HttpException {
+        try {
+            return query.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof BioMartQueryException) {
+                throw (BioMartQueryException) cause;
+            } else if (cause instanceof HttpException) {
+                throw (HttpException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new Error(cause);
         }
     }
 
     /**
-     * Query BioMart for every term in 'biomartSearchTerms', retrieving Ensembl-identifiers mappings where
-     * identifiers can be for microarray, GO, NCBI, and UniProt identifiers.
+     * Submits a BioMart query for every term in 'biomartSearchTerms', retrieving Ensembl-identifiers mappings where
+     * identifiers can be for microarray, GO, NCBI, and UniProt identifiers. All of the queries write to the same file.
+     * @param executor ExecutorService -- Executor that runs the queries.
+     * @param queriesByFile Map<BioMartFileWriter, List<Future<?>>> -- The writer of the file is added to this map, with the submitted queries.
      * @param speciesBioMartName String -- String of species name in BioMart format (eg: hsapiens).
      * @param biomartSearchTerms Set<String> -- All BioMart search terms that will be queried.
      * @param biomartFileSuffix String -- Suffix of file that will hold the queried BioMart data.
      * @throws IOException -- Can be thrown by 'getBioMartXMLFilePath()' if XML query template file is not found.
      */
-    private void queryBioMartForSearchTerms(String speciesBioMartName, Set<String> biomartSearchTerms, String biomartFileSuffix) throws IOException {
-        String biomartFilename = this.destination + speciesBioMartName + biomartFileSuffix;
-        if (!Files.exists(Paths.get(biomartFilename))) {
+    private void queryBioMartForSearchTerms(ExecutorService executor, Map<BioMartFileWriter, List<Future<?>>> queriesByFile,
+                                            String speciesBioMartName, Set<String> biomartSearchTerms, String biomartFileSuffix) throws IOException {
+        Path biomartFilePath = getBioMartFilePath(speciesBioMartName, biomartFileSuffix);
+        if (!Files.exists(biomartFilePath)) {
+            BioMartFileWriter fileWriter = new BioMartFileWriter(biomartFilePath);
+            List<Future<?>> queries = new ArrayList<>();
+            queriesByFile.put(fileWriter, queries);
             // Iterate through each BioMart search term and retrieve Ensembl-identifier  mappings.
             for (String biomartSearchTerm : biomartSearchTerms) {
-                logger.info("Retrieving " + biomartSearchTerm + " mappings from BioMart");
-                queryBioMartAndStoreData(speciesBioMartName, getBioMartXMLFilePath(), biomartSearchTerm, biomartFilename);
+                String biomartQuery = getBioMartIdentifierQuery(getBioMartXMLFilePath(), speciesBioMartName, biomartSearchTerm);
+                queries.add(executor.submit(() -> {
+                    queryBioMartAndStoreData(speciesBioMartName, biomartQuery, biomartSearchTerm, fileWriter);
+                    return null;
+                }));
             }
         } else {
-            logFileExistsMessage(biomartFilename);
+            logFileExistsMessage(biomartFilePath.toString());
         }
     }
 
+    private Path getBioMartFilePath(String speciesBioMartName, String biomartFileSuffix) {
+        return Paths.get(this.destination + speciesBioMartName + biomartFileSuffix);
+    }
+
     // Updates BioMart XML Query with Microarray type information.
     private String getMicroarrayTypesQuery(String bioMartSpeciesName) {
         return this.getDataURL() + microarrayTypesBaseQuery.replace(BIOMART_SPECIES_NAME_PLACEHOLDER, bioMartSpeciesName);
     }
 
     /**
-     * Query BioMart for Microarray 'identifiers' associated with the microarray type and write the data to a file.
+     * Query BioMart for Microarray 'identifiers' associated with the microarray type and write the data to a file as it is received.
+     * Failed queries are logged, and the data of the other queries is still written.
      * @param biomartSpeciesName - String of species name in BioMart format (eg: hsapiens)
-     * @param biomartQueryFilePath - String, Path to the BioMart XML Query file
+     * @param biomartQuery - String, BioMart query URL
      * @param biomartDataType - String, Type of data (either UniProt or Microarray) that will be queried for from BioMart
-     * @param biomartFilename - Name of file (ending either with _uniprot or _microarray_go_ncbi_ids) that will hold associated data.
+     * @param fileWriter - BioMartFileWriter, writer of the file (ending either with _uniprot or _microarray_go_ncbi_ids) that will hold associated data.
      * @throws IOException - Thrown when unable to write data to file.
      */
-    private void queryBioMartAndStoreData(String biomartSpeciesName, String biomartQueryFilePath, String biomartDataType, String biomartFilename) throws IOException {
+    private void queryBioMartAndStoreData(String biomartSpeciesName, String biomartQuery, String biomartDataType, BioMartFileWriter fileWriter) throws IOException {
         logger.info("Querying BioMart for species: {}; data type: {}", biomartSpeciesName, biomartDataType);
-        Set<String> biomartResponseLines = new HashSet<>();
-        logger.info("Retrieving data associated with query ID: {}", biomartDataType);
         try {
-            biomartResponseLines = queryBioMart(
-                    getBioMartIdentifierQuery(biomartQueryFilePath, biomartSpeciesName, biomartDataType),
-                    biomartDataType
-            );
+            queryBioMart(biomartQuery, biomartDataType, biomartResponseLine -> {
+                List<String> tabSplit = Arrays.asList(biomartResponseLine.split("\t"));
+                if (lineContainsIdentifier(tabSplit)) {
+                    fileWriter.writeLine(biomartResponseLine);
+                }
+            });
+        } catch (IOException e) {
+            // Unable to write to the file.
+            throw e;
         } catch (Exception e) {
             logger.error("Unable to retrieve data associated with query ID: " + biomartDataType, e);
             e.printStackTrace();
         }
-        storeBioMartData(biomartFilename, biomartResponseLines);
-    }
-
-    /**
-     * Write response from BioMart to file in the format 'BioMartSpeciesName_microarray_ids_and_go_terms' or 'BioMartSpeciesName_uniprot'.
-     * @param biomartFilename - String, Data from BioMart is saved to this filename.
-     * @param biomartResponseLines - Set<String>, All lines of response from BioMart.
-     * @throws IOException - Thrown when unable to write data to file.
-     */
-    private void storeBioMartData(String biomartFilename, Set<String> biomartResponseLines) throws IOException {
-
-        Set<String> biomartIdentifierLines = new HashSet<>();
-        for (String biomartResponseLine : biomartResponseLines) {
-            List<String> tabSplit = Arrays.asList(biomartResponseLine.split("\t"));
-            if (lineContainsIdentifier(tabSplit)) {
-                biomartIdentifierLines.add(biomartResponseLine + "\n");
-            }
-        }
-
-        // Write data to file.
-        for (String biomartIdentifierLine : biomartIdentifierLines) {
-            Files.write(
-                    Paths.get(biomartFilename),
-                    biomartIdentifierLine.getBytes(),
-                    StandardOpenOption.APPEND, StandardOpenOption.CREATE
-            );
-        }
     }
 
     // Checks that the 4th column contains identifiers (of type Microarray, GO, or UniProt).
@@ -161,23 +274,30 @@ public class EnsemblBioMartRetriever extends FileRetriever {
         return tabSplit.size() > IDENTIFIER_COLUMN && !tabSplit.get(IDENTIFIER_COLUMN).trim().isEmpty();
     }
 
+    /**
+     * Receives the lines of a BioMart response, one at a time.
+     */
+    private interface BioMartLineHandler {
+        void handleLine(String line) throws IOException;
+    }
 
     /**
      * This method queries BioMart using either a URL (see variable 'microarrayTypesBaseQuery) or an XML (see biomart-query.xml in resources) query.
      * It will retry up to 5 times if errors are returned from BioMart instead of data. This initial method sets the initial retry count.
      * There are multiple cases (Both S. cerevisiae & S. pombe yeasts, P. falciparum and D. discoideum) where the data does not exist in BioMart.
      * @param queryString - String, URL/XML string that will be used to query BioMart.
-     * @return - Set<String>, All lines of successful BioMart response.
-     * @throws IOException - Thrown by HttpURLConnection, BufferedReader, URL classes.
+     * @param lineHandler - BioMartLineHandler, receives each line of the response as it is read. If a query is retried, lines received before
+     * the retry are not taken back, so the handler may see some lines twice.
+     * @throws IOException - Thrown by HttpURLConnection, BufferedReader, URL classes, or the line handler.
      * @throws InterruptedException - Thrown if Sleep is interrupted when waiting to retry BioMart query.
      * @throws BioMartQueryException - Thrown if BioMart query doesn't match any existing data in their database.
      * @throws HttpException - Thrown when the Http request to BioMart returns a non-200 response.
      */
-    private Set<String> queryBioMart(String queryString, String biomartDataType)
+    private void queryBioMart(String queryString, String biomartDataType, BioMartLineHandler lineHandler)
             throws InterruptedException, HttpException, BioMartQueryException, IOException {
 
         int initialRetryCount = 0;
-        return queryBioMart(queryString, initialRetryCount, biomartDataType);
+        queryBioMart(queryString, initialRetryCount, biomartDataType, lineHandler);
     }
 
     /**
@@ -186,68 +306,69 @@ public class EnsemblBioMartRetriever extends FileRetriever {
      * There are multiple cases (Both S. cerevisiae & S. pombe yeasts, P. falciparum and D. discoideum) where the data does not exist in BioMart.
      * @param queryString - String, URL/XML string that will be used to query BioMart.
      * @param retryCount - int, Denotes how many times this query has been tried with BioMart.
-     * @return - Set<String>, All lines of successful BioMart response.
-     * @throws IOException - Thrown by HttpURLConnection, BufferedReader, URL classes.
+     * @param lineHandler - BioMartLineHandler, receives each line of the response as it is read.
+     * @throws IOException - Thrown by HttpURLConnection, BufferedReader, URL classes, or the line handler.
      * @throws InterruptedException - Thrown if Sleep is interrupted when waiting to retry BioMart query.
      * @throws BioMartQueryException - Thrown if BioMart query doesn't match any existing data in their database.
      * If/When this exception is thrown for this species, it can be ignored. Check the logs from previous runs to confirm.
      * @throws HttpException - Thrown when the Http request to BioMart returns a non-200 response.
      */
-    private Set<String> queryBioMart(String queryString, int retryCount, String biomartDataType) throws IOException, InterruptedException, BioMartQueryException, HttpException {
+    private void queryBioMart(String queryString, int retryCount, String biomartDataType, BioMartLineHandler lineHandler) throws IOException, InterruptedException, BioMartQueryException, HttpException {
         final int MAX_QUERY_RETRIES = 5;
         int numLinesProcessed = 0;
         // Create connection to BioMart URL for each species, retrieving mappings of Ensembl identifiers to microarray, GO, or UniProt identifiers.
         URL biomartUrlWithSpecies = new URL(queryString);
         HttpURLConnection biomartConnection = (HttpURLConnection) biomartUrlWithSpecies.openConnection();
-        if (biomartConnection.getResponseCode() == HttpStatus.SC_OK) {
-            Set<String> biomartResponseLines = new HashSet<>();
-            BufferedReader br = new BufferedReader(new InputStreamReader(biomartConnection.getInputStream()));
-            String line;
-            while ((line = br.readLine()) != null) {
-                numLinesProcessed++;
-                // BioMart still responds with a 200, even if no data exists. For now, we handle it by
-                // checking the returned content for the string 'ERROR'. It will retry up to 5 times, with a 10 second delay.
-                if (line.contains("ERROR") ) {
-                    if (retryCount > MAX_QUERY_RETRIES) {
-                        // The data does not exist in BioMart for a few species. Frog (X. tropicalis) has UniProt data but not Microarray data;
-                        // Yeast (S. cerevisiae) has Uniprot-SwissProt data but not UniProt-TrEMBL data; Yeast (S. pombe), P. falciparum
-                        // and D. discoideum don't have UniProt or Microarray data, all at time of writing (January 2020).
-                        throw new BioMartQueryException(line +
-                                "\nThis can happen without issue for certain species (D. discoideum, S. pombe, S. cerevisiae, P. falciparum) " +
-                                "because the data doesn't exist in BioMart");
+        try {
+            if (biomartConnection.getResponseCode() == HttpStatus.SC_OK) {
+                try (BufferedReader br = new BufferedReader(new InputStreamReader(biomartConnection.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        numLinesProcessed++;
+                        // BioMart still responds with a 200, even if no data exists. For now, we handle it by
+                        // checking the returned content for the string 'ERROR'. It will retry up to 5 times, with a 10 second delay.
+                        if (line.contains("ERROR") ) {
+                            if (retryCount > MAX_QUERY_RETRIES) {
+                                // The data does not exist in BioMart for a few species. Frog (X. tropicalis) has UniProt data but not Microarray data;
+                                // Yeast (S. cerevisiae) has Uniprot-SwissProt data but not UniProt-TrEMBL data; Yeast (S. pombe), P. falciparum
+                                // and D. discoideum don't have UniProt or Microarray data, all at time of writing (January 2020).
+                                throw new BioMartQueryException(line +
+                                        "\nThis can happen without issue for certain species (D. discoideum, S. pombe, S. cerevisiae, P. falciparum) " +
+                                        "because the data doesn't exist in BioMart");
+                            }
+                            break;
+                        } else {
+                            lineHandler.handleLine(line);
+                        }
+
+                        if (numLinesProcessed % 10000 == 0) {
+                            logger.info("Processed " + numLinesProcessed + " for " + biomartDataType);
+                        }
+                    }
+                    if (line == null) {
+                        return;
                     }
-
-                    return retryQuery(queryString, retryCount+1, biomartDataType);
-
-                } else {
-                    biomartResponseLines.add(line);
-                }
-
-                if (numLinesProcessed % 10000 == 0) {
-                    logger.info("Processed " + numLinesProcessed + " for " + biomartDataType);
                 }
-            }
-            return biomartResponseLines;
-
-        } else {
-            if (retryCount > MAX_QUERY_RETRIES) {
+            } else if (retryCount > MAX_QUERY_RETRIES) {
                 throw new HttpException(
                         "Unable to connect to BioMart (" +
                                 biomartConnection.getResponseCode() + ": " + biomartConnection.getResponseMessage() +
                                 ") with URL: " + queryString
                 );
             }
-            return retryQuery(queryString, retryCount+1, biomartDataType);
+        } finally {
+            biomartConnection.disconnect();
         }
+        retryQuery(queryString, retryCount+1, biomartDataType, lineHandler);
     }
 
     // Recursive method that retries the BioMart query.
-    private Set<String> retryQuery(String queryString, int retryCount, String biomartDataType) throws InterruptedException, IOException, HttpException, BioMartQueryException {
+    private void retryQuery(String queryString, int retryCount, String biomartDataType, BioMartLineHandler lineHandler) throws InterruptedException, IOException, HttpException, BioMartQueryException {
         final long QUERY_SLEEP_DURATION = Duration.ofSeconds(5).toMillis();
 
         Thread.sleep(QUERY_SLEEP_DURATION);
         logger.warn("BioMart query failed. Trying again...");
-        return queryBioMart(queryString, retryCount, biomartDataType);
+        queryBioMart(queryString, retryCount, biomartDataType, lineHandler);
     }
 
     // Gets the filepath to BioMart XML file, used to build BioMart query.
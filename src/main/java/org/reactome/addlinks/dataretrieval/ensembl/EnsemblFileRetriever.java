@@ -1,25 +1,37 @@
 package org.reactome.addlinks.dataretrieval.ensembl;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
 import org.apache.http.HttpStatus;
-import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.reactome.addlinks.http.client.HostRateLimiter;
+import org.reactome.addlinks.http.client.SharedHttpClient;
 import org.reactome.util.ensembl.EnsemblServiceResponseProcessor.EnsemblServiceResult;
 import org.reactome.release.common.dataretrieval.FileRetriever;
 import org.reactome.util.ensembl.EnsemblServiceResponseProcessor;
@@ -31,6 +43,20 @@ public class EnsemblFileRetriever extends FileRetriever
 	private String species;
 	private List<String> identifiers;
 
+	// Each Ensembl host gets its own pool of threads for requests, shared by all of the retrievers, so that no host gets more than
+	// maxConcurrentRequestsPerHost requests at a time. Idle threads time out, so the pools don't keep threads around once the downloads are done.
+	private static final Map<String, ExecutorService> hostExecutors = new ConcurrentHashMap<>();
+	private static int maxConcurrentRequestsPerHost = 4;
+	private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+	// Matches the characters that are not allowed in XML 1.0.
+	private static final Pattern INVALID_XML_10_CHARACTERS = Pattern.compile("[^"
+																			+ "\u0009\r\n"
+																			+ "\u0020-\uD7FF"
+																			+ "\uE000-\uFFFD"
+																			+ "\ud800\udc00-\udbff\udfff"
+																			+ "]");
+
 	public EnsemblFileRetriever() { }
 
 	public EnsemblFileRetriever(String retrieverName)
@@ -162,98 +188,208 @@ public class EnsemblFileRetriever extends FileRetriever
 		// 2) Process the results. Extract the "Parent" value for each "id" in the resultset. This Parent is probably a Transcript ID which you can use to do another lookup (or maybe batch of lookups?)
 		// 3) Process the results again. This time, the "Parent" should be a gene ID. This can be used to query against the xref endpoint (http://rest.ensembl.org/xrefs/id/) but it does not accept POST so must do them 1 by 1!
 
+		Path path;
+		try
+		{
+			path = Paths.get(new URI("file://" + this.destination));
+		}
+		catch (URISyntaxException e)
+		{
+			e.printStackTrace();
+			throw new Error(e);
+		}
+		logger.debug("{} identifiers to look up.", this.identifiers.size());
+
+		// Requests are sent from the Ensembl host's own pool of threads, so all of the retrievers together never have more than
+		// maxConcurrentRequestsPerHost requests in progress. Each response is written to the file as soon as it arrives (the order of the
+		// responses in the file does not matter), so the responses are never all held in memory at once.
+		CompletionService<XrefResult> completionService = new ExecutorCompletionService<>(EnsemblFileRetriever.getHostExecutor(this.uri.getHost()));
 		try
 		{
-			Path path = Paths.get(new URI("file://" + this.destination));
-			StringBuffer sb = new StringBuffer("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<ensemblResponses>\n");
-			logger.debug("{} identifiers to look up.", identifiers.size());
-			identifiers.parallelStream().forEach( identifier ->
+			Files.createDirectories(path.getParent());
+			try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
 			{
-				URIBuilder builder = new URIBuilder();
-
-				builder.setHost(this.uri.getHost())
-						.setPath(this.uri.getPath() + identifier)
-						.setScheme(this.uri.getScheme())
-						.addParameter("content-type", "text/xml")
-						.addParameter("all_levels", "1")
-						.addParameter("species", this.species)
-						.addParameter("external_db", this.getMapToDb());
-				try
+				writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<ensemblResponses>\n");
+				List<String> identifiersToRequest = this.identifiers;
+				int attemptCount = 0;
+				while (!identifiersToRequest.isEmpty())
 				{
-					HttpGet get = new HttpGet(builder.build());
-					logger.trace("URI: "+get.getURI());
-					boolean done = false;
-					EnsemblServiceResponseProcessor responseProcessor = new EnsemblServiceResponseProcessor(this.logger);
-					while (!done)
+					attemptCount++;
+					List<String> failedIdentifiers = this.requestXrefs(identifiersToRequest, completionService, writer);
+					if (!failedIdentifiers.isEmpty())
 					{
-						try (CloseableHttpClient getClient = HttpClients.createDefault();
-								CloseableHttpResponse getResponse = getClient.execute(get);)
+						if (attemptCount > this.numRetries)
 						{
-							EnsemblServiceResult result = responseProcessor.processResponse(getResponse, get.getURI());
-							if (!result.getWaitTime().equals(Duration.ZERO))
-							{
-								logger.info("Need to wait: {} seconds.", result.getWaitTime().getSeconds());
-								Thread.sleep(result.getWaitTime().toMillis());
-								done = false;
-							}
-							else
-							{
-								// Only record the successful responses.
-								if (result.getStatus() == HttpStatus.SC_OK)
-								{
-									String content = result.getResult().trim();
-									sb.append("<ensemblResponse id=\""+identifier+"\" URL=\"" + URLEncoder.encode(get.getURI().toString(), "UTF-8")  + "\">\n"+content+"</ensemblResponse>\n");
-								}
-								else if (result.getStatus() == HttpStatus.SC_BAD_REQUEST)
-								{
-									logger.trace("Got BAD_REQUEST reponse. This was the request that was sent: {}", get.toString());
-								}
-								done = true;
-							}
-						}
-						catch (InterruptedException e)
-						{
-							e.printStackTrace();
-							throw new Error(e);
-
+							logger.warn("Requests for {} of {} identifiers failed after {} attempts, so their cross-references are missing from {}", failedIdentifiers.size(), this.identifiers.size(), attemptCount, path);
+							break;
 						}
+						// Only the identifiers whose requests failed are tried again.
+						logger.info("Requests for {} identifiers failed, will try them again.", failedIdentifiers.size());
 					}
+					identifiersToRequest = failedIdentifiers;
 				}
-				catch (URISyntaxException e)
-				{
-					e.printStackTrace();
-					throw new Error(e);
-				}
-				catch (ClientProtocolException e)
-				{
-					e.printStackTrace();
-					throw new Error(e);
-				}
-				catch (IOException e)
-				{
-					e.printStackTrace();
-					throw new Error(e);
-				}
-			});
-			Files.createDirectories(path.getParent());
-			String xml10pattern = "[^"
-					+ "\u0009\r\n"
-					+ "\u0020-\uD7FF"
-					+ "\uE000-\uFFFD"
-					+ "\ud800\udc00-\udbff\udfff"
-					+ "]";
-			sb.append("</ensemblResponses>");
-			Files.write(path, sb.toString().trim().replaceAll(xml10pattern, "").getBytes(Charset.forName("UTF-8")), StandardOpenOption.CREATE);
+				writer.write("</ensemblResponses>");
+			}
 		}
 		catch (IOException e)
 		{
 			e.printStackTrace();
 			throw new Error(e);
 		}
-		catch (URISyntaxException e)
+		catch (InterruptedException e)
 		{
 			e.printStackTrace();
+			Thread.currentThread().interrupt();
 			throw new Error(e);
 		}
+		catch (ExecutionException e)
+		{
+			e.getCause().printStackTrace();
+			throw new Error(e.getCause());
+		}
+	}
+
+	/**
+	 * Requests the cross-references of some identifiers, and writes the successful responses. No more than maxConcurrentRequestsPerHost requests from
+	 * this retriever are waiting or in progress at any time.
+	 * @param identifiers - the identifiers to request.
+	 * @param completionService - the completion service that the requests are run by.
+	 * @param writer - the responses are written to this.
+	 * @return The identifiers whose requests failed and could be tried again.
+	 */
+	private List<String> requestXrefs(List<String> identifiers, CompletionService<XrefResult> completionService, Writer writer) throws IOException, InterruptedException, ExecutionException
+	{
+		List<String> failedIdentifiers = new ArrayList<>();
+		int maxInFlight = EnsemblFileRetriever.maxConcurrentRequestsPerHost;
+		int nextIdentifier = 0;
+		int numInFlight = 0;
+		while (nextIdentifier < identifiers.size() || numInFlight > 0)
+		{
+			while (nextIdentifier < identifiers.size() && numInFlight < maxInFlight)
+			{
+				String identifier = identifiers.get(nextIdentifier);
+				completionService.submit(() -> this.requestXref(identifier));
+				nextIdentifier++;
+				numInFlight++;
+			}
+			XrefResult result = completionService.take().get();
+			numInFlight--;
+			if (!result.complete)
+			{
+				failedIdentifiers.add(result.identifier);
+			}
+			else if (result.content != null)
+			{
+				String response = "<ensemblResponse id=\""+result.identifier+"\" URL=\"" + URLEncoder.encode(result.uri.toString(), "UTF-8")  + "\">\n"+result.content+"</ensemblResponse>\n";
+				// Remove any characters that are not allowed in XML 1.0, so that the file can be parsed.
+				writer.write(INVALID_XML_10_CHARACTERS.matcher(response).replaceAll(""));
+			}
+		}
+		return failedIdentifiers;
+	}
+
+	/**
+	 * Requests the cross-references of one identifier, waiting and trying again whenever Ensembl says to wait.
+	 * @return The result. It is complete if Ensembl gave a definite answer, and incomplete if the request failed and could be tried again.
+	 */
+	private XrefResult requestXref(String identifier) throws URISyntaxException, InterruptedException
+	{
+		URIBuilder builder = new URIBuilder();
+
+		builder.setHost(this.uri.getHost())
+				.setPort(this.uri.getPort())
+				.setPath(this.uri.getPath() + identifier)
+				.setScheme(this.uri.getScheme())
+				.addParameter("content-type", "text/xml")
+				.addParameter("all_levels", "1")
+				.addParameter("species", this.species)
+				.addParameter("external_db", this.getMapToDb());
+		HttpGet get = new HttpGet(builder.build());
+		logger.trace("URI: "+get.getURI());
+		EnsemblServiceResponseProcessor responseProcessor = new EnsemblServiceResponseProcessor(this.logger);
+		HostRateLimiter rateLimiter = HostRateLimiter.forURI(get.getURI());
+		while (true)
+		{
+			rateLimiter.acquire();
+			try (CloseableHttpResponse getResponse = SharedHttpClient.getClient().execute(get);)
+			{
+				rateLimiter.onResponse(getResponse);
+				EnsemblServiceResult result = responseProcessor.processResponse(getResponse, get.getURI());
+				if (!result.getWaitTime().equals(Duration.ZERO))
+				{
+					// Pausing the rate limiter makes every other request to ENSEMBL wait too.
+					logger.info("Need to wait: {} seconds.", result.getWaitTime().getSeconds());
+					rateLimiter.pause(result.getWaitTime());
+				}
+				else if (result.getStatus() == HttpStatus.SC_OK)
+				{
+					// Only record the successful responses.
+					return new XrefResult(identifier, get.getURI(), result.getResult().trim(), true);
+				}
+				else if (result.getStatus() == HttpStatus.SC_BAD_REQUEST)
+				{
+					logger.trace("Got BAD_REQUEST reponse. This was the request that was sent: {}", get.toString());
+					return new XrefResult(identifier, get.getURI(), null, true);
+				}
+				else if (result.getStatus() >= HttpStatus.SC_INTERNAL_SERVER_ERROR)
+				{
+					logger.debug("Got {} response for {}", result.getStatus(), get.getURI());
+					return new XrefResult(identifier, get.getURI(), null, false);
+				}
+				else
+				{
+					return new XrefResult(identifier, get.getURI(), null, true);
+				}
+			}
+			catch (IOException e)
+			{
+				logger.error("Error requesting {}: {}", get.getURI(), e.getMessage());
+				return new XrefResult(identifier, get.getURI(), null, false);
+			}
+		}
+	}
+
+	/**
+	 * Sets the maximum number of requests that are sent to any one Ensembl host at the same time, by all of the retrievers together.
+	 * This only affects hosts that have not been sent any requests yet.
+	 * @param maxConcurrentRequestsPerHost - the maximum number of concurrent requests per host.
+	 */
+	public static synchronized void setMaxConcurrentRequestsPerHost(int maxConcurrentRequestsPerHost)
+	{
+		EnsemblFileRetriever.maxConcurrentRequestsPerHost = Math.max(1, maxConcurrentRequestsPerHost);
+	}
+
+	private static ExecutorService getHostExecutor(String host)
+	{
+		return hostExecutors.computeIfAbsent(host == null ? "" : host.toLowerCase(), h -> {
+			AtomicInteger threadCount = new AtomicInteger(0);
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentRequestsPerHost, maxConcurrentRequestsPerHost, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+																	runnable -> {
+																		Thread thread = new Thread(runnable, "EnsemblRequest-" + h + "-" + threadCount.incrementAndGet());
+																		thread.setDaemon(true);
+																		return thread;
+																	});
+			executor.allowCoreThreadTimeOut(true);
+			return executor;
+		});
+	}
+
+	/**
+	 * The response to a request for the cross-references of one identifier.
+	 */
+	private static class XrefResult
+	{
+		private final String identifier;
+		private final URI uri;
+		private final String content;
+		private final boolean complete;
+
+		XrefResult(String identifier, URI uri, String content, boolean complete)
+		{
+			this.identifier = identifier;
+			this.uri = uri;
+			this.content = content;
+			this.complete = complete;
+		}
 	}
 }
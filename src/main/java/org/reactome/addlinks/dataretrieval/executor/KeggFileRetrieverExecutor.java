@@ -11,6 +11,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.reactome.addlinks.dataretrieval.KEGGFileRetriever;
 import org.reactome.addlinks.dataretrieval.UniprotFileRetriever;
@@ -30,6 +31,35 @@ public class KeggFileRetrieverExecutor extends AbstractFileRetrieverExecutor
 		this.uniprotFileRetrievers = uniprotRetrievers;
 	}
 
+	/**
+	 * Determines if a UniProt mapping file is valid for KEGG to use. It's valid if: it's a ".txt" file (so not the ".progress" file of an unfinished
+	 * download, or a temporary file); it's not a "notMapped" file; it contains "KEGG"; it's valid on the filesystem; one of the species' IDs is in
+	 * the filename; it has content.
+	 * @param fileName - the name of the file.
+	 * @param speciesIds - the IDs of the species that the file should be for.
+	 * @return true if the file can be used.
+	 */
+	public static boolean isValidKEGGMappingFile(String fileName, List<String> speciesIds)
+	{
+		if (!fileName.endsWith(".txt")
+				|| fileName.contains(".notMapped")
+				|| !fileName.contains("KEGG")
+				|| !Files.exists(Paths.get(fileName))
+				|| speciesIds.stream().noneMatch(s -> fileName.contains(s)))
+		{
+			return false;
+		}
+		try (Stream<String> lines = Files.lines(Paths.get(fileName)))
+		{
+			return lines.count() > 1;
+		}
+		catch (IOException e1)
+		{
+			e1.printStackTrace();
+			return false;
+		}
+	}
+
 	@Override
 	public Boolean call() throws Exception
 	{
@@ -54,27 +84,7 @@ public class KeggFileRetrieverExecutor extends AbstractFileRetrieverExecutor
 				logger.debug("Species Name: {} Species Code: {}", speciesName, speciesCode);
 
 				// A predicate to determine if a UniProt mapping file is valid for KEGG to use.
-				// It's valid if: it's not a "notMapped" file; it contains "KEGG"; it's valid on the filesystem; the current (of this loop) species is in the filename; it has content
-				Predicate<String> isValidKEGGmappingFile = new Predicate<String>()
-				{
-					@Override
-					public boolean test(String fileName)
-					{
-						try
-						{
-							return !fileName.contains(".notMapped")
-									&& fileName.contains("KEGG")
-									&& Files.exists(Paths.get(fileName))
-									&& objectCache.getSpeciesNamesToIds().get(speciesName).stream().anyMatch(s -> fileName.contains(s))
-									&& Files.lines(Paths.get(fileName)).count() > 1;
-						}
-						catch (IOException e1)
-						{
-							e1.printStackTrace();
-							return false;
-						}
-					}
-				};
+				Predicate<String> isValidKEGGmappingFile = fileName -> KeggFileRetrieverExecutor.isValidKEGGMappingFile(fileName, objectCache.getSpeciesNamesToIds().get(speciesName));
 
 				List<Path> uniProtToKeggFiles = uniprotToKeggRetriever.getActualFetchDestinations().stream()
 																			.filter(fileName -> isValidKEGGmappingFile.test(fileName))
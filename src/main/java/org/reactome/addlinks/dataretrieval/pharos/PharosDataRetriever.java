@@ -17,11 +17,10 @@ import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.HttpHostConnectException;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.reactome.addlinks.http.client.SharedHttpClient;
 import org.reactome.release.common.dataretrieval.FileRetriever;
 
 /**
@@ -88,8 +87,7 @@ public abstract class PharosDataRetriever extends FileRetriever
 				while (!done)
 				{
 					String jsonResponse = "";
-					try (CloseableHttpClient client = HttpClients.createDefault();
-						CloseableHttpResponse response = client.execute(post, context); )
+					try (CloseableHttpResponse response = SharedHttpClient.getClient().execute(post, context); )
 					{
 						int statusCode = response.getStatusLine().getStatusCode();
 						// If status code was not 200, we should print something so that the users know that an unexpected response was received.
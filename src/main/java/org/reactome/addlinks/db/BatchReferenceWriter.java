@@ -0,0 +1,569 @@
+package org.reactome.addlinks.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import org.gk.model.InstanceCache;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.GKSchemaAttribute;
+import org.gk.schema.SchemaAttribute;
+import org.gk.schema.SchemaClass;
+
+/**
+ * Collects new references (and the DB_ID of the instance that will refer to each of them) and writes them to the database in chunks.
+ * Each chunk is written inside a single transaction, using multi-row INSERT statements for the new instances and for the
+ * referring instances' attribute rows, instead of the several round-trips per reference that MySQLAdaptor.storeInstance and
+ * MySQLAdaptor.updateInstanceAttribute would need.
+ * <br/>
+ * The SQL is generated from the schema in the same way that MySQLAdaptor does it: single-valued attributes are columns in the table of
+ * the class that defines them, multi-valued attributes are in a "&lt;Class&gt;_2_&lt;attribute&gt;" table, and instance-type attributes
+ * have an extra "&lt;attribute&gt;_class" column.
+ */
+class BatchReferenceWriter
+{
+	// Keep statements well under the server's max_allowed_packet.
+	static final int MAX_ROWS_PER_STATEMENT = 500;
+
+	private MySQLAdaptor adapter;
+	private DbIdBlockAllocator dbIdAllocator;
+	private SchemaClass referringToSchemaClass;
+	private GKSchemaAttribute referringAttribute;
+	private Logger logger;
+
+	private List<PendingReference> pendingReferences = new ArrayList<>();
+
+	/**
+	 * A new reference that has not been written to the database yet.
+	 */
+	static class PendingReference
+	{
+		private final long dbId;
+		private final GKInstance instance;
+		private final GKInstance refDBInstance;
+		private final long referrerDbId;
+		private final String identifier;
+
+		PendingReference(long dbId, GKInstance instance, GKInstance refDBInstance, long referrerDbId, String identifier)
+		{
+			this.dbId = dbId;
+			this.instance = instance;
+			this.refDBInstance = refDBInstance;
+			this.referrerDbId = referrerDbId;
+			this.identifier = identifier;
+		}
+
+		long getDbId()
+		{
+			return this.dbId;
+		}
+
+		GKInstance getInstance()
+		{
+			return this.instance;
+		}
+
+		GKInstance getRefDBInstance()
+		{
+			return this.refDBInstance;
+		}
+
+		long getReferrerDbId()
+		{
+			return this.referrerDbId;
+		}
+
+		String getIdentifier()
+		{
+			return this.identifier;
+		}
+	}
+
+	BatchReferenceWriter(MySQLAdaptor adapter, DbIdBlockAllocator dbIdAllocator, SchemaClass referringToSchemaClass, GKSchemaAttribute referringAttribute, Logger logger)
+	{
+		this.adapter = adapter;
+		this.dbIdAllocator = dbIdAllocator;
+		this.referringToSchemaClass = referringToSchemaClass;
+		this.referringAttribute = referringAttribute;
+		this.logger = logger;
+	}
+
+	/**
+	 * Queues a new reference. The DB_ID for the new instance is allocated immediately, but nothing is written until {@link #flush(GKInstance)} is called.
+	 * @param instance - the new instance. Its _displayName will be (re)generated when it is written.
+	 * @param refDBInstance - the ReferenceDatabase of the new instance.
+	 * @param referrerDbId - the DB_ID of the instance that will refer to the new instance.
+	 * @param identifier - the identifier of the new instance.
+	 * @return The DB_ID that the new instance will have. If the chunk that the instance is in fails to be written, nothing will have this DB_ID.
+	 * @throws SQLException if a new block of DB_IDs could not be reserved.
+	 */
+	synchronized long add(GKInstance instance, GKInstance refDBInstance, long referrerDbId, String identifier) throws SQLException
+	{
+		long dbId = this.dbIdAllocator.nextDbId();
+		this.pendingReferences.add(new PendingReference(dbId, instance, refDBInstance, referrerDbId, identifier));
+		return dbId;
+	}
+
+	synchronized int size()
+	{
+		return this.pendingReferences.size();
+	}
+
+	/**
+	 * Writes all pending references in a single transaction.
+	 * @param instanceEdit - the InstanceEdit that will be added to the "modified" list of each referring instance.
+	 * @return The references that were written. The DB_ID of each instance will have been set.
+	 * @throws Exception if the chunk could not be written. The transaction will have been rolled back, the references are no longer pending,
+	 * and they will have been removed from the cross-reference indices again.
+	 */
+	synchronized List<PendingReference> flush(GKInstance instanceEdit) throws Exception
+	{
+		if (this.pendingReferences.isEmpty())
+		{
+			return Collections.emptyList();
+		}
+		List<PendingReference> chunk = this.pendingReferences;
+		this.pendingReferences = new ArrayList<>();
+
+		Set<Long> referrerDbIds = chunk.stream().map(PendingReference::getReferrerDbId).collect(Collectors.toSet());
+		Connection connection = this.adapter.getConnection();
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try
+		{
+			this.checkReferrersExist(connection, referrerDbIds);
+			this.addGeneNamesFromReferrers(connection, chunk, referrerDbIds);
+
+			Map<String, MultiRowInsert> inserts = new LinkedHashMap<>();
+			for (PendingReference pendingReference : chunk)
+			{
+				ReferenceCreator.generateDisplayName(pendingReference.getInstance());
+				this.addInstanceRows(inserts, pendingReference);
+			}
+			for (MultiRowInsert insert : inserts.values())
+			{
+				insert.execute(connection);
+			}
+
+			Map<Long, List<GKInstance>> newValuesByReferrer = groupByReferrer(chunk);
+			// Until the transaction is committed, the new instances do not have DB_IDs set on them, so pass them in explicitly.
+			// An IdentityHashMap is used because none of these instances have a DB_ID yet.
+			Map<GKInstance, Long> newDbIds = new IdentityHashMap<>();
+			for (PendingReference pendingReference : chunk)
+			{
+				newDbIds.put(pendingReference.getInstance(), pendingReference.getDbId());
+			}
+			this.appendToReferrers(connection, this.referringAttribute, newValuesByReferrer, newDbIds, false);
+
+			Map<Long, List<GKInstance>> instanceEditByReferrer = new LinkedHashMap<>();
+			for (Long referrerDbId : referrerDbIds)
+			{
+				instanceEditByReferrer.put(referrerDbId, Collections.singletonList(instanceEdit));
+			}
+			GKSchemaAttribute modifiedAttribute = (GKSchemaAttribute) this.referringToSchemaClass.getAttribute(ReactomeJavaConstants.modified);
+			this.appendToReferrers(connection, modifiedAttribute, instanceEditByReferrer, Collections.emptyMap(), true);
+
+			connection.commit();
+		}
+		catch (Exception e)
+		{
+			this.logger.error("Error while writing a chunk of {} new references, the transaction will be rolled back: {}", chunk.size(), e.getMessage());
+			connection.rollback();
+			// The references were added to the cross-reference indices when they were queued, but now they will never exist.
+			for (PendingReference pendingReference : chunk)
+			{
+				CrossReferenceIndex.registerDeletedReference(this.referringAttribute.getName(), pendingReference.getRefDBInstance().getDBID(), pendingReference.getReferrerDbId(), pendingReference.getIdentifier());
+			}
+			throw e;
+		}
+		finally
+		{
+			connection.setAutoCommit(autoCommit);
+		}
+
+		for (PendingReference pendingReference : chunk)
+		{
+			pendingReference.getInstance().setDBID(pendingReference.getDbId());
+		}
+		this.reloadCachedReferrers(referrerDbIds);
+		this.logger.debug("Wrote {} new references for {} referring instances", chunk.size(), referrerDbIds.size());
+		return chunk;
+	}
+
+	/**
+	 * Groups the new instances in a chunk by the DB_ID of the instance that will refer to them, keeping the order they were added in.
+	 */
+	static Map<Long, List<GKInstance>> groupByReferrer(List<PendingReference> chunk)
+	{
+		Map<Long, List<GKInstance>> instancesByReferrer = new LinkedHashMap<>();
+		for (PendingReference pendingReference : chunk)
+		{
+			instancesByReferrer.computeIfAbsent(pendingReference.getReferrerDbId(), k -> new ArrayList<>()).add(pendingReference.getInstance());
+		}
+		return instancesByReferrer;
+	}
+
+	/**
+	 * The referrers' new attribute rows were written with plain SQL, so any copies of the referrers in the adaptor's instance cache are out of date.
+	 * If one of them was later updated through the adaptor (for example, by MySQLAdaptor.updateInstanceAttribute), its old values would be written
+	 * back over the new rows. Now that the chunk has been committed, the two attributes that were changed are reloaded for the referrers that are
+	 * in the cache. Referrers that are not in the cache will be loaded with the new values whenever they are fetched.
+	 */
+	private void reloadCachedReferrers(Set<Long> referrerDbIds) throws Exception
+	{
+		if (!this.adapter.isUseCache())
+		{
+			return;
+		}
+		InstanceCache instanceCache = this.adapter.getInstanceCache();
+		List<GKInstance> cachedReferrers = referrerDbIds.stream().map(instanceCache::get).filter(Objects::nonNull).collect(Collectors.toList());
+		if (!cachedReferrers.isEmpty())
+		{
+			this.adapter.loadInstanceAttributeValues(cachedReferrers, new String[] { this.referringAttribute.getName(), ReactomeJavaConstants.modified });
+		}
+	}
+
+	/**
+	 * Makes sure that all of the instances that will refer to new references actually exist.
+	 */
+	private void checkReferrersExist(Connection connection, Set<Long> referrerDbIds) throws Exception
+	{
+		Set<Long> existingDbIds = new HashSet<>();
+		String sql = "SELECT DB_ID FROM DatabaseObject WHERE DB_ID IN (" + placeholders(referrerDbIds.size()) + ")";
+		try (PreparedStatement statement = connection.prepareStatement(sql))
+		{
+			setParameters(statement, 1, referrerDbIds);
+			try (ResultSet results = statement.executeQuery())
+			{
+				while (results.next())
+				{
+					existingDbIds.add(results.getLong(1));
+				}
+			}
+		}
+		for (Long referrerDbId : referrerDbIds)
+		{
+			if (!existingDbIds.contains(referrerDbId))
+			{
+				throw new Exception("Could not find the instance of type " + this.referringToSchemaClass.getName() + " with ID " + referrerDbId);
+			}
+		}
+	}
+
+	/**
+	 * If the new instances can have a geneName, use the (first) geneName of the referring instance, the same way that
+	 * ReferenceCreator does when it creates references one at a time.
+	 */
+	private void addGeneNamesFromReferrers(Connection connection, List<PendingReference> chunk, Set<Long> referrerDbIds) throws Exception
+	{
+		SchemaClass newInstanceClass = chunk.get(0).getInstance().getSchemClass();
+		if (!newInstanceClass.isValidAttribute(ReactomeJavaConstants.geneName) || !this.referringToSchemaClass.isValidAttribute(ReactomeJavaConstants.geneName))
+		{
+			return;
+		}
+		GKSchemaAttribute geneNameAttribute = (GKSchemaAttribute) this.referringToSchemaClass.getAttribute(ReactomeJavaConstants.geneName);
+		String geneName = ReactomeJavaConstants.geneName;
+		String sql;
+		if (geneNameAttribute.isMultiple())
+		{
+			String table = geneNameAttribute.getOrigin().getName() + "_2_" + geneName;
+			sql = "SELECT DB_ID, " + geneName + " FROM " + table + " WHERE DB_ID IN (" + placeholders(referrerDbIds.size()) + ") ORDER BY DB_ID, " + geneName + "_rank";
+		}
+		else
+		{
+			sql = "SELECT DB_ID, " + geneName + " FROM " + geneNameAttribute.getOrigin().getName() + " WHERE DB_ID IN (" + placeholders(referrerDbIds.size()) + ")";
+		}
+		Map<Long, String> geneNamesByReferrer = new HashMap<>();
+		try (PreparedStatement statement = connection.prepareStatement(sql))
+		{
+			setParameters(statement, 1, referrerDbIds);
+			try (ResultSet results = statement.executeQuery())
+			{
+				while (results.next())
+				{
+					if (results.getString(2) != null)
+					{
+						geneNamesByReferrer.putIfAbsent(results.getLong(1), results.getString(2));
+					}
+				}
+			}
+		}
+		for (PendingReference pendingReference : chunk)
+		{
+			String referrerGeneName = geneNamesByReferrer.get(pendingReference.getReferrerDbId());
+			if (referrerGeneName != null)
+			{
+				pendingReference.getInstance().addAttributeValue(ReactomeJavaConstants.geneName, referrerGeneName);
+			}
+		}
+	}
+
+	/**
+	 * Adds the rows for a new instance: one row in the table of each class in its hierarchy, plus rows for its multi-valued attributes.
+	 */
+	@SuppressWarnings("unchecked")
+	private void addInstanceRows(Map<String, MultiRowInsert> inserts, PendingReference pendingReference) throws Exception
+	{
+		GKInstance instance = pendingReference.getInstance();
+		SchemaClass schemaClass = instance.getSchemClass();
+		List<SchemaClass> classHierarchy = new ArrayList<>((Collection<SchemaClass>) schemaClass.getOrderedAncestors());
+		classHierarchy.add(schemaClass);
+
+		Map<String, List<String>> columnsByTable = new LinkedHashMap<>();
+		Map<String, List<Object>> valuesByTable = new LinkedHashMap<>();
+		for (SchemaClass classInHierarchy : classHierarchy)
+		{
+			List<String> columns = new ArrayList<>();
+			List<Object> values = new ArrayList<>();
+			columns.add(ReactomeJavaConstants.DB_ID);
+			values.add(pendingReference.getDbId());
+			if (classInHierarchy.getName().equals(ReactomeJavaConstants.DatabaseObject))
+			{
+				columns.add("_class");
+				values.add(schemaClass.getName());
+				columns.add(ReactomeJavaConstants._displayName);
+				values.add(instance.getDisplayName());
+			}
+			columnsByTable.put(classInHierarchy.getName(), columns);
+			valuesByTable.put(classInHierarchy.getName(), values);
+		}
+
+		for (GKSchemaAttribute attribute : (Collection<GKSchemaAttribute>) schemaClass.getAttributes())
+		{
+			String attributeName = attribute.getName();
+			if (attributeName.equals(ReactomeJavaConstants.DB_ID) || attributeName.equals(ReactomeJavaConstants._displayName) || attributeName.equals("_timestamp"))
+			{
+				continue;
+			}
+			List<Object> attributeValues = (List<Object>) instance.getAttributeValuesList(attributeName);
+			if (attributeValues == null || attributeValues.isEmpty())
+			{
+				continue;
+			}
+			String originTable = attribute.getOrigin().getName();
+			if (attribute.isMultiple())
+			{
+				List<String> columns = new ArrayList<>();
+				columns.add(ReactomeJavaConstants.DB_ID);
+				columns.add(attributeName + "_rank");
+				columns.add(attributeName);
+				if (attribute.isInstanceTypeAttribute())
+				{
+					columns.add(attributeName + "_class");
+				}
+				MultiRowInsert insert = inserts.computeIfAbsent(originTable + "_2_" + attributeName, table -> new MultiRowInsert(table, columns));
+				int rank = 0;
+				for (Object attributeValue : attributeValues)
+				{
+					List<Object> row = new ArrayList<>();
+					row.add(pendingReference.getDbId());
+					row.add(rank++);
+					addColumnValues(row, attribute, attributeValue);
+					insert.addRow(row);
+				}
+			}
+			else
+			{
+				columnsByTable.get(originTable).add(attributeName);
+				if (attribute.isInstanceTypeAttribute())
+				{
+					columnsByTable.get(originTable).add(attributeName + "_class");
+				}
+				addColumnValues(valuesByTable.get(originTable), attribute, attributeValues.get(0));
+			}
+		}
+
+		for (String table : columnsByTable.keySet())
+		{
+			List<String> columns = columnsByTable.get(table);
+			// Instances that have different single-valued attributes set will need different INSERT statements, so the key needs to include the columns.
+			inserts.computeIfAbsent(table + columns.toString(), k -> new MultiRowInsert(table, columns)).addRow(valuesByTable.get(table));
+		}
+	}
+
+	/**
+	 * Adds new values to an attribute of existing instances. Multi-valued attributes get new rows ranked after the existing values;
+	 * single-valued attributes are overwritten.
+	 * @param connection - the connection, which should be in a transaction.
+	 * @param attribute - the attribute to update.
+	 * @param newValuesByReferrer - the values to add, keyed by the DB_ID of the instance they will be added to.
+	 * @param newDbIds - DB_IDs of values that are not stored yet, and so do not have their own DB_IDs set.
+	 * @param skipExistingValues - if TRUE, values that are already in a referrer's multi-valued attribute will not be added again.
+	 */
+	private void appendToReferrers(Connection connection, GKSchemaAttribute attribute, Map<Long, List<GKInstance>> newValuesByReferrer, Map<GKInstance, Long> newDbIds, boolean skipExistingValues) throws Exception
+	{
+		String attributeName = attribute.getName();
+		String originTable = attribute.getOrigin().getName();
+		if (!attribute.isMultiple())
+		{
+			String sql = "UPDATE " + originTable + " SET " + attributeName + " = ?, " + attributeName + "_class = ? WHERE DB_ID = ?";
+			try (PreparedStatement statement = connection.prepareStatement(sql))
+			{
+				for (Map.Entry<Long, List<GKInstance>> entry : newValuesByReferrer.entrySet())
+				{
+					// Only the last value can "win" for a single-valued attribute.
+					GKInstance value = entry.getValue().get(entry.getValue().size() - 1);
+					statement.setLong(1, dbIdOf(value, newDbIds));
+					statement.setString(2, value.getSchemClass().getName());
+					statement.setLong(3, entry.getKey());
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+			return;
+		}
+
+		String table = originTable + "_2_" + attributeName;
+		Map<Long, Integer> maxRanks = new HashMap<>();
+		Map<Long, Set<Long>> existingValues = new HashMap<>();
+		String sql = "SELECT DB_ID, " + attributeName + "_rank, " + attributeName + " FROM " + table + " WHERE DB_ID IN (" + placeholders(newValuesByReferrer.size()) + ")";
+		try (PreparedStatement statement = connection.prepareStatement(sql))
+		{
+			setParameters(statement, 1, newValuesByReferrer.keySet());
+			try (ResultSet results = statement.executeQuery())
+			{
+				while (results.next())
+				{
+					long referrerDbId = results.getLong(1);
+					maxRanks.merge(referrerDbId, results.getInt(2), Math::max);
+					existingValues.computeIfAbsent(referrerDbId, k -> new HashSet<>()).add(results.getLong(3));
+				}
+			}
+		}
+
+		List<String> columns = new ArrayList<>();
+		columns.add(ReactomeJavaConstants.DB_ID);
+		columns.add(attributeName + "_rank");
+		columns.add(attributeName);
+		columns.add(attributeName + "_class");
+		MultiRowInsert insert = new MultiRowInsert(table, columns);
+		for (Map.Entry<Long, List<GKInstance>> entry : newValuesByReferrer.entrySet())
+		{
+			long referrerDbId = entry.getKey();
+			int rank = maxRanks.getOrDefault(referrerDbId, -1);
+			for (GKInstance value : entry.getValue())
+			{
+				long valueDbId = dbIdOf(value, newDbIds);
+				if (skipExistingValues && existingValues.getOrDefault(referrerDbId, Collections.emptySet()).contains(valueDbId))
+				{
+					continue;
+				}
+				List<Object> row = new ArrayList<>();
+				row.add(referrerDbId);
+				row.add(++rank);
+				row.add(valueDbId);
+				row.add(value.getSchemClass().getName());
+				insert.addRow(row);
+			}
+		}
+		insert.execute(connection);
+	}
+
+	private static long dbIdOf(GKInstance instance, Map<GKInstance, Long> newDbIds)
+	{
+		Long dbId = newDbIds.get(instance);
+		return dbId != null ? dbId : instance.getDBID();
+	}
+
+	/**
+	 * Adds the column value(s) for a single attribute value: instance-type attributes need the DB_ID and the class name.
+	 */
+	private static void addColumnValues(List<Object> row, SchemaAttribute attribute, Object attributeValue)
+	{
+		if (attribute.isInstanceTypeAttribute())
+		{
+			GKInstance instanceValue = (GKInstance) attributeValue;
+			row.add(instanceValue.getDBID());
+			row.add(instanceValue.getSchemClass().getName());
+		}
+		else if (attributeValue instanceof Boolean)
+		{
+			// Boolean attributes are stored as ENUM('TRUE','FALSE').
+			row.add(((Boolean) attributeValue) ? "TRUE" : "FALSE");
+		}
+		else
+		{
+			row.add(attributeValue);
+		}
+	}
+
+	static String placeholders(int count)
+	{
+		return String.join(",", Collections.nCopies(count, "?"));
+	}
+
+	static void setParameters(PreparedStatement statement, int firstIndex, Collection<?> values) throws SQLException
+	{
+		int i = firstIndex;
+		for (Object value : values)
+		{
+			statement.setObject(i++, value);
+		}
+	}
+
+	/**
+	 * Rows for a single table (with the same columns) that will be written with multi-row INSERT statements.
+	 */
+	static class MultiRowInsert
+	{
+		private final String table;
+		private final List<String> columns;
+		private final List<List<Object>> rows = new ArrayList<>();
+
+		MultiRowInsert(String table, List<String> columns)
+		{
+			this.table = table;
+			this.columns = columns;
+		}
+
+		void addRow(List<Object> row)
+		{
+			this.rows.add(row);
+		}
+
+		void execute(Connection connection) throws SQLException
+		{
+			for (int start = 0; start < this.rows.size(); start += MAX_ROWS_PER_STATEMENT)
+			{
+				List<List<Object>> rowsForStatement = this.rows.subList(start, Math.min(start + MAX_ROWS_PER_STATEMENT, this.rows.size()));
+				try (PreparedStatement statement = connection.prepareStatement(this.getSql(rowsForStatement.size())))
+				{
+					int i = 1;
+					for (List<Object> row : rowsForStatement)
+					{
+						i = setRowParameters(statement, i, row);
+					}
+					statement.executeUpdate();
+				}
+			}
+		}
+
+		String getSql(int rowCount)
+		{
+			String rowPlaceholders = "(" + placeholders(this.columns.size()) + ")";
+			return "INSERT INTO " + this.table + " (" + String.join(", ", this.columns) + ") VALUES " + String.join(", ", Collections.nCopies(rowCount, rowPlaceholders));
+		}
+
+		private static int setRowParameters(PreparedStatement statement, int firstIndex, List<Object> row) throws SQLException
+		{
+			setParameters(statement, firstIndex, row);
+			return firstIndex + row.size();
+		}
+	}
+}
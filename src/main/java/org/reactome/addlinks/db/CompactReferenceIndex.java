@@ -0,0 +1,899 @@
+package org.reactome.addlinks.db;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.gk.model.GKInstance;
+
+/**
+ * A memory-efficient index of the objects of one Reactome class, used by ReferenceObjectCache instead of maps of GKInstances.
+ * <br/>
+ * Each object is given an ordinal when it is added, and everything that is known about an object is stored in primitive arrays
+ * at that ordinal: its DB_ID, its class, its identifier, its ReferenceDatabase and its species. Lookups by DB_ID, ReferenceDatabase and species
+ * use maps that are keyed by primitive longs, and identifiers are interned into a dictionary, so that the index of each key is a posting
+ * list of ordinals rather than a list of objects.
+ * <br/>
+ * Objects can be removed from the index. Removed objects keep their ordinal, but are marked as deleted and are left out of all lookups.
+ * <br/>
+ * No GKInstances are kept in the index. Lookups return lists which will fetch each GKInstance by its DB_ID the first time it is requested,
+ * together with the instances that follow it in the list (see LazyInstanceList), so that a list is not fetched one instance at a time.
+ * <br/>
+ * The whole index, including its hash tables and posting lists, can be written with writeTo and restored with readFrom, without rebuilding anything.
+ */
+class CompactReferenceIndex
+{
+	/**
+	 * Fetches GKInstances of one class, given their DB_IDs.
+	 */
+	@FunctionalInterface
+	interface InstanceResolver
+	{
+		/**
+		 * @param className - the class of the instances.
+		 * @param dbIds - the DB_IDs of the instances.
+		 * @return The instances that could be fetched, keyed by DB_ID.
+		 */
+		Map<Long, GKInstance> resolve(String className, List<Long> dbIds) throws Exception;
+	}
+
+	// The maximum number of instances of a lazy list that are fetched at once.
+	static final int RESOLVE_BATCH_SIZE = 500;
+
+	private static final int NO_VALUE = -1;
+
+	private final String className;
+
+	private int size = 0;
+	private long[] dbIds;
+	private short[] classNameIndices;
+	private int[] identifierTerms;
+	private long[] refDbIds;
+	private long[] speciesIds;
+
+	private BitSet deleted = new BitSet();
+
+	private final List<String> classNames = new ArrayList<>();
+	private final Map<String, Short> classNameIndicesByName = new HashMap<>();
+
+	private final LongIntHashMap ordinalsByDbId;
+	private final IdentifierDictionary identifiers;
+	private final Postings postingsByIdentifier;
+	private final Postings postingsByRefDb;
+	private final Postings postingsBySpecies;
+
+	/**
+	 * Creates a new, empty index.
+	 * @param className - The name of the class of objects in this index. Objects of subclasses of this class can also be added.
+	 * @param expectedSize - The number of objects that are expected, used to size the internal arrays.
+	 */
+	CompactReferenceIndex(String className, int expectedSize)
+	{
+		this(className, new LongIntHashMap(Math.max(16, expectedSize)), new IdentifierDictionary(), new Postings(), new Postings(), new Postings());
+		int capacity = Math.max(16, expectedSize);
+		this.dbIds = new long[capacity];
+		this.classNameIndices = new short[capacity];
+		this.identifierTerms = new int[capacity];
+		this.refDbIds = new long[capacity];
+		this.speciesIds = new long[capacity];
+	}
+
+	private CompactReferenceIndex(String className, LongIntHashMap ordinalsByDbId, IdentifierDictionary identifiers, Postings postingsByIdentifier, Postings postingsByRefDb, Postings postingsBySpecies)
+	{
+		this.className = className;
+		this.ordinalsByDbId = ordinalsByDbId;
+		this.identifiers = identifiers;
+		this.postingsByIdentifier = postingsByIdentifier;
+		this.postingsByRefDb = postingsByRefDb;
+		this.postingsBySpecies = postingsBySpecies;
+	}
+
+	String getClassName()
+	{
+		return this.className;
+	}
+
+	/**
+	 * Adds an object to the index. Adding an object that is already in the index has no effect.
+	 * @param dbId - The DB_ID of the object.
+	 * @param instanceClassName - The actual class of the object (the value of its _class column), which may be a subclass of the class of this index.
+	 * @return The ordinal of the object.
+	 */
+	synchronized int add(long dbId, String instanceClassName)
+	{
+		int ordinal = this.ordinalsByDbId.get(dbId);
+		if (ordinal != NO_VALUE)
+		{
+			this.deleted.clear(ordinal);
+			return ordinal;
+		}
+		if (this.size == this.dbIds.length)
+		{
+			int newCapacity = Math.max(16, this.dbIds.length + (this.dbIds.length >> 1));
+			this.dbIds = Arrays.copyOf(this.dbIds, newCapacity);
+			this.classNameIndices = Arrays.copyOf(this.classNameIndices, newCapacity);
+			this.identifierTerms = Arrays.copyOf(this.identifierTerms, newCapacity);
+			this.refDbIds = Arrays.copyOf(this.refDbIds, newCapacity);
+			this.speciesIds = Arrays.copyOf(this.speciesIds, newCapacity);
+		}
+		ordinal = this.size++;
+		this.dbIds[ordinal] = dbId;
+		this.classNameIndices[ordinal] = this.classNameIndex(instanceClassName);
+		this.identifierTerms[ordinal] = NO_VALUE;
+		this.refDbIds[ordinal] = 0;
+		this.speciesIds[ordinal] = 0;
+		this.ordinalsByDbId.put(dbId, ordinal);
+		return ordinal;
+	}
+
+	private short classNameIndex(String instanceClassName)
+	{
+		Short index = this.classNameIndicesByName.get(instanceClassName);
+		if (index == null)
+		{
+			index = (short) this.classNames.size();
+			this.classNames.add(instanceClassName);
+			this.classNameIndicesByName.put(instanceClassName, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Sets the identifier of an object, if it does not already have one.
+	 * @param dbId - The DB_ID of an object that has already been added.
+	 * @param identifier - The identifier.
+	 * @return true if the identifier was set, false if the object is not in the index or already has an identifier.
+	 */
+	synchronized boolean setIdentifier(long dbId, String identifier)
+	{
+		int ordinal = this.ordinalsByDbId.get(dbId);
+		if (ordinal == NO_VALUE || this.identifierTerms[ordinal] != NO_VALUE || identifier == null)
+		{
+			return false;
+		}
+		int term = this.identifiers.intern(identifier);
+		this.identifierTerms[ordinal] = term;
+		// Posting keys must not be 0, so identifier terms are offset by one.
+		this.postingsByIdentifier.add(term + 1L, ordinal);
+		return true;
+	}
+
+	/**
+	 * Sets the ReferenceDatabase of an object, if it does not already have one.
+	 * @param dbId - The DB_ID of an object that has already been added.
+	 * @param refDbId - The DB_ID of the ReferenceDatabase.
+	 * @return true if the ReferenceDatabase was set, false if the object is not in the index or already has a ReferenceDatabase.
+	 */
+	synchronized boolean setReferenceDatabase(long dbId, long refDbId)
+	{
+		int ordinal = this.ordinalsByDbId.get(dbId);
+		if (ordinal == NO_VALUE || this.refDbIds[ordinal] != 0 || refDbId <= 0)
+		{
+			return false;
+		}
+		this.refDbIds[ordinal] = refDbId;
+		this.postingsByRefDb.add(refDbId, ordinal);
+		return true;
+	}
+
+	/**
+	 * Sets the species of an object (the value of its own "species" attribute), if it does not already have one. The object is also
+	 * added to the by-species index.
+	 * @param dbId - The DB_ID of an object that has already been added.
+	 * @param speciesId - The DB_ID of the Species.
+	 * @return true if the species was set, false if the object is not in the index or already has a species.
+	 */
+	synchronized boolean setSpecies(long dbId, long speciesId)
+	{
+		int ordinal = this.ordinalsByDbId.get(dbId);
+		if (ordinal == NO_VALUE || this.speciesIds[ordinal] != 0 || speciesId <= 0)
+		{
+			return false;
+		}
+		this.speciesIds[ordinal] = speciesId;
+		this.postingsBySpecies.add(speciesId, ordinal);
+		return true;
+	}
+
+	/**
+	 * Adds an object to the by-species index without setting its species. This is for objects whose species is inferred from other objects,
+	 * such as ReferenceRNASequences which only have a species via the ReferenceGeneProducts that refer to them.
+	 * The caller is responsible for not adding the same object to the same species more than once.
+	 * @param dbId - The DB_ID of an object that has already been added.
+	 * @param speciesId - The DB_ID of the Species.
+	 */
+	synchronized void addToSpeciesIndex(long dbId, long speciesId)
+	{
+		int ordinal = this.ordinalsByDbId.get(dbId);
+		if (ordinal != NO_VALUE && speciesId > 0)
+		{
+			this.postingsBySpecies.add(speciesId, ordinal);
+		}
+	}
+
+	/**
+	 * Removes an object from the index.
+	 * @param dbId - the DB_ID of the object.
+	 * @return true if the object was in the index.
+	 */
+	synchronized boolean remove(long dbId)
+	{
+		int ordinal = this.ordinalsByDbId.get(dbId);
+		if (ordinal == NO_VALUE || this.deleted.get(ordinal))
+		{
+			return false;
+		}
+		this.deleted.set(ordinal);
+		return true;
+	}
+
+	/**
+	 * @param dbId - a DB_ID.
+	 * @return true if the object is in the index.
+	 */
+	synchronized boolean contains(long dbId)
+	{
+		int ordinal = this.ordinalsByDbId.get(dbId);
+		return ordinal != NO_VALUE && !this.deleted.get(ordinal);
+	}
+
+	/**
+	 * @param dbId - a DB_ID.
+	 * @return true if the object is in the index and its own species has been set.
+	 */
+	synchronized boolean hasSpecies(long dbId)
+	{
+		return this.contains(dbId) && this.speciesIds[this.ordinalsByDbId.get(dbId)] != 0;
+	}
+
+	/**
+	 * Removes the ordinals of deleted objects from a posting list.
+	 * @return The ordinals that have not been deleted, or null if there are none.
+	 */
+	private int[] withoutDeleted(int[] ordinals)
+	{
+		if (ordinals == null || this.deleted.isEmpty())
+		{
+			return ordinals;
+		}
+		int[] live = Arrays.stream(ordinals).filter(ordinal -> !this.deleted.get(ordinal)).toArray();
+		return live.length == 0 ? null : live;
+	}
+
+	/**
+	 * @param identifier - an identifier.
+	 * @return The objects with that identifier, or null if there are none.
+	 */
+	List<GKInstance> getByIdentifier(String identifier, InstanceResolver resolver)
+	{
+		int[] ordinals;
+		synchronized (this)
+		{
+			int term = this.identifiers.lookup(identifier);
+			ordinals = term == NO_VALUE ? null : this.withoutDeleted(this.postingsByIdentifier.get(term + 1L));
+		}
+		return this.instances(ordinals, resolver);
+	}
+
+	/**
+	 * @param refDbId - the DB_ID of a ReferenceDatabase.
+	 * @return The objects that refer to that ReferenceDatabase, or null if there are none.
+	 */
+	List<GKInstance> getByRefDb(long refDbId, InstanceResolver resolver)
+	{
+		int[] ordinals;
+		synchronized (this)
+		{
+			ordinals = this.withoutDeleted(this.postingsByRefDb.get(refDbId));
+		}
+		return this.instances(ordinals, resolver);
+	}
+
+	/**
+	 * @param speciesId - the DB_ID of a Species.
+	 * @return The objects in the by-species index for that Species, or null if there are none.
+	 */
+	List<GKInstance> getBySpecies(long speciesId, InstanceResolver resolver)
+	{
+		int[] ordinals;
+		synchronized (this)
+		{
+			ordinals = this.withoutDeleted(this.postingsBySpecies.get(speciesId));
+		}
+		return this.instances(ordinals, resolver);
+	}
+
+	/**
+	 * Gets the objects that refer to a ReferenceDatabase and whose own species is a given Species. Filtering by species is done on the index,
+	 * so no objects are fetched from the database that are not in the result.
+	 * @param refDbId - the DB_ID of a ReferenceDatabase.
+	 * @param speciesId - the DB_ID of a Species.
+	 * @return The matching objects. The list will be empty if there are none.
+	 */
+	List<GKInstance> getByRefDbAndSpecies(long refDbId, long speciesId, InstanceResolver resolver)
+	{
+		int[] ordinals;
+		synchronized (this)
+		{
+			int[] byRefDb = this.postingsByRefDb.get(refDbId);
+			if (byRefDb == null || speciesId <= 0)
+			{
+				ordinals = new int[0];
+			}
+			else
+			{
+				int count = 0;
+				ordinals = new int[byRefDb.length];
+				for (int ordinal : byRefDb)
+				{
+					if (this.speciesIds[ordinal] == speciesId && !this.deleted.get(ordinal))
+					{
+						ordinals[count++] = ordinal;
+					}
+				}
+				ordinals = Arrays.copyOf(ordinals, count);
+			}
+		}
+		return this.instances(ordinals, resolver);
+	}
+
+	/**
+	 * @param dbId - a DB_ID.
+	 * @return The object with that DB_ID, or null if it is not in the index.
+	 */
+	GKInstance getByDbId(long dbId, InstanceResolver resolver)
+	{
+		int ordinal;
+		synchronized (this)
+		{
+			ordinal = this.contains(dbId) ? this.ordinalsByDbId.get(dbId) : NO_VALUE;
+		}
+		return ordinal == NO_VALUE ? null : this.instances(new int[] { ordinal }, resolver).get(0);
+	}
+
+	/**
+	 * @return The number of objects in the index, not counting objects that have been removed.
+	 */
+	synchronized int size()
+	{
+		return this.size - this.deleted.cardinality();
+	}
+
+	synchronized int identifierKeyCount()
+	{
+		return this.postingsByIdentifier.keyCount();
+	}
+
+	synchronized int refDbKeyCount()
+	{
+		return this.postingsByRefDb.keyCount();
+	}
+
+	synchronized int speciesKeyCount()
+	{
+		return this.postingsBySpecies.keyCount();
+	}
+
+	/**
+	 * Writes the index. Arrays are written as their length followed by their elements, and strings as the length of their UTF-8 encoding followed by the encoding.
+	 * @param out - where to write the index.
+	 * @throws IOException
+	 */
+	synchronized void writeTo(DataOutputStream out) throws IOException
+	{
+		writeString(out, this.className);
+		out.writeInt(this.size);
+		writeLongs(out, this.dbIds, this.size);
+		out.writeInt(this.size);
+		for (int i = 0; i < this.size; i++)
+		{
+			out.writeShort(this.classNameIndices[i]);
+		}
+		writeInts(out, this.identifierTerms, this.size);
+		writeLongs(out, this.refDbIds, this.size);
+		writeLongs(out, this.speciesIds, this.size);
+		long[] deletedWords = this.deleted.toLongArray();
+		writeLongs(out, deletedWords, deletedWords.length);
+		out.writeInt(this.classNames.size());
+		for (String name : this.classNames)
+		{
+			writeString(out, name);
+		}
+		this.ordinalsByDbId.writeTo(out);
+		this.identifiers.writeTo(out);
+		this.postingsByIdentifier.writeTo(out);
+		this.postingsByRefDb.writeTo(out);
+		this.postingsBySpecies.writeTo(out);
+	}
+
+	/**
+	 * Reads an index that was written by writeTo. Arrays are copied out of the buffer in bulk, so this is fast even when the buffer is a memory-mapped file.
+	 * @param in - a buffer positioned at the start of the index. Its position will be at the end of the index when this returns.
+	 * @return The index.
+	 */
+	static CompactReferenceIndex readFrom(ByteBuffer in)
+	{
+		String className = readString(in);
+		int size = in.getInt();
+		long[] dbIds = readLongs(in);
+		short[] classNameIndices = new short[in.getInt()];
+		in.asShortBuffer().get(classNameIndices);
+		in.position(in.position() + classNameIndices.length * Short.BYTES);
+		int[] identifierTerms = readInts(in);
+		long[] refDbIds = readLongs(in);
+		long[] speciesIds = readLongs(in);
+		BitSet deleted = BitSet.valueOf(readLongs(in));
+		int classNameCount = in.getInt();
+		List<String> classNames = new ArrayList<>(classNameCount);
+		for (int i = 0; i < classNameCount; i++)
+		{
+			classNames.add(readString(in));
+		}
+		CompactReferenceIndex index = new CompactReferenceIndex(className, LongIntHashMap.readFrom(in), IdentifierDictionary.readFrom(in),
+																Postings.readFrom(in), Postings.readFrom(in), Postings.readFrom(in));
+		index.size = size;
+		index.dbIds = dbIds;
+		index.classNameIndices = classNameIndices;
+		index.identifierTerms = identifierTerms;
+		index.refDbIds = refDbIds;
+		index.speciesIds = speciesIds;
+		index.deleted = deleted;
+		for (String name : classNames)
+		{
+			index.classNameIndex(name);
+		}
+		return index;
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in)
+	{
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeLongs(DataOutputStream out, long[] values, int count) throws IOException
+	{
+		out.writeInt(count);
+		for (int i = 0; i < count; i++)
+		{
+			out.writeLong(values[i]);
+		}
+	}
+
+	private static long[] readLongs(ByteBuffer in)
+	{
+		long[] values = new long[in.getInt()];
+		in.asLongBuffer().get(values);
+		in.position(in.position() + values.length * Long.BYTES);
+		return values;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException
+	{
+		out.writeInt(count);
+		for (int i = 0; i < count; i++)
+		{
+			out.writeInt(values[i]);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer in)
+	{
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length * Integer.BYTES);
+		return values;
+	}
+
+	private List<GKInstance> instances(int[] ordinals, InstanceResolver resolver)
+	{
+		if (ordinals == null)
+		{
+			return null;
+		}
+		long[] instanceDbIds = new long[ordinals.length];
+		String[] instanceClassNames = new String[ordinals.length];
+		synchronized (this)
+		{
+			for (int i = 0; i < ordinals.length; i++)
+			{
+				instanceDbIds[i] = this.dbIds[ordinals[i]];
+				instanceClassNames[i] = this.classNames.get(this.classNameIndices[ordinals[i]]);
+			}
+		}
+		return new LazyInstanceList(instanceDbIds, instanceClassNames, resolver);
+	}
+
+	/**
+	 * A read-only list of GKInstances that only holds their DB_IDs and classes. Each GKInstance is fetched the first time it is requested,
+	 * and is kept for as long as the list is. Lists are usually read in order, so when an instance is requested, the unfetched instances of
+	 * the same class that follow it (up to RESOLVE_BATCH_SIZE of them) are fetched with it, in one call to the resolver.
+	 */
+	private static class LazyInstanceList extends AbstractList<GKInstance> implements RandomAccess
+	{
+		private final long[] dbIds;
+		private final String[] classNames;
+		private final InstanceResolver resolver;
+		private final AtomicReferenceArray<GKInstance> resolved;
+
+		LazyInstanceList(long[] dbIds, String[] classNames, InstanceResolver resolver)
+		{
+			this.dbIds = dbIds;
+			this.classNames = classNames;
+			this.resolver = resolver;
+			this.resolved = new AtomicReferenceArray<>(dbIds.length);
+		}
+
+		@Override
+		public GKInstance get(int index)
+		{
+			GKInstance instance = this.resolved.get(index);
+			if (instance == null)
+			{
+				this.resolveBatch(index);
+				instance = this.resolved.get(index);
+			}
+			return instance;
+		}
+
+		private void resolveBatch(int start)
+		{
+			String className = this.classNames[start];
+			List<Integer> batchIndices = new ArrayList<>();
+			List<Long> batchDbIds = new ArrayList<>();
+			for (int i = start; i < this.dbIds.length && batchIndices.size() < RESOLVE_BATCH_SIZE; i++)
+			{
+				if (this.resolved.get(i) == null && this.classNames[i].equals(className))
+				{
+					batchIndices.add(i);
+					batchDbIds.add(this.dbIds[i]);
+				}
+			}
+			Map<Long, GKInstance> instances;
+			try
+			{
+				instances = this.resolver.resolve(className, batchDbIds);
+			}
+			catch (Exception e)
+			{
+				e.printStackTrace();
+				throw new RuntimeException("Could not fetch " + className + " with DB_IDs " + batchDbIds, e);
+			}
+			for (int i = 0; i < batchIndices.size(); i++)
+			{
+				GKInstance instance = instances.get(batchDbIds.get(i));
+				// If another thread got there first, keep its instance so that every caller sees the same object.
+				if (instance != null)
+				{
+					this.resolved.compareAndSet(batchIndices.get(i), null, instance);
+				}
+			}
+		}
+
+		@Override
+		public int size()
+		{
+			return this.dbIds.length;
+		}
+	}
+
+	/**
+	 * An open-addressing hash map from long keys to int values. 0 is not allowed as a key (DB_IDs are always positive).
+	 * get returns -1 for keys that are not in the map.
+	 */
+	static class LongIntHashMap
+	{
+		private long[] keys;
+		private int[] values;
+		private int size = 0;
+
+		LongIntHashMap(int expectedSize)
+		{
+			int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+			this.keys = new long[capacity];
+			this.values = new int[capacity];
+		}
+
+		private static int slot(long key, int mask)
+		{
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & mask;
+		}
+
+		int get(long key)
+		{
+			int mask = this.keys.length - 1;
+			for (int i = slot(key, mask); this.keys[i] != 0; i = (i + 1) & mask)
+			{
+				if (this.keys[i] == key)
+				{
+					return this.values[i];
+				}
+			}
+			return NO_VALUE;
+		}
+
+		void put(long key, int value)
+		{
+			if (key == 0)
+			{
+				throw new IllegalArgumentException("0 cannot be used as a key.");
+			}
+			if ((this.size + 1) * 2 > this.keys.length)
+			{
+				this.resize();
+			}
+			int mask = this.keys.length - 1;
+			int i = slot(key, mask);
+			while (this.keys[i] != 0 && this.keys[i] != key)
+			{
+				i = (i + 1) & mask;
+			}
+			if (this.keys[i] == 0)
+			{
+				this.keys[i] = key;
+				this.size++;
+			}
+			this.values[i] = value;
+		}
+
+		int size()
+		{
+			return this.size;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException
+		{
+			out.writeInt(this.size);
+			writeLongs(out, this.keys, this.keys.length);
+			writeInts(out, this.values, this.values.length);
+		}
+
+		static LongIntHashMap readFrom(ByteBuffer in)
+		{
+			LongIntHashMap map = new LongIntHashMap(0);
+			map.size = in.getInt();
+			map.keys = readLongs(in);
+			map.values = readInts(in);
+			return map;
+		}
+
+		private void resize()
+		{
+			long[] oldKeys = this.keys;
+			int[] oldValues = this.values;
+			this.keys = new long[oldKeys.length * 2];
+			this.values = new int[oldValues.length * 2];
+			this.size = 0;
+			for (int i = 0; i < oldKeys.length; i++)
+			{
+				if (oldKeys[i] != 0)
+				{
+					this.put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps identifier strings to int terms. Only the first String instance seen for each identifier is kept, so identifiers are interned
+	 * without using the JVM's string pool.
+	 */
+	static class IdentifierDictionary
+	{
+		private String[] terms = new String[1024];
+		// Holds term + 1, so that 0 means an empty slot.
+		private int[] table = new int[2048];
+		private int size = 0;
+
+		/**
+		 * @return The term for the identifier, adding it to the dictionary if it's not there yet.
+		 */
+		int intern(String identifier)
+		{
+			int term = this.lookup(identifier);
+			if (term != NO_VALUE)
+			{
+				return term;
+			}
+			if ((this.size + 1) * 2 > this.table.length)
+			{
+				this.resize();
+			}
+			if (this.size == this.terms.length)
+			{
+				this.terms = Arrays.copyOf(this.terms, Math.max(1024, this.terms.length * 2));
+			}
+			term = this.size++;
+			this.terms[term] = identifier;
+			this.insert(term);
+			return term;
+		}
+
+		/**
+		 * @return The term for the identifier, or -1 if it's not in the dictionary.
+		 */
+		int lookup(String identifier)
+		{
+			int mask = this.table.length - 1;
+			for (int i = slot(identifier, mask); this.table[i] != 0; i = (i + 1) & mask)
+			{
+				if (this.terms[this.table[i] - 1].equals(identifier))
+				{
+					return this.table[i] - 1;
+				}
+			}
+			return NO_VALUE;
+		}
+
+		String get(int term)
+		{
+			return this.terms[term];
+		}
+
+		int size()
+		{
+			return this.size;
+		}
+
+		private static int slot(String identifier, int mask)
+		{
+			int hash = identifier.hashCode() * 0x9E3779B9;
+			return (hash ^ (hash >>> 16)) & mask;
+		}
+
+		private void insert(int term)
+		{
+			int mask = this.table.length - 1;
+			int i = slot(this.terms[term], mask);
+			while (this.table[i] != 0)
+			{
+				i = (i + 1) & mask;
+			}
+			this.table[i] = term + 1;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException
+		{
+			out.writeInt(this.size);
+			for (int term = 0; term < this.size; term++)
+			{
+				writeString(out, this.terms[term]);
+			}
+			writeInts(out, this.table, this.table.length);
+		}
+
+		static IdentifierDictionary readFrom(ByteBuffer in)
+		{
+			IdentifierDictionary dictionary = new IdentifierDictionary();
+			dictionary.size = in.getInt();
+			dictionary.terms = new String[Math.max(1024, dictionary.size)];
+			for (int term = 0; term < dictionary.size; term++)
+			{
+				dictionary.terms[term] = readString(in);
+			}
+			dictionary.table = readInts(in);
+			return dictionary;
+		}
+
+		private void resize()
+		{
+			this.table = new int[this.table.length * 2];
+			for (int term = 0; term < this.size; term++)
+			{
+				this.insert(term);
+			}
+		}
+	}
+
+	/**
+	 * Posting lists of ordinals, keyed by long. All of the lists share two int arrays: the ordinal of each posting, and the position of the next posting
+	 * in the same list. Postings are returned in the order they were added.
+	 */
+	static class Postings
+	{
+		private final LongIntHashMap heads;
+		private final LongIntHashMap tails;
+		private int[] ordinals = new int[1024];
+		private int[] next = new int[1024];
+		private int size = 0;
+
+		Postings()
+		{
+			this(new LongIntHashMap(16), new LongIntHashMap(16));
+		}
+
+		private Postings(LongIntHashMap heads, LongIntHashMap tails)
+		{
+			this.heads = heads;
+			this.tails = tails;
+		}
+
+		void add(long key, int ordinal)
+		{
+			if (this.size == this.ordinals.length)
+			{
+				int newCapacity = Math.max(1024, this.ordinals.length * 2);
+				this.ordinals = Arrays.copyOf(this.ordinals, newCapacity);
+				this.next = Arrays.copyOf(this.next, newCapacity);
+			}
+			int posting = this.size++;
+			this.ordinals[posting] = ordinal;
+			this.next[posting] = NO_VALUE;
+			int tail = this.tails.get(key);
+			if (tail == NO_VALUE)
+			{
+				this.heads.put(key, posting);
+			}
+			else
+			{
+				this.next[tail] = posting;
+			}
+			this.tails.put(key, posting);
+		}
+
+		/**
+		 * @return The ordinals posted under the key, or null if there are none.
+		 */
+		int[] get(long key)
+		{
+			int head = this.heads.get(key);
+			if (head == NO_VALUE)
+			{
+				return null;
+			}
+			int count = 0;
+			for (int posting = head; posting != NO_VALUE; posting = this.next[posting])
+			{
+				count++;
+			}
+			int[] result = new int[count];
+			int i = 0;
+			for (int posting = head; posting != NO_VALUE; posting = this.next[posting])
+			{
+				result[i++] = this.ordinals[posting];
+			}
+			return result;
+		}
+
+		int keyCount()
+		{
+			return this.heads.size();
+		}
+
+		void writeTo(DataOutputStream out) throws IOException
+		{
+			this.heads.writeTo(out);
+			this.tails.writeTo(out);
+			writeInts(out, this.ordinals, this.size);
+			writeInts(out, this.next, this.size);
+		}
+
+		static Postings readFrom(ByteBuffer in)
+		{
+			Postings postings = new Postings(LongIntHashMap.readFrom(in), LongIntHashMap.readFrom(in));
+			postings.ordinals = readInts(in);
+			postings.next = readInts(in);
+			postings.size = postings.ordinals.length;
+			return postings;
+		}
+	}
+}
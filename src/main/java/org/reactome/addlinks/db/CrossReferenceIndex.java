@@ -0,0 +1,213 @@
+package org.reactome.addlinks.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.GKSchemaAttribute;
+import org.gk.schema.InvalidAttributeException;
+import org.gk.schema.SchemaClass;
+
+/**
+ * An index of the cross-references that already exist from objects of one class, via one attribute, to references in one ReferenceDatabase.
+ * It maps the DB_ID of each referring object to the identifiers of the references it refers to.
+ * <br/>
+ * Each index is loaded with a single query the first time it is needed, and then shared by every reference creator that needs it, so checking if a
+ * cross-reference exists does not need to load any GKInstances or attributes. ReferenceCreator keeps the indices up to date as it creates and
+ * deletes references (see registerCreatedReference and registerDeletedReference).
+ */
+public class CrossReferenceIndex
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final Map<String, CrossReferenceIndex> indices = new ConcurrentHashMap<>();
+
+	private static final String[] NO_IDENTIFIERS = new String[0];
+
+	private final String referringAttributeName;
+	private final long refDbId;
+	// Most objects have only one or two references in any one ReferenceDatabase, so a small array is smaller (and as fast to search) as a Set.
+	private final Map<Long, String[]> identifiersByReferrer = new ConcurrentHashMap<>();
+
+	private CrossReferenceIndex(String referringAttributeName, long refDbId)
+	{
+		this.referringAttributeName = referringAttributeName;
+		this.refDbId = refDbId;
+	}
+
+	/**
+	 * Gets the index of cross-references from objects of a class, via an attribute, to references in a ReferenceDatabase. The index is loaded from the database if this is the first time it has been requested.
+	 * @param adapter - the database adaptor.
+	 * @param referringClassName - the name of the class of the referring objects, such as "ReferenceGeneProduct".
+	 * @param referringAttributeName - the name of the attribute that refers to the references, such as "crossReference".
+	 * @param refDbId - the DB_ID of the ReferenceDatabase.
+	 * @return The index.
+	 */
+	public static CrossReferenceIndex getIndex(MySQLAdaptor adapter, String referringClassName, String referringAttributeName, long refDbId)
+	{
+		String key = referringClassName + "\t" + referringAttributeName + "\t" + refDbId;
+		return indices.computeIfAbsent(key, k -> {
+			CrossReferenceIndex index = new CrossReferenceIndex(referringAttributeName, refDbId);
+			try
+			{
+				index.load(adapter, referringClassName);
+			}
+			catch (SQLException | InvalidAttributeException e)
+			{
+				e.printStackTrace();
+				throw new RuntimeException(e);
+			}
+			return index;
+		});
+	}
+
+	/**
+	 * Records that a reference was created, in every loaded index that it belongs in.
+	 * @param referringAttributeName - the name of the attribute that refers to the new reference.
+	 * @param refDbId - the DB_ID of the new reference's ReferenceDatabase.
+	 * @param referrerDbId - the DB_ID of the object that refers to the new reference.
+	 * @param identifier - the new reference's identifier.
+	 */
+	public static void registerCreatedReference(String referringAttributeName, long refDbId, long referrerDbId, String identifier)
+	{
+		for (CrossReferenceIndex index : indices.values())
+		{
+			if (index.refDbId == refDbId && index.referringAttributeName.equals(referringAttributeName))
+			{
+				index.add(referrerDbId, identifier);
+			}
+		}
+	}
+
+	/**
+	 * Records that a reference was deleted, in every loaded index that it was in.
+	 * @param referringAttributeName - the name of the attribute that referred to the deleted reference.
+	 * @param refDbId - the DB_ID of the deleted reference's ReferenceDatabase.
+	 * @param referrerDbId - the DB_ID of the object that referred to the deleted reference.
+	 * @param identifier - the deleted reference's identifier.
+	 */
+	public static void registerDeletedReference(String referringAttributeName, long refDbId, long referrerDbId, String identifier)
+	{
+		for (CrossReferenceIndex index : indices.values())
+		{
+			if (index.refDbId == refDbId && index.referringAttributeName.equals(referringAttributeName))
+			{
+				index.remove(referrerDbId, identifier);
+			}
+		}
+	}
+
+	/**
+	 * Discards all loaded indices. They will be loaded from the database again when they are next requested.
+	 */
+	public static void clearIndices()
+	{
+		indices.clear();
+	}
+
+	/**
+	 * Checks if an object refers to a reference with a specific identifier.
+	 * @param referrerDbId - the DB_ID of the referring object.
+	 * @param identifier - the identifier. This is case-sensitive.
+	 * @return true if the object refers to a reference (in this index's ReferenceDatabase) with the identifier.
+	 */
+	public boolean contains(long referrerDbId, String identifier)
+	{
+		for (String existingIdentifier : this.identifiersByReferrer.getOrDefault(referrerDbId, NO_IDENTIFIERS))
+		{
+			if (existingIdentifier.equals(identifier))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the identifiers of the references that an object refers to.
+	 * @param referrerDbId - the DB_ID of the referring object.
+	 * @return The identifiers, which could be empty.
+	 */
+	public Collection<String> getIdentifiers(long referrerDbId)
+	{
+		return Arrays.asList(this.identifiersByReferrer.getOrDefault(referrerDbId, NO_IDENTIFIERS));
+	}
+
+	private void add(long referrerDbId, String identifier)
+	{
+		this.identifiersByReferrer.merge(referrerDbId, new String[] { identifier }, (existing, added) -> {
+			if (Arrays.asList(existing).contains(identifier))
+			{
+				return existing;
+			}
+			String[] identifiers = Arrays.copyOf(existing, existing.length + 1);
+			identifiers[existing.length] = identifier;
+			return identifiers;
+		});
+	}
+
+	private void remove(long referrerDbId, String identifier)
+	{
+		this.identifiersByReferrer.computeIfPresent(referrerDbId, (dbId, existing) -> {
+			String[] identifiers = Arrays.stream(existing).filter(existingIdentifier -> !existingIdentifier.equals(identifier)).toArray(String[]::new);
+			return identifiers.length > 0 ? identifiers : null;
+		});
+	}
+
+	/**
+	 * Loads the index. The references can be of any class that the attribute allows, so there is one query for each of the tables that those classes'
+	 * identifier and referenceDatabase attributes are stored in (usually just one).
+	 */
+	private void load(MySQLAdaptor adapter, String referringClassName) throws SQLException, InvalidAttributeException
+	{
+		SchemaClass referringClass = adapter.getSchema().getClassByName(referringClassName);
+		GKSchemaAttribute attribute = (GKSchemaAttribute) referringClass.getAttribute(this.referringAttributeName);
+		String originTable = attribute.getOrigin().getName();
+		String valuesTable = attribute.isMultiple() ? originTable + "_2_" + this.referringAttributeName : originTable;
+
+		Set<String> queries = new LinkedHashSet<>();
+		for (Object allowedClass : attribute.getAllowedClasses())
+		{
+			SchemaClass referenceClass = (SchemaClass) allowedClass;
+			if (referenceClass.isValidAttribute(ReactomeJavaConstants.identifier) && referenceClass.isValidAttribute(ReactomeJavaConstants.referenceDatabase))
+			{
+				String identifierTable = ((GKSchemaAttribute) referenceClass.getAttribute(ReactomeJavaConstants.identifier)).getOrigin().getName();
+				String refDbTable = ((GKSchemaAttribute) referenceClass.getAttribute(ReactomeJavaConstants.referenceDatabase)).getOrigin().getName();
+				// Joining to the referring class's table restricts the results to objects of that class (and its subclasses).
+				queries.add("SELECT t.DB_ID, i." + ReactomeJavaConstants.identifier + " FROM " + valuesTable + " t"
+							+ " INNER JOIN " + referringClassName + " c ON c.DB_ID = t.DB_ID"
+							+ " INNER JOIN " + identifierTable + " i ON i.DB_ID = t." + this.referringAttributeName
+							+ " INNER JOIN " + refDbTable + " d ON d.DB_ID = t." + this.referringAttributeName
+							+ " WHERE d." + ReactomeJavaConstants.referenceDatabase + " = ? AND i." + ReactomeJavaConstants.identifier + " IS NOT NULL");
+			}
+		}
+
+		int count = 0;
+		for (String sql : queries)
+		{
+			try (PreparedStatement statement = adapter.getConnection().prepareStatement(sql))
+			{
+				statement.setLong(1, this.refDbId);
+				try (ResultSet results = statement.executeQuery())
+				{
+					while (results.next())
+					{
+						this.add(results.getLong(1), results.getString(2));
+						count++;
+					}
+				}
+			}
+		}
+		logger.info("Loaded {} existing cross-references from {} (via {}) to ReferenceDatabase {}", count, referringClassName, this.referringAttributeName, this.refDbId);
+	}
+}
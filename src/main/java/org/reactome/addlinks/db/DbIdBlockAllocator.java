@@ -0,0 +1,139 @@
+package org.reactome.addlinks.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * Hands out DB_IDs for new DatabaseObjects from blocks that are reserved in advance.
+ * A block is reserved by moving the AUTO_INCREMENT counter of the DatabaseObject table past the end of the block,
+ * so that anything else which stores instances in the usual way (such as InstanceEdits created by MySQLAdaptor.storeInstance)
+ * will never be given a DB_ID from a block that this allocator is still handing out.
+ * <br/>
+ * DB_IDs are handed out before the instances that use them are written, so a new block always starts after the end of the previous block,
+ * even if MAX(DB_ID) is lower. Blocks are reserved on a connection of their own, because ALTER TABLE implicitly commits any transaction
+ * that is open on the connection that it runs on. That connection stays open until {@link #close()} is called.
+ */
+public class DbIdBlockAllocator implements AutoCloseable
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final int DEFAULT_BLOCK_SIZE = 10000;
+
+	private MySQLAdaptor adapter;
+	private MySQLAdaptor reservationAdapter;
+	private int blockSize;
+	private long nextDbId = 0;
+	private long lastDbIdInBlock = -1;
+
+	/**
+	 * Creates a new allocator.
+	 * @param adapter - the database adaptor. A separate connection to the same database will be used to reserve blocks.
+	 * @param blockSize - the number of DB_IDs to reserve each time a new block is needed.
+	 */
+	public DbIdBlockAllocator(MySQLAdaptor adapter, int blockSize)
+	{
+		this.adapter = adapter;
+		this.blockSize = blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE;
+	}
+
+	public DbIdBlockAllocator(MySQLAdaptor adapter)
+	{
+		this(adapter, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Gets the next available DB_ID, reserving a new block if the current one has been used up.
+	 * @return A DB_ID that is not used by any other DatabaseObject, and will not be given out by AUTO_INCREMENT.
+	 * @throws SQLException if reserving a new block fails.
+	 */
+	public synchronized long nextDbId() throws SQLException
+	{
+		if (this.nextDbId > this.lastDbIdInBlock)
+		{
+			this.reserveBlock();
+		}
+		return this.nextDbId++;
+	}
+
+	/**
+	 * Reserves a new block of DB_IDs. If something else inserts a new DatabaseObject while the block is being reserved,
+	 * the attempt is repeated with the new maximum DB_ID.
+	 * @throws SQLException
+	 */
+	private void reserveBlock() throws SQLException
+	{
+		Connection connection = this.getReservationAdapter().getConnection();
+		try (Statement statement = connection.createStatement())
+		{
+			this.reserveBlock(statement);
+		}
+		logger.debug("Reserved DB_IDs {} to {}", this.nextDbId, this.lastDbIdInBlock);
+	}
+
+	/**
+	 * Reserves a new block of DB_IDs, using a statement on the reservation connection.
+	 * @param statement - the statement that will be used to query MAX(DB_ID) and to move the AUTO_INCREMENT counter.
+	 * @throws SQLException
+	 */
+	synchronized void reserveBlock(Statement statement) throws SQLException
+	{
+		long maxDbId = getMaxDbId(statement);
+		long maxDbIdAfterReservation;
+		do
+		{
+			// DB_IDs from the previous block may have been handed out but not written yet, so they are not included in MAX(DB_ID).
+			long firstDbId = Math.max(maxDbId, this.lastDbIdInBlock) + 1;
+			statement.executeUpdate("ALTER TABLE DatabaseObject AUTO_INCREMENT = " + (firstDbId + this.blockSize));
+			maxDbIdAfterReservation = getMaxDbId(statement);
+			if (maxDbIdAfterReservation == maxDbId)
+			{
+				this.nextDbId = firstDbId;
+				this.lastDbIdInBlock = firstDbId + this.blockSize - 1;
+			}
+			else
+			{
+				logger.debug("MAX(DB_ID) changed from {} to {} while reserving a block of DB_IDs, will try again.", maxDbId, maxDbIdAfterReservation);
+				maxDbId = maxDbIdAfterReservation;
+			}
+		} while (this.nextDbId > this.lastDbIdInBlock);
+	}
+
+	/**
+	 * Closes the connection that is used to reserve blocks. DB_IDs that were already reserved can still be handed out, and if another block
+	 * is needed after this, a new connection will be opened.
+	 * @throws Exception if the connection could not be closed.
+	 */
+	@Override
+	public synchronized void close() throws Exception
+	{
+		if (this.reservationAdapter != null)
+		{
+			this.reservationAdapter.cleanUp();
+			this.reservationAdapter = null;
+		}
+	}
+
+	private MySQLAdaptor getReservationAdapter() throws SQLException
+	{
+		if (this.reservationAdapter == null)
+		{
+			this.reservationAdapter = new MySQLAdaptor(this.adapter.getDBHost(), this.adapter.getDBName(), this.adapter.getDBUser(), this.adapter.getDBPwd(), this.adapter.getDBPort());
+			this.reservationAdapter.setUseCache(false);
+		}
+		return this.reservationAdapter;
+	}
+
+	private static long getMaxDbId(Statement statement) throws SQLException
+	{
+		try (ResultSet results = statement.executeQuery("SELECT MAX(DB_ID) FROM DatabaseObject"))
+		{
+			return results.next() ? results.getLong(1) : 0;
+		}
+	}
+}
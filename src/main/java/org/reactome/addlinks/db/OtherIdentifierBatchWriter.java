@@ -0,0 +1,160 @@
+package org.reactome.addlinks.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.Logger;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.GKSchemaAttribute;
+
+/**
+ * Adds identifiers to the otherIdentifier attribute of many ReferenceGeneProducts at once. The instances are processed in chunks: the current
+ * otherIdentifier rows of a whole chunk are read with one query, the new (sorted, distinct) values are worked out in memory, and only the
+ * instances whose values actually change are rewritten, with one DELETE and multi-row INSERT statements, in a single transaction per chunk.
+ * This replaces the one MySQLAdaptor.updateInstanceAttribute call (several round-trips) per instance that would be needed otherwise.
+ */
+public class OtherIdentifierBatchWriter
+{
+	private MySQLAdaptor adapter;
+	private int chunkSize;
+	private Logger logger;
+	private String table;
+	private String attributeName = ReactomeJavaConstants.otherIdentifier;
+
+	/**
+	 * @param adapter - the database adaptor.
+	 * @param chunkSize - the maximum number of instances to update in a single transaction.
+	 * @param logger - the logger.
+	 * @throws Exception if the otherIdentifier attribute could not be found in the schema.
+	 */
+	public OtherIdentifierBatchWriter(MySQLAdaptor adapter, int chunkSize, Logger logger) throws Exception
+	{
+		this.adapter = adapter;
+		this.chunkSize = Math.max(1, chunkSize);
+		this.logger = logger;
+		GKSchemaAttribute attribute = (GKSchemaAttribute) adapter.getSchema().getClassByName(ReactomeJavaConstants.ReferenceGeneProduct).getAttribute(this.attributeName);
+		this.table = attribute.getOrigin().getName() + "_2_" + this.attributeName;
+	}
+
+	/**
+	 * Adds identifiers to the otherIdentifier attribute of ReferenceGeneProducts. Each instance's otherIdentifiers will be the union of
+	 * its existing values and the new ones, sorted.
+	 * @param newOtherIdentifiers - the identifiers to add, keyed by the DB_ID of the ReferenceGeneProduct they will be added to.
+	 * @return The complete new otherIdentifier values of the instances that were changed, keyed by DB_ID.
+	 * @throws Exception if a chunk could not be written. That chunk's transaction will have been rolled back, but the chunks before it will have been committed.
+	 */
+	public Map<Long, List<String>> addOtherIdentifiers(Map<Long, ? extends Collection<String>> newOtherIdentifiers) throws Exception
+	{
+		Map<Long, List<String>> changedInstances = new HashMap<>();
+		List<Long> dbIds = new ArrayList<>(newOtherIdentifiers.keySet());
+		Collections.sort(dbIds);
+		for (int start = 0; start < dbIds.size(); start += this.chunkSize)
+		{
+			List<Long> chunk = dbIds.subList(start, Math.min(start + this.chunkSize, dbIds.size()));
+			changedInstances.putAll(this.writeChunk(chunk, newOtherIdentifiers));
+		}
+		this.logger.info("otherIdentifier was changed for {} of {} instances", changedInstances.size(), dbIds.size());
+		return changedInstances;
+	}
+
+	/**
+	 * Works out the new otherIdentifier values of instances: the union of their existing values and the new ones, sorted.
+	 * @param dbIds - the DB_IDs of the instances.
+	 * @param existingValues - the current otherIdentifier values of the instances, in rank order. Instances without any values may be missing.
+	 * @param newOtherIdentifiers - the identifiers to add to each instance.
+	 * @return The new values of the instances whose values are different from their existing values (including just their order), keyed by DB_ID.
+	 */
+	public static Map<Long, List<String>> findChangedValues(List<Long> dbIds, Map<Long, List<String>> existingValues, Map<Long, ? extends Collection<String>> newOtherIdentifiers)
+	{
+		Map<Long, List<String>> changedValues = new LinkedHashMap<>();
+		for (Long dbId : dbIds)
+		{
+			List<String> currentValues = existingValues.getOrDefault(dbId, Collections.emptyList());
+			// TreeSet ensures the identifiers will stay sorted, as they are when instances are updated one at a time.
+			TreeSet<String> values = new TreeSet<>(currentValues);
+			Collection<String> additions = newOtherIdentifiers.get(dbId);
+			if (additions != null)
+			{
+				values.addAll(additions);
+			}
+			List<String> valuesList = new ArrayList<>(values);
+			if (!valuesList.equals(currentValues))
+			{
+				changedValues.put(dbId, valuesList);
+			}
+		}
+		return changedValues;
+	}
+
+	private Map<Long, List<String>> writeChunk(List<Long> chunk, Map<Long, ? extends Collection<String>> newOtherIdentifiers) throws Exception
+	{
+		Connection connection = this.adapter.getConnection();
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try
+		{
+			Map<Long, List<String>> existingValues = new HashMap<>();
+			String sql = "SELECT DB_ID, " + this.attributeName + " FROM " + this.table + " WHERE DB_ID IN (" + BatchReferenceWriter.placeholders(chunk.size()) + ") "
+						+ "ORDER BY DB_ID, " + this.attributeName + "_rank";
+			try (PreparedStatement statement = connection.prepareStatement(sql))
+			{
+				BatchReferenceWriter.setParameters(statement, 1, chunk);
+				try (ResultSet results = statement.executeQuery())
+				{
+					while (results.next())
+					{
+						if (results.getString(2) != null)
+						{
+							existingValues.computeIfAbsent(results.getLong(1), k -> new ArrayList<>()).add(results.getString(2));
+						}
+					}
+				}
+			}
+
+			Map<Long, List<String>> changedValues = OtherIdentifierBatchWriter.findChangedValues(chunk, existingValues, newOtherIdentifiers);
+
+			if (!changedValues.isEmpty())
+			{
+				try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + this.table + " WHERE DB_ID IN (" + BatchReferenceWriter.placeholders(changedValues.size()) + ")"))
+				{
+					BatchReferenceWriter.setParameters(statement, 1, changedValues.keySet());
+					statement.executeUpdate();
+				}
+				BatchReferenceWriter.MultiRowInsert insert = new BatchReferenceWriter.MultiRowInsert(this.table, Arrays.asList(ReactomeJavaConstants.DB_ID, this.attributeName + "_rank", this.attributeName));
+				for (Map.Entry<Long, List<String>> entry : changedValues.entrySet())
+				{
+					int rank = 0;
+					for (String value : entry.getValue())
+					{
+						insert.addRow(Arrays.asList(entry.getKey(), rank++, value));
+					}
+				}
+				insert.execute(connection);
+			}
+			connection.commit();
+			this.logger.debug("Updated otherIdentifier for {} of {} instances", changedValues.size(), chunk.size());
+			return changedValues;
+		}
+		catch (Exception e)
+		{
+			this.logger.error("Error while updating otherIdentifier for a chunk of {} instances, the transaction will be rolled back: {}", chunk.size(), e.getMessage());
+			connection.rollback();
+			throw e;
+		}
+		finally
+		{
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package org.reactome.addlinks.db;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * Stores CompactReferenceIndexes on disk, so that they can be loaded instead of being rebuilt from the database.
+ * <br/>
+ * There is one snapshot file per database and class. Each file starts with a header: a magic number, the format version, the database host and name,
+ * the class name and the database's Watermark at the time the index was built. The rest of the file is the index, as written by CompactReferenceIndex.writeTo.
+ * Files are memory-mapped when they are loaded. A snapshot is only used if its header matches the current database exactly; otherwise it is ignored,
+ * and will be overwritten when the index is rebuilt.
+ */
+class ReferenceCacheSnapshot
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	// "RCIX" - Reference Cache IndeX
+	private static final int MAGIC = 0x52434958;
+	// Increment this whenever the layout of the header or of CompactReferenceIndex.writeTo changes.
+	static final int FORMAT_VERSION = 2;
+
+	/**
+	 * Identifies the state of the database: the largest DB_ID, the number of DatabaseObjects and the latest _timestamp.
+	 * If any object is created, deleted or modified, at least one of these will change.
+	 */
+	static class Watermark
+	{
+		private final long maxDbId;
+		private final long objectCount;
+		private final String maxTimestamp;
+
+		Watermark(long maxDbId, long objectCount, String maxTimestamp)
+		{
+			this.maxDbId = maxDbId;
+			this.objectCount = objectCount;
+			this.maxTimestamp = maxTimestamp == null ? "" : maxTimestamp;
+		}
+
+		/**
+		 * Gets the current Watermark of a database.
+		 * @param adapter - the database adaptor.
+		 * @return The current Watermark.
+		 * @throws SQLException
+		 */
+		static Watermark of(MySQLAdaptor adapter) throws SQLException
+		{
+			try (Statement statement = adapter.getConnection().createStatement();
+				ResultSet results = statement.executeQuery("SELECT MAX(DB_ID), COUNT(*), MAX(_timestamp) FROM DatabaseObject"))
+			{
+				results.next();
+				return new Watermark(results.getLong(1), results.getLong(2), results.getString(3));
+			}
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof Watermark))
+			{
+				return false;
+			}
+			Watermark otherWatermark = (Watermark) other;
+			return this.maxDbId == otherWatermark.maxDbId && this.objectCount == otherWatermark.objectCount && this.maxTimestamp.equals(otherWatermark.maxTimestamp);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(this.maxDbId, this.objectCount, this.maxTimestamp);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "[max DB_ID: " + this.maxDbId + ", objects: " + this.objectCount + ", max _timestamp: " + this.maxTimestamp + "]";
+		}
+	}
+
+	private final Path directory;
+
+	/**
+	 * @param directory - the directory that snapshot files are written to and read from. It will be created if it does not exist.
+	 */
+	ReferenceCacheSnapshot(Path directory)
+	{
+		this.directory = directory;
+	}
+
+	private Path snapshotFile(String dbName, String className)
+	{
+		return this.directory.resolve(dbName + "." + className + ".snapshot");
+	}
+
+	/**
+	 * Loads an index from its snapshot file.
+	 * @param adapter - the database adaptor, used to identify the database.
+	 * @param className - the class of the index.
+	 * @param watermark - the current Watermark of the database.
+	 * @return The index, or null if there is no snapshot that matches the database, class, format version and Watermark.
+	 */
+	CompactReferenceIndex load(MySQLAdaptor adapter, String className, Watermark watermark)
+	{
+		Path file = this.snapshotFile(adapter.getDBName(), className);
+		if (!Files.isReadable(file))
+		{
+			logger.info("No cache snapshot for {} at {}", className, file);
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC)
+			{
+				logger.warn("{} is not a cache snapshot, it will be ignored.", file);
+				return null;
+			}
+			int version = buffer.getInt();
+			if (version != FORMAT_VERSION)
+			{
+				logger.info("Cache snapshot {} has format version {}, but the current version is {}. It will be ignored.", file, version, FORMAT_VERSION);
+				return null;
+			}
+			String database = CompactReferenceIndex.readString(buffer);
+			String snapshotClassName = CompactReferenceIndex.readString(buffer);
+			Watermark snapshotWatermark = new Watermark(buffer.getLong(), buffer.getLong(), CompactReferenceIndex.readString(buffer));
+			if (!database.equals(databaseName(adapter)) || !snapshotClassName.equals(className))
+			{
+				logger.info("Cache snapshot {} is for {} in {}, not {} in {}. It will be ignored.", file, snapshotClassName, database, className, databaseName(adapter));
+				return null;
+			}
+			if (!snapshotWatermark.equals(watermark))
+			{
+				logger.info("Cache snapshot {} is out of date (snapshot: {}; database: {}). It will be ignored.", file, snapshotWatermark, watermark);
+				return null;
+			}
+			CompactReferenceIndex index = CompactReferenceIndex.readFrom(buffer);
+			logger.info("Loaded {} {} objects from cache snapshot {}", index.size(), className, file);
+			return index;
+		}
+		catch (IOException | BufferUnderflowException | IllegalArgumentException e)
+		{
+			logger.warn("Could not read cache snapshot {}, it will be ignored. Reason: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes an index to its snapshot file, replacing any existing snapshot. Failure to write a snapshot is logged, but is not an error.
+	 * @param adapter - the database adaptor, used to identify the database.
+	 * @param index - the index.
+	 * @param watermark - the Watermark of the database at the time the index was built.
+	 */
+	void save(MySQLAdaptor adapter, CompactReferenceIndex index, Watermark watermark)
+	{
+		Path file = this.snapshotFile(adapter.getDBName(), index.getClassName());
+		Path tempFile = null;
+		try
+		{
+			Files.createDirectories(this.directory);
+			// Write to a temporary file first, so that an interrupted write can never leave a partial snapshot behind.
+			tempFile = Files.createTempFile(this.directory, index.getClassName(), ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16)))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				CompactReferenceIndex.writeString(out, databaseName(adapter));
+				CompactReferenceIndex.writeString(out, index.getClassName());
+				out.writeLong(watermark.maxDbId);
+				out.writeLong(watermark.objectCount);
+				CompactReferenceIndex.writeString(out, watermark.maxTimestamp);
+				index.writeTo(out);
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			logger.info("Wrote cache snapshot for {} to {}", index.getClassName(), file);
+		}
+		catch (IOException e)
+		{
+			logger.warn("Could not write cache snapshot {}. Reason: {}", file, e.getMessage());
+			try
+			{
+				if (tempFile != null)
+				{
+					Files.deleteIfExists(tempFile);
+				}
+			}
+			catch (IOException e1)
+			{
+				logger.warn("Could not delete temporary file {}", tempFile);
+			}
+		}
+	}
+
+	private static String databaseName(MySQLAdaptor adapter)
+	{
+		return adapter.getDBHost() + ":" + adapter.getDBPort() + "/" + adapter.getDBName();
+	}
+}
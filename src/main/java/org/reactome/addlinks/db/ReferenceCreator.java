@@ -40,6 +40,15 @@ public class ReferenceCreator
 	private ReferenceObjectCache objectCache;
 	
 	private GKInstance refDBInstance;
+
+	// When batchSize > 0, new references are queued and written in chunks of (up to) batchSize, instead of one at a time.
+	private static int batchSize = 0;
+
+	// All ReferenceCreators share one allocator so that DB_ID blocks are not reserved more often than necessary.
+	private static DbIdBlockAllocator dbIdAllocator;
+
+	private BatchReferenceWriter batchWriter;
+
 	/**
 	 * 
 	 * @param schemaClass - References that are created by this object will be of type <i>schemaClass</i>.
@@ -170,15 +179,16 @@ public class ReferenceCreator
 			// Try to see if this Identifier is already in the database.
 			// Ideally, this will not return anything.
 			// Of course, we should only look at cross-references on the source object.
-			// It's possible that the Identifier might already exist but for a different object. Note that by querying the cache-by-identifier cache,
-			// objects created *during* the execution of AddLinks will not be found since they won't have been added to the cache which gets populated 
-			// when the application starts.
+			// It's possible that the Identifier might already exist but for a different object. Objects created *during* the execution of AddLinks
+			// are added to the cache-by-identifier cache once they have been written to the database (see ReferenceObjectCache.registerCreatedInstance).
 			Collection<GKInstance> identifiers = this.objectCache.getByIdentifier(identifierValue, this.schemaClass.getName());
 
 			// TODO: Maybe have a flag that can turn this functionality (check for pre-existing "new" identifiers) on or off.
 			if (identifiers != null && identifiers.size() > 0)
 			{
 				boolean needToDeleteIdentifier = false;
+				// Deleted identifiers are removed from the cache after the loop, since the cache's list is what's being looped over.
+				List<GKInstance> deletedIdentifiers = new ArrayList<>();
 				// If the identifiers already exist, they should be deleted and
 				// then re-added.
 				for (GKInstance identifier : identifiers)
@@ -204,7 +214,13 @@ public class ReferenceCreator
 									try
 									{
 										needToDeleteIdentifier = true;
+										GKInstance deletedIdentifierRefDB = (GKInstance) identifier.getAttributeValue(ReactomeJavaConstants.referenceDatabase);
 										this.dbAdapter.deleteInstance(identifier);
+										deletedIdentifiers.add(identifier);
+										if (deletedIdentifierRefDB != null)
+										{
+											CrossReferenceIndex.registerDeletedReference(key.getName(), deletedIdentifierRefDB.getDBID(), inst.getDBID(), identifierValue);
+										}
 									}
 									catch (Exception e)
 									{
@@ -221,6 +237,10 @@ public class ReferenceCreator
 						this.logger.error("The identifiers list contains {} elements, and {} were NULL.", identifiers.size(), identifiers.stream().filter(p -> p == null).count());
 					}
 				}
+				for (GKInstance deletedIdentifier : deletedIdentifiers)
+				{
+					ReferenceObjectCache.registerDeletedInstance(deletedIdentifier);
+				}
 				if (!needToDeleteIdentifier)
 				{
 					this.logger.trace("Pre-existing identifier {} did not need to be deleted because it was not already referred to by {}", identifierValue, referenceToValue);
@@ -264,6 +284,21 @@ public class ReferenceCreator
 					}
 				}
 
+				if (ReferenceCreator.batchSize > 0)
+				{
+					// The referred-to instance, its geneName, and the new Identifier's _displayName will all be dealt with when the chunk is written.
+					newInstanceID = this.getBatchWriter().add(identifierInstance, this.refDBInstance, Long.valueOf(referenceToValue), identifierValue);
+					// The cross-reference is recorded now, rather than when the chunk is written, so that the same reference is not queued twice.
+					CrossReferenceIndex.registerCreatedReference(this.referringAttribute.getName(), this.refDBInstance.getDBID(), Long.valueOf(referenceToValue), identifierValue);
+					this.logger.trace("Object with DB_ID: {} will have new reference (via {} attribute): DB_ID: {}, Type: {}, Identifier Value: {}",
+								referenceToValue, this.referringAttribute.getName(), newInstanceID, this.schemaClass.getName(), identifierValue );
+					if (this.batchWriter.size() >= ReferenceCreator.batchSize)
+					{
+						this.flushPendingReferences();
+					}
+					return newInstanceID;
+				}
+
 				GKInstance instanceReferredToByIdentifier = this.dbAdapter.fetchInstance(this.referringToSchemaClass.getName(), new Long(referenceToValue));
 				if (instanceReferredToByIdentifier == null)
 				{
@@ -286,12 +321,7 @@ public class ReferenceCreator
 				}
 
 				
-				InstanceDisplayNameGenerator.setDisplayName(identifierInstance);
-				// If there is no geneName attribute or name attribute, then the _displayName will end with " Unknown" but
-				// this looks bad in the UI, so remove it. The old Perl code didn't do this, it used an empty string in
-				// that situation
-				String newDisplayName = identifierInstance.getDisplayName().replaceAll(" Unknown$", "");
-				identifierInstance.setDisplayName(newDisplayName);
+				ReferenceCreator.generateDisplayName(identifierInstance);
 
 				//Save changes to the new Identifier.
 				newInstanceID = this.dbAdapter.storeInstance(identifierInstance);
@@ -332,7 +362,8 @@ public class ReferenceCreator
 				// Only now that the reference has been created, we will update the Links-to-check cache. This cache will be used later to ensure
 				// that the external links we created are valid.
 				LinksToCheckCache.addLinkToCache(this.refDBInstance, createdIdentifier);
-				
+				ReferenceObjectCache.registerCreatedInstance(createdIdentifier);
+				CrossReferenceIndex.registerCreatedReference(xrefAttrib.getName(), this.refDBInstance.getDBID(), instanceReferredToByIdentifier.getDBID(), identifierValue);
 			}
 			else
 			{
@@ -368,6 +399,92 @@ public class ReferenceCreator
 		return this.createIdentifier(identifierValue, referenceToValue, refDB, personID, creatorName, null);
 	}
 
+	/**
+	 * Writes any references that were queued by createIdentifier but have not been written yet. This does nothing if batch mode is off.
+	 * Callers should call this once they have finished creating identifiers.
+	 * @throws Exception if anything goes wrong while writing. The chunk that was being written will have been rolled back.
+	 */
+	public void flushPendingReferences() throws Exception
+	{
+		if (this.batchWriter == null || this.batchWriter.size() == 0)
+		{
+			return;
+		}
+		try
+		{
+			List<BatchReferenceWriter.PendingReference> writtenReferences = this.batchWriter.flush(this.instanceEdit);
+			for (BatchReferenceWriter.PendingReference writtenReference : writtenReferences)
+			{
+				// Only now that the reference has been created, we will update the Links-to-check cache.
+				LinksToCheckCache.addLinkToCache(writtenReference.getRefDBInstance(), writtenReference.getInstance());
+				ReferenceObjectCache.registerCreatedInstance(writtenReference.getInstance());
+			}
+			this.logger.info("{} new {} references were written to the database.", writtenReferences.size(), this.schemaClass.getName());
+		}
+		catch (MysqlDataTruncation e)
+		{
+			this.logger.error("Data truncation error: \"{}\" while trying to insert a chunk of new references", e.getMessage());
+			throw new Error(e);
+		}
+	}
+
+	/**
+	 * Sets the number of references that will be queued before they are written to the database. If this is 0 (the default),
+	 * references will be written one at a time, as soon as they are created.
+	 * @param batchSize - the maximum number of references to write in a single transaction.
+	 */
+	public static void setBatchSize(int batchSize)
+	{
+		ReferenceCreator.batchSize = batchSize;
+	}
+
+	private synchronized BatchReferenceWriter getBatchWriter()
+	{
+		if (this.batchWriter == null)
+		{
+			this.batchWriter = new BatchReferenceWriter(this.dbAdapter, ReferenceCreator.getDbIdAllocator(this.dbAdapter), this.referringToSchemaClass, this.referringAttribute, this.logger);
+		}
+		return this.batchWriter;
+	}
+
+	/**
+	 * Closes the database connection that is used to reserve blocks of DB_IDs for new references. This should be called once all
+	 * ReferenceCreators have finished writing.
+	 * @throws Exception if the connection could not be closed.
+	 */
+	public static synchronized void closeDbIdAllocator() throws Exception
+	{
+		if (ReferenceCreator.dbIdAllocator != null)
+		{
+			ReferenceCreator.dbIdAllocator.close();
+			ReferenceCreator.dbIdAllocator = null;
+		}
+	}
+
+	private static synchronized DbIdBlockAllocator getDbIdAllocator(MySQLAdaptor adapter)
+	{
+		if (ReferenceCreator.dbIdAllocator == null)
+		{
+			// Reserve enough DB_IDs for a few chunks at a time.
+			ReferenceCreator.dbIdAllocator = new DbIdBlockAllocator(adapter, ReferenceCreator.batchSize * 10);
+		}
+		return ReferenceCreator.dbIdAllocator;
+	}
+
+	/**
+	 * Generates the _displayName of a new reference.
+	 * @param identifierInstance - the new reference.
+	 */
+	static void generateDisplayName(GKInstance identifierInstance)
+	{
+		InstanceDisplayNameGenerator.setDisplayName(identifierInstance);
+		// If there is no geneName attribute or name attribute, then the _displayName will end with " Unknown" but
+		// this looks bad in the UI, so remove it. The old Perl code didn't do this, it used an empty string in
+		// that situation
+		String newDisplayName = identifierInstance.getDisplayName().replaceAll(" Unknown$", "");
+		identifierInstance.setDisplayName(newDisplayName);
+	}
+
 	/**
 	 * A helper method to get a ReferenceDatabase instance for the specified
 	 * instance.
@@ -240,6 +240,7 @@ public class ReferenceDatabaseCreator implements CustomLoggable
 						preexistingRefDB.addAttributeValue(ReactomeJavaConstants.modified, updateRefDBInstanceEdit);
 						this.adapter.updateInstanceAttribute(preexistingRefDB, dbNameAttrib);
 						this.adapter.updateInstanceAttribute(preexistingRefDB, ReactomeJavaConstants.modified);
+						ReferenceObjectCache.refreshRefDB(preexistingRefDB);
 						refDBID = preexistingRefDB.getDBID();
 					}
 				}
@@ -276,6 +277,7 @@ public class ReferenceDatabaseCreator implements CustomLoggable
 		newReferenceDB.setDbAdaptor(this.adapter);
 		InstanceDisplayNameGenerator.setDisplayName(newReferenceDB);
 		refDBID = this.adapter.storeInstance(newReferenceDB);
+		ReferenceObjectCache.registerCreatedInstance(newReferenceDB);
 		return refDBID;
 	}
 
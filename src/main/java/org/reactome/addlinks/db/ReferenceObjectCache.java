@@ -1,6 +1,9 @@
 package org.reactome.addlinks.db;
 
+import java.nio.file.Paths;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -19,27 +22,39 @@ import org.apache.logging.log4j.Logger;
 import org.gk.model.GKInstance;
 import org.gk.model.ReactomeJavaConstants;
 import org.gk.persistence.MySQLAdaptor;
+import org.gk.schema.GKSchemaAttribute;
 import org.gk.schema.InvalidAttributeException;
+import org.gk.schema.SchemaClass;
 
 public final class ReferenceObjectCache 
 {
-	//TODO: Find a way to store the caches on disk. For *testing* purposes - only!
-	// ...it would probably be faster to load this from a file than from database queries.
+	// Compact caches can be stored on disk (see setSnapshotDirectory). Loading them from a file is much faster than building them from database queries.
 	
 	private static final Logger logger = LogManager.getLogger();
 	private static boolean cachesArePopulated = false;
 	private static boolean lazyLoad = true;
 	private static boolean cacheInitializedMessageHasBeenPrinted = false;
 	private static MySQLAdaptor adapter;
-	private static Map<Long,MySQLAdaptor> adapterPool = new HashMap<>();
+	// Adaptors are also requested from parallel streams of callers when compact caches fetch instances, so this needs to be thread-safe.
+	private static Map<Long,MySQLAdaptor> adapterPool = new ConcurrentHashMap<>();
+	private static boolean useCompactCaches = false;
+	private static ReferenceCacheSnapshot snapshot = null;
+	// Reset whenever the database is changed through this class, so that snapshots are never saved under a watermark from before the change.
+	private static volatile ReferenceCacheSnapshot.Watermark watermark = null;
+	// Guards changes to the ReferenceDatabase name mappings made by registerCreatedInstance/registerDeletedInstance/refreshRefDB.
+	private static final Object refDbMappingLock = new Object();
 	
 	/**
 	 * Sets up the internal caches.
 	 * @param adapter - a database adapter.
 	 * @param lazyLoad - Should caches be lazy-loaded? If TRUE, caches will only be populated the first time they are accessed. If FALSE, all caches will be populated NOW.
+	 * @param useCompactCaches - Should compact caches be used? If TRUE, ReferenceGeneProducts, ReferenceDNASequences, ReferenceRNASequences, ReferenceMolecules,
+	 * DatabaseIdentifiers and ReferenceTherapeutics will be cached in CompactReferenceIndexes which only hold DB_IDs, identifiers, ReferenceDatabase IDs and Species IDs,
+	 * and GKInstances will only be fetched from the database when they are requested. This uses a small fraction of the memory of the default caches.
 	 */
-	public ReferenceObjectCache(MySQLAdaptor adapter, boolean lazyLoad)
+	public ReferenceObjectCache(MySQLAdaptor adapter, boolean lazyLoad, boolean useCompactCaches)
 	{
+		ReferenceObjectCache.useCompactCaches = useCompactCaches;
 		ReferenceObjectCache.lazyLoad = lazyLoad;
 		ReferenceObjectCache.adapter = adapter;
 		if (!ReferenceObjectCache.lazyLoad)
@@ -65,13 +80,50 @@ public final class ReferenceObjectCache
 		}
 	}
 	
+	/**
+	 * Sets up the internal caches. Compact caches will be used if they were requested when the caches were first set up.
+	 * @param adapter - a database adapter.
+	 * @param lazyLoad - Should caches be lazy-loaded? If TRUE, caches will only be populated the first time they are accessed. If FALSE, all caches will be populated NOW.
+	 */
+	public ReferenceObjectCache(MySQLAdaptor adapter, boolean lazyLoad)
+	{
+		this(adapter, lazyLoad, ReferenceObjectCache.useCompactCaches);
+	}
+	
 	public ReferenceObjectCache(MySQLAdaptor adapter)
 	{
 		this(adapter, false);
 	}
 	
+	/**
+	 * Sets the directory for snapshots of the compact caches. When a compact cache is built, it is written to this directory, and when a compact cache
+	 * is needed, it will be loaded from this directory instead of the database if the snapshot was taken when the database was in its current state
+	 * (same max DB_ID, number of objects and max _timestamp). Snapshots are only used for compact caches.
+	 * @param directory - the directory. If null or empty, snapshots will not be used.
+	 */
+	public static synchronized void setSnapshotDirectory(String directory)
+	{
+		if (directory == null || directory.trim().isEmpty())
+		{
+			ReferenceObjectCache.snapshot = null;
+		}
+		else
+		{
+			ReferenceObjectCache.snapshot = new ReferenceCacheSnapshot(Paths.get(directory.trim()));
+		}
+	}
+	
 	// This also needs to be synchronized in case lazy-loading is enabled and populateCaches isn't called from the constructor.
 	private static synchronized void buildReferenceCaches(String className, Map<String,List<GKInstance>> cacheBySpecies, Map<String,GKInstance> cacheByID, Map<String, List<GKInstance>> objectCacheByIdentifier, Map<String,List<GKInstance>> cacheByRefDB) throws Exception
+	{
+		// registerCreatedInstance and registerDeletedInstance lock the cache-by-DB_ID of a class, so they wait until its caches are completely built.
+		synchronized (cacheByID)
+		{
+			ReferenceObjectCache.buildReferenceCachesOfClass(className, cacheBySpecies, cacheByID, objectCacheByIdentifier, cacheByRefDB);
+		}
+	}
+
+	private static void buildReferenceCachesOfClass(String className, Map<String,List<GKInstance>> cacheBySpecies, Map<String,GKInstance> cacheByID, Map<String, List<GKInstance>> objectCacheByIdentifier, Map<String,List<GKInstance>> cacheByRefDB) throws Exception
 	{
 		logger.debug("Building caches of {}", className);
 		
@@ -340,6 +392,9 @@ public final class ReferenceObjectCache
 				localAdapter = new MySQLAdaptor( ReferenceObjectCache.adapter.getDBHost(), ReferenceObjectCache.adapter.getDBName(),
 												ReferenceObjectCache.adapter.getDBUser(), ReferenceObjectCache.adapter.getDBPwd(),
 												ReferenceObjectCache.adapter.getDBPort());
+				// Instances fetched for the compact caches are held by the lists that they were fetched for. If the adaptor also cached them,
+				// every instance that was ever fetched would stay in memory.
+				localAdapter.setUseCache(false);
 				adapterPool.put(threadID, localAdapter);
 			}
 			catch (SQLException e)
@@ -364,13 +419,23 @@ public final class ReferenceObjectCache
 			{
 				logger.info("Building ReferenceObject caches...");
 				// Populate the main caches.
-				ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceGeneProduct, refGeneProdCacheBySpecies, refGeneProdCacheByDBID, refGeneProdCacheByIdentifier, refGeneProdCacheByRefDb);
-				ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceDNASequence, refDNASeqCacheBySpecies, refDNASeqCacheByDBID, refDNASeqCacheByIdentifier, refDNASeqCacheByRefDb);
-				ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceRNASequence, refRNASeqCacheBySpecies, refRNASeqCacheByDBID, refRNASeqCacheByIdentifier, refRNASeqCacheByRefDb);
-				ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceMolecule, null, moleculeCacheByDBID, moleculeCacheByIdentifier, moleculeCacheByRefDB);
+				if (ReferenceObjectCache.useCompactCaches)
+				{
+					for (String className : ReferenceObjectCache.compactlyCachedClasses)
+					{
+						ReferenceObjectCache.compactCaches.put(className, ReferenceObjectCache.buildCompactReferenceCache(className));
+					}
+				}
+				else
+				{
+					ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceGeneProduct, refGeneProdCacheBySpecies, refGeneProdCacheByDBID, refGeneProdCacheByIdentifier, refGeneProdCacheByRefDb);
+					ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceDNASequence, refDNASeqCacheBySpecies, refDNASeqCacheByDBID, refDNASeqCacheByIdentifier, refDNASeqCacheByRefDb);
+					ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceRNASequence, refRNASeqCacheBySpecies, refRNASeqCacheByDBID, refRNASeqCacheByIdentifier, refRNASeqCacheByRefDb);
+					ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceMolecule, null, moleculeCacheByDBID, moleculeCacheByIdentifier, moleculeCacheByRefDB);
+					ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.DatabaseIdentifier, null, databaseIdentifiersByDBID, databaseIdentifiersByIdentifier, databaseIdentifiersByRefDb);
+					ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceTherapeutic, null, referenceTherapeuticsByDBID, referenceTherapeuticsByIdentifier, referenceTherapeuticsByRefDb);
+				}
 				ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.Reaction, reactionCacheBySpecies, reactionCacheByDBID, reactionCacheByIdentifier, null);
-				ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.DatabaseIdentifier, null, databaseIdentifiersByDBID, databaseIdentifiersByIdentifier, databaseIdentifiersByRefDb);
-				ReferenceObjectCache.buildReferenceCaches(ReactomeJavaConstants.ReferenceTherapeutic, null, referenceTherapeuticsByDBID, referenceTherapeuticsByIdentifier, referenceTherapeuticsByRefDb);
 				
 				// Build up the Reference Database caches.
 				buildReferenceDatabaseCache(adapter);
@@ -468,6 +533,245 @@ public final class ReferenceObjectCache
 		buildOneToManyCache(adapter, ReactomeJavaConstants.ReferenceDatabase, ReferenceObjectCache.refDbNamesToIds, ReferenceObjectCache.refdbMapping);
 	}
 	
+	/**
+	 * Used to process one row of a result set.
+	 */
+	@FunctionalInterface
+	private interface RowHandler
+	{
+		void handle(ResultSet row) throws SQLException;
+	}
+	
+	/**
+	 * Executes a query and streams the results through a handler, one row at a time, so that large results are never held in memory.
+	 * @param dbAdapter - the database adaptor. This must not be used for anything else while the query is running, so it should be an adaptor from the adapterPool.
+	 * @param sql - the query.
+	 * @param handler - processes each row.
+	 * @throws SQLException
+	 */
+	private static void forEachRow(MySQLAdaptor dbAdapter, String sql, RowHandler handler) throws SQLException
+	{
+		try (Statement statement = dbAdapter.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+		{
+			// Integer.MIN_VALUE tells the MySQL driver to stream the results instead of reading them all at once.
+			statement.setFetchSize(Integer.MIN_VALUE);
+			try (ResultSet results = statement.executeQuery(sql))
+			{
+				while (results.next())
+				{
+					handler.handle(results);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Builds a query for the values of an attribute of all objects of a class (including its subclasses). The query returns two columns: DB_ID and the attribute value.
+	 * For multi-valued attributes, the values of each object are ordered by rank.
+	 * @param dbAdapter - the database adaptor, used to get the schema.
+	 * @param className - the name of the class.
+	 * @param attributeName - the name of the attribute.
+	 * @return The query, or null if the attribute is not valid for the class.
+	 * @throws InvalidAttributeException
+	 */
+	private static String attributeValuesQuery(MySQLAdaptor dbAdapter, String className, String attributeName) throws InvalidAttributeException
+	{
+		SchemaClass schemaClass = dbAdapter.getSchema().getClassByName(className);
+		if (!schemaClass.isValidAttribute(attributeName))
+		{
+			return null;
+		}
+		GKSchemaAttribute attribute = (GKSchemaAttribute) schemaClass.getAttribute(attributeName);
+		String originTable = attribute.getOrigin().getName();
+		// Every class has a table with a row for each of its instances, including instances of subclasses, so joining to it restricts the results to the class.
+		if (attribute.isMultiple())
+		{
+			return "SELECT t.DB_ID, t." + attributeName + " FROM " + originTable + "_2_" + attributeName + " t INNER JOIN " + className + " c ON c.DB_ID = t.DB_ID"
+					+ " WHERE t." + attributeName + " IS NOT NULL ORDER BY t.DB_ID, t." + attributeName + "_rank";
+		}
+		return "SELECT t.DB_ID, t." + attributeName + " FROM " + originTable + " t INNER JOIN " + className + " c ON c.DB_ID = t.DB_ID"
+				+ " WHERE t." + attributeName + " IS NOT NULL";
+	}
+	
+	/**
+	 * Builds a compact cache of all objects of a class. Unlike buildReferenceCaches, this does not fetch any GKInstances: the DB_IDs, identifiers, ReferenceDatabases and Species
+	 * are read directly from the database tables.
+	 * @param className - the name of the class to cache.
+	 * @return The compact cache.
+	 * @throws Exception
+	 */
+	private static synchronized CompactReferenceIndex buildCompactReferenceCache(String className) throws Exception
+	{
+		MySQLAdaptor localAdapter = getAdaptorForThread(Thread.currentThread().getId());
+		if (ReferenceObjectCache.snapshot != null)
+		{
+			// The watermark is only read once per database state: clearing the caches resets it.
+			if (ReferenceObjectCache.watermark == null)
+			{
+				ReferenceObjectCache.watermark = ReferenceCacheSnapshot.Watermark.of(localAdapter);
+			}
+			CompactReferenceIndex index = ReferenceObjectCache.snapshot.load(localAdapter, className, ReferenceObjectCache.watermark);
+			if (index != null)
+			{
+				return index;
+			}
+		}
+		logger.debug("Building compact caches of {}", className);
+		
+		int[] count = new int[1];
+		forEachRow(localAdapter, "SELECT COUNT(*) FROM " + className, row -> count[0] = row.getInt(1));
+		CompactReferenceIndex index = new CompactReferenceIndex(className, count[0]);
+		
+		forEachRow(localAdapter, "SELECT d.DB_ID, d._class FROM DatabaseObject d INNER JOIN " + className + " c ON c.DB_ID = d.DB_ID", row -> index.add(row.getLong(1), row.getString(2)));
+		
+		// For multi-valued attributes, only the first value is used, because that is what getAttributeValue would return.
+		String identifierQuery = attributeValuesQuery(localAdapter, className, ReactomeJavaConstants.identifier);
+		if (identifierQuery != null)
+		{
+			forEachRow(localAdapter, identifierQuery, row -> index.setIdentifier(row.getLong(1), row.getString(2)));
+		}
+		String refDbQuery = attributeValuesQuery(localAdapter, className, ReactomeJavaConstants.referenceDatabase);
+		if (refDbQuery != null)
+		{
+			forEachRow(localAdapter, refDbQuery, row -> index.setReferenceDatabase(row.getLong(1), row.getLong(2)));
+		}
+		// ReferenceMolecules and DatabaseIdentifiers and ReferenceTherapeutics do not have associated species.
+		if ( !className.equals(ReactomeJavaConstants.ReferenceMolecule) && !className.equals(ReactomeJavaConstants.DatabaseIdentifier) && !className.equals(ReactomeJavaConstants.ReferenceTherapeutic))
+		{
+			String speciesQuery = attributeValuesQuery(localAdapter, className, ReactomeJavaConstants.species);
+			if (speciesQuery != null)
+			{
+				forEachRow(localAdapter, speciesQuery, row -> index.setSpecies(row.getLong(1), row.getLong(2)));
+			}
+			//ReferenceRNASequence objects don't always have Species info, for some reason, so we need to get that from the ReferenceGeneProducts that refer to them.
+			if (className.equals(ReactomeJavaConstants.ReferenceRNASequence))
+			{
+				String transcriptQuery = attributeValuesQuery(localAdapter, ReactomeJavaConstants.ReferenceGeneProduct, ReactomeJavaConstants.referenceTranscript);
+				String geneProductSpeciesQuery = attributeValuesQuery(localAdapter, ReactomeJavaConstants.ReferenceGeneProduct, ReactomeJavaConstants.species);
+				if (transcriptQuery != null && geneProductSpeciesQuery != null)
+				{
+					Map<Long, Set<Long>> speciesAddedForTranscript = new HashMap<>();
+					forEachRow(localAdapter, "SELECT DISTINCT rt." + ReactomeJavaConstants.referenceTranscript + ", sp." + ReactomeJavaConstants.species
+											+ " FROM (" + transcriptQuery + ") rt INNER JOIN (" + geneProductSpeciesQuery + ") sp ON sp.DB_ID = rt.DB_ID",
+						row -> {
+							long transcriptId = row.getLong(1);
+							long speciesId = row.getLong(2);
+							if (index.contains(transcriptId) && !index.hasSpecies(transcriptId)
+								&& speciesAddedForTranscript.computeIfAbsent(transcriptId, k -> new HashSet<>()).add(speciesId))
+							{
+								index.addToSpeciesIndex(transcriptId, speciesId);
+							}
+						});
+				}
+			}
+		}
+		logger.info("Built compact {} caches:"
+				+ "\n\tObjects: {};"
+				+ "\n\tKeys in cache-by-refdb: {};"
+				+ "\n\tkeys in cache-by-species: {};"
+				+ "\n\tkeys in cache-by-identifier: {};", className,
+					index.size(), index.refDbKeyCount(), index.speciesKeyCount(), index.identifierKeyCount());
+		if (ReferenceObjectCache.snapshot != null)
+		{
+			ReferenceObjectCache.snapshot.save(localAdapter, index, ReferenceObjectCache.watermark);
+		}
+		return index;
+	}
+	
+	/**
+	 * Gets the compact cache for a class, building it if it has not been built yet.
+	 * @param className - the name of the class.
+	 * @return The compact cache for the class.
+	 */
+	private static CompactReferenceIndex getCompactCache(String className)
+	{
+		CompactReferenceIndex index = ReferenceObjectCache.compactCaches.get(className);
+		if (index == null)
+		{
+			synchronized (ReferenceObjectCache.class)
+			{
+				index = ReferenceObjectCache.compactCaches.get(className);
+				if (index == null)
+				{
+					logger.info("Lazy-loading compact caches for {}", className);
+					try
+					{
+						index = ReferenceObjectCache.buildCompactReferenceCache(className);
+						ReferenceObjectCache.compactCaches.put(className, index);
+						// Same as buildLazilyLoadedCaches: the ReferenceDatabase and Species caches get rebuilt whenever a class's caches are built.
+						buildReferenceDatabaseCache(adapter);
+						buildSpeciesCache(adapter);
+					}
+					catch (Exception e)
+					{
+						e.printStackTrace();
+						logger.error("An Exception was caught while trying to populate the compact caches: {}\n"
+								+ "Caches might not be populated, any results returned might not be what you'd have hoped for. Sorry.", e.getMessage());
+						// Return an empty cache, but don't keep it, so the next request will try again.
+						index = new CompactReferenceIndex(className, 0);
+					}
+				}
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * @param className - the name of a class.
+	 * @return TRUE if objects of the class are cached in a compact cache.
+	 */
+	private static boolean usesCompactCache(String className)
+	{
+		return ReferenceObjectCache.useCompactCaches && ReferenceObjectCache.compactlyCachedClasses.contains(className);
+	}
+	
+	/**
+	 * Fetches instances for a compact cache, using the adaptor for the current thread. The instances and their attribute values are
+	 * loaded with a few queries for the whole batch, rather than a few queries per instance.
+	 */
+	private static Map<Long, GKInstance> resolveInstances(String className, List<Long> dbIds) throws Exception
+	{
+		MySQLAdaptor localAdapter = getAdaptorForThread(Thread.currentThread().getId());
+		@SuppressWarnings("unchecked")
+		Collection<GKInstance> instances = (Collection<GKInstance>) localAdapter.fetchInstanceByAttribute(className, ReactomeJavaConstants.DB_ID, "=", dbIds);
+		Map<Long, GKInstance> instancesByDbId = new HashMap<>();
+		if (instances != null && !instances.isEmpty())
+		{
+			localAdapter.loadInstanceAttributeValues(instances);
+			for (GKInstance instance : instances)
+			{
+				instancesByDbId.put(instance.getDBID(), instance);
+			}
+		}
+		if (instancesByDbId.size() < dbIds.size())
+		{
+			logger.warn("{} of {} {} instances are in the cache but could not be fetched from the database.", dbIds.size() - instancesByDbId.size(), dbIds.size(), className);
+		}
+		return instancesByDbId;
+	}
+	
+	/**
+	 * Parses a DB_ID that was passed to one of the getters as a String.
+	 * @return The DB_ID, or 0 if it is not a number (nothing in the caches has a DB_ID of 0).
+	 */
+	private static long parseDbId(String dbId)
+	{
+		try
+		{
+			return Long.parseLong(dbId);
+		}
+		catch (NumberFormatException | NullPointerException e)
+		{
+			return 0;
+		}
+	}
+	
+	// Compact caches, keyed by class name. Only used if useCompactCaches is TRUE.
+	private static final List<String> compactlyCachedClasses = Arrays.asList(ReactomeJavaConstants.ReferenceGeneProduct, ReactomeJavaConstants.ReferenceDNASequence,
+																			ReactomeJavaConstants.ReferenceRNASequence, ReactomeJavaConstants.ReferenceMolecule,
+																			ReactomeJavaConstants.DatabaseIdentifier, ReactomeJavaConstants.ReferenceTherapeutic);
+	private static Map<String, CompactReferenceIndex> compactCaches = new ConcurrentHashMap<>();
+	
 	// Reaction Cache
 	private static Map<String, GKInstance> reactionCacheByDBID = new ConcurrentHashMap<>();
 	private static Map<String, List<GKInstance>> reactionCacheByIdentifier = new ConcurrentHashMap<>();
@@ -525,6 +829,11 @@ public final class ReferenceObjectCache
 	 */
 	public List<GKInstance> getByRefDb(String refDb, String className)
 	{
+		if (usesCompactCache(className))
+		{
+			List<GKInstance> byRefDb = getCompactCache(className).getByRefDb(parseDbId(refDb), ReferenceObjectCache::resolveInstances);
+			return byRefDb != null ? byRefDb : new ArrayList<>(0);
+		}
 		switch (className)
 		{
 			case ReactomeJavaConstants.ReferenceGeneProduct:
@@ -573,6 +882,11 @@ public final class ReferenceObjectCache
 	 */
 	private void buildLazilyLoadedCaches(String objectClass, Map<String, List<GKInstance>> objectCacheBySpecies, Map<String, GKInstance> objectCacheByDBID, Map<String, List<GKInstance>> objectCacheByIdentifier, Map<String, List<GKInstance>> objectCacheByRefDB, boolean lazyLoad)
 	{
+		if (usesCompactCache(objectClass))
+		{
+			getCompactCache(objectClass);
+			return;
+		}
 		//if (!lazyLoad)
 		{
 			// not every class-cache will populate all caches, so only load if they are ALL empty.
@@ -613,16 +927,28 @@ public final class ReferenceObjectCache
 		{
 			case ReactomeJavaConstants.ReferenceGeneProduct:
 			{
+				if (usesCompactCache(className))
+				{
+					return getCompactCache(className).getBySpecies(parseDbId(species), ReferenceObjectCache::resolveInstances);
+				}
 				buildLazilyLoadedCaches(ReactomeJavaConstants.ReferenceGeneProduct, ReferenceObjectCache.refGeneProdCacheBySpecies, ReferenceObjectCache.refGeneProdCacheByDBID, ReferenceObjectCache.refGeneProdCacheByIdentifier, ReferenceObjectCache.refGeneProdCacheByRefDb, ReferenceObjectCache.lazyLoad);
 				return ReferenceObjectCache.refGeneProdCacheBySpecies.get(species);
 			}
 			case ReactomeJavaConstants.ReferenceDNASequence:
 			{
+				if (usesCompactCache(className))
+				{
+					return getCompactCache(className).getBySpecies(parseDbId(species), ReferenceObjectCache::resolveInstances);
+				}
 				buildLazilyLoadedCaches(ReactomeJavaConstants.ReferenceDNASequence, ReferenceObjectCache.refDNASeqCacheBySpecies, ReferenceObjectCache.refDNASeqCacheByDBID, ReferenceObjectCache.refDNASeqCacheByIdentifier, ReferenceObjectCache.refDNASeqCacheByRefDb, ReferenceObjectCache.lazyLoad);
 				return ReferenceObjectCache.refDNASeqCacheBySpecies.get(species);
 			}
 			case ReactomeJavaConstants.ReferenceRNASequence:
 			{
+				if (usesCompactCache(className))
+				{
+					return getCompactCache(className).getBySpecies(parseDbId(species), ReferenceObjectCache::resolveInstances);
+				}
 				buildLazilyLoadedCaches(ReactomeJavaConstants.ReferenceRNASequence, ReferenceObjectCache.refRNASeqCacheBySpecies, ReferenceObjectCache.refRNASeqCacheByDBID, ReferenceObjectCache.refRNASeqCacheByIdentifier, ReferenceObjectCache.refRNASeqCacheByRefDb, ReferenceObjectCache.lazyLoad);
 				return ReferenceObjectCache.refRNASeqCacheBySpecies.get(species);
 			}
@@ -692,6 +1018,10 @@ public final class ReferenceObjectCache
 	 */
 	public GKInstance getReferenceGeneProductById(String id)
 	{
+		if (usesCompactCache(ReactomeJavaConstants.ReferenceGeneProduct))
+		{
+			return getCompactCache(ReactomeJavaConstants.ReferenceGeneProduct).getByDbId(parseDbId(id), ReferenceObjectCache::resolveInstances);
+		}
 		return ReferenceObjectCache.refGeneProdCacheByDBID.get(id);
 	}
 	
@@ -704,6 +1034,11 @@ public final class ReferenceObjectCache
 	 */
 	public List<GKInstance> getByRefDbAndSpecies(String refDb, String species, String className)
 	{
+		if (usesCompactCache(className))
+		{
+			// The compact cache can filter by species without fetching anything from the database.
+			return getCompactCache(className).getByRefDbAndSpecies(parseDbId(refDb), parseDbId(species), ReferenceObjectCache::resolveInstances);
+		}
 		//Get a list by referenceDatabase
 		List<GKInstance> byRefDb = this.getByRefDb(refDb, className);
 		//Now filter the items in that list by species.
@@ -845,6 +1180,10 @@ public final class ReferenceObjectCache
 	 */
 	public List<GKInstance> getByIdentifier(String identifier, String className)
 	{
+		if (usesCompactCache(className))
+		{
+			return getCompactCache(className).getByIdentifier(identifier, ReferenceObjectCache::resolveInstances);
+		}
 		switch (className)
 		{
 			case ReactomeJavaConstants.ReferenceGeneProduct:
@@ -935,6 +1274,10 @@ public final class ReferenceObjectCache
 	 */
 	private static void clearCachesWithRefDBs()
 	{
+		ReferenceObjectCache.compactCaches.clear();
+		// Caches are cleared because the database has changed, so the watermark needs to be read again before any snapshots can be used.
+		ReferenceObjectCache.watermark = null;
+		
 		ReferenceObjectCache.moleculeCacheByDBID.clear();
 		ReferenceObjectCache.moleculeCacheByIdentifier.clear();
 		ReferenceObjectCache.moleculeCacheByRefDB.clear();
@@ -966,6 +1309,368 @@ public final class ReferenceObjectCache
 		ReferenceObjectCache.referenceTherapeuticsByRefDb.clear();
 	}
 	
+	/**
+	 * The caches of one class of object. Caches that the class does not have are null.
+	 */
+	private static class ClassCaches
+	{
+		final Map<String, List<GKInstance>> bySpecies;
+		final Map<String, GKInstance> byDbId;
+		final Map<String, List<GKInstance>> byIdentifier;
+		final Map<String, List<GKInstance>> byRefDb;
+		
+		ClassCaches(Map<String, List<GKInstance>> bySpecies, Map<String, GKInstance> byDbId, Map<String, List<GKInstance>> byIdentifier, Map<String, List<GKInstance>> byRefDb)
+		{
+			this.bySpecies = bySpecies;
+			this.byDbId = byDbId;
+			this.byIdentifier = byIdentifier;
+			this.byRefDb = byRefDb;
+		}
+	}
+	
+	/**
+	 * Gets the (non-compact) caches of a class.
+	 * @param className - one of the cached classes.
+	 * @return The caches of that class, or null if the class is not cached.
+	 */
+	private static ClassCaches getClassCaches(String className)
+	{
+		switch (className)
+		{
+			case ReactomeJavaConstants.ReferenceGeneProduct:
+				return new ClassCaches(ReferenceObjectCache.refGeneProdCacheBySpecies, ReferenceObjectCache.refGeneProdCacheByDBID, ReferenceObjectCache.refGeneProdCacheByIdentifier, ReferenceObjectCache.refGeneProdCacheByRefDb);
+			case ReactomeJavaConstants.ReferenceDNASequence:
+				return new ClassCaches(ReferenceObjectCache.refDNASeqCacheBySpecies, ReferenceObjectCache.refDNASeqCacheByDBID, ReferenceObjectCache.refDNASeqCacheByIdentifier, ReferenceObjectCache.refDNASeqCacheByRefDb);
+			case ReactomeJavaConstants.ReferenceRNASequence:
+				return new ClassCaches(ReferenceObjectCache.refRNASeqCacheBySpecies, ReferenceObjectCache.refRNASeqCacheByDBID, ReferenceObjectCache.refRNASeqCacheByIdentifier, ReferenceObjectCache.refRNASeqCacheByRefDb);
+			case ReactomeJavaConstants.ReferenceMolecule:
+				return new ClassCaches(null, ReferenceObjectCache.moleculeCacheByDBID, ReferenceObjectCache.moleculeCacheByIdentifier, ReferenceObjectCache.moleculeCacheByRefDB);
+			case ReactomeJavaConstants.DatabaseIdentifier:
+				return new ClassCaches(null, ReferenceObjectCache.databaseIdentifiersByDBID, ReferenceObjectCache.databaseIdentifiersByIdentifier, ReferenceObjectCache.databaseIdentifiersByRefDb);
+			case ReactomeJavaConstants.ReferenceTherapeutic:
+				return new ClassCaches(null, ReferenceObjectCache.referenceTherapeuticsByDBID, ReferenceObjectCache.referenceTherapeuticsByIdentifier, ReferenceObjectCache.referenceTherapeuticsByRefDb);
+			default:
+				return null;
+		}
+	}
+	
+	/**
+	 * Gets the name of the cached class that an instance belongs to. Instances of subclasses (such as ReferenceIsoform) are cached with their superclass.
+	 * @param instance - an instance.
+	 * @return The name of the cached class, or null if instances of its class are not cached.
+	 */
+	private static String getCachedClassName(GKInstance instance)
+	{
+		for (String className : ReferenceObjectCache.compactlyCachedClasses)
+		{
+			if (instance.getSchemClass().isa(className))
+			{
+				return className;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Adds a new instance to the caches, so that they do not need to be rebuilt after it has been created. Caches that have not been built yet are left alone,
+	 * since the instance will be loaded from the database when they are built. New ReferenceDatabases are added to the ReferenceDatabase name mappings.
+	 * Instances of any other classes are ignored.
+	 * @param instance - the new instance. It must already have been stored in the database.
+	 */
+	public static void registerCreatedInstance(GKInstance instance)
+	{
+		// The database has changed, so the watermark must be read again before the next snapshot is loaded or saved.
+		ReferenceObjectCache.watermark = null;
+		if (instance.getSchemClass().isa(ReactomeJavaConstants.ReferenceDatabase))
+		{
+			ReferenceObjectCache.refreshRefDB(instance);
+			return;
+		}
+		String className = getCachedClassName(instance);
+		if (className == null)
+		{
+			return;
+		}
+		if (usesCompactCache(className))
+		{
+			CompactReferenceIndex index = getBuiltCompactCache(className);
+			if (index != null)
+			{
+				synchronized (index)
+				{
+					addToCompactCache(index, className, instance);
+				}
+			}
+		}
+		else
+		{
+			ClassCaches caches = getClassCaches(className);
+			synchronized (caches.byDbId)
+			{
+				// The same test as buildLazilyLoadedCaches: if all the caches are empty, they have not been built yet.
+				if (!caches.byDbId.isEmpty() || !caches.byIdentifier.isEmpty() || !caches.byRefDb.isEmpty() || (caches.bySpecies != null && !caches.bySpecies.isEmpty()))
+				{
+					addObjectToSpeciesCache(className, caches.bySpecies, instance);
+					addObjectToRefDBCache(caches.byRefDb, instance);
+					caches.byDbId.put(String.valueOf(instance.getDBID()), instance);
+					addObjectToIdentifierCache(className, caches.byIdentifier, instance);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the compact cache of a class if it has been built. A compact cache is only added to compactCaches once it has been completely built,
+	 * and it is built while holding the ReferenceObjectCache class lock, so if it is not there yet, this waits for a build that is in progress.
+	 * @param className - the name of the class.
+	 * @return The compact cache, or null if it has not been built.
+	 */
+	private static CompactReferenceIndex getBuiltCompactCache(String className)
+	{
+		CompactReferenceIndex index = ReferenceObjectCache.compactCaches.get(className);
+		if (index == null)
+		{
+			synchronized (ReferenceObjectCache.class)
+			{
+				index = ReferenceObjectCache.compactCaches.get(className);
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Adds an instance to a compact cache, using the attribute values of the instance.
+	 * @param index - the compact cache.
+	 * @param className - the cached class.
+	 * @param instance - the instance.
+	 */
+	private static void addToCompactCache(CompactReferenceIndex index, String className, GKInstance instance)
+	{
+		long dbId = instance.getDBID();
+		index.add(dbId, instance.getSchemClass().getName());
+		try
+		{
+			if (instance.getSchemClass().isValidAttribute(ReactomeJavaConstants.identifier))
+			{
+				index.setIdentifier(dbId, (String) instance.getAttributeValue(ReactomeJavaConstants.identifier));
+			}
+			if (instance.getSchemClass().isValidAttribute(ReactomeJavaConstants.referenceDatabase))
+			{
+				GKInstance refDb = (GKInstance) instance.getAttributeValue(ReactomeJavaConstants.referenceDatabase);
+				if (refDb != null)
+				{
+					index.setReferenceDatabase(dbId, refDb.getDBID());
+				}
+			}
+			// ReferenceMolecules and DatabaseIdentifiers and ReferenceTherapeutics do not have associated species.
+			if ( !className.equals(ReactomeJavaConstants.ReferenceMolecule) && !className.equals(ReactomeJavaConstants.DatabaseIdentifier) && !className.equals(ReactomeJavaConstants.ReferenceTherapeutic)
+				&& instance.getSchemClass().isValidAttribute(ReactomeJavaConstants.species))
+			{
+				GKInstance species = (GKInstance) instance.getAttributeValue(ReactomeJavaConstants.species);
+				if (species != null)
+				{
+					index.setSpecies(dbId, species.getDBID());
+				}
+				else if (className.equals(ReactomeJavaConstants.ReferenceRNASequence))
+				{
+					@SuppressWarnings("unchecked")
+					Collection<GKInstance> referringRefTranscripts = (Collection<GKInstance>) instance.getReferers(ReactomeJavaConstants.referenceTranscript);
+					if (referringRefTranscripts != null)
+					{
+						Set<Long> allSpecies = new HashSet<>();
+						for (GKInstance refTranscript : referringRefTranscripts)
+						{
+							GKInstance transcriptSpecies = (GKInstance) refTranscript.getAttributeValue(ReactomeJavaConstants.species);
+							if (transcriptSpecies != null && allSpecies.add(transcriptSpecies.getDBID()))
+							{
+								index.addToSpeciesIndex(dbId, transcriptSpecies.getDBID());
+							}
+						}
+					}
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			logger.error("Could not get the attributes of {} to add it to the compact cache. Reason: {}", instance, e.getMessage());
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Removes an instance from the caches, so that they do not need to be rebuilt after it has been deleted. Deleted ReferenceDatabases are removed
+	 * from the ReferenceDatabase name mappings. Instances of any other classes are ignored.
+	 * @param instance - the deleted instance.
+	 */
+	public static void registerDeletedInstance(GKInstance instance)
+	{
+		ReferenceObjectCache.watermark = null;
+		Long dbId = instance.getDBID();
+		if (instance.getSchemClass().isa(ReactomeJavaConstants.ReferenceDatabase))
+		{
+			synchronized (ReferenceObjectCache.refDbMappingLock)
+			{
+				removeFromOneToManyCache(ReferenceObjectCache.refDbNamesToIds, ReferenceObjectCache.refdbMapping, String.valueOf(dbId));
+			}
+			return;
+		}
+		String className = getCachedClassName(instance);
+		if (className == null)
+		{
+			return;
+		}
+		if (usesCompactCache(className))
+		{
+			CompactReferenceIndex index = getBuiltCompactCache(className);
+			if (index != null)
+			{
+				index.remove(dbId);
+			}
+		}
+		else
+		{
+			ClassCaches caches = getClassCaches(className);
+			synchronized (caches.byDbId)
+			{
+				removeFromClassCaches(caches, instance);
+			}
+		}
+	}
+
+	/**
+	 * Removes an instance from the (non-compact) caches of its class.
+	 * @param caches - the caches of the instance's class.
+	 * @param instance - the deleted instance.
+	 */
+	private static void removeFromClassCaches(ClassCaches caches, GKInstance instance)
+	{
+		Long dbId = instance.getDBID();
+		// Use the cached instance if there is one: its attributes have already been loaded.
+		GKInstance cachedInstance = caches.byDbId.remove(String.valueOf(dbId));
+		GKInstance instanceWithValues = cachedInstance != null ? cachedInstance : instance;
+		String identifier = null;
+		String refDbId = null;
+		String speciesId = null;
+		try
+		{
+			if (instanceWithValues.getSchemClass().isValidAttribute(ReactomeJavaConstants.identifier))
+			{
+				identifier = (String) instanceWithValues.getAttributeValue(ReactomeJavaConstants.identifier);
+			}
+			if (instanceWithValues.getSchemClass().isValidAttribute(ReactomeJavaConstants.referenceDatabase) && instanceWithValues.getAttributeValue(ReactomeJavaConstants.referenceDatabase) != null)
+			{
+				refDbId = String.valueOf(((GKInstance) instanceWithValues.getAttributeValue(ReactomeJavaConstants.referenceDatabase)).getDBID());
+			}
+			if (instanceWithValues.getSchemClass().isValidAttribute(ReactomeJavaConstants.species) && instanceWithValues.getAttributeValue(ReactomeJavaConstants.species) != null)
+			{
+				speciesId = String.valueOf(((GKInstance) instanceWithValues.getAttributeValue(ReactomeJavaConstants.species)).getDBID());
+			}
+		}
+		catch (Exception e)
+		{
+			logger.error("Could not get the attributes of {} to remove it from the caches, all of its caches will be searched. Reason: {}", instance, e.getMessage());
+		}
+		removeFromListCache(caches.byIdentifier, identifier, dbId);
+		removeFromListCache(caches.byRefDb, refDbId, dbId);
+		// ReferenceRNASequences without their own species are cached under the species of the ReferenceGeneProducts that refer to them, so all species would need to be searched.
+		removeFromListCache(caches.bySpecies, speciesId, dbId);
+	}
+	
+	/**
+	 * Removes an instance from a cache of lists. Lists that become empty are removed, so that the cache looks the same as if it had been built without the instance.
+	 * @param cache - the cache. If null, nothing happens.
+	 * @param key - the key the instance is cached under. If null, every list in the cache is searched.
+	 * @param dbId - the DB_ID of the instance.
+	 */
+	private static void removeFromListCache(Map<String, List<GKInstance>> cache, String key, Long dbId)
+	{
+		if (cache == null)
+		{
+			return;
+		}
+		Collection<String> keys = key != null ? Arrays.asList(key) : new ArrayList<>(cache.keySet());
+		for (String k : keys)
+		{
+			cache.computeIfPresent(k, (cacheKey, instances) -> {
+				instances.removeIf(i -> dbId.equals(i.getDBID()));
+				return instances.isEmpty() ? null : instances;
+			});
+		}
+	}
+	
+	/**
+	 * Removes a DB_ID from a pair of 1:n caches built by buildOneToManyCache.
+	 * The lists in the caches are replaced rather than modified, since callers might be iterating over them.
+	 * @param nameToIDCache - The name-to-DB_ID cache.
+	 * @param idToNameCache - The DB_ID-to-name cache.
+	 * @param dbId - The DB_ID to remove.
+	 */
+	private static void removeFromOneToManyCache(Map<String, List<String>> nameToIDCache, Map<String, List<String>> idToNameCache, String dbId)
+	{
+		List<String> names = idToNameCache.remove(dbId);
+		// The names should all be in idToNameCache, but check everything in case they aren't.
+		Collection<String> namesToCheck = names != null ? names : new ArrayList<>(nameToIDCache.keySet());
+		for (String name : namesToCheck)
+		{
+			nameToIDCache.computeIfPresent(name, (n, ids) -> {
+				List<String> remainingIds = ids.stream().filter(id -> !id.equals(dbId)).collect(Collectors.toList());
+				return remainingIds.isEmpty() ? null : remainingIds;
+			});
+		}
+	}
+	
+	/**
+	 * Updates the ReferenceDatabase name mappings for one ReferenceDatabase, after it has been created or its names have changed.
+	 * If the mappings have not been built yet, nothing happens, since the ReferenceDatabase will be loaded from the database when they are built.
+	 * @param refDB - the ReferenceDatabase. Its names are taken from this instance, so it must have the same names as the database.
+	 */
+	public static void refreshRefDB(GKInstance refDB)
+	{
+		ReferenceObjectCache.watermark = null;
+		synchronized (ReferenceObjectCache.refDbMappingLock)
+		{
+			ReferenceObjectCache.refreshRefDBMappings(refDB);
+		}
+	}
+
+	private static void refreshRefDBMappings(GKInstance refDB)
+	{
+		if (ReferenceObjectCache.refdbMapping.isEmpty() && ReferenceObjectCache.refDbNamesToIds.isEmpty())
+		{
+			return;
+		}
+		String dbId = String.valueOf(refDB.getDBID());
+		removeFromOneToManyCache(ReferenceObjectCache.refDbNamesToIds, ReferenceObjectCache.refdbMapping, dbId);
+		try
+		{
+			@SuppressWarnings("unchecked")
+			List<String> names = (List<String>) refDB.getAttributeValuesList(ReactomeJavaConstants.name);
+			for (String name : names)
+			{
+				List<String> ids = new ArrayList<>(ReferenceObjectCache.refDbNamesToIds.getOrDefault(name, new ArrayList<>(0)));
+				ids.add(dbId);
+				ReferenceObjectCache.refDbNamesToIds.put(name, ids);
+			}
+			ReferenceObjectCache.refdbMapping.put(dbId, new ArrayList<>(names));
+			logger.debug("ReferenceDatabase mappings refreshed for {}: {}", dbId, names);
+		}
+		catch (Exception e)
+		{
+			logger.error("Could not get the names of ReferenceDatabase {}, the ReferenceDatabase mappings will be rebuilt. Reason: {}", refDB, e.getMessage());
+			e.printStackTrace();
+			ReferenceObjectCache.refdbMapping.clear();
+			ReferenceObjectCache.refDbNamesToIds.clear();
+			try
+			{
+				buildReferenceDatabaseCache(ReferenceObjectCache.adapter);
+			}
+			catch (Exception e1)
+			{
+				e1.printStackTrace();
+			}
+		}
+	}
+	
 	/**
 	 * Clears all of the caches and then rebuilds them all.
 	 */
@@ -981,6 +1686,7 @@ public final class ReferenceObjectCache
 		ReferenceObjectCache.speciesNamesToIds.clear();
 		
 		ReferenceObjectCache.clearCachesWithRefDBs();
+		CrossReferenceIndex.clearIndices();
 		
 		ReferenceObjectCache.populateCaches(ReferenceObjectCache.adapter);
 	}
@@ -9,7 +9,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.Level;
@@ -39,6 +42,8 @@ public class EnsemblFileRetrieverExecutor extends AbstractFileRetrieverExecutor
 
 	private MySQLAdaptor dbAdapter;
 
+	private static int maxConcurrentSpeciesLookups = 4;
+
 	public EnsemblFileRetrieverExecutor(Map<String, ? extends FileRetriever> retrievers, Map<String, ? extends FileRetriever> nonCoreRetrievers, List<String> retrieverFilter, EnsemblBatchLookup batchLookup, ReferenceObjectCache cache, MySQLAdaptor adaptor)
 	{
 		super(retrievers, retrieverFilter);
@@ -79,46 +84,38 @@ public class EnsemblFileRetrieverExecutor extends AbstractFileRetrieverExecutor
 			Map<String, List<String>> refGeneProdsBySpecies = getRefGeneProdsBySpecies(refGeneProducts);
 
 			// now, do batch look-ups by species. This will perform Protein-to-Transcript mappings.
+			// The lookup chains (ENSP to ENST to ENSG) for different species are done at the same time. Each species' xref lookups start as soon as its chain
+			// is done, but only one species' xref lookups run at a time, because the xref retrievers are shared by all species.
 			String baseFetchDestination = ensemblBatchLookup.getFetchDestination();
-			for (String species : refGeneProdsBySpecies.keySet())
+			ExecutorService lookupExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(EnsemblFileRetrieverExecutor.maxConcurrentSpeciesLookups, refGeneProdsBySpecies.size())));
+			ExecutorService xrefExecutor = Executors.newSingleThreadExecutor();
+			try
 			{
-				String speciesName = objectCache.getSpeciesNamesByID().get(species).get(0).replaceAll(" ", "_");
-
-				ensemblBatchLookup.setFetchDestination(baseFetchDestination+"ENSP_batch_lookup."+species+".xml");
-				ensemblBatchLookup.setSpecies(speciesName);
-				ensemblBatchLookup.setIdentifiers(refGeneProdsBySpecies.get(species));
-				ensemblBatchLookup.fetchData();
-
-				EnsemblBatchLookupFileProcessor enspProcessor = new EnsemblBatchLookupFileProcessor("file-processors/EnsemblBatchLookupFileProcessor");
-				enspProcessor.setPath(Paths.get(baseFetchDestination+"ENSP_batch_lookup."+species+".xml"));
-				Map<String, String> enspToEnstMap = enspProcessor.getIdMappingsFromFile();
-
-				if (!enspToEnstMap.isEmpty())
+				List<Future<Future<?>>> speciesLookups = new ArrayList<>();
+				for (String species : refGeneProdsBySpecies.keySet())
 				{
-					ensemblBatchLookup.setFetchDestination(baseFetchDestination+"ENST_batch_lookup."+species+".xml");
-					ensemblBatchLookup.setSpecies(speciesName);
-					ensemblBatchLookup.setIdentifiers(new ArrayList<String>(enspToEnstMap.values()));
-					ensemblBatchLookup.fetchData();
-
-					enspProcessor.setPath(Paths.get(baseFetchDestination+"ENST_batch_lookup."+species+".xml"));
-					Map<String, String> enstToEnsgMap = enspProcessor.getIdMappingsFromFile();
-
-					if (!enstToEnsgMap.isEmpty())
-					{
-						List<String> identifiers = new ArrayList<String>(enstToEnsgMap.values());
+					String speciesName = objectCache.getSpeciesNamesByID().get(species).get(0).replaceAll(" ", "_");
+					List<String> identifiers = refGeneProdsBySpecies.get(species);
+					speciesLookups.add(lookupExecutor.submit(() -> {
+						List<String> ensgIdentifiers = this.lookUpGeneIdentifiers(baseFetchDestination, species, speciesName, identifiers);
 						// Ok, now we have RefGeneProd for ENSEMBL_%_PROTEIN. Now we can map these identifiers to some external database.
-						executeEnsemblFileRetrievers(ensemblFileRetrievers, species, speciesName, identifiers);
-					}
-					else
-					{
-						logger.debug("ENST to ENSG mapping is empty. No identifiers to do xref lookup for species {}/{}", species, speciesName);
-					}
+						return ensgIdentifiers.isEmpty() ? null : xrefExecutor.submit(() -> executeEnsemblFileRetrievers(ensemblFileRetrievers, species, speciesName, ensgIdentifiers));
+					}));
 				}
-				else
+				for (Future<Future<?>> speciesLookup : speciesLookups)
 				{
-					logger.debug("ENSP to ENST mapping returned no results for species {}/{}", species, speciesName);
+					Future<?> xrefLookup = speciesLookup.get();
+					if (xrefLookup != null)
+					{
+						xrefLookup.get();
+					}
 				}
 			}
+			finally
+			{
+				lookupExecutor.shutdownNow();
+				xrefExecutor.shutdownNow();
+			}
 		}
 		else
 		{
@@ -148,6 +145,45 @@ public class EnsemblFileRetrieverExecutor extends AbstractFileRetrieverExecutor
 		}
 	}
 
+	/**
+	 * Does the batch lookups for one species: ENSP identifiers are mapped to ENST identifiers, which are mapped to ENSG identifiers.
+	 * @return The ENSG identifiers. Empty if either mapping has no results.
+	 */
+	private List<String> lookUpGeneIdentifiers(String baseFetchDestination, String species, String speciesName, List<String> identifiers)
+	{
+		ensemblBatchLookup.lookUp(speciesName, identifiers, baseFetchDestination+"ENSP_batch_lookup."+species+".xml");
+
+		EnsemblBatchLookupFileProcessor enspProcessor = new EnsemblBatchLookupFileProcessor("file-processors/EnsemblBatchLookupFileProcessor");
+		enspProcessor.setPath(Paths.get(baseFetchDestination+"ENSP_batch_lookup."+species+".xml"));
+		Map<String, String> enspToEnstMap = enspProcessor.getIdMappingsFromFile();
+
+		if (enspToEnstMap.isEmpty())
+		{
+			logger.debug("ENSP to ENST mapping returned no results for species {}/{}", species, speciesName);
+			return Collections.emptyList();
+		}
+		ensemblBatchLookup.lookUp(speciesName, new ArrayList<String>(enspToEnstMap.values()), baseFetchDestination+"ENST_batch_lookup."+species+".xml");
+
+		enspProcessor.setPath(Paths.get(baseFetchDestination+"ENST_batch_lookup."+species+".xml"));
+		Map<String, String> enstToEnsgMap = enspProcessor.getIdMappingsFromFile();
+
+		if (enstToEnsgMap.isEmpty())
+		{
+			logger.debug("ENST to ENSG mapping is empty. No identifiers to do xref lookup for species {}/{}", species, speciesName);
+			return Collections.emptyList();
+		}
+		return new ArrayList<String>(enstToEnsgMap.values());
+	}
+
+	/**
+	 * Sets the number of species whose batch lookups are done at the same time.
+	 * @param maxConcurrentSpeciesLookups - the number of species. 1 means that the species are looked up one after another.
+	 */
+	public static void setMaxConcurrentSpeciesLookups(int maxConcurrentSpeciesLookups)
+	{
+		EnsemblFileRetrieverExecutor.maxConcurrentSpeciesLookups = Math.max(1, maxConcurrentSpeciesLookups);
+	}
+
 	private void executeEnsemblFileRetrievers(Map<String, EnsemblFileRetriever> retrievers, String species, String speciesName, List<String> identifiers)
 	{
 		List<Callable<Boolean>> jobs = Collections.synchronizedList(new ArrayList<Callable<Boolean>>());
@@ -181,8 +217,8 @@ public class EnsemblFileRetrieverExecutor extends AbstractFileRetrieverExecutor
 
 		logger.info("{} EnsemblFileRetrievers to execute.", jobs.size());
 		// ENSEMBL doesn't like > 15 requests per second, so let's keep our pool smaller than that.
-		// Don't forget: each EnsemblFileRetriever will execute *n* threads as well, each as big as
-		// stream().parallel() will allow, so we should only try to run 2 retrievers at at time.
+		// Don't forget: each EnsemblFileRetriever sends its requests from a pool of threads that is shared by all of the retrievers for the same
+		// Ensembl host, so running more retrievers at a time would not send more requests at a time.
 		ForkJoinPool pool = new ForkJoinPool(2);
 		if (jobs.size() > 0)
 		{
@@ -25,13 +25,12 @@ import javax.xml.xpath.XPathExpressionException;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.reactome.addlinks.db.ReferenceDatabaseCreator;
 import org.reactome.addlinks.db.ReferenceObjectCache;
+import org.reactome.addlinks.http.client.SharedHttpClient;
 import org.reactome.addlinks.linkchecking.LinksToCheckCache;
 import org.reactome.release.common.CustomLoggable;
 
@@ -108,8 +107,7 @@ public final class EnsemblReferenceDatabaseGenerator implements CustomLoggable
 		HttpGet get = new HttpGet(uri );
 		//Need to multiply by 1000 because timeouts are in milliseconds.
 		//RequestConfig config = RequestConfig.copy(RequestConfig.DEFAULT).build();
-		try( CloseableHttpClient client = HttpClients.createDefault();
-			CloseableHttpResponse response = client.execute(get) )
+		try( CloseableHttpResponse response = SharedHttpClient.getClient().execute(get) )
 		{
 			logger.info("Response: {}",response.getStatusLine());
 			if (response.getStatusLine().getStatusCode() > 400 )
@@ -227,8 +225,8 @@ public final class EnsemblReferenceDatabaseGenerator implements CustomLoggable
 	{
 		// Check the cache for old-style names. If we could normalize/merge the pre-existing ENSEMBL reference database, this probably wouldn't be necesary,
 		// nor would the old-style vs. new-style names.
-		// NOTE: the cache doesn't get updated while this code runs. Fortunately, ReferenceDatabaseCreator.createReferenceDatabaseToURL will
-		// check more carefully by querying the database for name and accessUrl
+		// NOTE: the cache's ReferenceDatabase names are updated by ReferenceDatabaseCreator as ReferenceDatabases are created, but
+		// ReferenceDatabaseCreator.createReferenceDatabaseToURL will also check more carefully by querying the database for name and accessUrl
 		if (objectCache.getRefDbNamesToIds().keySet().contains(oldStyleDBName))
 		{
 			// If the old-style name already exists, try to create a new-style alias to it.
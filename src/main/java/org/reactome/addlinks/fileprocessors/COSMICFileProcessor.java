@@ -1,9 +1,8 @@
 package org.reactome.addlinks.fileprocessors;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -28,10 +27,11 @@ public class COSMICFileProcessor extends FileProcessor<String>
 		Map<String,String> mappings = new ConcurrentHashMap<>();
 		try
 		{
-			String unzippedFile = this.unzipFile(this.pathToFile);
 			AtomicInteger lineCount = new AtomicInteger(0);
 
-			try(Stream<String> lineStream = Files.lines(Paths.get(unzippedFile), StandardCharsets.ISO_8859_1))
+			// The file is decompressed as it is read.
+			try(BufferedReader reader = this.openReader(this.pathToFile, StandardCharsets.ISO_8859_1);
+				Stream<String> lineStream = reader.lines())
 			{
 				// Use parallel streams at your own peril! I kept running out of RAM and
 				// crashing on my OICR laptop - the server or the office-based workstation can
@@ -1,7 +1,7 @@
 package org.reactome.addlinks.fileprocessors;
 
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -28,13 +28,13 @@ public class CTDFileProcessor extends FileProcessor<String>
 		Map<String,String> mappings = new HashMap<String, String>();
 		try
 		{
-			String unzippedFile = this.unzipFile(this.pathToFile);
 			AtomicInteger lineCount = new AtomicInteger(0);
-			try
+			// The file is decompressed as it is read.
+			try (Reader reader = this.openReader(this.pathToFile))
 			{
 				// Use the Apache CSVFormat class. The CTD file now contains quoted (single *AND* double) strings which contain commans and that confuses the old process which simply
 				// split each line on commas. I don't really feel like writing a parser for quoted commas.
-				CSVFormat.DEFAULT.withCommentMarker('#').parse(new FileReader(unzippedFile)).forEach(line -> 
+				CSVFormat.DEFAULT.withCommentMarker('#').parse(reader).forEach(line -> 
 				{
 					lineCount.set(lineCount.get() + 1);
 					// NCBI Gene ID is in column #5 
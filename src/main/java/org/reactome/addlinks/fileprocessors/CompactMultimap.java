@@ -0,0 +1,188 @@
+package org.reactome.addlinks.fileprocessors;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * An immutable map of String keys to lists of String values, stored in three arrays: the keys (sorted), the values of all of the keys (grouped by key),
+ * and the offset of each key's first value. A HashMap of ArrayLists needs an entry, a list and a (partly empty) array for every key, so this is much smaller
+ * when there are many keys with only a few values each, as in the UniProt mapping files.
+ * <br/>
+ * The lists that are returned are unmodifiable views of the values array. Use a Builder to create a CompactMultimap.
+ */
+public final class CompactMultimap extends AbstractMap<String, List<String>>
+{
+	private final String[] keys;
+	// The values of keys[i] are values[offsets[i]] to values[offsets[i + 1] - 1].
+	private final int[] offsets;
+	private final String[] values;
+
+	private CompactMultimap(String[] keys, int[] offsets, String[] values)
+	{
+		this.keys = keys;
+		this.offsets = offsets;
+		this.values = values;
+	}
+
+	/**
+	 * Builds a CompactMultimap. The values of each key keep the order in which they were added. A Builder is not thread-safe.
+	 */
+	public static class Builder
+	{
+		private final Map<String, List<String>> valuesByKey = new HashMap<>();
+		private int valueCount = 0;
+
+		public Builder put(String key, String value)
+		{
+			this.valuesByKey.computeIfAbsent(key, k -> new ArrayList<>(1)).add(value);
+			this.valueCount++;
+			return this;
+		}
+
+		public Builder putAll(Map<String, ? extends Collection<String>> map)
+		{
+			map.forEach((key, keyValues) -> keyValues.forEach(value -> this.put(key, value)));
+			return this;
+		}
+
+		public CompactMultimap build()
+		{
+			String[] keys = this.valuesByKey.keySet().toArray(new String[0]);
+			Arrays.sort(keys);
+			int[] offsets = new int[keys.length + 1];
+			String[] values = new String[this.valueCount];
+			int offset = 0;
+			for (int i = 0; i < keys.length; i++)
+			{
+				offsets[i] = offset;
+				for (String value : this.valuesByKey.get(keys[i]))
+				{
+					values[offset++] = value;
+				}
+			}
+			offsets[keys.length] = offset;
+			return new CompactMultimap(keys, offsets, values);
+		}
+	}
+
+	private int indexOf(Object key)
+	{
+		return key instanceof String ? Arrays.binarySearch(this.keys, (String) key) : -1;
+	}
+
+	private List<String> valuesAt(int index)
+	{
+		return Collections.unmodifiableList(Arrays.asList(this.values).subList(this.offsets[index], this.offsets[index + 1]));
+	}
+
+	@Override
+	public List<String> get(Object key)
+	{
+		int index = this.indexOf(key);
+		return index >= 0 ? this.valuesAt(index) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return this.indexOf(key) >= 0;
+	}
+
+	@Override
+	public int size()
+	{
+		return this.keys.length;
+	}
+
+	/**
+	 * @return The total number of values of all of the keys.
+	 */
+	public int valueCount()
+	{
+		return this.values.length;
+	}
+
+	@Override
+	public Set<String> keySet()
+	{
+		return new AbstractSet<String>()
+		{
+			@Override
+			public Iterator<String> iterator()
+			{
+				return Collections.unmodifiableList(Arrays.asList(CompactMultimap.this.keys)).iterator();
+			}
+
+			@Override
+			public boolean contains(Object key)
+			{
+				return CompactMultimap.this.containsKey(key);
+			}
+
+			@Override
+			public int size()
+			{
+				return CompactMultimap.this.keys.length;
+			}
+
+			// Splits evenly, so that parallel streams of the keys work well.
+			@Override
+			public Spliterator<String> spliterator()
+			{
+				return Spliterators.spliterator(CompactMultimap.this.keys, Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+			}
+		};
+	}
+
+	@Override
+	public Set<Entry<String, List<String>>> entrySet()
+	{
+		return new AbstractSet<Entry<String, List<String>>>()
+		{
+			@Override
+			public Iterator<Entry<String, List<String>>> iterator()
+			{
+				return new Iterator<Entry<String, List<String>>>()
+				{
+					private int index = 0;
+
+					@Override
+					public boolean hasNext()
+					{
+						return this.index < CompactMultimap.this.keys.length;
+					}
+
+					@Override
+					public Entry<String, List<String>> next()
+					{
+						if (!this.hasNext())
+						{
+							throw new NoSuchElementException();
+						}
+						Entry<String, List<String>> entry = new SimpleImmutableEntry<>(CompactMultimap.this.keys[this.index], CompactMultimap.this.valuesAt(this.index));
+						this.index++;
+						return entry;
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return CompactMultimap.this.keys.length;
+			}
+		};
+	}
+}
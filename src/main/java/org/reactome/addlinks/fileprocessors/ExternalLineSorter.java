@@ -0,0 +1,202 @@
+package org.reactome.addlinks.fileprocessors;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts lines of text that might not all fit in memory. Lines are collected in memory until there are maxLinesInMemory of them, then they are sorted
+ * and written to a temporary file. When the lines are read back, the temporary files (and any lines still in memory) are merged, so only one line
+ * from each temporary file is in memory at a time.
+ * <br/>
+ * Lines are sorted as Strings. To sort rows by a key, put the key at the start of each line followed by a tab (which sorts before any printable character),
+ * so that rows with the same key are sorted next to each other.
+ */
+public class ExternalLineSorter implements Closeable
+{
+	private final Path tempDirectory;
+	private final int maxLinesInMemory;
+	private List<String> lines = new ArrayList<>();
+	private final List<Path> sortedFiles = new ArrayList<>();
+	private final List<BufferedReader> readers = new ArrayList<>();
+
+	/**
+	 * @param tempDirectory - the directory that the temporary files will be created in.
+	 * @param maxLinesInMemory - the maximum number of lines to hold in memory before they are written to a temporary file.
+	 */
+	public ExternalLineSorter(Path tempDirectory, int maxLinesInMemory)
+	{
+		this.tempDirectory = tempDirectory;
+		this.maxLinesInMemory = Math.max(1, maxLinesInMemory);
+	}
+
+	/**
+	 * Adds a line. The line must not contain a line terminator.
+	 * @param line - the line.
+	 * @throws IOException If the lines in memory had to be written to a temporary file, and could not be.
+	 */
+	public void add(String line) throws IOException
+	{
+		this.lines.add(line);
+		if (this.lines.size() >= this.maxLinesInMemory)
+		{
+			this.writeSortedFile();
+		}
+	}
+
+	private void writeSortedFile() throws IOException
+	{
+		Collections.sort(this.lines);
+		Path sortedFile = Files.createTempFile(this.tempDirectory, "sort", ".tmp");
+		this.sortedFiles.add(sortedFile);
+		try (BufferedWriter writer = Files.newBufferedWriter(sortedFile, StandardCharsets.UTF_8))
+		{
+			for (String line : this.lines)
+			{
+				writer.write(line);
+				writer.write('\n');
+			}
+		}
+		this.lines = new ArrayList<>();
+	}
+
+	/**
+	 * Gets all of the lines that have been added, in sorted order, without duplicates. No more lines can be added after this is called.
+	 * The temporary files are read as the iterator is used; if one cannot be read, the iterator throws an UncheckedIOException.
+	 * @return An iterator over the lines.
+	 * @throws IOException If a temporary file could not be opened.
+	 */
+	public Iterator<String> sortedDistinctLines() throws IOException
+	{
+		Collections.sort(this.lines);
+		List<LineSource> lineSources = new ArrayList<>();
+		lineSources.add(new LineSource(this.lines.iterator()));
+		for (Path sortedFile : this.sortedFiles)
+		{
+			BufferedReader reader = Files.newBufferedReader(sortedFile, StandardCharsets.UTF_8);
+			this.readers.add(reader);
+			lineSources.add(new LineSource(reader));
+		}
+		// Only the sources that have a line are in the queue.
+		PriorityQueue<LineSource> sources = new PriorityQueue<>();
+		lineSources.stream().filter(source -> source.line != null).forEach(sources::add);
+		return new Iterator<String>()
+		{
+			private String previousLine = null;
+
+			@Override
+			public boolean hasNext()
+			{
+				// Skip the lines that are the same as the previous one.
+				while (!sources.isEmpty() && sources.peek().line.equals(this.previousLine))
+				{
+					this.advance(sources.poll());
+				}
+				return !sources.isEmpty();
+			}
+
+			@Override
+			public String next()
+			{
+				if (!this.hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				LineSource source = sources.poll();
+				this.previousLine = source.line;
+				this.advance(source);
+				return this.previousLine;
+			}
+
+			private void advance(LineSource source)
+			{
+				source.next();
+				if (source.line != null)
+				{
+					sources.add(source);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Closes and deletes the temporary files.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		for (BufferedReader reader : this.readers)
+		{
+			reader.close();
+		}
+		this.readers.clear();
+		for (Path sortedFile : this.sortedFiles)
+		{
+			Files.deleteIfExists(sortedFile);
+		}
+		this.sortedFiles.clear();
+		this.lines = new ArrayList<>();
+	}
+
+	/**
+	 * The current line of a sorted sequence of lines, which is either in memory or in a temporary file.
+	 */
+	private static class LineSource implements Comparable<LineSource>
+	{
+		private final Iterator<String> lineIterator;
+		private final BufferedReader reader;
+		private String line;
+
+		LineSource(Iterator<String> lineIterator)
+		{
+			this.lineIterator = lineIterator;
+			this.reader = null;
+			this.next();
+		}
+
+		LineSource(BufferedReader reader)
+		{
+			this.lineIterator = null;
+			this.reader = reader;
+			this.next();
+		}
+
+		private void next()
+		{
+			if (this.reader == null)
+			{
+				this.line = this.lineIterator.hasNext() ? this.lineIterator.next() : null;
+				return;
+			}
+			try
+			{
+				this.line = this.reader.readLine();
+				if (this.line == null)
+				{
+					this.reader.close();
+				}
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public int compareTo(LineSource other)
+		{
+			return this.line.compareTo(other.line);
+		}
+	}
+}
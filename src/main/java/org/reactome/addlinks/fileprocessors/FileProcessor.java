@@ -1,9 +1,15 @@
 package org.reactome.addlinks.fileprocessors;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -12,6 +18,7 @@ import java.util.function.BiConsumer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import org.apache.logging.log4j.Level;
@@ -21,12 +28,16 @@ import org.reactome.release.common.CustomLoggable;
 
 public abstract class FileProcessor<T> implements CustomLoggable
 {
+	private static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+
 	protected Logger logger;// = LogManager.getLogger();
 
 	protected Path pathToFile;
 
 	protected String processorName;
 
+	protected boolean extractArchivesToDisk = false;
+
 	public FileProcessor(){}
 
 	public void setProcessorName(String processorName)
@@ -43,6 +54,24 @@ public abstract class FileProcessor<T> implements CustomLoggable
 		this.pathToFile = p;
 	}
 
+	/**
+	 * @return The path to the file that will be processed.
+	 */
+	public Path getPath()
+	{
+		return this.pathToFile;
+	}
+
+	/**
+	 * Sets whether compressed files are extracted to disk before they are read by openInputStream/openReader.
+	 * By default they are decompressed as they are read, which is faster and does not need any scratch space, so this is only meant as a fallback.
+	 * @param extractArchivesToDisk
+	 */
+	public void setExtractArchivesToDisk(boolean extractArchivesToDisk)
+	{
+		this.extractArchivesToDisk = extractArchivesToDisk;
+	}
+
 	public FileProcessor(String processorName)
 	{
 		this.setProcessorName(processorName);
@@ -61,6 +90,103 @@ public abstract class FileProcessor<T> implements CustomLoggable
 	 */
 	public abstract Map<String, T> getIdMappingsFromFile();
 
+	/**
+	 * Opens a buffered stream over the contents of a file. A .gz file is decompressed as it is read, and so is the first entry of a .zip file
+	 * (use a ZipInputStream if you need the other entries). Any other file is read as it is.
+	 * If extractArchivesToDisk is set, a compressed file is extracted (see unzipFile) and the extracted file is read instead.
+	 * @param path - the path to the file.
+	 * @return A stream over the file's contents. Closing it closes the file.
+	 * @throws IOException
+	 */
+	protected InputStream openInputStream(Path path) throws IOException
+	{
+		String fileName = path.getFileName().toString().toLowerCase();
+		boolean isGzip = fileName.endsWith(".gz");
+		boolean isZip = fileName.endsWith(".zip");
+		if (this.extractArchivesToDisk && (isGzip || isZip))
+		{
+			return new BufferedInputStream(Files.newInputStream(this.extractArchive(path, isZip)), STREAM_BUFFER_SIZE);
+		}
+
+		InputStream inStream = new BufferedInputStream(Files.newInputStream(path), STREAM_BUFFER_SIZE);
+		try
+		{
+			if (isGzip)
+			{
+				return new BufferedInputStream(new GZIPInputStream(inStream, STREAM_BUFFER_SIZE), STREAM_BUFFER_SIZE);
+			}
+			else if (isZip)
+			{
+				ZipInputStream zipStream = new ZipInputStream(inStream);
+				ZipEntry entry = zipStream.getNextEntry();
+				if (entry == null)
+				{
+					throw new IOException("The zip file " + path + " does not contain any files.");
+				}
+				logger.debug("Reading {} from {}", entry.getName(), path);
+				return new BufferedInputStream(zipStream, STREAM_BUFFER_SIZE);
+			}
+			return inStream;
+		}
+		catch (IOException e)
+		{
+			inStream.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a reader over the contents of a file, decompressing it if it is a .gz or .zip file (see openInputStream).
+	 * @param path - the path to the file.
+	 * @param charset - the file's character set.
+	 * @return A reader over the file's contents.
+	 * @throws IOException
+	 */
+	protected BufferedReader openReader(Path path, Charset charset) throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(this.openInputStream(path), charset));
+	}
+
+	/**
+	 * Opens a reader over the contents of a UTF-8 file, decompressing it if it is a .gz or .zip file (see openInputStream).
+	 * @param path - the path to the file.
+	 * @return A reader over the file's contents.
+	 * @throws IOException
+	 */
+	protected BufferedReader openReader(Path path) throws IOException
+	{
+		return this.openReader(path, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Extracts a compressed file to disk.
+	 * @return The path to the extracted file. For a .zip file, this is its first entry.
+	 */
+	private Path extractArchive(Path path, boolean isZip) throws IOException
+	{
+		String extractedLocation;
+		try
+		{
+			extractedLocation = this.unzipFile(path);
+		}
+		catch (Exception e)
+		{
+			throw new IOException("Could not extract " + path, e);
+		}
+		if (extractedLocation == null)
+		{
+			throw new IOException("Could not extract " + path);
+		}
+		if (isZip)
+		{
+			try (ZipFile zipFile = new ZipFile(path.toFile()))
+			{
+				return Paths.get(extractedLocation, zipFile.entries().nextElement().getName());
+			}
+		}
+		return Paths.get(extractedLocation);
+	}
+
 	/**
 	 * Unzips a file.
 	 * @param pathToZipfile - the Path to the file to unzip.
@@ -96,7 +222,7 @@ public abstract class FileProcessor<T> implements CustomLoggable
 			//This Consumer will write a zip stream to a file.
 			BiConsumer<InflaterInputStream,String> dataWriter = (inStream,outputFileName) ->
 			{
-				byte[] buffer = new byte[1024];
+				byte[] buffer = new byte[STREAM_BUFFER_SIZE];
 				try
 				{
 					int count = 0;
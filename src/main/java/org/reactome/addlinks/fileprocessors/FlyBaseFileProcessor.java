@@ -1,8 +1,7 @@
 package org.reactome.addlinks.fileprocessors;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -25,12 +24,12 @@ public class FlyBaseFileProcessor extends FileProcessor<String>
 		Map<String,String> mappings = new HashMap<String, String>();
 		try
 		{
-			String unzippedFile = this.unzipFile(this.pathToFile);
 			AtomicInteger lineCount = new AtomicInteger(0);
-			try
+			// The file is decompressed as it is read.
+			try (BufferedReader reader = this.openReader(this.pathToFile))
 			{
 				//I added ".sequential()" because I have line counter and I want to ensure that it works properly.
-				Files.lines(Paths.get(unzippedFile)).filter(p -> !p.startsWith("#")).sequential().forEach( line ->
+				reader.lines().filter(p -> !p.startsWith("#")).sequential().forEach( line ->
 				{
 					lineCount.set(lineCount.get() + 1);
 					String[] parts = line.split("\\t");
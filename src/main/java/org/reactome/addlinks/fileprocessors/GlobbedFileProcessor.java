@@ -2,16 +2,22 @@ package org.reactome.addlinks.fileprocessors;
 
 import java.io.IOException;
 import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public abstract class GlobbedFileProcessor<T> extends FileProcessor<T>
 {
@@ -28,7 +34,7 @@ public abstract class GlobbedFileProcessor<T> extends FileProcessor<T>
 	
 	protected String fileGlob;
 	
-	protected SimpleFileVisitor<Path> globFileVisitor;
+	protected int parallelism = 1;
 	
 	/**
 	 * Sets the glob to match files against.
@@ -44,6 +50,16 @@ public abstract class GlobbedFileProcessor<T> extends FileProcessor<T>
 		return this.fileGlob;
 	}
 	
+	/**
+	 * Sets the maximum number of files that will be processed at the same time. If this is more than 1, each file is processed into its own
+	 * mapping, and the mappings are then merged (see mergeMapping). The default is 1, which processes the files one at a time, into one mapping.
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism)
+	{
+		this.parallelism = parallelism;
+	}
+	
 	/**
 	 * Gets the mappings from a file.
 	 * BUT it calls getIdMappingsFromFilesMatchingGlob to do this, which means that the mapping returned could
@@ -65,92 +81,163 @@ public abstract class GlobbedFileProcessor<T> extends FileProcessor<T>
 	abstract protected void processFile(Path file, Map<String, T> mapping);
 	
 	/**
-	 * Process files that match a file glob.
+	 * Process files that match a file glob. The files are processed in the order given by getFilesMatchingGlob, whether or not they are processed
+	 * in parallel, so that a key found in more than one file ends up with the same value either way.
 	 * @return the mapping of all files that matched the glob.
 	 */
 	protected Map<String, T> getIdMappingsFromFilesMatchingGlob()
 	{
-		ReactomeMappingFileVisitor visitor = new ReactomeMappingFileVisitor() {
-			@Override
-			protected void addFileToMapping(Path file, Map<String, T> mapping)
+		if (this.parallelism > 1)
+		{
+			return this.getIdMappingsFromFilesMatchingGlobInParallel();
+		}
+		this.mappings = new HashMap<String, T>();
+		for (Path file : this.getFilesMatchingGlob())
+		{
+			logger.debug("File {} matches the glob", file);
+			// Call the processFile function - this must be implemented in the subclasses.
+			processFile(file, this.mappings);
+		}
+		return this.mappings;
+	}
+	
+	/**
+	 * Processes the files that match the glob in parallel, each one into its own mapping, and then merges those mappings in file order.
+	 * @return the mapping of all files that matched the glob.
+	 */
+	private Map<String, T> getIdMappingsFromFilesMatchingGlobInParallel()
+	{
+		List<Map<String, T>> fileMappings = this.processFilesInParallel(this.getFilesMatchingGlob(), file -> {
+			Map<String, T> fileMapping = new HashMap<String, T>();
+			processFile(file, fileMapping);
+			return fileMapping;
+		});
+		this.mappings = new HashMap<String, T>();
+		for (Map<String, T> fileMapping : fileMappings)
+		{
+			this.mergeMapping(fileMapping, this.mappings);
+		}
+		return this.mappings;
+	}
+	
+	/**
+	 * Merges the mapping from one file into the mapping of all the files, when the files are processed in parallel.
+	 * The default combines the values of keys that are already in the mapping with mergeValues, so lists from different files are concatenated
+	 * rather than the later file's list replacing the earlier one. Subclasses whose processFile combines values from different files in some other
+	 * way should override this to combine them in the same way.
+	 * @param fileMapping - the mapping from one file.
+	 * @param mapping - the mapping of all the files, which will be updated.
+	 */
+	@SuppressWarnings("unchecked")
+	protected void mergeMapping(Map<String, T> fileMapping, Map<String, T> mapping)
+	{
+		for (Map.Entry<String, T> entry : fileMapping.entrySet())
+		{
+			T existingValue = mapping.get(entry.getKey());
+			mapping.put(entry.getKey(), existingValue == null ? entry.getValue() : (T) GlobbedFileProcessor.mergeValues(existingValue, entry.getValue()));
+		}
+	}
+	
+	/**
+	 * Combines two values of the same key: lists are concatenated (the existing values first), maps are merged key by key (with this method
+	 * for keys that are in both), and any other value is replaced by the added value. The existing value is not modified.
+	 * @param existingValue - the value that is already in a mapping.
+	 * @param addedValue - the value that is being added to the mapping.
+	 * @return the combined value.
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Object mergeValues(Object existingValue, Object addedValue)
+	{
+		if (existingValue instanceof List && addedValue instanceof List)
+		{
+			List<Object> mergedList = new ArrayList<>((List<Object>) existingValue);
+			mergedList.addAll((List<Object>) addedValue);
+			return mergedList;
+		}
+		if (existingValue instanceof Map && addedValue instanceof Map)
+		{
+			Map<Object, Object> mergedMap = new HashMap<>((Map<Object, Object>) existingValue);
+			for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) addedValue).entrySet())
 			{
-				Matcher patternMatcher = pattern.matcher(file.getFileName().toString());
-				if (patternMatcher.matches())
-				{
-					// Call the processFile function - this must be implemented in the subclasses.
-					processFile(file, mapping);
-				}
+				Object value = mergedMap.get(entry.getKey());
+				mergedMap.put(entry.getKey(), value == null ? entry.getValue() : GlobbedFileProcessor.mergeValues(value, entry.getValue()));
 			}
-		};
-		this.mappings = new HashMap<String, T>();
-		visitor.setMapping(this.mappings);
-		visitor.setMatcher(FileSystems.getDefault().getPathMatcher("glob:" + this.fileGlob));
-		this.globFileVisitor = visitor;
-		
-		try
+			return mergedMap;
+		}
+		return addedValue;
+	}
+	
+	/**
+	 * Gets the files that match the glob and the pattern, in a consistent (sorted) order, so that files are processed in the same order no matter
+	 * what order the file system lists them in.
+	 * @return the files.
+	 */
+	protected List<Path> getFilesMatchingGlob()
+	{
+		PathMatcher globMatcher = FileSystems.getDefault().getPathMatcher("glob:" + this.fileGlob);
+		try (Stream<Path> paths = Files.walk(this.pathToFile))
 		{
-			Files.walkFileTree(this.pathToFile, this.globFileVisitor);
+			return paths.filter(path -> Files.isRegularFile(path)
+										&& globMatcher.matches(path)
+										&& this.pattern.matcher(path.getFileName().toString()).matches())
+						.sorted()
+						.collect(Collectors.toList());
 		}
 		catch (IOException e)
 		{
 			e.printStackTrace();
+			return Collections.emptyList();
 		}
-		
-		return visitor.getMapping();
 	}
 	
 	/**
-	 * A FileVisitor for processing Reactome files using GlobbedFileProcessor.
-	 * @author sshorser
-	 *
+	 * Processes files, with up to <code>parallelism</code> files being processed at the same time.
+	 * @param files - the files to process.
+	 * @param fileProcessor - processes one file.
+	 * @return the result of processing each file, in the same order as the files.
 	 */
-	public abstract class ReactomeMappingFileVisitor extends SimpleFileVisitor<Path>
+	protected <R> List<R> processFilesInParallel(List<Path> files, Function<Path, R> fileProcessor)
 	{
-		private PathMatcher matcher;
-		
-		protected Map<String, T> mapping;
-		
-		/**
-		 * Add the contents of a file to a mapping object.
-		 * @param file
-		 * @param mapping
-		 */
-		protected abstract void addFileToMapping(Path file, Map<String, T> mapping);
-		
-		/**
-		 * Visit files. Calls abstract addFileToMapping when a files is found to match the glob.
-		 */
-		@Override
-		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+		if (this.parallelism <= 1 || files.size() <= 1)
 		{
-			logger.trace("Checking for file: {}", file);
-			if (this.matcher.matches(file))
+			return files.stream().map(fileProcessor).collect(Collectors.toList());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelism, files.size()));
+		try
+		{
+			List<Future<R>> futures = new ArrayList<>(files.size());
+			for (Path file : files)
 			{
-				logger.debug("File {} matches the matcher", file);
-				// users must override addFileToMapping for specific implementations.
-				// The function addFileToMapping should *modify* the mapping argument passed in to it.
-				addFileToMapping(file, this.mapping);
+				futures.add(executor.submit(() -> fileProcessor.apply(file)));
 			}
-			else
+			List<R> results = new ArrayList<>(files.size());
+			for (Future<R> future : futures)
 			{
-				logger.trace("File {} does not match pattern.", file);
+				results.add(future.get());
 			}
-			return FileVisitResult.CONTINUE;
+			return results;
 		}
-
-		public void setMatcher(PathMatcher matcher)
+		catch (InterruptedException e)
 		{
-			this.matcher = matcher;
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
 		}
-
-		public Map<String, T> getMapping()
+		catch (ExecutionException e)
 		{
-			return this.mapping;
+			// Rethrow what processing the file threw, as if the file had been processed on this thread.
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+			else if (e.getCause() instanceof Error)
+			{
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
 		}
-
-		public void setMapping(Map<String, T> mapping)
+		finally
 		{
-			this.mapping = mapping;
+			executor.shutdownNow();
 		}
 	}
 }
@@ -1,9 +1,9 @@
 package org.reactome.addlinks.fileprocessors;
 
-import org.reactome.addlinks.EnsemblBioMartUtil;
-
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class HPAFileProcessor extends FileProcessor<List<String>>
@@ -30,33 +30,25 @@ public class HPAFileProcessor extends FileProcessor<List<String>>
     @Override
     public Map<String, List<String>> getIdMappingsFromFile()
     {
-
-        String dirToHPAFiles = "";
-        try {
-            dirToHPAFiles = this.unzipFile(this.pathToFile);
-        } catch (Exception e) {
-            logger.error("Error unzipping file ({}): {}", this.pathToFile, e);
-            e.printStackTrace();
-        }
-
-        if (dirToHPAFiles.isEmpty()) {
-            return new HashMap<>();
-        }
-
-        Path inputFilePath = Paths.get(dirToHPAFiles, this.pathToFile.getFileName().toString().replace(".zip", ""));
-
         Map<String, List<String>> mappings = new HashMap<>();
-        for (String line : EnsemblBioMartUtil.getLinesFromFile(inputFilePath, true)) {
-
-            List<String> tabSplit = Arrays.asList(line.split("\t"));
-            String geneName = tabSplit.get(GENE_NAME_INDEX);
-            String ensemblId = tabSplit.get(ENSEMBL_IDENTIFIER_INDEX);
-            String uniprotId = tabSplit.get(UNIPROT_IDENTIFIER_INDEX);
-            String hpaUrlId = String.join("-", ensemblId, geneName);
-
-            if (necessaryIdentifiersPresent(geneName, ensemblId, uniprotId)) {
-                mappings.computeIfAbsent(uniprotId, k -> new ArrayList<>()).add(hpaUrlId);
-            }
+        // The file is decompressed as it is read. The first line is the header.
+        try (BufferedReader reader = this.openReader(this.pathToFile, StandardCharsets.ISO_8859_1)) {
+            reader.lines().skip(1).forEach(line -> {
+
+                List<String> tabSplit = Arrays.asList(line.split("\t"));
+                String geneName = tabSplit.get(GENE_NAME_INDEX);
+                String ensemblId = tabSplit.get(ENSEMBL_IDENTIFIER_INDEX);
+                String uniprotId = tabSplit.get(UNIPROT_IDENTIFIER_INDEX);
+                String hpaUrlId = String.join("-", ensemblId, geneName);
+
+                if (necessaryIdentifiersPresent(geneName, ensemblId, uniprotId)) {
+                    mappings.computeIfAbsent(uniprotId, k -> new ArrayList<>()).add(hpaUrlId);
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Error reading file ({}): {}", this.pathToFile, e);
+            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
 
         return mappings;
@@ -0,0 +1,39 @@
+package org.reactome.addlinks.fileprocessors;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A table of identifiers that is shared by the file processors, so that an identifier that appears in many files (such as a UniProt accession
+ * that is mapped to several other databases) is only stored once, no matter how many mappings contain it.
+ * <br/>
+ * The table only needs to exist while files are being processed: clearing it does not affect the identifiers that have already been returned.
+ */
+public final class IdentifierSymbolTable
+{
+	private static final Map<String, String> symbols = new ConcurrentHashMap<>();
+
+	private IdentifierSymbolTable()
+	{
+		// Only static methods.
+	}
+
+	/**
+	 * Gets the shared copy of an identifier.
+	 * @param identifier - the identifier.
+	 * @return The copy of the identifier that is in the table. If the identifier was not already in the table, it is added, and returned.
+	 */
+	public static String intern(String identifier)
+	{
+		String symbol = symbols.putIfAbsent(identifier, identifier);
+		return symbol != null ? symbol : identifier;
+	}
+
+	/**
+	 * Empties the table, to free the memory that it uses.
+	 */
+	public static void clear()
+	{
+		symbols.clear();
+	}
+}
@@ -1,16 +1,19 @@
 package org.reactome.addlinks.fileprocessors;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class KEGGFileProcessor extends GlobbedFileProcessor<List<Map<KEGGFileProcessor.KEGGKeys, String>>>
 {
@@ -23,7 +26,8 @@ public class KEGGFileProcessor extends GlobbedFileProcessor<List<Map<KEGGFilePro
 		EC_NUMBERS
 	}
 
-	private static final Pattern ecPattern = Pattern.compile("(.*)\\[EC:([0-9\\-\\. ]*)\\]");
+	private static final String UNIPROT_PREFIX = "UniProt:";
+	private static final String EC_PREFIX = "[EC:";
 
 	public KEGGFileProcessor(String processorName)
 	{
@@ -37,6 +41,23 @@ public class KEGGFileProcessor extends GlobbedFileProcessor<List<Map<KEGGFilePro
 		this.pattern = Pattern.compile("kegg_entries.[0-9]+\\.[0-9]+\\.txt");
 	}
 
+	/**
+	 * Processes all of the files that match the glob. There is one KEGG file per species, and the files are parsed in parallel (see setParallelism).
+	 * The results are then merged in file order, so the mapping is the same as if the files had been processed one at a time.
+	 */
+	@Override
+	protected Map<String, List<Map<KEGGKeys, String>>> getIdMappingsFromFilesMatchingGlob()
+	{
+		Map<String, List<Map<KEGGKeys, String>>> mapping = new HashMap<>();
+		List<ParsedKEGGFile> parsedFiles = this.processFilesInParallel(this.getFilesMatchingGlob(), this::parseFile);
+		Map<String, Set<String>> mappedIdentifiers = new HashMap<>();
+		for (ParsedKEGGFile parsedFile : parsedFiles)
+		{
+			this.addToMapping(parsedFile, mapping, mappedIdentifiers);
+		}
+		return mapping;
+	}
+
 	/**
 	 * Returns UniProt-to-KEGG mappings.
 	 * @param file
@@ -45,201 +66,98 @@ public class KEGGFileProcessor extends GlobbedFileProcessor<List<Map<KEGGFilePro
 	@Override
 	protected void processFile(Path path, Map<String, List<Map<KEGGFileProcessor.KEGGKeys, String>>> mapping)
 	{
-		int lineNumber = 0;
-		int entryLineNumber = 0;
-		int entryCount = 0;
-		int duplicateEntryCount = 0;
-		try
+		this.addToMapping(this.parseFile(path), mapping, new HashMap<>());
+	}
+
+	/**
+	 * Reads the KEGG entries from a file.
+	 * <br/>
+	 * Each line of a KEGG entry starts with a field name (such as ENTRY, NAME, DBLINKS), or with whitespace if it continues the previous field.
+	 * "///" ends the entry. From each entry, we extract:
+	 * <ul>
+	 * <li>the KEGG gene ID - the first value of the ENTRY line.</li>
+	 * <li>the KEGG species code - the first value of the ORGANISM line.</li>
+	 * <li>the definition - the rest of the DEFINITION line. It will be used as the Reactome name.</li>
+	 * <li>the KEGG identifier - the first value of the NAME line (or the gene ID if there is no NAME line). It will be used as the Reactome identifier.</li>
+	 * <li>EC numbers - from the end of the ORTHOLOGY line, such as "[EC:2.3.1.48]". There could be several, separated by spaces.</li>
+	 * <li>UniProt IDs - from the "UniProt:" line of DBLINKS (which could be the first line of DBLINKS, or a continuation line).</li>
+	 * </ul>
+	 * <br/>
+	 * About NAME vs. ORTHOLOGY for the identifier: the old code seems to suggest extracting the Reactome Identifier from the ORTHOLOGY line, but not all
+	 * KEGG entries have this. Example: http://rest.kegg.jp/get/hsa:57488 The Reactome Instance browser shows that the Identifier for this ReferenceDNASequence
+	 * is "ESYT2", which is the first value of the "NAME" line. Another example: http://rest.kegg.jp/get/xla:380246 has an ORTHOLOGY value of "K02087", but
+	 * http://rest.kegg.jp/get/xla:K02087 does not return anything, while http://rest.kegg.jp/get/xla:cdk1.S (from NAME) yields the same data as
+	 * http://rest.kegg.jp/get/xla:380246, which suggests that "cdk1.S" is a "better" KEGG Identifier than "K02087".
+	 * @param path - the file to read.
+	 * @return The entries that have UniProt IDs, in the order they appear in the file.
+	 */
+	private ParsedKEGGFile parseFile(Path path)
+	{
+		ParsedKEGGFile parsedFile = new ParsedKEGGFile(path);
+		logger.debug("Processing: {}", path.toString());
+		try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8))
 		{
-			logger.debug("Processing: {}", path.toString());
-			try (FileReader fr = new FileReader(path.toFile());
-					BufferedReader br = new BufferedReader(fr);)
+			String line;
+			String field = null;
+			int entryLineNumber = 0;
+			Map<KEGGKeys, String> keggValues = new EnumMap<>(KEGGKeys.class);
+			String[] uniProtIDs = null;
+			while ((line = br.readLine()) != null)
 			{
-				String line;
-
-				String keggGeneID = null;
-				String keggSpeciesCode = null;
-				String keggDefinition = null;
-				String keggIdentifier = null;
-				String ecNumber = null;
-				String[] uniProtIDs = null;
-				boolean watchingForUniprotID = false;
-				while ((line = br.readLine()) != null)
+				parsedFile.lineCount++;
+				if (line.equals("///"))
 				{
-					lineNumber++;
-					// If a line begins with "ENTRY " then it is a new KEGG entry. Extract the Kegg ID from this line.
-					// If a line contains "///" then that is the end of the current entry.
-					// If a line begins with "ORGANISM" then it contains the KEGG species code, extract it.
-					// If a line begins with "DBLINKS" then we need to scan the next few
-					// lines begining with whitespace for "UniProt:" to get the UniProt
-					// ID this KEGG mapping came from.
-					// If a line begins with DEFINITION then we extract the rest of that line for the Reactome name.
-					// If a line begins with ORTHOLOGY then we extract the KEGG "identifier" (such as K02087) to use as the Reactome identifier value.
-					// ...but if it is not possible to extract this value, then the KEGG code (keggSpeciesCode:keggID) will be acceptable for this.
-					// ...The old code seems to suggests extracting the Reactome Identifier value from the ORTHOLOGY line, but not all KEGG entries have this.
-					// Example: http://rest.kegg.jp/get/hsa:57488 The Reactome Instance browser shows that the Identifier for this ReferenceDNASequence is "ESYT2"
-					// which is the first value of the "NAME" line. So, I'm going to code this to extract from the "NAME" line, not "ORTHOLOGY".
-					// Another example: http://rest.kegg.jp/get/xla:380246
-					// In this case, there is an ORTHOLOGY line and a NAME line. The value from ORTHOLOGY "K02087" doesn't seem to be a valid KEGG Identifier beacuse
-					// the URL http://rest.kegg.jp/get/xla:K02087 does not return anythign, but http://rest.kegg.jp/get/xla:cdk1.S yiels the same data as
-					// http://rest.kegg.jp/get/xla:380246 which suggests that "cdk1.S" is a "better" KEGG Identifier than "K02087"
-
-					// Also, it looks like we will need to extract EC numbers from ORTHOLOGY (if it's there) to create the EC and IntEnz identifiers.
-
-					if (!line.equals("///"))
+					// "End Of Record": add what we have, and then start a new entry.
+					parsedFile.addEntry(keggValues, uniProtIDs, entryLineNumber);
+					keggValues = new EnumMap<>(KEGGKeys.class);
+					uniProtIDs = null;
+					field = null;
+					continue;
+				}
+				int valueStart;
+				if (line.isEmpty() || Character.isWhitespace(line.charAt(0)))
+				{
+					// A continuation of the previous field (or a line full of blank spaces, which has happened once or twice...)
+					valueStart = skipWhitespace(line, 0);
+				}
+				else
+				{
+					int fieldEnd = skipToWhitespace(line, 0);
+					field = line.substring(0, fieldEnd);
+					valueStart = skipWhitespace(line, fieldEnd);
+					switch (field)
 					{
-						String[] parts = line.split("\\s+");
-						// This check is necessary because once or twice I've hit a line that was full of blank spaces....
-						if (parts.length > 0)
-						{
-							if (!watchingForUniprotID)
-							{
-								switch (parts[0].trim())
-								{
-									case "ENTRY":
-										entryLineNumber = lineNumber;
-										entryCount ++;
-										keggGeneID = parts[1].trim();
-										break;
-									case "ORGANISM":
-										keggSpeciesCode = parts[1].trim();
-										break;
-									case "DEFINITION":
-										keggDefinition = line.replaceFirst("DEFINITION +", "");
-										break;
-									case "NAME":
-										//Extract the first String from the NAME line (after "NAME").
-										keggIdentifier = Arrays.asList(line.replaceAll("NAME +", "").split(",")).get(0).trim();
-										break;
-									case "ORTHOLOGY":
-										// This could actually be several EC numbers separated by a space character.
-										Matcher matcher = ecPattern.matcher(line);
-										if (matcher.matches() && matcher.groupCount() > 0)
-										{
-											ecNumber = matcher.group(2);
-										}
-										break;
-									case "DBLINKS":
-										// The UniProt ID could be on the FIRST line of DBLINKS (well... I haven't seen it but there's no reason to think it's impossible).
-										if (line.contains("UniProt:"))
-										{
-											uniProtIDs = line.replaceAll("UniProt:", "").trim().split("\\s+");
-											watchingForUniprotID = false;
-										}
-										else
-										{
-											// First line of DBLINKS was somethign else so turn on the "looking for UniProt" switch.
-											watchingForUniprotID = true;
-										}
-										break;
-								}
-							}
-							else
+						case "ENTRY":
+							entryLineNumber = parsedFile.lineCount;
+							parsedFile.entryCount++;
+							keggValues.put(KEGGKeys.KEGG_GENE_ID, firstToken(line, valueStart));
+							break;
+						case "ORGANISM":
+							keggValues.put(KEGGKeys.KEGG_SPECIES, firstToken(line, valueStart));
+							break;
+						case "DEFINITION":
+							keggValues.put(KEGGKeys.KEGG_DEFINITION, line.substring(valueStart));
+							break;
+						case "NAME":
+							// Extract the first name from the NAME line.
+							int nameEnd = line.indexOf(',', valueStart);
+							keggValues.put(KEGGKeys.KEGG_IDENTIFIER, line.substring(valueStart, nameEnd < 0 ? line.length() : nameEnd).trim());
+							break;
+						case "ORTHOLOGY":
+							String ecNumbers = extractECNumbers(line);
+							if (ecNumbers != null)
 							{
-								// Once UniProt is found, turn off the switch.
-								if (line.contains("UniProt:"))
-								{
-									uniProtIDs = line.replaceAll("UniProt:", "").trim().split("\\s+");
-									watchingForUniprotID = false;
-								}
+								keggValues.put(KEGGKeys.EC_NUMBERS, ecNumbers);
 							}
-						}
-					}
-					// When we get the "///" line, it means "End Of Record" and we need to add what we have to the map and then reset everything.
-					else
-					{
-						// Flip the flag on watchingForUniprotID back to false, since we've reached the end of a record.
-						// This is necessasry, in case one of the Records doesn't have any UniProt dblinks.
-						watchingForUniprotID = false;
-						if (keggIdentifier == null)
-						{
-							// We can create a link to KEGG using the value from the ENTRY record, if there was no NAME record present.
-							keggIdentifier = keggGeneID;
-						}
-
-						if (uniProtIDs!=null &&  uniProtIDs.length > 0)
-						{
-							Map<KEGGKeys,String> keggValues = new HashMap<KEGGKeys,String>(5);
-							keggValues.put(KEGGKeys.KEGG_IDENTIFIER, keggIdentifier);
-							keggValues.put(KEGGKeys.KEGG_GENE_ID, keggGeneID);
-							keggValues.put(KEGGKeys.KEGG_SPECIES, keggSpeciesCode);
-							keggValues.put(KEGGKeys.KEGG_DEFINITION, keggDefinition);
-							keggValues.put(KEGGKeys.EC_NUMBERS, ecNumber);
-
-							if ( (keggValues.get(KEGGKeys.KEGG_IDENTIFIER) == null || keggValues.get(KEGGKeys.KEGG_IDENTIFIER).trim().equals(""))
-									&& (keggValues.get(KEGGKeys.KEGG_GENE_ID) == null || keggValues.get(KEGGKeys.KEGG_GENE_ID).trim().equals("")))
-							{
-								logger.error("For UniProts {}: KEGG_IDENTIFIER and KEGG_GENE_ID are both NULL/Empty. This is not allowed! See ENTRY starting at line {}. KEGG values map for this entry: {}", uniProtIDs.toString(), entryLineNumber, keggValues.toString());
-							}
-							else
-							{
-								for (String uniProtID : uniProtIDs)
-								{
-									logger.trace("UniProt ID {} maps to {}", uniProtID, keggValues.toString());
-									if (!mapping.containsKey(uniProtID))
-									{
-										List<Map<KEGGFileProcessor.KEGGKeys, String>> keggList = new ArrayList<Map<KEGGFileProcessor.KEGGKeys, String>>();
-										keggList.add(keggValues);
-										mapping.put(uniProtID, keggList);
-									}
-									else
-									{
-										//we should check for dupliates...
-										boolean isDuplicate = false;
-										for (Map<KEGGKeys, String> preExistingKeggValueRecord : mapping.get(uniProtID))
-										{
-											String identifier = keggValues.get(KEGGKeys.KEGG_IDENTIFIER);
-											String otherIdentifier = preExistingKeggValueRecord.get(KEGGKeys.KEGG_IDENTIFIER);
-											String geneID = keggValues.get(KEGGKeys.KEGG_GENE_ID);
-											String otherGeneId = preExistingKeggValueRecord.get(KEGGKeys.KEGG_GENE_ID);
-
-											// currentCompareValue and preexistingCompareValue should never actually be "" because
-											// that situation should be handled up above. The logic prevents such keggValue maps from
-											// ever being inserted into the main map structure.
-											String currentCompareValue = identifier != null && !identifier.trim().equals("")
-																			? identifier
-																			: (geneID != null && !geneID.trim().equals("")
-																				? geneID
-																				: "");
-
-											String preexistingCompareValue = otherIdentifier != null && !otherIdentifier.trim().equals("")
-																			? otherIdentifier
-																			: (otherGeneId != null && !otherGeneId.trim().equals("")
-																				? otherGeneId
-																				: "");
-
-											if (currentCompareValue.equals(preexistingCompareValue))
-											{
-												isDuplicate = true;
-												duplicateEntryCount ++;
-												logger.warn("Duplicate mapping for {} to {} - will not be added to results.", uniProtID, keggValues.get(KEGGKeys.KEGG_IDENTIFIER));
-											}
-										}
-										if (!isDuplicate)
-										{
-											mapping.get(uniProtID).add(keggValues);
-										}
-									}
-									//Now reset all the variables.
-									keggDefinition = null;
-									keggGeneID = null;
-									keggSpeciesCode = null;
-									keggIdentifier = null;
-									ecNumber = null;
-									uniProtIDs = null;
-								}
-							}
-						}
-						else
-						{
-							logger.error("Processing a KEGG entry and no UniProt ID was found! "
-									+ "This is very strange since the KEGG IDs we looked up are known to UniProt. "
-									+ "Perhaps KEGG does not know the corresponding UniProt IDs? "
-									+ "Data that we have at this point: KEGG Gene ID: {} ; KEGG Species code: {} ; KEGG Definition: {} ; KEGG Identifier: {} ; EC Numbers from KEGG: {}",
-									keggGeneID, keggSpeciesCode, keggDefinition, keggGeneID, ecNumber);
-						}
+							break;
+						default:
+							break;
 					}
 				}
+				if ("DBLINKS".equals(field) && uniProtIDs == null && line.startsWith(UNIPROT_PREFIX, valueStart))
+				{
+					uniProtIDs = tokens(line, valueStart + UNIPROT_PREFIX.length());
+				}
 			}
 		}
 		catch (IOException e)
@@ -248,9 +166,174 @@ public class KEGGFileProcessor extends GlobbedFileProcessor<List<Map<KEGGFilePro
 			e.printStackTrace();
 			throw new Error(e);
 		}
-		logger.info("Processed {} lines for file {}. Found {} entries: {} were duplicates. Added {} UniProt keys to the mapping.", lineNumber, path.toString(), entryCount, duplicateEntryCount, mapping.keySet().size());
+		return parsedFile;
 	}
 
+	/**
+	 * Adds the entries from a file to the mapping. A UniProt ID is only mapped to one entry for each KEGG identifier (or gene ID, if there is no identifier).
+	 * @param parsedFile - the entries from a file.
+	 * @param mapping - the mapping to add to.
+	 * @param mappedIdentifiers - the KEGG identifiers that each UniProt ID in <code>mapping</code> is already mapped to. If a UniProt ID is not in
+	 * here yet, its identifiers are taken from <code>mapping</code>.
+	 */
+	private void addToMapping(ParsedKEGGFile parsedFile, Map<String, List<Map<KEGGKeys, String>>> mapping, Map<String, Set<String>> mappedIdentifiers)
+	{
+		int duplicateEntryCount = 0;
+		for (ParsedKEGGEntry entry : parsedFile.entries)
+		{
+			String compareValue = getCompareValue(entry.keggValues);
+			for (String uniProtID : entry.uniProtIDs)
+			{
+				logger.trace("UniProt ID {} maps to {}", uniProtID, entry.keggValues);
+				List<Map<KEGGKeys, String>> keggList = mapping.computeIfAbsent(uniProtID, k -> new ArrayList<>(1));
+				Set<String> identifiers = mappedIdentifiers.computeIfAbsent(uniProtID, k -> keggList.stream().map(KEGGFileProcessor::getCompareValue).collect(Collectors.toCollection(HashSet::new)));
+				if (identifiers.add(compareValue))
+				{
+					keggList.add(entry.keggValues);
+				}
+				else
+				{
+					duplicateEntryCount++;
+					logger.warn("Duplicate mapping for {} to {} - will not be added to results.", uniProtID, entry.keggValues.get(KEGGKeys.KEGG_IDENTIFIER));
+				}
+			}
+		}
+		logger.info("Processed {} lines for file {}. Found {} entries: {} were duplicates. Added {} UniProt keys to the mapping.", parsedFile.lineCount, parsedFile.path.toString(), parsedFile.entryCount, duplicateEntryCount, mapping.keySet().size());
+	}
 
+	/**
+	 * Gets the value that two entries are compared by, to see if they are duplicates: the KEGG identifier, or the KEGG gene ID if there is no identifier.
+	 */
+	private static String getCompareValue(Map<KEGGKeys, String> keggValues)
+	{
+		String identifier = keggValues.get(KEGGKeys.KEGG_IDENTIFIER);
+		if (identifier != null && !identifier.trim().isEmpty())
+		{
+			return identifier;
+		}
+		String geneID = keggValues.get(KEGGKeys.KEGG_GENE_ID);
+		return geneID != null && !geneID.trim().isEmpty() ? geneID : "";
+	}
 
+	/**
+	 * Extracts EC numbers from an ORTHOLOGY line such as "ORTHOLOGY   K11306  histone acetyltransferase MYST4 [EC:2.3.1.48]".
+	 * @return The EC numbers (separated by spaces, if there are several), or null if the line does not end with EC numbers.
+	 */
+	static String extractECNumbers(String line)
+	{
+		int end = line.length() - 1;
+		if (end < 0 || line.charAt(end) != ']')
+		{
+			return null;
+		}
+		int start = line.lastIndexOf(EC_PREFIX);
+		if (start < 0)
+		{
+			return null;
+		}
+		start += EC_PREFIX.length();
+		for (int i = start; i < end; i++)
+		{
+			char c = line.charAt(i);
+			if (!(c >= '0' && c <= '9') && c != '-' && c != '.' && c != ' ')
+			{
+				return null;
+			}
+		}
+		return line.substring(start, end);
+	}
+
+	private static int skipWhitespace(String line, int index)
+	{
+		while (index < line.length() && Character.isWhitespace(line.charAt(index)))
+		{
+			index++;
+		}
+		return index;
+	}
+
+	private static int skipToWhitespace(String line, int index)
+	{
+		while (index < line.length() && !Character.isWhitespace(line.charAt(index)))
+		{
+			index++;
+		}
+		return index;
+	}
+
+	private static String firstToken(String line, int start)
+	{
+		return start < line.length() ? line.substring(start, skipToWhitespace(line, start)) : null;
+	}
+
+	private static String[] tokens(String line, int start)
+	{
+		List<String> tokens = new ArrayList<>(2);
+		int tokenStart = skipWhitespace(line, start);
+		while (tokenStart < line.length())
+		{
+			int tokenEnd = skipToWhitespace(line, tokenStart);
+			tokens.add(line.substring(tokenStart, tokenEnd));
+			tokenStart = skipWhitespace(line, tokenEnd);
+		}
+		return tokens.toArray(new String[0]);
+	}
+
+	/**
+	 * The entries read from one file, before they are added to the mapping.
+	 */
+	private class ParsedKEGGFile
+	{
+		private final Path path;
+		private final List<ParsedKEGGEntry> entries = new ArrayList<>();
+		private int lineCount;
+		private int entryCount;
+
+		ParsedKEGGFile(Path path)
+		{
+			this.path = path;
+		}
+
+		void addEntry(Map<KEGGKeys, String> keggValues, String[] uniProtIDs, int entryLineNumber)
+		{
+			if (keggValues.get(KEGGKeys.KEGG_IDENTIFIER) == null)
+			{
+				// We can create a link to KEGG using the value from the ENTRY record, if there was no NAME record present.
+				keggValues.put(KEGGKeys.KEGG_IDENTIFIER, keggValues.get(KEGGKeys.KEGG_GENE_ID));
+			}
+
+			if (uniProtIDs == null || uniProtIDs.length == 0)
+			{
+				logger.error("Processing a KEGG entry and no UniProt ID was found! "
+						+ "This is very strange since the KEGG IDs we looked up are known to UniProt. "
+						+ "Perhaps KEGG does not know the corresponding UniProt IDs? "
+						+ "Data that we have at this point: KEGG Gene ID: {} ; KEGG Species code: {} ; KEGG Definition: {} ; KEGG Identifier: {} ; EC Numbers from KEGG: {}",
+						keggValues.get(KEGGKeys.KEGG_GENE_ID), keggValues.get(KEGGKeys.KEGG_SPECIES), keggValues.get(KEGGKeys.KEGG_DEFINITION),
+						keggValues.get(KEGGKeys.KEGG_IDENTIFIER), keggValues.get(KEGGKeys.EC_NUMBERS));
+			}
+			else if (getCompareValue(keggValues).isEmpty())
+			{
+				logger.error("For UniProts {}: KEGG_IDENTIFIER and KEGG_GENE_ID are both NULL/Empty. This is not allowed! See ENTRY starting at line {}. KEGG values map for this entry: {}", String.join(" ", uniProtIDs), entryLineNumber, keggValues);
+			}
+			else
+			{
+				this.entries.add(new ParsedKEGGEntry(keggValues, uniProtIDs));
+			}
+		}
+	}
+
+	/**
+	 * The values extracted from a KEGG entry, and the UniProt IDs the entry maps to.
+	 */
+	private static class ParsedKEGGEntry
+	{
+		private final Map<KEGGKeys, String> keggValues;
+		private final String[] uniProtIDs;
+
+		ParsedKEGGEntry(Map<KEGGKeys, String> keggValues, String[] uniProtIDs)
+		{
+			this.keggValues = keggValues;
+			this.uniProtIDs = uniProtIDs;
+		}
+	}
 }
@@ -1,9 +1,7 @@
 package org.reactome.addlinks.fileprocessors;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -34,12 +32,10 @@ public class OpenTargetsFileProcessor extends FileProcessor<String>
 	{
 		Map<String, String> uniprotToEnsemblForOpenTargetsMap = new HashMap<>();
 		AtomicInteger lineCount = new AtomicInteger(0);
-		Path inputFile = Paths.get(this.pathToFile.toAbsolutePath().toString().replace(".gz", ""));
-		try
+		// The file is decompressed as it is read.
+		try (BufferedReader reader = this.openReader(this.pathToFile))
 		{
-			this.unzipFile(this.pathToFile, true);
-
-			Files.readAllLines(inputFile).forEach( line -> {
+			reader.lines().forEach( line -> {
 				String[] parts = line.split(",");
 				lineCount.incrementAndGet();
 				if (parts.length >= 2) // Could be more > 2 fields now but we only care about the first two.
@@ -53,14 +49,9 @@ public class OpenTargetsFileProcessor extends FileProcessor<String>
 				}
 			} );
 		}
-		catch (IOException e) // potentially thrown by Files.readAllLines
-		{
-			logger.error("Error reading file ({}): {}", inputFile.toString(), e.getMessage());
-			e.printStackTrace();
-		}
-		catch (Exception e) // potentially thrown by this.unzipFile
+		catch (IOException e)
 		{
-			logger.error("Error accessing/unzipping file({}): {}", this.pathToFile, e.getMessage());
+			logger.error("Error reading file ({}): {}", this.pathToFile, e.getMessage());
 			e.printStackTrace();
 		}
 		logger.info("{} lines processed, {} keys added to map.", lineCount.get(), uniprotToEnsemblForOpenTargetsMap.keySet().size());
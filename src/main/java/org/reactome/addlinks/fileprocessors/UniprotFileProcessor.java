@@ -1,11 +1,8 @@
 package org.reactome.addlinks.fileprocessors;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -13,6 +10,8 @@ import java.util.regex.Pattern;
 
 public class UniprotFileProcessor extends GlobbedFileProcessor<Map<String,List<String>>>
 {
+	private static final String HEADER = "From\tTo";
+
 	public UniprotFileProcessor()
 	{
 		super();
@@ -58,43 +57,60 @@ public class UniprotFileProcessor extends GlobbedFileProcessor<Map<String,List<S
 		 */
 		Matcher matcher = this.pattern.matcher(file.getFileName().toString());
 		matcher.matches();
-		String speciesId = matcher.group(1);
+		String speciesId = IdentifierSymbolTable.intern(matcher.group(1));
+		// Each species' mappings are stored in a CompactMultimap, and the identifiers are interned, because the same UniProt IDs
+		// (and often the same other IDs) appear in the files for every refDB, and all of these mappings are kept in memory at the same time.
+		CompactMultimap.Builder submappings = new CompactMultimap.Builder();
 		if (mapping.containsKey(speciesId))
 		{
 			logger.warn("You already have an entry for {}. You should only have ONE file for each species for each refDB. If you have more, something may have gone wrong...", speciesId);
-		}
-		else
-		{
-			Map<String,List<String>> submappings = Collections.synchronizedMap( new HashMap<String, List<String>>() );
-			mapping.put(speciesId, submappings);
+			submappings.putAll(mapping.get(speciesId));
 		}
 		logger.debug("Processing file: {}",file.getFileName());
-		//Process the file.
-		try
+		//Process the file, one line at a time.
+		try (BufferedReader reader = this.openReader(file))
 		{
-			Files.readAllLines(file).stream().filter(p -> !p.equals("From\tTo")).forEach( line ->
+			String line;
+			while ((line = reader.readLine()) != null)
 			{
-				String[] parts = line.split("\\t");
-				String uniProtId = parts[0];
-				String otherId = parts[1];
-				if (mapping.get(speciesId).containsKey(uniProtId))
+				int firstTab = line.indexOf('\t');
+				if (firstTab < 0 || line.equals(HEADER))
 				{
-					List<String> otherIds = mapping.get(speciesId).get(uniProtId);
-					otherIds.add(otherId);
-					mapping.get(speciesId).put(uniProtId, otherIds);
+					continue;
 				}
-				else
-				{
-					List<String> otherIds = Collections.synchronizedList( new  ArrayList<String>() );
-					otherIds.add(otherId);
-					mapping.get(speciesId).put(uniProtId, otherIds);
-				}
-			});
+				int secondTab = line.indexOf('\t', firstTab + 1);
+				String uniProtId = line.substring(0, firstTab);
+				String otherId = line.substring(firstTab + 1, secondTab < 0 ? line.length() : secondTab);
+				submappings.put(IdentifierSymbolTable.intern(uniProtId), IdentifierSymbolTable.intern(otherId));
+			}
 		}
 		catch (IOException e1)
 		{
 			e1.printStackTrace();
 		}
+		mapping.put(speciesId, submappings.build());
+	}
+
+	/**
+	 * Merges the mapping from one file into the mapping of all the files. As in processFile, a species that is already in the mapping gets a warning,
+	 * and its UniProt-to-other-ID mappings are combined (into a new CompactMultimap, since they can't be modified).
+	 */
+	@Override
+	protected void mergeMapping(Map<String, Map<String, List<String>>> fileMapping, Map<String, Map<String, List<String>>> mapping)
+	{
+		for (Map.Entry<String, Map<String, List<String>>> speciesMapping : fileMapping.entrySet())
+		{
+			String speciesId = speciesMapping.getKey();
+			if (mapping.containsKey(speciesId))
+			{
+				logger.warn("You already have an entry for {}. You should only have ONE file for each species for each refDB. If you have more, something may have gone wrong...", speciesId);
+				mapping.put(speciesId, new CompactMultimap.Builder().putAll(mapping.get(speciesId)).putAll(speciesMapping.getValue()).build());
+			}
+			else
+			{
+				mapping.put(speciesId, speciesMapping.getValue());
+			}
+		}
 	}
 
 }
@@ -0,0 +1,132 @@
+package org.reactome.addlinks.fileprocessors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Transforms XML with the XSL stylesheets that are on the classpath. Each stylesheet is compiled once, into Templates that are shared by all threads,
+ * so any number of files can be transformed at the same time. The text that a transform outputs is passed to a callback one line at a time,
+ * as it is produced, so it is never written to a file or held in memory.
+ */
+public final class XsltTransformService
+{
+	private static final Map<String, Templates> templatesByStylesheet = new ConcurrentHashMap<>();
+
+	private XsltTransformService()
+	{
+		// Only static methods.
+	}
+
+	/**
+	 * Gets the compiled form of a stylesheet, compiling it the first time that it is asked for.
+	 * @param stylesheetName - the name of the stylesheet resource on the classpath.
+	 * @return The compiled stylesheet. Templates are thread-safe.
+	 * @throws TransformerConfigurationException If the stylesheet does not exist or could not be compiled.
+	 */
+	public static Templates getTemplates(String stylesheetName) throws TransformerConfigurationException
+	{
+		Templates templates = templatesByStylesheet.get(stylesheetName);
+		if (templates == null)
+		{
+			// Two threads could both compile the stylesheet the first time, but only one of the results is kept.
+			try (InputStream stylesheet = XsltTransformService.class.getClassLoader().getResourceAsStream(stylesheetName))
+			{
+				if (stylesheet == null)
+				{
+					throw new TransformerConfigurationException("Stylesheet " + stylesheetName + " could not be found on the classpath.");
+				}
+				templates = TransformerFactory.newInstance().newTemplates(new StreamSource(stylesheet));
+			}
+			catch (IOException e)
+			{
+				throw new TransformerConfigurationException("Stylesheet " + stylesheetName + " could not be read.", e);
+			}
+			Templates existingTemplates = templatesByStylesheet.putIfAbsent(stylesheetName, templates);
+			if (existingTemplates != null)
+			{
+				templates = existingTemplates;
+			}
+		}
+		return templates;
+	}
+
+	/**
+	 * Transforms XML with a stylesheet that outputs text, passing each line of the output to a callback.
+	 * @param stylesheetName - the name of the stylesheet resource on the classpath.
+	 * @param xmlSource - the XML to transform.
+	 * @param lineConsumer - called with each non-empty line of the output (without the line terminator), in order, on the calling thread.
+	 * @throws TransformerException If the stylesheet could not be compiled or the transform failed.
+	 */
+	public static void transformToLines(String stylesheetName, Source xmlSource, Consumer<String> lineConsumer) throws TransformerException
+	{
+		// A Transformer is not thread-safe, but creating one from the compiled Templates is cheap.
+		LineWriter lineWriter = new LineWriter(lineConsumer);
+		XsltTransformService.getTemplates(stylesheetName).newTransformer().transform(xmlSource, new StreamResult(lineWriter));
+		lineWriter.close();
+	}
+
+	/**
+	 * A Writer that passes each line that is written to it to a callback. Only the current line is buffered.
+	 */
+	private static class LineWriter extends Writer
+	{
+		private final Consumer<String> lineConsumer;
+		private final StringBuilder line = new StringBuilder();
+
+		LineWriter(Consumer<String> lineConsumer)
+		{
+			this.lineConsumer = lineConsumer;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len)
+		{
+			for (int i = off; i < off + len; i++)
+			{
+				char c = cbuf[i];
+				if (c == '\n')
+				{
+					this.endLine();
+				}
+				else if (c != '\r')
+				{
+					this.line.append(c);
+				}
+			}
+		}
+
+		private void endLine()
+		{
+			if (this.line.length() > 0)
+			{
+				this.lineConsumer.accept(this.line.toString());
+				this.line.setLength(0);
+			}
+		}
+
+		@Override
+		public void flush()
+		{
+			// Lines are passed on as soon as they end, so there is nothing to flush.
+		}
+
+		@Override
+		public void close()
+		{
+			// The last line might not have a line terminator.
+			this.endLine();
+		}
+	}
+}
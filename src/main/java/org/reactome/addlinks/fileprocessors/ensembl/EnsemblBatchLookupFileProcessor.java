@@ -1,22 +1,16 @@
 package org.reactome.addlinks.fileprocessors.ensembl;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.reactome.addlinks.fileprocessors.FileProcessor;
+import org.reactome.addlinks.fileprocessors.XsltTransformService;
 
 public class EnsemblBatchLookupFileProcessor extends FileProcessor<String>
 {
@@ -35,46 +29,31 @@ public class EnsemblBatchLookupFileProcessor extends FileProcessor<String>
 	public Map<String, String> getIdMappingsFromFile()
 	{
 		Map<String,String> mapping = new HashMap<String, String>();
-		TransformerFactory factory = TransformerFactory.newInstance();
-		//Transform the generated Ensembl batch-lookup output XML into a more usable CSV file.
-		Source source = new StreamSource(this.getClass().getClassLoader().getResourceAsStream(XSL_FILE_NAME));
-		Transformer transformer;
-		try
+		if (Files.exists(this.pathToFile))
 		{
-			transformer = factory.newTransformer(source);
-			if (Files.exists(this.pathToFile))
+			//Transform the generated Ensembl batch-lookup output XML into simple comma-separated lines, which are read as they are produced.
+			logger.debug("Transforming {} with {} ",this.pathToFile.getFileName(), XSL_FILE_NAME);
+			try (InputStream inStream = this.openInputStream(this.pathToFile))
 			{
-				Source xmlSource = new StreamSource(this.pathToFile.toFile());
-				logger.debug("Transforming {} with {} ",this.pathToFile.getFileName(), XSL_FILE_NAME);
-				String outfileName = this.pathToFile.getParent().toString() + "/" +  this.pathToFile.getFileName().toString() + ".transformed.csv";
-				Result outputTarget =  new StreamResult(new File(outfileName));
-				transformer.transform(xmlSource, outputTarget);
-				logger.info("Building map from generated file: {}",outfileName);
-				//Now we read the file we just created.
-				Files.readAllLines(Paths.get(outfileName)).forEach( line -> {
+				XsltTransformService.transformToLines(XSL_FILE_NAME, new StreamSource(inStream), line -> {
 					String parts[] = line.split(",");
 					mapping.put(parts[0], parts[1]);
 				});
 			}
-			else
+			catch (TransformerException e)
 			{
-				logger.warn("File {} does not actually exist.", this.pathToFile);
+				e.printStackTrace();
+				throw new Error(e);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				throw new Error(e);
 			}
 		}
-		catch (TransformerConfigurationException e)
-		{
-			e.printStackTrace();
-			throw new Error(e);
-		}
-		catch (TransformerException e)
-		{
-			e.printStackTrace();
-			throw new Error(e);
-		}
-		catch (IOException e)
+		else
 		{
-			e.printStackTrace();
-			throw new Error(e);
+			logger.warn("File {} does not actually exist.", this.pathToFile);
 		}
 		return mapping;
 	}
@@ -1,37 +1,64 @@
 package org.reactome.addlinks.fileprocessors.ensembl;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.reactome.addlinks.fileprocessors.ExternalLineSorter;
+import org.reactome.addlinks.fileprocessors.XsltTransformService;
 
 
 /**
  * This class will combine the results from:
- * 	 -  ENSP_batch_lookup.$species.xml.transformed.csv
- * 	 -  ENST_batch_lookup.$species.xml.transformed.csv
- * 	 -  ensembl_to_ALL.$species.xml.$dbName.transformed.tsv
- * 
+ * 	 -  ENSP_batch_lookup.$species.xml (ENSP -> ENST)
+ * 	 -  ENST_batch_lookup.$species.xml (ENST -> ENSG)
+ * 	 -  ensembl_to_ALL.$species.xml (ENSG -> cross-references)
+ *
  * It will produce an output file that contains: The ENSP ID, ENST ID, ENSG ID, cross-reference ID, cross-reference datbase name.
+ * <br/>
+ * The files are joined with sort-merge joins: the rows of each file are sorted by the identifier that they are joined on (spilling to temporary files
+ * when there are too many to sort in memory), and the sorted rows are then read side by side. Only the cross-references of one ENSG are held in memory
+ * at a time, and the output is written as it is produced, so the memory used does not depend on the number of identifiers for the species.
+ * <br/>
+ * Identifiers that map to more than one identifier are joined differently than when the files were loaded into maps (where the last mapping in
+ * the file replaced the others):
+ * <ul>
+ * <li>An ENSP that maps to several ENSTs produces rows for each of its ENSTs.</li>
+ * <li>An ENST that maps to several ENSGs only uses the lexically first ENSG, so the result does not depend on the order of the lookup file.</li>
+ * </ul>
  * @author sshorser
  *
  */
 public class EnsemblFileAggregator
 {
 	private static final Logger logger = LogManager.getLogger();
+	private static final String LOOKUP_XSL_FILE_NAME = "ensembl-lookup-simplifier.xsl";
+	private static final String NULL = "null";
 	private String speciesID;
 	private List<String> dbNames;
 	private String rootPath;
-	
+	private int maxRowsInMemory = 1000000;
+
 	public EnsemblFileAggregator(String speciesID, List<String> dbNames, String rootPath)
 	{
 		this.speciesID = speciesID;
@@ -39,164 +66,190 @@ public class EnsemblFileAggregator
 		this.rootPath = rootPath;
 	}
 
-	private String[] parseLine(String fileNamePattern, String line) throws Error
+	/**
+	 * Sets the number of rows of each file that are sorted in memory, before they are written to a temporary file.
+	 * @param maxRowsInMemory
+	 */
+	public void setMaxRowsInMemory(int maxRowsInMemory)
 	{
-		String parts[];
-		if (fileNamePattern.toLowerCase().endsWith("csv"))
-		{
-			parts = line.split(",");
-		}
-		else if (fileNamePattern.toLowerCase().endsWith("tsv"))
-		{
-			parts = line.split("\t");
-		}
-		else
-		{
-			logger.error("File {} does not end with \"csv\" or \"tsv\", so it cannot be determined how to process it.", fileNamePattern);
-			throw new Error ("File \""+fileNamePattern+"\" must be either a tsv or csv.");
-		}
-		return parts;
+		this.maxRowsInMemory = maxRowsInMemory;
 	}
 
-	
-	private void buildMappingListsFromFile(String fileNamePattern, Map<String, List<String>> mapping)
+	/**
+	 * Reads the "id,Parent" rows from an Ensembl batch lookup file.
+	 * @param fileName - the file.
+	 * @param rowConsumer - called with the id and Parent of each row.
+	 */
+	private void readLookupRows(String fileName, BiConsumer<String, String> rowConsumer) throws IOException, TransformerException
 	{
-		if (Files.exists(Paths.get(fileNamePattern)))
+		Path path = Paths.get(fileName);
+		if (Files.exists(path))
 		{
-			try
+			try (InputStream inStream = new BufferedInputStream(Files.newInputStream(path)))
 			{
-				Files.lines(Paths.get(fileNamePattern)).sequential().forEach( line -> {
-					String[] parts = parseLine(fileNamePattern, line);
-					//mapping.put(parts[0], parts[1]);
-					if (mapping.containsKey(parts[0]))
-					{
-						// no point in having duplicates
-						if (!mapping.get(parts[0]).contains(parts[1]))
-						{
-							mapping.get(parts[0]).add(parts[1]);
-							logger.trace("{} maps to multiple cross-references {} ", parts[0],mapping.get(parts[0]));
-						}
-					}
-					else
-					{
-						mapping.put(parts[0], new ArrayList<String>(Arrays.asList(parts[1])) );
-					}
-					
+				XsltTransformService.transformToLines(LOOKUP_XSL_FILE_NAME, new StreamSource(inStream), line -> {
+					String[] parts = line.split(",");
+					rowConsumer.accept(parts[0], parts[1]);
 				});
 			}
-			catch (IOException e)
-			{
-				throw new Error(e);
-			}
 		}
 		else
 		{
-			logger.trace("File {} does not exist.", fileNamePattern);
+			logger.trace("File {} does not exist.", fileName);
 		}
 	}
 
-	private void buildMappingFromFile(String fileNamePattern, Map<String, String> mapping)
+	private static void add(ExternalLineSorter sorter, String... fields)
 	{
-		if (Files.exists(Paths.get(fileNamePattern)))
+		try
 		{
-			try
-			{
-				Files.lines(Paths.get(fileNamePattern)).sequential().forEach( line -> {
-					String[] parts = parseLine(fileNamePattern, line);
-					mapping.put(parts[0], parts[1]);
-					
-				});
-			}
-			catch (IOException e)
-			{
-				throw new Error(e);
-			}
+			sorter.add(String.join("\t", fields));
 		}
-		else
+		catch (IOException e)
 		{
-			logger.trace("File {} does not exist.", fileNamePattern);
+			throw new UncheckedIOException(e);
 		}
 	}
-	
+
+	private static String key(String row)
+	{
+		int tab = row.indexOf('\t');
+		return tab < 0 ? row : row.substring(0, tab);
+	}
+
+	private void writeRow(Writer writer, String ensp, String enst, String ensg, String dbName, String xref) throws IOException
+	{
+		writer.append(ensp).append(",")
+			.append(enst).append(",")
+			.append(ensg).append(",")
+			.append(dbName).append(",")
+			.append(xref).append("\n");
+	}
+
 	public void createAggregateFile()
 	{
 		logger.info("Aggregating for species: {}", this.speciesID);
-		List<EnsemblMapping> mappings = new ArrayList<EnsemblMapping>();
-		
-		Map<String, String> enspToEnst = new HashMap<String, String>();
-		Map<String, String> enstToEnsg = new HashMap<String, String>();
-		Map<String,Map<String, List<String>>> ensgToXrefs = new HashMap<String, Map<String, List<String>>>();
-		//first, process the ENSP file which will map to ENST.
-		buildMappingFromFile(rootPath + "/ENSP_batch_lookup." + this.speciesID + ".xml.transformed.csv", enspToEnst);
-		if (enspToEnst.size() > 0)
-		{
-			logger.info("  {} ENSP->ENST mappings.", enspToEnst.size());
-		}
-		//second, process the ENST lookup file with ENST -> ENSG mappings.
-		buildMappingFromFile(rootPath + "/ENST_batch_lookup." + this.speciesID + ".xml.transformed.csv", enstToEnsg);
-		if (enstToEnsg.size() > 0)
-		{
-			logger.info("  {} ENST->ENSG mappings.", enstToEnsg.size());
-		}
-		//third, process the file which maps ENSG to cross-references.
-		for (String dbName : this.dbNames)
+		Path pathToOutfile = Paths.get(rootPath + "/ensembl_p2xref_mapping." + speciesID + ".csv");
+		Path tempDirectory = pathToOutfile.getParent();
+		try (ExternalLineSorter enspByEnst = new ExternalLineSorter(tempDirectory, this.maxRowsInMemory);
+			ExternalLineSorter ensgByEnst = new ExternalLineSorter(tempDirectory, this.maxRowsInMemory);
+			ExternalLineSorter proteinsByEnsg = new ExternalLineSorter(tempDirectory, this.maxRowsInMemory);
+			ExternalLineSorter xrefsByEnsg = new ExternalLineSorter(tempDirectory, this.maxRowsInMemory);
+			Writer writer = Files.newBufferedWriter(pathToOutfile, StandardCharsets.UTF_8))
 		{
-			ensgToXrefs.put(dbName, new HashMap<String, List<String>>());
-			
-			buildMappingListsFromFile(rootPath + "/ensembl_to_ALL." + this.speciesID + ".xml." + dbName + ".transformed.tsv", ensgToXrefs.get(dbName));
-			if (ensgToXrefs.get(dbName).size() > 0)
+			//first, process the ENSP file which will map to ENST.
+			int[] counts = new int[3];
+			this.readLookupRows(rootPath + "/ENSP_batch_lookup." + this.speciesID + ".xml", (ensp, enst) -> {
+				add(enspByEnst, enst, ensp);
+				counts[0]++;
+			});
+			logger.info("  {} ENSP->ENST mappings.", counts[0]);
+			//second, process the ENST lookup file with ENST -> ENSG mappings.
+			this.readLookupRows(rootPath + "/ENST_batch_lookup." + this.speciesID + ".xml", (enst, ensg) -> {
+				add(ensgByEnst, enst, ensg);
+				counts[1]++;
+			});
+			logger.info("  {} ENST->ENSG mappings.", counts[1]);
+			//third, process the file which maps ENSG to cross-references.
+			Path xrefFile = Paths.get(rootPath + "/ensembl_to_ALL." + this.speciesID + ".xml");
+			if (Files.exists(xrefFile))
 			{
-				logger.info("  for db {}, {} ENSG->Cross-Reference mappings.", dbName, ensgToXrefs.get(dbName).size());
+				Set<String> dbNameSet = new HashSet<String>(this.dbNames);
+				try (InputStream inStream = new BufferedInputStream(Files.newInputStream(xrefFile)))
+				{
+					EnsemblFileProcessor.readXrefs(inStream, (ensg, dbName, xref) -> {
+						if (dbNameSet.contains(dbName))
+						{
+							xrefsByEnsg.add(String.join("\t", ensg, dbName, xref));
+							counts[2]++;
+						}
+					});
+				}
 			}
-		}
-		
-		// Now we have to create the ENSP -> ENST -> ENSG -> Xref mappings.
-		for (String ensp : enspToEnst.keySet())
-		{
-			for (String dbName : this.dbNames)
+			else
 			{
-				String enst = enspToEnst.get(ensp);
-				String ensg = enstToEnsg.get(enst);
-				EnsemblMapping ensemblMapping = null;
+				logger.trace("File {} does not exist.", xrefFile);
+			}
+			logger.info("  {} ENSG->Cross-Reference mappings.", counts[2]);
 
-				//String xref = ensgToXref.get(ensg);
-				//String xref = ensgToXrefs.get(dbName).get(ensg);
-				if (ensgToXrefs.get(dbName).get(ensg) != null)
+			// Join ENSP -> ENST with ENST -> ENSG, on ENST.
+			Iterator<String> ensgRows = ensgByEnst.sortedDistinctLines();
+			String ensgRow = ensgRows.hasNext() ? ensgRows.next() : null;
+			Iterator<String> enspRows = enspByEnst.sortedDistinctLines();
+			while (enspRows.hasNext())
+			{
+				String[] enspRow = enspRows.next().split("\t");
+				String enst = enspRow[0];
+				String ensp = enspRow[1];
+				while (ensgRow != null && key(ensgRow).compareTo(enst) < 0)
 				{
-					for (String xref : ensgToXrefs.get(dbName).get(ensg) )
-					{
-						ensemblMapping = new EnsemblMapping(ensp, enst, ensg, xref, dbName);
-						mappings.add(ensemblMapping);
-					}
+					ensgRow = ensgRows.hasNext() ? ensgRows.next() : null;
+				}
+				if (ensgRow != null && key(ensgRow).equals(enst))
+				{
+					// If an ENST somehow has more than one ENSG, only the (lexically) first is used. Every ENSP of the ENST gets a row, even ENSPs with other ENSTs.
+					add(proteinsByEnsg, ensgRow.split("\t")[1], enst, ensp);
 				}
 				else
 				{
-					ensemblMapping = new EnsemblMapping(ensp, enst, ensg, null, dbName);
-					mappings.add(ensemblMapping);
+					// No ENSG, so there are no cross-references either.
+					for (String dbName : this.dbNames)
+					{
+						this.writeRow(writer, ensp, enst, NULL, dbName, NULL);
+					}
 				}
 			}
-		}
-		
-		Path pathToOutfile = Paths.get(rootPath + "/ensembl_p2xref_mapping." + speciesID + ".csv");
 
-		StringBuilder sb = new StringBuilder();
-		for (EnsemblMapping mapping : mappings)
-		{
-			sb.append(mapping.getEnsp()).append(",")
-				.append(mapping.getEnst()).append(",")
-				.append(mapping.getEnsg()).append(",")
-				.append(mapping.getCrossReferenceDBName()).append(",")
-				.append(mapping.getCrossReference()).append("\n");
+			// Now join ENSP -> ENST -> ENSG with ENSG -> Xref, on ENSG.
+			Iterator<String> xrefRows = xrefsByEnsg.sortedDistinctLines();
+			String xrefRow = xrefRows.hasNext() ? xrefRows.next() : null;
+			Iterator<String> proteinRows = proteinsByEnsg.sortedDistinctLines();
+			String currentEnsg = null;
+			Map<String, List<String>> xrefsByDb = new LinkedHashMap<String, List<String>>();
+			while (proteinRows.hasNext())
+			{
+				String[] proteinRow = proteinRows.next().split("\t");
+				String ensg = proteinRow[0];
+				if (!ensg.equals(currentEnsg))
+				{
+					// Collect the cross-references of the next ENSG.
+					currentEnsg = ensg;
+					xrefsByDb.clear();
+					while (xrefRow != null && key(xrefRow).compareTo(ensg) < 0)
+					{
+						xrefRow = xrefRows.hasNext() ? xrefRows.next() : null;
+					}
+					while (xrefRow != null && key(xrefRow).equals(ensg))
+					{
+						String[] xrefParts = xrefRow.split("\t");
+						xrefsByDb.computeIfAbsent(xrefParts[1], k -> new ArrayList<String>()).add(xrefParts[2]);
+						xrefRow = xrefRows.hasNext() ? xrefRows.next() : null;
+					}
+				}
+				for (String dbName : this.dbNames)
+				{
+					List<String> xrefs = xrefsByDb.get(dbName);
+					if (xrefs != null)
+					{
+						for (String xref : xrefs)
+						{
+							this.writeRow(writer, proteinRow[2], proteinRow[1], ensg, dbName, xref);
+						}
+					}
+					else
+					{
+						this.writeRow(writer, proteinRow[2], proteinRow[1], ensg, dbName, NULL);
+					}
+				}
+			}
 		}
-		
-		try
+		catch (IOException | TransformerException | XMLStreamException e)
 		{
-			Files.write(pathToOutfile, sb.toString().getBytes(Charset.forName("UTF-8")));
+			throw new Error(e);
 		}
-		catch (IOException e)
+		catch (UncheckedIOException e)
 		{
-			throw new Error(e);
+			throw new Error(e.getCause());
 		}
 	}
 }
-
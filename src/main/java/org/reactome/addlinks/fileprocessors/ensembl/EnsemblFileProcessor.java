@@ -1,117 +1,207 @@
 package org.reactome.addlinks.fileprocessors.ensembl;
 
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.reactome.addlinks.fileprocessors.GlobbedFileProcessor;
 
 public class EnsemblFileProcessor extends GlobbedFileProcessor<Map<String,List<String>>>
 {
+	private static final String RESPONSES_ELEMENT_NAME = "ensemblResponses";
+	private static final String RESPONSE_ELEMENT_NAME = "ensemblResponse";
+	private static final String OPT_ELEMENT_NAME = "opt";
+	private static final String DATA_ELEMENT_NAME = "data";
 
-	//A list of databses to search for in the XML file. 
+	//A list of databses to search for in the XML file.
 	private List<String> dbs;
-	
+
+	// If true, the mappings for each database are also written to a "<file>.<db>.transformed.tsv" file, for debugging.
+	private boolean writeTransformedFiles = false;
+
 	public EnsemblFileProcessor(String processorName)
 	{
 		super(processorName);
 		this.pattern = Pattern.compile("[^.]+\\.\\d+\\.xml");
 	}
-	
+
 	public EnsemblFileProcessor()
 	{
 		super();
 		this.pattern = Pattern.compile("[^.]+\\.\\d+\\.xml");
 	}
 
+	/**
+	 * Extracts the xrefs to all of the databases in one read of the file: each xref (a "data" element in an Ensembl response) whose dbname is one of
+	 * the databases is added to that database's mapping of Ensembl identifiers to identifiers in the other database.
+	 */
 	@Override
-	protected void processFile(Path file, Map<String, Map<String, List<String>>> mapping) throws TransformerFactoryConfigurationError
+	protected void processFile(Path file, Map<String, Map<String, List<String>>> mapping)
 	{
-		TransformerFactory factory = TransformerFactory.newInstance();
-		
-		for (String dbName : dbs)
+		Map<String, Map<String,List<String>>> ensemblToOtherByDb = new HashMap<String, Map<String,List<String>>>();
+		Map<String, int[]> countersByDb = new HashMap<String, int[]>();
+		for (String dbName : this.dbs)
 		{
-			AtomicInteger counter = new AtomicInteger(0);
-			Map<String,List<String>> ensemblToOther = new HashMap<String, List<String>>();
-			logger.info("Extracting data for \"" + dbName + "\" from ENSEMBL-downloaded data; input file is {}", file.toString());
-			try
+			ensemblToOtherByDb.put(dbName, new HashMap<String, List<String>>());
+			countersByDb.put(dbName, new int[1]);
+		}
+		logger.info("Extracting data for {} from ENSEMBL-downloaded data; input file is {}", this.dbs, file.toString());
+		if (Files.exists(file))
+		{
+			Map<String, BufferedWriter> transformedFileWriters = new HashMap<String, BufferedWriter>();
+			try (InputStream inStream = this.openInputStream(file))
 			{
-				//Transform the generated Ensembl output XML into a more usable CSV file.
-				Source source = new StreamSource(this.getClass().getClassLoader().getResourceAsStream("ensembl_transform.xsl"));
-				Transformer transformer = factory.newTransformer(source);
-				logger.debug("processing {} for xrefs to {}", file, dbName);
-				transformer.setParameter("db", dbName);
-				
-				if (Files.exists(this.pathToFile))
+				if (this.writeTransformedFiles)
 				{
-					Source xmlSource = new StreamSource(file.toFile());
-					String outfileName = file.getParent().toString() + "/" + file.getFileName().toString() + "." + dbName + ".transformed.tsv";
-					Result outputTarget =  new StreamResult(new File(outfileName));
-					transformer.transform(xmlSource, outputTarget);
-					logger.info("Building map from generated file: {}",outfileName);
-					//Now we read the file we just created.
-					Files.readAllLines(Paths.get(outfileName)).forEach( line -> {
-						String parts[] = line.split("\t");
-						String ensemblId = parts[0];
-						String otherDbId = parts[1];
-						counter.getAndIncrement();
-						if (ensemblToOther.containsKey(ensemblId))
+					for (String dbName : this.dbs)
+					{
+						transformedFileWriters.put(dbName, Files.newBufferedWriter(file.resolveSibling(file.getFileName().toString() + "." + dbName + ".transformed.tsv")));
+					}
+				}
+				EnsemblFileProcessor.readXrefs(inStream, (ensemblId, dbName, otherDbId) -> {
+					Map<String,List<String>> ensemblToOther = ensemblToOtherByDb.get(dbName);
+					if (ensemblToOther != null)
+					{
+						ensemblToOther.computeIfAbsent(ensemblId, k -> new ArrayList<String>()).add(otherDbId);
+						countersByDb.get(dbName)[0]++;
+						if (this.writeTransformedFiles)
 						{
-							List<String> idList = (ensemblToOther.get(ensemblId));
-							idList.add(otherDbId);
-							ensemblToOther.put(ensemblId, idList );
+							transformedFileWriters.get(dbName).write(ensemblId + "\t" + otherDbId + "\n");
 						}
-						else
+					}
+				});
+			}
+			catch (XMLStreamException e)
+			{
+				logger.error("Parsing error occurred.  File: {} ; Error: : {}", file.toString(), e.getMessage());
+				e.printStackTrace();
+				throw new Error(e);
+			}
+			catch (IOException e)
+			{
+				logger.error("I/O error ocurred. File: {}; Error: {}",file.toString(),e.getMessage());
+				e.printStackTrace();
+				throw new Error(e);
+			}
+			finally
+			{
+				this.closeWriters(transformedFileWriters.values());
+			}
+		}
+		else
+		{
+			logger.warn("File {} does not actually exist.", file);
+		}
+		for (String dbName : this.dbs)
+		{
+			logger.info("Processed {} records for \"{}\".", countersByDb.get(dbName)[0], dbName);
+		}
+		// If an earlier file had xrefs to the same databases, their identifier lists are combined rather than replaced.
+		this.mergeMapping(ensemblToOtherByDb, mapping);
+	}
+
+	/**
+	 * Receives the xrefs that are read from an Ensembl xref file.
+	 */
+	@FunctionalInterface
+	interface XrefConsumer
+	{
+		void accept(String ensemblId, String dbName, String otherDbId) throws IOException;
+	}
+
+	/**
+	 * Reads the xrefs from Ensembl xref XML, as written by EnsemblFileRetriever: each "data" element in an Ensembl response is an xref from
+	 * the response's Ensembl identifier to the data element's primary_id in the database named by its dbname. Xrefs without a primary_id are skipped.
+	 * @param inStream - the XML stream.
+	 * @param xrefConsumer - called with each xref, in the order that they are in the XML.
+	 * @throws XMLStreamException
+	 * @throws IOException If xrefConsumer throws it.
+	 */
+	static void readXrefs(InputStream inStream, XrefConsumer xrefConsumer) throws XMLStreamException, IOException
+	{
+		XMLStreamReader xsr = XMLInputFactory.newInstance().createXMLStreamReader(inStream);
+		try
+		{
+			// The names of the elements that contain the current element, starting with the root element.
+			List<String> elementPath = new ArrayList<String>();
+			String ensemblId = null;
+			while (xsr.hasNext())
+			{
+				int event = xsr.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					elementPath.add(xsr.getLocalName());
+					if (EnsemblFileProcessor.isElementPath(elementPath, RESPONSES_ELEMENT_NAME, RESPONSE_ELEMENT_NAME))
+					{
+						ensemblId = xsr.getAttributeValue(null, "id");
+					}
+					else if (EnsemblFileProcessor.isElementPath(elementPath, RESPONSES_ELEMENT_NAME, RESPONSE_ELEMENT_NAME, OPT_ELEMENT_NAME, DATA_ELEMENT_NAME))
+					{
+						String otherDbId = xsr.getAttributeValue(null, "primary_id");
+						if (otherDbId != null)
 						{
-							List<String> idList = new ArrayList<String>();
-							idList.add(otherDbId);
-							ensemblToOther.put(ensemblId, idList);
+							xrefConsumer.accept(ensemblId, xsr.getAttributeValue(null, "dbname"), otherDbId);
 						}
-					});
+					}
 				}
-				else
+				else if (event == XMLStreamConstants.END_ELEMENT)
 				{
-					logger.warn("File {} does not actually exist.", file);
+					elementPath.remove(elementPath.size() - 1);
 				}
 			}
-			catch (TransformerConfigurationException e)
+		}
+		finally
+		{
+			xsr.close();
+		}
+	}
+
+	/**
+	 * Checks if the current element is at a path.
+	 * @param elementPath - the path of the current element, starting with the root element.
+	 * @param names - the names of the elements in the path, starting with the root element.
+	 * @return true if the current element is at that path.
+	 */
+	private static boolean isElementPath(List<String> elementPath, String... names)
+	{
+		if (elementPath.size() != names.length)
+		{
+			return false;
+		}
+		for (int i = 0; i < names.length; i++)
+		{
+			if (!elementPath.get(i).equals(names[i]))
 			{
-				logger.error("TransformerConfigurationException occurred. File: {} ; Error: : {}", file.toString(), e.getMessage());
-				e.printStackTrace();
-				throw new Error(e);
+				return false;
 			}
-			catch (TransformerException e)
+		}
+		return true;
+	}
+
+	private void closeWriters(Iterable<BufferedWriter> writers)
+	{
+		for (BufferedWriter writer : writers)
+		{
+			try
 			{
-				logger.error("Transformation error occurred.  File: {} ; Error: : {}", file.toString(), e.getMessage());
-				e.printStackTrace();
-				throw new Error(e);
+				writer.close();
 			}
 			catch (IOException e)
 			{
-				logger.error("I/O error ocurred. File: {}; Error: {}",file.toString(),e.getMessage());
-				e.printStackTrace();
-				throw new Error(e);
+				logger.error("Could not close transformed file: {}", e.getMessage());
 			}
-			logger.info("Processed {} records.",counter.get());
-			mapping.put(dbName, ensemblToOther);
 		}
 	}
 
@@ -120,4 +210,14 @@ public class EnsemblFileProcessor extends GlobbedFileProcessor<Map<String,List<S
 		this.dbs = dbs;
 	}
 
+	/**
+	 * Sets whether the mappings for each database are also written to a "&lt;file&gt;.&lt;db&gt;.transformed.tsv" file, next to each processed file.
+	 * These files are not needed to get the mappings, but can be useful for debugging. The default is false.
+	 * @param writeTransformedFiles
+	 */
+	public void setWriteTransformedFiles(boolean writeTransformedFiles)
+	{
+		this.writeTransformedFiles = writeTransformedFiles;
+	}
+
 }
@@ -5,9 +5,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.gk.model.GKInstance;
 import org.gk.model.ReactomeJavaConstants;
@@ -24,6 +28,8 @@ public class EnsemblFileProcessorExecutor
 	
 	private ReferenceObjectCache objectCache;
 	
+	private int parallelism = 1;
+	
 	public EnsemblFileProcessorExecutor(MySQLAdaptor adaptor, ReferenceObjectCache cache)
 	{
 		this.dbAdapter = adaptor;
@@ -54,21 +60,57 @@ public class EnsemblFileProcessorExecutor
 			}
 		}
 		
-		for (String speciesID : species)
+		// Each species is aggregated and processed on its own, so several species can be done at the same time.
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.parallelism, species.size())));
+		try
+		{
+			List<Future<Map<String, Map<String, Map<String, List<String>>>>>> speciesMappings = new ArrayList<>();
+			for (String speciesID : species)
+			{
+				speciesMappings.add(executor.submit(() -> this.processSpecies(speciesID)));
+			}
+			for (Future<Map<String, Map<String, Map<String, List<String>>>>> speciesMapping : speciesMappings)
+			{
+				dbMappings.putAll(speciesMapping.get());
+			}
+		}
+		finally
 		{
-			List<String> dbNames = new ArrayList<String>(Arrays.asList("EntrezGene", "Wormbase"));
-			EnsemblFileAggregator ensemblAggregator = new EnsemblFileAggregator(speciesID, dbNames, PATH_TO_DOWNLOADED_ENSEMBL_FILES);
-			ensemblAggregator.createAggregateFile();
-			
-			EnsemblAggregateFileProcessor aggregateProcessor = new EnsemblAggregateFileProcessor("file-processors/EnsemblAggregateFileProcessor");
-			aggregateProcessor.setPath(Paths.get(PATH_TO_DOWNLOADED_ENSEMBL_FILES+"ensembl_p2xref_mapping."+speciesID+".csv") );
-			aggregateProcessor.setMode(EnsemblAggregateProcessingMode.XREF);
-			Map<String, Map<String, List<String>>> xrefMapping = aggregateProcessor.getIdMappingsFromFile();
-			dbMappings.put("ENSEMBL_XREF_"+speciesID, xrefMapping);
-			
-			aggregateProcessor.setMode(EnsemblAggregateProcessingMode.ENSP_TO_ENSG);
-			Map<String, Map<String, List<String>>> ensp2EnsgMapping = aggregateProcessor.getIdMappingsFromFile();
-			dbMappings.put("ENSEMBL_ENSP_2_ENSG_"+speciesID, ensp2EnsgMapping);
+			executor.shutdownNow();
 		}
 	}
+
+	/**
+	 * Creates the aggregate file for one species, and gets the mappings from it.
+	 * @param speciesID - the species.
+	 * @return The mappings for the species, keyed by the names that they will have in dbMappings.
+	 */
+	private Map<String, Map<String, Map<String, List<String>>>> processSpecies(String speciesID)
+	{
+		List<String> dbNames = new ArrayList<String>(Arrays.asList("EntrezGene", "Wormbase"));
+		EnsemblFileAggregator ensemblAggregator = new EnsemblFileAggregator(speciesID, dbNames, PATH_TO_DOWNLOADED_ENSEMBL_FILES);
+		ensemblAggregator.createAggregateFile();
+
+		Map<String, Map<String, Map<String, List<String>>>> mappings = new HashMap<>();
+		EnsemblAggregateFileProcessor aggregateProcessor = new EnsemblAggregateFileProcessor("file-processors/EnsemblAggregateFileProcessor");
+		aggregateProcessor.setPath(Paths.get(PATH_TO_DOWNLOADED_ENSEMBL_FILES+"ensembl_p2xref_mapping."+speciesID+".csv") );
+		aggregateProcessor.setMode(EnsemblAggregateProcessingMode.XREF);
+		Map<String, Map<String, List<String>>> xrefMapping = aggregateProcessor.getIdMappingsFromFile();
+		mappings.put("ENSEMBL_XREF_"+speciesID, xrefMapping);
+
+		aggregateProcessor.setMode(EnsemblAggregateProcessingMode.ENSP_TO_ENSG);
+		Map<String, Map<String, List<String>>> ensp2EnsgMapping = aggregateProcessor.getIdMappingsFromFile();
+		mappings.put("ENSEMBL_ENSP_2_ENSG_"+speciesID, ensp2EnsgMapping);
+		return mappings;
+	}
+
+	/**
+	 * Sets the maximum number of species whose files are aggregated and processed at the same time.
+	 * The default is 1.
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism)
+	{
+		this.parallelism = parallelism;
+	}
 }
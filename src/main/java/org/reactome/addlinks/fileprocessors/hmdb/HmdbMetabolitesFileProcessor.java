@@ -1,38 +1,29 @@
 package org.reactome.addlinks.fileprocessors.hmdb;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stax.StAXSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 import org.reactome.addlinks.fileprocessors.FileProcessor;
 
 public class HmdbMetabolitesFileProcessor extends FileProcessor<Map<HmdbMetabolitesFileProcessor.HMDBFileMappingKeys, ? extends Collection<String>>>
 {
-	private static final Object METABOLITE_ELEMENT_NAME = "metabolite";
-
+	private static final String METABOLITE_ELEMENT_NAME = "metabolite";
+	private static final String ACCESSION_ELEMENT_NAME = "accession";
+	private static final String CHEBI_ID_ELEMENT_NAME = "chebi_id";
+	private static final String PROTEIN_ASSOCIATIONS_ELEMENT_NAME = "protein_associations";
+	private static final String PROTEIN_ELEMENT_NAME = "protein";
+	private static final String UNIPROT_ID_ELEMENT_NAME = "uniprot_id";
 
 	public HmdbMetabolitesFileProcessor(String processorName)
 	{
@@ -56,126 +47,125 @@ public class HmdbMetabolitesFileProcessor extends FileProcessor<Map<HmdbMetaboli
 	 *  - The values are maps: one key is "UniProt" and will return a list of UniProt IDs that the HMDB Accession maps to. <br/>
 	 *  - The other key is "ChEBI" which is a list of ChEBI IDs (there will never be more than 1 value in this list because there can only be 1 ChEBI in the XML)
 	 *  that the HMDB Accession maps to.
+	 * <br/>
+	 * The XML is read with StAX as it is decompressed, so nothing is extracted to disk.
 	 * @see org.reactome.addlinks.fileprocessors.FileProcessor#getIdMappingsFromFile()
 	 */
 	@Override
 	public Map<String, Map<HmdbMetabolitesFileProcessor.HMDBFileMappingKeys, ? extends Collection<String>>> getIdMappingsFromFile()
 	{
-		try
-		{
-			String dirToHmdbFiles = this.unzipFile(this.pathToFile);
-
-			Map<String, Map<HMDBFileMappingKeys, ? extends Collection<String>>> hmdb2ChebiAndUniprot = new ConcurrentHashMap<String, Map<HMDBFileMappingKeys, ? extends Collection<String>>>();
-
-			// These probably don't need to be atomic anymore since we're no longer processing the "files" in parallel.
-			AtomicInteger fileCounter = new AtomicInteger(0);
-			AtomicInteger totalChEBIMappingCounter = new AtomicInteger(0);
-			AtomicInteger totalUniProtMappingCounter = new AtomicInteger(0);
-
-			TransformerFactory factory = TransformerFactory.newInstance();
-			try
-			{
-				//String dirToFile = this.unzipFile(this.pathToFile);
-				String inputFilename = dirToHmdbFiles + "/" + this.pathToFile.getFileName().toString().replaceAll(".zip", ".xml");
+		Map<String, Map<HMDBFileMappingKeys, ? extends Collection<String>>> hmdb2ChebiAndUniprot = new ConcurrentHashMap<String, Map<HMDBFileMappingKeys, ? extends Collection<String>>>();
+		int[] mappingCounts = new int[HMDBFileMappingKeys.values().length];
 
-				//Transform the HMDB XML into a more usable CSV file.
-				String outfileName = inputFilename + ".transformed.tsv";
-				this.transformXmlToTsv(inputFilename, outfileName);
-
-				//Now we need to read the file.
-				Files.readAllLines(Paths.get(outfileName)).stream().forEach(line ->
-				{
-					String[] parts = line.split("\t");
-					// Map uniprot to accession.
-					Map<HMDBFileMappingKeys, Collection<String>> hmdbVals = new ConcurrentHashMap<HMDBFileMappingKeys, Collection<String>>();
-					if (parts.length >= 2 && parts[1] != null && !parts[1].trim().equals(""))
-					{
-						hmdbVals.put( HMDBFileMappingKeys.CHEBI, Arrays.asList(parts[1]));
-						totalChEBIMappingCounter.incrementAndGet();
-					}
-
-					if (parts.length >= 3 && parts[2] != null && !parts[2].trim().equals(""))
-					{
-						hmdbVals.put( HMDBFileMappingKeys.UNIPROT, Arrays.asList(Arrays.copyOfRange(parts, 2, parts.length - 1)));
-						totalUniProtMappingCounter.addAndGet(parts.length);
-					}
-
-					hmdb2ChebiAndUniprot.put(parts[0], hmdbVals);
-				});
-			}
-			catch (IOException e)
-			{
-				e.printStackTrace();
-				throw new Error(e);
-			}
-			catch (Exception e)
-			{
-				e.printStackTrace();
-				throw new Error(e);
-			}
-
-			logger.debug("\nHMDB Metabolites file processing Summary:"
-						+ "\n\tNumber of ChEBI mappings: {} ;"
-						+ "\n\tNumber of Uniprot mappings: {} ;"
-						+ "\n\tNumber of files processed: {} ;"
-						+ "\n\tNumber of HMDB accessions that have some mapping: {} ;",
-						totalChEBIMappingCounter.get(), totalUniProtMappingCounter.get(), fileCounter.get(), hmdb2ChebiAndUniprot.keySet().size());
-			return hmdb2ChebiAndUniprot;
+		// The XML file is decompressed as it is read.
+		try (InputStream inStream = this.openInputStream(this.pathToFile))
+		{
+			this.extractMappings(inStream, hmdb2ChebiAndUniprot, mappingCounts);
 		}
-		catch (Exception e)
+		catch (IOException | XMLStreamException e)
 		{
 			e.printStackTrace();
+			throw new Error(e);
 		}
-		return null;
-	}
 
+		logger.debug("\nHMDB Metabolites file processing Summary:"
+					+ "\n\tNumber of ChEBI mappings: {} ;"
+					+ "\n\tNumber of Uniprot mappings: {} ;"
+					+ "\n\tNumber of HMDB accessions that have some mapping: {} ;",
+					mappingCounts[HMDBFileMappingKeys.CHEBI.ordinal()], mappingCounts[HMDBFileMappingKeys.UNIPROT.ordinal()], hmdb2ChebiAndUniprot.keySet().size());
+		return hmdb2ChebiAndUniprot;
+	}
 
-	private void transformXmlToTsv(String inputFilename, String outfileName)
+	/**
+	 * Reads the metabolites from an HMDB metabolites XML stream. The mappings come from each metabolite's own accession and chebi_id,
+	 * and the uniprot_id of each protein in its protein_associations. Accessions in other places (such as secondary_accessions) are ignored.
+	 * @param inStream - the XML stream.
+	 * @param hmdb2ChebiAndUniprot - the map that the mappings will be added to.
+	 * @param mappingCounts - the number of mappings of each type that were found will be added to this, indexed by HMDBFileMappingKeys ordinal.
+	 * @throws XMLStreamException
+	 */
+	private void extractMappings(InputStream inStream, Map<String, Map<HMDBFileMappingKeys, ? extends Collection<String>>> hmdb2ChebiAndUniprot, int[] mappingCounts) throws XMLStreamException
 	{
-		System.setProperty("javax.xml.transform.TransformerFactory", "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl");
-		try(OutputStream outStream = new FileOutputStream(outfileName);)
+		XMLStreamReader xsr = XMLInputFactory.newInstance().createXMLStreamReader(inStream);
+		try
 		{
-			XMLInputFactory xif = XMLInputFactory.newInstance();
-			XMLStreamReader xsr = xif.createXMLStreamReader(new FileReader(inputFilename));
-			xsr.nextTag();
-			Source source = new StreamSource(this.getClass().getClassLoader().getResourceAsStream("hmdb_metabolites_transform.xsl"));
-			TransformerFactory factory = TransformerFactory.newInstance();
-			Transformer transformer = factory.newTransformer(source);
-			// While there are start elements...
-			while (xsr.nextTag() == XMLStreamConstants.START_ELEMENT)
+			// The names of the elements that contain the current element, starting with the root element.
+			List<String> elementPath = new ArrayList<>();
+			String accession = null;
+			String chebiID = null;
+			List<String> uniprotIDs = new ArrayList<>();
+			while (xsr.hasNext())
 			{
-				// Check if the current start element is "metabolite" - that's the root element that we will transform.
-				if (xsr.getName().getLocalPart().equals(METABOLITE_ELEMENT_NAME))
+				int event = xsr.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
 				{
-					// Get everything rooted under the "metabolite" element.
-					StAXSource src = new StAXSource(xsr);
-					// get a Result that points to the output file
-					Result result = new StreamResult(outStream);
-					// execute the XSL transform - the transformed output will go to the output file via `result`.
-					transformer.transform(src, result);
+					elementPath.add(xsr.getLocalName());
+					// Only metabolites that are children of the root element are mapped.
+					if (elementPath.size() > 2 && elementPath.get(1).equals(METABOLITE_ELEMENT_NAME))
+					{
+						if (this.isElementPath(elementPath, ACCESSION_ELEMENT_NAME))
+						{
+							accession = xsr.getElementText().trim();
+							elementPath.remove(elementPath.size() - 1);
+						}
+						else if (this.isElementPath(elementPath, CHEBI_ID_ELEMENT_NAME))
+						{
+							chebiID = xsr.getElementText().trim();
+							elementPath.remove(elementPath.size() - 1);
+						}
+						else if (this.isElementPath(elementPath, PROTEIN_ASSOCIATIONS_ELEMENT_NAME, PROTEIN_ELEMENT_NAME, UNIPROT_ID_ELEMENT_NAME))
+						{
+							String uniprotID = xsr.getElementText().trim();
+							if (!uniprotID.isEmpty())
+							{
+								uniprotIDs.add(uniprotID);
+							}
+							elementPath.remove(elementPath.size() - 1);
+						}
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					if (elementPath.size() == 2 && elementPath.get(1).equals(METABOLITE_ELEMENT_NAME) && accession != null && !accession.isEmpty())
+					{
+						Map<HMDBFileMappingKeys, Collection<String>> hmdbVals = new ConcurrentHashMap<HMDBFileMappingKeys, Collection<String>>();
+						if (chebiID != null && !chebiID.isEmpty())
+						{
+							hmdbVals.put(HMDBFileMappingKeys.CHEBI, Arrays.asList(chebiID));
+							mappingCounts[HMDBFileMappingKeys.CHEBI.ordinal()]++;
+						}
+						if (!uniprotIDs.isEmpty())
+						{
+							hmdbVals.put(HMDBFileMappingKeys.UNIPROT, uniprotIDs);
+							mappingCounts[HMDBFileMappingKeys.UNIPROT.ordinal()] += uniprotIDs.size();
+						}
+						hmdb2ChebiAndUniprot.put(accession, hmdbVals);
+					}
+					if (elementPath.size() == 2)
+					{
+						accession = null;
+						chebiID = null;
+						uniprotIDs = new ArrayList<>();
+					}
+					elementPath.remove(elementPath.size() - 1);
 				}
 			}
-			xsr.close();
-		}
-		catch (FileNotFoundException e )
-		{
-			logger.error("Input XML file was not found!", e);
 		}
-		catch (XMLStreamException e)
+		finally
 		{
-			logger.error("Error streaming XML file!", e);
-		}
-		catch (TransformerConfigurationException e)
-		{
-			logger.error("Error with XSL file!", e);
-		}
-		catch (TransformerException e)
-		{
-			logger.error("Data transformation error!", e);
-		}
-		catch (IOException e)
-		{
-			logger.error("I/O Error", e);
+			xsr.close();
 		}
 	}
+
+	/**
+	 * Checks if the current element is at a path below the metabolite element.
+	 * @param elementPath - the path of the current element, starting with the root element.
+	 * @param namesBelowMetabolite - the names of the elements below the metabolite element.
+	 * @return true if the current element is at that path.
+	 */
+	private boolean isElementPath(List<String> elementPath, String... namesBelowMetabolite)
+	{
+		return elementPath.size() == namesBelowMetabolite.length + 2
+				&& elementPath.subList(2, elementPath.size()).equals(Arrays.asList(namesBelowMetabolite));
+	}
 }
@@ -1,25 +1,23 @@
 package org.reactome.addlinks.fileprocessors.hmdb;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.reactome.addlinks.fileprocessors.FileProcessor;
 
 public class HmdbProteinsFileProcessor extends FileProcessor<String>
 {
+	private static final String PROTEIN_ELEMENT_NAME = "protein";
+	private static final String ACCESSION_ELEMENT_NAME = "accession";
+	private static final String UNIPROT_ID_ELEMENT_NAME = "uniprot_id";
+
 	public HmdbProteinsFileProcessor()
 	{
 		super(null);
@@ -30,49 +28,20 @@ public class HmdbProteinsFileProcessor extends FileProcessor<String>
 		super(processorName);
 	}
 
+	/**
+	 * HMDB Proteins look like they're a 1:1 mapping, so this returns a map of UniProt IDs to HMDB accessions.
+	 * The XML is read with StAX as it is decompressed, so nothing is extracted to disk.
+	 */
 	@Override
-	//HMDB Proteins look like they're a 1:1 mapping. this will be a mapping from
 	public Map<String, String> getIdMappingsFromFile()
 	{
 		Map<String, String> accesionToUniprots = new HashMap<String, String>();
-		TransformerFactory factory = TransformerFactory.newInstance();
-		try
-		{
-			String dirToFile = this.unzipFile(this.pathToFile);
-			String inputFilename = dirToFile + "/" + this.pathToFile.getFileName().toString().replaceAll(".zip", ".xml");
-
-			//Transform the OrphaNet XML into a more usable CSV file.
-			Source source = new StreamSource(this.getClass().getClassLoader().getResourceAsStream("hmdb_protein_transform.xsl"));
-			Transformer transformer = factory.newTransformer(source);
-			Source xmlSource = new StreamSource(inputFilename);
-			String outfileName = inputFilename + ".transformed.tsv";
-			Result outputTarget =  new StreamResult(new File(outfileName));
-			transformer.transform(xmlSource, outputTarget);
-
-			//Now we need to read the file.
-			Files.readAllLines(Paths.get(outfileName)).stream().forEach(line ->
-			{
-				String[] parts = line.split("\t");
-				// Map uniprot to accession.
-				accesionToUniprots.put(parts[1], parts[0]);
-			});
-		}
-		catch (TransformerConfigurationException e)
+		// The XML file is decompressed as it is read.
+		try (InputStream inStream = this.openInputStream(this.pathToFile))
 		{
-			e.printStackTrace();
-			throw new Error(e);
-		}
-		catch (TransformerException e)
-		{
-			e.printStackTrace();
-			throw new Error(e);
+			this.extractMappings(inStream, accesionToUniprots);
 		}
-		catch (IOException e)
-		{
-			e.printStackTrace();
-			throw new Error(e);
-		}
-		catch (Exception e)
+		catch (IOException | XMLStreamException e)
 		{
 			e.printStackTrace();
 			throw new Error(e);
@@ -82,4 +51,64 @@ public class HmdbProteinsFileProcessor extends FileProcessor<String>
 		return accesionToUniprots;
 	}
 
+	/**
+	 * Reads the proteins from an HMDB proteins XML stream. Only a protein's own accession and uniprot_id are used: proteins without a uniprot_id are skipped,
+	 * and accessions in other places (such as a protein's metabolite_associations) are ignored.
+	 * @param inStream - the XML stream.
+	 * @param accesionToUniprots - the map that the UniProt ID to HMDB accession mappings will be added to.
+	 * @throws XMLStreamException
+	 */
+	private void extractMappings(InputStream inStream, Map<String, String> accesionToUniprots) throws XMLStreamException
+	{
+		XMLStreamReader xsr = XMLInputFactory.newInstance().createXMLStreamReader(inStream);
+		try
+		{
+			// The root element is at depth 1, so the proteins are at depth 2 and their attributes are at depth 3.
+			int depth = 0;
+			boolean inProtein = false;
+			String accession = null;
+			String uniprotID = null;
+			while (xsr.hasNext())
+			{
+				int event = xsr.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+				{
+					depth++;
+					if (depth == 2)
+					{
+						inProtein = xsr.getLocalName().equals(PROTEIN_ELEMENT_NAME);
+					}
+					else if (depth == 3 && inProtein && xsr.getLocalName().equals(ACCESSION_ELEMENT_NAME))
+					{
+						accession = xsr.getElementText().trim();
+						depth--;
+					}
+					else if (depth == 3 && inProtein && xsr.getLocalName().equals(UNIPROT_ID_ELEMENT_NAME))
+					{
+						uniprotID = xsr.getElementText().trim();
+						depth--;
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT)
+				{
+					if (depth == 2)
+					{
+						if (inProtein && accession != null && !accession.isEmpty() && uniprotID != null && !uniprotID.isEmpty())
+						{
+							// Map uniprot to accession.
+							accesionToUniprots.put(uniprotID, accession);
+						}
+						inProtein = false;
+						accession = null;
+						uniprotID = null;
+					}
+					depth--;
+				}
+			}
+		}
+		finally
+		{
+			xsr.close();
+		}
+	}
 }
@@ -1,8 +1,7 @@
 package org.reactome.addlinks.fileprocessors.zinc;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -27,10 +26,10 @@ public class ZincMoleculesFileProcessor extends FileProcessor<List<String>>
 	public Map<String, List<String>> getIdMappingsFromFile()
 	{
 		Map<String, List<String>> chebiToZincMapping = new HashMap<String, List<String>>() ;
-		try
+		// The file is decompressed as it is read.
+		try (BufferedReader reader = this.openReader(this.pathToFile))
 		{
-			String pathToUnzippedFile = this.unzipFile(this.pathToFile);
-			Files.readAllLines(Paths.get(pathToUnzippedFile)).stream()
+			reader.lines()
 				// Filter so that only ChEBI lines are processed.
 				.filter(line -> line.matches("CHEBI:\\d+\\tZINC.*"))
 				.forEach( line ->
@@ -55,10 +54,6 @@ public class ZincMoleculesFileProcessor extends FileProcessor<List<String>>
 		{
 			e.printStackTrace();
 		}
-		catch (Exception e)
-		{
-			e.printStackTrace();
-		}
 		logger.info("Number of ChEBI IDs in mapping: {}", chebiToZincMapping.size());
 		return chebiToZincMapping;
 	}
@@ -12,8 +12,6 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -50,8 +48,7 @@ public class AddLinksHttpClient
 			get.setConfig(config);
 			Duration responseTime = Duration.ZERO;
 			long startTime = System.currentTimeMillis();
-			try( CloseableHttpClient client = HttpClients.createDefault();
-				CloseableHttpResponse response = client.execute(get,  HttpClientContext.create()); )
+			try( CloseableHttpResponse response = SharedHttpClient.getClient().execute(get,  HttpClientContext.create()); )
 			{
 				long endtime = System.currentTimeMillis();
 				responseTime = Duration.ofMillis(endtime - startTime);
@@ -0,0 +1,334 @@
+package org.reactome.addlinks.http.client;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A token-bucket rate limiter for requests to a single host. Every component that sends requests to a host shares that host's limiter,
+ * which is obtained with HostRateLimiter.forHost or HostRateLimiter.forURI.
+ * <br/>
+ * Call acquire() before sending a request, and pass the response to onResponse(). The rate adapts to the host:
+ * <ul>
+ * <li>Each successful response increases the rate a little, up to the maximum rate.</li>
+ * <li>A 429 (Too Many Requests) response halves the rate, and pauses all requests to the host for the time given
+ * by the Retry-After header, or for a backoff period if there is no Retry-After header. Some hosts (such as KEGG) respond with 403 (Forbidden)
+ * when they get too many requests; 403 is treated the same way for those hosts only (see setForbiddenMeansThrottled).</li>
+ * <li>A 503 (Service Unavailable) response with a Retry-After header pauses all requests to the host.</li>
+ * <li>X-RateLimit-Limit and X-RateLimit-Period headers cap the rate at the host's advertised limit. An X-RateLimit-Remaining header of 0 pauses
+ * requests until the time given by X-RateLimit-Reset.</li>
+ * </ul>
+ */
+public class HostRateLimiter
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final Map<String, HostRateLimiter> limiters = new ConcurrentHashMap<>();
+
+	private static double defaultInitialRate = 5.0;
+	private static double defaultMaxRate = 20.0;
+
+	// The rate is never reduced below this, so that a host that keeps throttling us is still eventually retried.
+	static final double MIN_RATE = 0.1;
+	// Each successful response increases the rate by this fraction.
+	static final double INCREASE_FACTOR = 0.02;
+	// Backoff period for a throttling response without a Retry-After header. Doubles (up to MAX_BACKOFF) on each consecutive throttling response.
+	static final Duration INITIAL_BACKOFF = Duration.ofSeconds(2);
+	static final Duration MAX_BACKOFF = Duration.ofMinutes(2);
+	// Retry-After and X-RateLimit-Reset values larger than this are assumed to be epoch seconds rather than a number of seconds.
+	private static final long EPOCH_SECONDS_THRESHOLD = 1_000_000_000L;
+
+	private final String host;
+	private double rate;
+	private double maxRate;
+	private double tokens;
+	private long lastRefillNanos;
+	private long pausedUntilNanos;
+	private Duration backoff = INITIAL_BACKOFF;
+	private boolean forbiddenMeansThrottled = false;
+
+	HostRateLimiter(String host, double initialRate, double maxRate)
+	{
+		this.host = host;
+		this.maxRate = Math.max(maxRate, MIN_RATE);
+		this.rate = Math.min(Math.max(initialRate, MIN_RATE), this.maxRate);
+		this.tokens = 1;
+		this.lastRefillNanos = System.nanoTime();
+		this.pausedUntilNanos = this.lastRefillNanos;
+	}
+
+	/**
+	 * Sets the rates used for hosts that do not have a limiter yet.
+	 * @param initialRate - the number of requests per second that will be sent to a host before it has been adapted to.
+	 * @param maxRate - the maximum number of requests per second that will be sent to a host.
+	 */
+	public static synchronized void setDefaultRates(double initialRate, double maxRate)
+	{
+		HostRateLimiter.defaultInitialRate = initialRate;
+		HostRateLimiter.defaultMaxRate = maxRate;
+	}
+
+	/**
+	 * Gets the limiter for a host, creating it if necessary.
+	 * @param host - the host name.
+	 * @return The host's limiter.
+	 */
+	public static HostRateLimiter forHost(String host)
+	{
+		String key = host == null ? "" : host.toLowerCase();
+		return limiters.computeIfAbsent(key, h -> new HostRateLimiter(h, HostRateLimiter.defaultInitialRate, HostRateLimiter.defaultMaxRate));
+	}
+
+	/**
+	 * Gets the limiter for the host of a URI, creating it if necessary.
+	 * @param uri - the URI.
+	 * @return The limiter for the URI's host.
+	 */
+	public static HostRateLimiter forURI(URI uri)
+	{
+		return forHost(uri.getHost());
+	}
+
+	/**
+	 * Waits until a request can be sent to the host.
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException
+	{
+		while (true)
+		{
+			long waitNanos;
+			synchronized (this)
+			{
+				long now = System.nanoTime();
+				if (now - this.pausedUntilNanos < 0)
+				{
+					waitNanos = this.pausedUntilNanos - now;
+				}
+				else
+				{
+					this.refill(now);
+					if (this.tokens >= 1)
+					{
+						this.tokens -= 1;
+						return;
+					}
+					waitNanos = (long) ((1 - this.tokens) / this.rate * TimeUnit.SECONDS.toNanos(1));
+				}
+			}
+			TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1));
+		}
+	}
+
+	/**
+	 * Adapts the rate to a response from the host. A 403 (Forbidden) response is only treated as throttling if this host has been set up that way.
+	 * @param response - the response.
+	 */
+	public void onResponse(HttpResponse response)
+	{
+		this.onResponse(response, this.isForbiddenMeansThrottled());
+	}
+
+	/**
+	 * Adapts the rate to a response from the host.
+	 * @param response - the response.
+	 * @param forbiddenMeansThrottled - if true, a 403 (Forbidden) response is treated as throttling. Components whose requests can be
+	 * legitimately refused (such as link-checking) should pass false.
+	 */
+	public void onResponse(HttpResponse response, boolean forbiddenMeansThrottled)
+	{
+		int statusCode = response.getStatusLine().getStatusCode();
+		this.adaptToLimitHeaders(headerValue(response, "X-RateLimit-Limit"), headerValue(response, "X-RateLimit-Period"),
+								headerValue(response, "X-RateLimit-Remaining"), headerValue(response, "X-RateLimit-Reset"));
+
+		Duration retryAfter = parseRetryAfter(headerValue(response, "Retry-After"));
+		if (statusCode == HttpStatus.SC_TOO_MANY_REQUESTS || (statusCode == HttpStatus.SC_FORBIDDEN && forbiddenMeansThrottled))
+		{
+			this.onThrottled(retryAfter);
+		}
+		else if (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE && retryAfter != null)
+		{
+			this.pause(retryAfter);
+		}
+		else if (statusCode < HttpStatus.SC_BAD_REQUEST)
+		{
+			this.onSuccess();
+		}
+	}
+
+	/**
+	 * Records that a request succeeded, slightly increasing the rate.
+	 */
+	public synchronized void onSuccess()
+	{
+		this.refill(System.nanoTime());
+		this.rate = Math.min(this.maxRate, this.rate * (1 + INCREASE_FACTOR));
+		this.backoff = INITIAL_BACKOFF;
+	}
+
+	/**
+	 * Records that the host throttled a request: halves the rate, and pauses requests to the host.
+	 * @param retryAfter - how long the host asked us to wait, or null if it did not say. If null, requests are paused for a backoff period
+	 * that doubles on each consecutive throttling response.
+	 */
+	public synchronized void onThrottled(Duration retryAfter)
+	{
+		this.refill(System.nanoTime());
+		this.rate = Math.max(MIN_RATE, this.rate / 2);
+		Duration pause = retryAfter;
+		if (pause == null)
+		{
+			pause = this.backoff;
+			this.backoff = this.backoff.multipliedBy(2).compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : this.backoff.multipliedBy(2);
+		}
+		logger.info("Requests to {} were throttled. Rate reduced to {} requests/second; pausing for {}", this.host, String.format("%.2f", this.rate), pause);
+		this.pause(pause);
+	}
+
+	/**
+	 * Pauses all requests to the host. If the host is already paused for longer, this has no effect.
+	 * @param duration - how long to pause for.
+	 */
+	public synchronized void pause(Duration duration)
+	{
+		long until = System.nanoTime() + duration.toNanos();
+		if (until - this.pausedUntilNanos > 0)
+		{
+			this.pausedUntilNanos = until;
+			// No tokens accumulate while paused, so that requests don't all burst out as soon as the pause ends.
+			this.tokens = 0;
+			this.lastRefillNanos = until;
+		}
+	}
+
+	/**
+	 * Sets the maximum rate for this host, for hosts that publish a limit of their own. The current rate is reduced if it is above the new maximum.
+	 * @param maxRate - the maximum number of requests per second that will be sent to the host.
+	 */
+	public synchronized void setMaxRate(double maxRate)
+	{
+		this.refill(System.nanoTime());
+		this.maxRate = Math.max(maxRate, MIN_RATE);
+		this.rate = Math.min(this.rate, this.maxRate);
+	}
+
+	/**
+	 * Sets whether this host responds with 403 (Forbidden) when it gets too many requests, so that onResponse treats 403 as throttling.
+	 * For other hosts, a 403 response is just a refused request.
+	 * @param forbiddenMeansThrottled - true if 403 means that the host is throttling requests.
+	 */
+	public synchronized void setForbiddenMeansThrottled(boolean forbiddenMeansThrottled)
+	{
+		this.forbiddenMeansThrottled = forbiddenMeansThrottled;
+	}
+
+	/**
+	 * @return true if a 403 (Forbidden) response from this host is treated as throttling.
+	 */
+	public synchronized boolean isForbiddenMeansThrottled()
+	{
+		return this.forbiddenMeansThrottled;
+	}
+
+	/**
+	 * @return The current rate, in requests per second.
+	 */
+	public synchronized double getRate()
+	{
+		return this.rate;
+	}
+
+	/**
+	 * @return The maximum rate, in requests per second.
+	 */
+	public synchronized double getMaxRate()
+	{
+		return this.maxRate;
+	}
+
+	synchronized void adaptToLimitHeaders(String limit, String period, String remaining, String reset)
+	{
+		try
+		{
+			if (limit != null && period != null)
+			{
+				double advertisedRate = Double.parseDouble(limit.trim()) / Double.parseDouble(period.trim());
+				if (advertisedRate > 0 && advertisedRate < this.maxRate)
+				{
+					logger.debug("{} allows {} requests per {} seconds; maximum rate is now {} requests/second", this.host, limit, period, advertisedRate);
+					this.maxRate = Math.max(advertisedRate, MIN_RATE);
+					this.rate = Math.min(this.rate, this.maxRate);
+				}
+			}
+			if (remaining != null && Long.parseLong(remaining.trim()) <= 0)
+			{
+				Duration untilReset = reset != null ? parseSecondsOrEpoch(reset.trim()) : this.backoff;
+				logger.info("No requests remaining for {} in the current rate-limit period; pausing for {}", this.host, untilReset);
+				this.pause(untilReset);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			logger.debug("Could not parse rate-limit headers from {}: {}", this.host, e.getMessage());
+		}
+	}
+
+	private void refill(long now)
+	{
+		if (now - this.lastRefillNanos > 0)
+		{
+			// Allow a burst of up to one second's worth of requests.
+			double capacity = Math.max(1, this.rate);
+			this.tokens = Math.min(capacity, this.tokens + (now - this.lastRefillNanos) * this.rate / TimeUnit.SECONDS.toNanos(1));
+			this.lastRefillNanos = now;
+		}
+	}
+
+	/**
+	 * Parses a Retry-After header value, which can be a number of seconds or an HTTP date.
+	 * @param value - the header value.
+	 * @return How long to wait, or null if the value is null or could not be parsed.
+	 */
+	static Duration parseRetryAfter(String value)
+	{
+		if (value == null || value.trim().isEmpty())
+		{
+			return null;
+		}
+		try
+		{
+			return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+		}
+		catch (NumberFormatException e)
+		{
+			Date date = DateUtils.parseDate(value.trim());
+			return date != null ? Duration.ofMillis(Math.max(0, date.getTime() - System.currentTimeMillis())) : null;
+		}
+	}
+
+	private static Duration parseSecondsOrEpoch(String value)
+	{
+		long seconds = Long.parseLong(value);
+		if (seconds > EPOCH_SECONDS_THRESHOLD)
+		{
+			seconds -= System.currentTimeMillis() / 1000;
+		}
+		return Duration.ofSeconds(Math.max(0, seconds));
+	}
+
+	private static String headerValue(HttpResponse response, String headerName)
+	{
+		Header header = response.getFirstHeader(headerName);
+		return header != null ? header.getValue() : null;
+	}
+}
@@ -0,0 +1,143 @@
+package org.reactome.addlinks.http.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A single HttpClient that is shared by everything in AddLinks that makes HTTP requests, so that connections (and TLS sessions) are pooled
+ * and reused instead of being set up again for every request.
+ * <br/>
+ * The client is created with default settings the first time it is requested, unless it has already been configured (see the "sharedHttpClient" bean in the Spring contexts).
+ * Callers must <b>not</b> close the client, but they must close (or fully consume) every response so that its connection is returned to the pool.
+ */
+public class SharedHttpClient
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	private static final int DEFAULT_MAX_CONNECTIONS = 100;
+	private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+	private static final int DEFAULT_KEEP_ALIVE_SECONDS = 30;
+	// Connections that have been idle for longer than this are checked before they are reused, since the server might have closed them.
+	private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+
+	private static volatile CloseableHttpClient client;
+	private static PoolingHttpClientConnectionManager connectionManager;
+
+	private SharedHttpClient()
+	{
+		// static utility class
+	}
+
+	/**
+	 * Configures the shared client. If a client has already been created, it is closed and replaced.
+	 * @param maxConnections - the maximum number of open connections, across all hosts.
+	 * @param maxConnectionsPerHost - the maximum number of open connections to any one host.
+	 * @param keepAliveSeconds - how long an idle connection is kept open, if the server does not say how long to keep it.
+	 */
+	public static synchronized void configure(int maxConnections, int maxConnectionsPerHost, int keepAliveSeconds)
+	{
+		if (client != null)
+		{
+			close();
+		}
+		createClient(maxConnections, maxConnectionsPerHost, keepAliveSeconds);
+	}
+
+	/**
+	 * Gets the shared client, creating it with default settings if it has not been configured.
+	 * @return The shared client. Do not close it.
+	 */
+	public static CloseableHttpClient getClient()
+	{
+		if (client == null)
+		{
+			synchronized (SharedHttpClient.class)
+			{
+				if (client == null)
+				{
+					createClient(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE_SECONDS);
+				}
+			}
+		}
+		return client;
+	}
+
+	/**
+	 * Closes the shared client and all of its pooled connections. The next call to getClient will create a new client.
+	 */
+	public static synchronized void close()
+	{
+		if (client != null)
+		{
+			try
+			{
+				client.close();
+			}
+			catch (IOException e)
+			{
+				logger.warn("Error while closing the shared HTTP client: {}", e.getMessage());
+			}
+			client = null;
+			connectionManager = null;
+		}
+	}
+
+	/**
+	 * Gets the statistics of the connection pool, for logging.
+	 * @return A description of the number of leased, pending and available connections, or an empty string if there is no client.
+	 */
+	public static synchronized String getPoolStats()
+	{
+		return connectionManager != null ? connectionManager.getTotalStats().toString() : "";
+	}
+
+	private static void createClient(int maxConnections, int maxConnectionsPerHost, int keepAliveSeconds)
+	{
+		PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager();
+		manager.setMaxTotal(maxConnections);
+		manager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+		manager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+		// Use the server's Keep-Alive timeout if it sends one, otherwise keep connections for keepAliveSeconds.
+		ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+			HeaderElementIterator iterator = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+			while (iterator.hasNext())
+			{
+				HeaderElement element = iterator.nextElement();
+				if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null)
+				{
+					try
+					{
+						return Math.min(Long.parseLong(element.getValue()), keepAliveSeconds) * 1000L;
+					}
+					catch (NumberFormatException e)
+					{
+						// ignore it, and use the default.
+					}
+				}
+			}
+			return keepAliveSeconds * 1000L;
+		};
+
+		// HttpClients.custom() already requests and decodes gzip/deflate-compressed responses, so compression is not configured here.
+		client = HttpClients.custom()
+							.setConnectionManager(manager)
+							.setKeepAliveStrategy(keepAliveStrategy)
+							.evictExpiredConnections()
+							.evictIdleConnections(keepAliveSeconds, TimeUnit.SECONDS)
+							.build();
+		connectionManager = manager;
+		logger.info("Created shared HTTP client with up to {} connections ({} per host), keep-alive {} seconds", maxConnections, maxConnectionsPerHost, keepAliveSeconds);
+	}
+}
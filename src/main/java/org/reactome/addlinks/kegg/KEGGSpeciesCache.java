@@ -15,11 +15,10 @@ import java.util.stream.Collectors;
 
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.reactome.addlinks.http.client.SharedHttpClient;
 
 public final class KEGGSpeciesCache
 {
@@ -51,8 +50,7 @@ public final class KEGGSpeciesCache
 			HttpGet get = new HttpGet(uri );
 			//Need to multiply by 1000 because timeouts are in milliseconds.
 			//RequestConfig config = RequestConfig.copy(RequestConfig.DEFAULT).build();
-			try( CloseableHttpClient client = HttpClients.createDefault();
-				CloseableHttpResponse response = client.execute(get) )
+			try( CloseableHttpResponse response = SharedHttpClient.getClient().execute(get) )
 			{
 				logger.info("Response: {}",response.getStatusLine());
 				String s = EntityUtils.toString(response.getEntity());
@@ -1,15 +1,21 @@
 package org.reactome.addlinks.linkchecking;
 
-import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.http.conn.HttpHostConnectException;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.gk.model.GKInstance;
@@ -26,6 +32,34 @@ public class LinkCheckManager implements CustomLoggable
 	private static Logger logger ;
 	private MySQLAdaptor dbAdaptor;
 
+	// Each host gets its own small pool of threads for link-checking, so that a slow host can't hold up the link-checks for other hosts,
+	// and no host gets more than maxConcurrentChecksPerHost requests at a time. Idle threads time out, so finished hosts don't keep threads around.
+	private static final Map<String, ExecutorService> hostExecutors = new ConcurrentHashMap<>();
+	private static int maxConcurrentChecksPerHost = 4;
+	private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+	/**
+	 * A link that is ready to be checked. Everything that needs to be read from the database is read when this is created, so that the link-check
+	 * itself (which happens on another thread) does not use the database adaptor.
+	 */
+	private static class PendingLinkCheck
+	{
+		private final URI uri;
+		private final String identifier;
+		private final String identifierDBID;
+		private final String refDBID;
+		private final String referenceDatabaseName;
+
+		PendingLinkCheck(URI uri, String identifier, String identifierDBID, String refDBID, String referenceDatabaseName)
+		{
+			this.uri = uri;
+			this.identifier = identifier;
+			this.identifierDBID = identifierDBID;
+			this.refDBID = refDBID;
+			this.referenceDatabaseName = referenceDatabaseName;
+		}
+	}
+
 	public LinkCheckManager()
 	{
 		if (LinkCheckManager.logger  == null)
@@ -39,6 +73,15 @@ public class LinkCheckManager implements CustomLoggable
 		this.dbAdaptor = adaptor;
 	}
 
+	/**
+	 * Sets the maximum number of links that will be checked at the same time on any one host. This only affects hosts that have not been checked yet.
+	 * @param maxConcurrentChecksPerHost - the maximum number of concurrent link-checks per host.
+	 */
+	public static synchronized void setMaxConcurrentChecksPerHost(int maxConcurrentChecksPerHost)
+	{
+		LinkCheckManager.maxConcurrentChecksPerHost = Math.max(1, maxConcurrentChecksPerHost);
+	}
+
 	/**
 	 * Takes in a list of instances that have Identifier attributes and checks them as links.
 	 * @param refDBInst - This accessURL of refDBInst will be used to generate the links that will be checked.
@@ -50,6 +93,18 @@ public class LinkCheckManager implements CustomLoggable
 	 * @throws IllegalArgumentException This exception is thrown if proportionToCheck or maxToCheck are less than zero, or proportionToCheck is greater than 1.0.
 	 */
 	public Map<String, LinkCheckInfo> checkLinks(GKInstance refDBInst, List<GKInstance> instances, float proportionToCheck, int maxToCheck) throws IllegalArgumentException
+	{
+		return this.checkLinksAsync(refDBInst, instances, proportionToCheck, maxToCheck).join();
+	}
+
+	/**
+	 * Like {@link #checkLinks(GKInstance, List, float, int)}, but returns as soon as the links have been submitted for checking.
+	 * The instances are read (and the links to check are chosen) before this method returns, so the caller is free to use the database adaptor
+	 * while the links are being checked.
+	 * @return A future for the map of results. The key is the identifier, the value is a LinkCheckInfo object, {@link org.reactome.addlinks.linkchecking.LinkCheckInfo}
+	 * @throws IllegalArgumentException This exception is thrown if proportionToCheck or maxToCheck are less than zero, or proportionToCheck is greater than 1.0.
+	 */
+	public CompletableFuture<Map<String, LinkCheckInfo>> checkLinksAsync(GKInstance refDBInst, List<GKInstance> instances, float proportionToCheck, int maxToCheck) throws IllegalArgumentException
 	{
 		if (proportionToCheck < 0.0)
 		{
@@ -64,7 +119,7 @@ public class LinkCheckManager implements CustomLoggable
 			throw new IllegalArgumentException("\"maxToCheck\" cannot be negative.");
 		}
 
-		Map<String, LinkCheckInfo> linkCheckResults = Collections.synchronizedMap( new HashMap<String, LinkCheckInfo>(instances.size()) );
+		Map<String, LinkCheckInfo> linkCheckResults = new ConcurrentHashMap<>(instances.size());
 
 		int numberOfInstancesToCheck ;
 		if (instances.size() < maxToCheck)
@@ -83,43 +138,47 @@ public class LinkCheckManager implements CustomLoggable
 				refDBInst, proportionToCheck, maxToCheck, instances.size(), proportionToCheck , instances.size(), (int)(instances.size() * proportionToCheck), instancesToCheck.size());
 
 		String refDBID = refDBInst.getDBID().toString();
-		instancesToCheck.parallelStream().forEach( inst -> {
-			try
-			{
-				String identifierString = (String) inst.getAttributeValue(ReactomeJavaConstants.identifier);
-				//get the reference DB from the database (if it's not in local cache)
-				String accessURL = ((String)refDBInst.getAttributeValue(ReactomeJavaConstants.accessUrl));
-				accessURL = LinkCheckManager.tweakIfZinc(refDBInst);
-				String referenceDatabaseName = refDBInst.getDisplayName();
-
-				LinkCheckManager.checkTheLink(linkCheckResults, refDBID, inst, identifierString, accessURL, referenceDatabaseName);
-			}
-			catch (URISyntaxException e)
-			{
-				e.printStackTrace();
-			}
-			catch (InterruptedException r)
-			{
-				r.printStackTrace();
-			}
-			catch (HttpHostConnectException e)
-			{
-				e.printStackTrace();
-			}
-			catch (IOException e)
-			{
-				e.printStackTrace();
-			}
-			catch (InvalidAttributeException e)
-			{
-				e.printStackTrace();
-			}
-			catch (Exception e)
+		List<CompletableFuture<Void>> linkChecks = new ArrayList<>(instancesToCheck.size());
+		try
+		{
+			String accessURL = LinkCheckManager.tweakIfZinc(refDBInst);
+			String referenceDatabaseName = refDBInst.getDisplayName();
+			for (GKInstance inst : instancesToCheck)
 			{
-				e.printStackTrace();
+				try
+				{
+					String identifierString = (String) inst.getAttributeValue(ReactomeJavaConstants.identifier);
+					PendingLinkCheck pendingLinkCheck = LinkCheckManager.prepareLinkCheck(refDBID, inst, identifierString, accessURL, referenceDatabaseName);
+					if (pendingLinkCheck != null)
+					{
+						linkChecks.add(LinkCheckManager.submitLinkCheck(pendingLinkCheck, linkCheckResults)
+											.exceptionally(e -> {
+												// A failed link-check is logged, but does not stop the other link-checks.
+												logger.error("Error while checking link {}: {}", pendingLinkCheck.uri, e.getMessage());
+												e.printStackTrace();
+												return null;
+											}));
+					}
+				}
+				catch (URISyntaxException e)
+				{
+					e.printStackTrace();
+				}
+				catch (InvalidAttributeException e)
+				{
+					e.printStackTrace();
+				}
+				catch (Exception e)
+				{
+					e.printStackTrace();
+				}
 			}
-		});
-		return linkCheckResults;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		return CompletableFuture.allOf(linkChecks.toArray(new CompletableFuture<?>[0])).thenApply(v -> linkCheckResults);
 	}
 
 	/**
@@ -155,16 +214,14 @@ public class LinkCheckManager implements CustomLoggable
 		Map<String, GKInstance> refDBCache = new HashMap<>();
 
 		// This map stores results, keyed by DB_ID of the objects.
-		Map<String, LinkCheckInfo> linkCheckResults = Collections.synchronizedMap( new HashMap<String, LinkCheckInfo>(instances.size()) );
+		Map<String, LinkCheckInfo> linkCheckResults = new ConcurrentHashMap<>(instances.size());
+		List<CompletableFuture<Void>> linkChecks = new ArrayList<>(instances.size());
 
-		//for (GKInstance inst : instances)
-		instances.parallelStream().forEach( inst ->
+		for (GKInstance inst : instances)
 		{
 			// checking a link is more than just a true/false - the status code needs
 			// to be taken into account too. And we could track other things such as number of
 			// retries, and time to get the response.
-			// Maybe we should pass a call-back function to the link-checker
-			// to be called when the link-checker has gotten a response.
 
 			try
 			{
@@ -181,26 +238,41 @@ public class LinkCheckManager implements CustomLoggable
 				{
 					refDBInstance = refDBCache.get(refDBID);
 				}
-				logger.debug(refDBCache.get(refDBID));
+				logger.debug(refDBInstance);
 				//get the reference DB from the database (if it's not in local cache)
-				String accessURL = ((String)refDBCache.get(refDBID).getAttributeValue("accessUrl"));
-				accessURL = LinkCheckManager.tweakIfZinc(refDBInstance);
-				String referenceDatabaseName = ((String)refDBCache.get(refDBID).getDisplayName());
+				String accessURL = LinkCheckManager.tweakIfZinc(refDBInstance);
+				String referenceDatabaseName = refDBInstance.getDisplayName();
 
-				LinkCheckManager.checkTheLink(linkCheckResults, refDBID, inst, identifierString, accessURL, referenceDatabaseName);
+				PendingLinkCheck pendingLinkCheck = LinkCheckManager.prepareLinkCheck(refDBID, inst, identifierString, accessURL, referenceDatabaseName);
+				if (pendingLinkCheck != null)
+				{
+					linkChecks.add(LinkCheckManager.submitLinkCheck(pendingLinkCheck, linkCheckResults));
+				}
 			}
 			catch (Exception e)
 			{
 				e.printStackTrace();
 				throw new Error(e);
 			}
-
-		});
+		}
+		try
+		{
+			CompletableFuture.allOf(linkChecks.toArray(new CompletableFuture<?>[0])).join();
+		}
+		catch (CompletionException e)
+		{
+			e.printStackTrace();
+			throw new Error(e.getCause());
+		}
 		return linkCheckResults;
 	}
 
-	private static void checkTheLink(Map<String, LinkCheckInfo> linkCheckResults, String refDBID, GKInstance inst, String identifierString, String accessURL, String referenceDatabaseName)
-			throws URISyntaxException, HttpHostConnectException, IOException, Exception, InterruptedException
+	/**
+	 * Creates the link to check for an identifier.
+	 * @return The link to check, or null if the ReferenceDatabase's accessURL can't be used to create a link.
+	 * @throws URISyntaxException
+	 */
+	private static PendingLinkCheck prepareLinkCheck(String refDBID, GKInstance inst, String identifierString, String accessURL, String referenceDatabaseName) throws URISyntaxException
 	{
 		// Some ReferenceDatabases that are added by Curators do not have an Identifer Token (the string: "###ID###".)
 		// Normally, we don't create references for these databases so we normally do not check links for these databases. BUT...
@@ -213,27 +285,64 @@ public class LinkCheckManager implements CustomLoggable
 		if (!accessURL.contains(IDENTIFIER_TOKEN))
 		{
 			logger.warn("Access URL ({}) for ReferenceDatabase \"{}\" does not contain an ID token that can be replaced! Link checking cannot proceed!", accessURL, referenceDatabaseName);
+			return null;
 		}
-		else
-		{
-			URI uri = new URI(  accessURL.replace(IDENTIFIER_TOKEN, identifierString) );
-			LinkChecker checker = new LinkChecker(uri, identifierString);
-			LinkCheckInfo info = checker.checkLink();
-			if (!(info.isKeywordFound() && info.getStatusCode() == 200))
+		URI uri = new URI(  accessURL.replace(IDENTIFIER_TOKEN, identifierString) );
+		return new PendingLinkCheck(uri, identifierString, inst.getDBID().toString(), refDBID, referenceDatabaseName);
+	}
+
+	/**
+	 * Checks a link on its host's link-checking threads.
+	 * @param pendingLinkCheck - the link to check.
+	 * @param linkCheckResults - the result will be added to this map, keyed by the DB_ID of the instance that contains the identifier.
+	 * @return A future that completes when the link has been checked.
+	 */
+	private static CompletableFuture<Void> submitLinkCheck(PendingLinkCheck pendingLinkCheck, Map<String, LinkCheckInfo> linkCheckResults)
+	{
+		return CompletableFuture.runAsync(() -> {
+			try
 			{
-				LinkCheckManager.logger.warn("Link {} produced status code: {} ; keyword {} was not found.",uri.toString(), info.getStatusCode(), identifierString );
+				LinkCheckManager.checkTheLink(pendingLinkCheck, linkCheckResults);
 			}
-			else
+			catch (Exception e)
 			{
-				LinkCheckManager.logger.debug("Link {} produced status code: {} ; keyword {} was found.",uri.toString(), info.getStatusCode(), identifierString );
+				throw new CompletionException(e);
 			}
-			info.setIdentifier(identifierString);
-			info.setReferenceDatabaseDBID(refDBID);
-			info.setIdentifierDBID(inst.getDBID().toString());
-			info.setReferenceDatabaseName(referenceDatabaseName);
-			linkCheckResults.put(inst.getDBID().toString(), info);
-			// Sleep for 2 seconds between requests so that the server we're talking to doesn't think we're trying to DOS them.
-			Thread.sleep(Duration.ofSeconds(2).toMillis());
+		}, LinkCheckManager.getHostExecutor(pendingLinkCheck.uri.getHost()));
+	}
+
+	private static ExecutorService getHostExecutor(String host)
+	{
+		return hostExecutors.computeIfAbsent(host == null ? "" : host.toLowerCase(), h -> {
+			AtomicInteger threadCount = new AtomicInteger(0);
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentChecksPerHost, maxConcurrentChecksPerHost, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+																	runnable -> {
+																		Thread thread = new Thread(runnable, "LinkCheck-" + h + "-" + threadCount.incrementAndGet());
+																		thread.setDaemon(true);
+																		return thread;
+																	});
+			executor.allowCoreThreadTimeOut(true);
+			return executor;
+		});
+	}
+
+	private static void checkTheLink(PendingLinkCheck pendingLinkCheck, Map<String, LinkCheckInfo> linkCheckResults) throws Exception
+	{
+		// There's no need to sleep between requests: LinkChecker uses the host's HostRateLimiter so the server we're talking to doesn't think we're trying to DOS them.
+		LinkChecker checker = new LinkChecker(pendingLinkCheck.uri, pendingLinkCheck.identifier);
+		LinkCheckInfo info = checker.checkLink();
+		if (!(info.isKeywordFound() && info.getStatusCode() == 200))
+		{
+			LinkCheckManager.logger.warn("Link {} produced status code: {} ; keyword {} was not found.",pendingLinkCheck.uri.toString(), info.getStatusCode(), pendingLinkCheck.identifier );
+		}
+		else
+		{
+			LinkCheckManager.logger.debug("Link {} produced status code: {} ; keyword {} was found.",pendingLinkCheck.uri.toString(), info.getStatusCode(), pendingLinkCheck.identifier );
 		}
+		info.setIdentifier(pendingLinkCheck.identifier);
+		info.setReferenceDatabaseDBID(pendingLinkCheck.refDBID);
+		info.setIdentifierDBID(pendingLinkCheck.identifierDBID);
+		info.setReferenceDatabaseName(pendingLinkCheck.referenceDatabaseName);
+		linkCheckResults.put(pendingLinkCheck.identifierDBID, info);
 	}
 }
@@ -1,10 +1,15 @@
 package org.reactome.addlinks.linkchecking;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.config.RequestConfig;
@@ -13,11 +18,11 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.entity.ContentType;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
+import org.reactome.addlinks.http.client.HostRateLimiter;
+import org.reactome.addlinks.http.client.SharedHttpClient;
 import org.reactome.release.common.CustomLoggable;
 
 public class LinkChecker implements CustomLoggable
@@ -28,6 +33,10 @@ public class LinkChecker implements CustomLoggable
 	private String keyword;
 	private URI uri;
 	private static final int MAX_NUM_RETRIES = 5;
+	private static final String KEGG_NO_DATA_MESSAGE = "No such data was found.";
+	// If everything has been found before the end of a response body, bodies of up to this many bytes are read to the end so that the connection can be reused.
+	// Larger bodies (and bodies of unknown length) are abandoned, which closes the connection.
+	private static final long MAX_BODY_LENGTH_TO_DRAIN = 64 * 1024;
 	private int numRetries = 0;
 	private Duration timeout = Duration.ofSeconds(30);
 
@@ -58,7 +67,11 @@ public class LinkChecker implements CustomLoggable
 		//TODO: maybe look into refactoring this with some of the FileRetriever code. Maybe a new  higher-up class could be used to get the data and let FileRetriever and
 		// *this* class do what they want with the resulting bytestring.
 		StatusLine responseStatus = null;
-		String responseBody = null;
+		boolean bodyRead = false;
+		StreamingKeywordMatcher keywordMatcher = new StreamingKeywordMatcher(this.keyword, false);
+		StreamingKeywordMatcher noSuchDataMatcher = new StreamingKeywordMatcher(KEGG_NO_DATA_MESSAGE, true);
+		// KEGG URLs have a domain name of genome.jp
+		boolean isKEGG = this.uri.getHost().toLowerCase().contains("genome.jp");
 		HttpGet get = new HttpGet(this.uri);
 		//Need to multiply by 1000 because timeouts are in milliseconds.
 		RequestConfig config = RequestConfig.copy(RequestConfig.DEFAULT)
@@ -75,21 +88,40 @@ public class LinkChecker implements CustomLoggable
 		LinkCheckInfo linkCheckInfo = new LinkCheckInfo();
 		linkCheckInfo.setLinkData(this.uri, this.keyword);
 		logger.trace("Checking link: {}", this.uri);
+		HostRateLimiter rateLimiter = HostRateLimiter.forURI(this.uri);
 		while(!done)
 		{
 			Duration responseTime = Duration.ZERO;
+			rateLimiter.acquire();
 			long startTime = System.currentTimeMillis();
-			try( CloseableHttpClient client = HttpClients.createDefault();
-				CloseableHttpResponse response = client.execute(get,  HttpClientContext.create()); )
+			try( CloseableHttpResponse response = SharedHttpClient.getClient().execute(get,  HttpClientContext.create()); )
 			{
 				long endtime = System.currentTimeMillis();
 				responseTime = Duration.ofMillis(endtime - startTime);
+				// A 403 from a page that is being checked means the link is bad, not that we are being throttled, even for hosts where it usually does.
+				rateLimiter.onResponse(response, false);
 
 				linkCheckInfo.setResponseTime(responseTime);
 				linkCheckInfo.setStatusCode(response.getStatusLine().getStatusCode());
-				responseBody = EntityUtils.toString(response.getEntity());
+				keywordMatcher = new StreamingKeywordMatcher(this.keyword, false);
+				noSuchDataMatcher = new StreamingKeywordMatcher(KEGG_NO_DATA_MESSAGE, true);
+				// KEGG pages need to be searched for the "no data" message too, so they can't stop as soon as the keyword is found.
+				if (isKEGG)
+				{
+					LinkChecker.searchBody(response, keywordMatcher, noSuchDataMatcher);
+				}
+				else
+				{
+					LinkChecker.searchBody(response, keywordMatcher);
+				}
+				bodyRead = true;
 				responseStatus = response.getStatusLine();
-				done = true;
+				// If the server says we're sending too many requests, the rate limiter will slow down, and we can try again.
+				done = responseStatus.getStatusCode() != HttpStatus.SC_TOO_MANY_REQUESTS || this.numRetries >= MAX_NUM_RETRIES;
+				if (!done)
+				{
+					this.numRetries++;
+				}
 			}
 			catch (ConnectTimeoutException | SocketTimeoutException e)
 			{
@@ -119,7 +151,7 @@ public class LinkChecker implements CustomLoggable
 			}
 		}
 		linkCheckInfo.setNumRetries(this.numRetries);
-		if (responseBody != null)
+		if (bodyRead)
 		{
 			if (responseStatus != null)
 			{
@@ -128,15 +160,14 @@ public class LinkChecker implements CustomLoggable
 					// If response was OK, check the body to make sure the string we are checking for is there.
 					case HttpStatus.SC_OK:
 					{
-						if (responseBody.contains(this.keyword))
+						if (keywordMatcher.isFound())
 						{
 							// SPECIAL CASE FOR KEGG: Kegg will return "OK 200" AND the keyword, even if the keyword is not found.
 							// The exact text to check for it: "No such data was found."
 							//if (referenceDatabaseName.toLowerCase().contains("kegg"))
-							// KEGG URLs have a domain name of genome.jp
-							if (this.uri.getHost().toLowerCase().contains("genome.jp"))
+							if (isKEGG)
 							{
-								if (responseBody.toLowerCase().contains("No such data was found.".toLowerCase()))
+								if (noSuchDataMatcher.isFound())
 								{
 									linkCheckInfo.setKeywordFound(false);
 								}
@@ -161,7 +192,7 @@ public class LinkChecker implements CustomLoggable
 					default:
 					{
 						// log the status code
-						if (responseBody.contains(this.keyword))
+						if (keywordMatcher.isFound())
 						{
 							// The response contains the keyword but *did* not have an "OK" status. strange...
 							linkCheckInfo.setKeywordFound(true);
@@ -178,4 +209,41 @@ public class LinkChecker implements CustomLoggable
 		}
 		return linkCheckInfo;
 	}
+
+	/**
+	 * Searches a response body for keywords as it is read, without reading the whole body into memory.
+	 * Reading stops as soon as all of the keywords have been found.
+	 * @param response - the response.
+	 * @param matchers - matchers for the keywords.
+	 * @throws IOException
+	 */
+	private static void searchBody(CloseableHttpResponse response, StreamingKeywordMatcher... matchers) throws IOException
+	{
+		HttpEntity entity = response.getEntity();
+		if (entity == null)
+		{
+			return;
+		}
+		Charset charset = ContentType.getOrDefault(entity).getCharset();
+		Reader reader = new InputStreamReader(entity.getContent(), charset != null ? charset : StandardCharsets.ISO_8859_1);
+		boolean allFound = StreamingKeywordMatcher.search(reader, matchers);
+		if (allFound && (entity.getContentLength() < 0 || entity.getContentLength() > MAX_BODY_LENGTH_TO_DRAIN))
+		{
+			// Closing the response (instead of the body) abandons the rest of the body.
+			response.close();
+			try
+			{
+				reader.close();
+			}
+			catch (IOException e)
+			{
+				// The connection has already been closed, so this can be ignored.
+			}
+		}
+		else
+		{
+			// This reads any remaining data, and returns the connection to the pool.
+			reader.close();
+		}
+	}
 }
@@ -3,10 +3,10 @@ package org.reactome.addlinks.linkchecking;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.gk.model.GKInstance;
 
@@ -21,26 +21,22 @@ public class LinksToCheckCache
 
 
 	// cache will be a map: Key is reference DB, value is a list of GKInstances which are Identifiers.
-	private static Map<GKInstance, Set<GKInstance>> linksCache = Collections.synchronizedMap(new HashMap<GKInstance, Set<GKInstance>>());
+	// Reference creators can run at the same time, so links can be added while other links are being checked.
+	private static Map<GKInstance, Set<GKInstance>> linksCache = new ConcurrentHashMap<GKInstance, Set<GKInstance>>();
+
+	// Reference creators that run at the same time use different database adaptors, so one ReferenceDatabase can be represented by several GKInstances.
+	// The first one that is seen is used as the key in linksCache.
+	private static Map<Long, GKInstance> refDBsByDBID = new HashMap<Long, GKInstance>();
 
 	public synchronized static void addLinkToCache(GKInstance refDB, GKInstance identifier)
 	{
-		if (LinksToCheckCache.linksCache.containsKey(refDB))
-		{
-			if (! LinksToCheckCache.linksCache.get(refDB).contains(identifier))
-			{
-				LinksToCheckCache.linksCache.get(refDB).add(identifier);
-			}
-		}
-		else
-		{
-			LinksToCheckCache.linksCache.put(refDB, Collections.synchronizedSet(new HashSet<GKInstance>()));
-			LinksToCheckCache.linksCache.get(refDB).add(identifier);
-		}
+		GKInstance cachedRefDB = LinksToCheckCache.refDBsByDBID.computeIfAbsent(refDB.getDBID(), dbId -> refDB);
+		LinksToCheckCache.linksCache.computeIfAbsent(cachedRefDB, k -> ConcurrentHashMap.newKeySet()).add(identifier);
 	}
 
 	public synchronized static Set<GKInstance> removeRefDBFromCache(GKInstance refDB)
 	{
+		LinksToCheckCache.refDBsByDBID.remove(refDB.getDBID());
 		return linksCache.remove(refDB);
 	}
 
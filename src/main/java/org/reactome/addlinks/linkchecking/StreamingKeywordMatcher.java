@@ -0,0 +1,115 @@
+package org.reactome.addlinks.linkchecking;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Searches for a keyword in text that is read a piece at a time, so that a response body can be searched without reading all of it into memory.
+ * This is a Knuth-Morris-Pratt matcher: each character is examined once, and a match that spans two pieces of text is still found.
+ */
+public class StreamingKeywordMatcher
+{
+	private final char[] keyword;
+	private final boolean ignoreCase;
+	// failure[i] is the length of the longest proper prefix of keyword[0..i] that is also a suffix of it.
+	private final int[] failure;
+	private int matchedLength = 0;
+	private boolean found;
+
+	/**
+	 * @param keyword - the keyword to search for.
+	 * @param ignoreCase - true if the search should ignore case.
+	 */
+	public StreamingKeywordMatcher(String keyword, boolean ignoreCase)
+	{
+		this.ignoreCase = ignoreCase;
+		this.keyword = (ignoreCase ? keyword.toLowerCase() : keyword).toCharArray();
+		this.failure = new int[this.keyword.length];
+		int length = 0;
+		for (int i = 1; i < this.keyword.length; i++)
+		{
+			while (length > 0 && this.keyword[i] != this.keyword[length])
+			{
+				length = this.failure[length - 1];
+			}
+			if (this.keyword[i] == this.keyword[length])
+			{
+				length++;
+			}
+			this.failure[i] = length;
+		}
+		// Every string contains the empty string.
+		this.found = this.keyword.length == 0;
+	}
+
+	/**
+	 * Searches the next piece of text.
+	 * @param text - the text.
+	 * @param offset - the position of the first character to search.
+	 * @param length - the number of characters to search.
+	 * @return true if the keyword has been found, in this piece or a previous one.
+	 */
+	public boolean update(char[] text, int offset, int length)
+	{
+		for (int i = offset; i < offset + length && !this.found; i++)
+		{
+			char c = this.ignoreCase ? Character.toLowerCase(text[i]) : text[i];
+			while (this.matchedLength > 0 && c != this.keyword[this.matchedLength])
+			{
+				this.matchedLength = this.failure[this.matchedLength - 1];
+			}
+			if (c == this.keyword[this.matchedLength])
+			{
+				this.matchedLength++;
+			}
+			if (this.matchedLength == this.keyword.length)
+			{
+				this.found = true;
+			}
+		}
+		return this.found;
+	}
+
+	/**
+	 * @return true if the keyword has been found.
+	 */
+	public boolean isFound()
+	{
+		return this.found;
+	}
+
+	/**
+	 * Reads from a Reader until all of the matchers have found their keywords, or the Reader is exhausted.
+	 * @param reader - the Reader.
+	 * @param matchers - the matchers.
+	 * @return true if all of the matchers found their keywords before the end of the Reader.
+	 * @throws IOException
+	 */
+	public static boolean search(Reader reader, StreamingKeywordMatcher... matchers) throws IOException
+	{
+		char[] buffer = new char[8192];
+		boolean allFound = allFound(matchers);
+		int numRead;
+		while (!allFound && (numRead = reader.read(buffer)) != -1)
+		{
+			allFound = true;
+			for (StreamingKeywordMatcher matcher : matchers)
+			{
+				allFound &= matcher.update(buffer, 0, numRead);
+			}
+		}
+		return allFound;
+	}
+
+	private static boolean allFound(StreamingKeywordMatcher... matchers)
+	{
+		for (StreamingKeywordMatcher matcher : matchers)
+		{
+			if (!matcher.isFound())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
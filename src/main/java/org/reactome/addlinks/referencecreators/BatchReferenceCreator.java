@@ -25,4 +25,14 @@ public interface BatchReferenceCreator<T> extends CustomLoggable
 
 	public String getClassReferringToRefName();
 
+	/**
+	 * Writes any references that have been created but are still waiting to be written to the database.
+	 * This should be called once createIdentifiers has finished. The default implementation does nothing.
+	 * @throws Exception if the pending references could not be written.
+	 */
+	public default void flushPendingReferences() throws Exception
+	{
+		// Nothing is pending by default.
+	}
+
 }
@@ -4,11 +4,17 @@ import org.gk.model.GKInstance;
 import org.gk.model.ReactomeJavaConstants;
 import org.gk.persistence.MySQLAdaptor;
 import org.reactome.addlinks.EnsemblBioMartUtil;
+import org.reactome.addlinks.db.OtherIdentifierBatchWriter;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class EnsemblBioMartOtherIdentifierPopulator extends SimpleReferenceCreator <Map<String, List<String>>>{
 
+    // When batchSize > 0, the new otherIdentifiers of all species are worked out first, and then written in chunks of (up to) batchSize
+    // instances per transaction, instead of updating each instance on its own.
+    private static int batchSize = 0;
+
     public EnsemblBioMartOtherIdentifierPopulator(MySQLAdaptor adapter, String classToCreate, String classReferring, String referringAttribute, String sourceDB, String targetDB)
     {
         super(adapter, classToCreate, classReferring, referringAttribute, sourceDB, targetDB);
@@ -32,6 +38,10 @@ public class EnsemblBioMartOtherIdentifierPopulator extends SimpleReferenceCreat
     @Override
     public void createIdentifiers(long personID, Map<String, Map<String, List<String>>> mappings, List<GKInstance> sourceReferences) throws Exception {
 
+        if (EnsemblBioMartOtherIdentifierPopulator.batchSize > 0) {
+            populateOtherIdentifiersInBatches(mappings);
+            return;
+        }
         // Iterate through each species that we add OtherIdentifier data to.
         for (String speciesName : EnsemblBioMartUtil.getSpeciesNames()) {
             logger.info("Populating OtherIdentifier data for " + speciesName);
@@ -52,39 +62,106 @@ public class EnsemblBioMartOtherIdentifierPopulator extends SimpleReferenceCreat
                 GKInstance speciesInst = (GKInstance) adapter.fetchInstanceByAttribute(ReactomeJavaConstants.Species, ReactomeJavaConstants.name, "=", speciesName).iterator().next();
                 Collection<GKInstance> rgpInstances = adapter.fetchInstanceByAttribute(ReactomeJavaConstants.ReferenceGeneProduct, ReactomeJavaConstants.species, "=", speciesInst);
                 for (GKInstance rgpInst : rgpInstances) {
-                    addOtherIdentifierDataToReferenceGeneProduct(rgpInst, speciesBioMartName, mappings);
+                    addOtherIdentifierDataToReferenceGeneProduct(rgpInst, proteinToTranscripts, transcriptToOtherIdentifiers, uniprotToProtein);
                 }
             }
         }
     }
 
+    /**
+     * Sets the number of ReferenceGeneProduct instances whose otherIdentifiers are updated in a single transaction.
+     * 0 means that each instance is updated on its own.
+     * @param batchSize - int, maximum number of instances per transaction.
+     */
+    public static void setBatchSize(int batchSize) {
+        EnsemblBioMartOtherIdentifierPopulator.batchSize = batchSize;
+    }
+
+    /**
+     * Works out the OtherIdentifiers of the ReferenceGeneProduct instances of all species (one species per thread), and then writes them
+     * to the database in chunks with OtherIdentifierBatchWriter. Only the instances whose otherIdentifier values change are written.
+     * @param mappings - Map<String, Map< String, List<String>>>, Super mapping structure generated by EnsemblBioMartFileProcessor.
+     * @throws Exception - Thrown by MySQLAdaptor/GKInstance methods, or when getting species names from Species.json file.
+     */
+    private void populateOtherIdentifiersInBatches(Map<String, Map<String, List<String>>> mappings) throws Exception {
+        // Look up each species' mappings before the species are processed in parallel, since looking them up can modify 'mappings'.
+        Map<String, List<Map<String, List<String>>>> mappingsBySpecies = new LinkedHashMap<>();
+        for (String speciesName : EnsemblBioMartUtil.getSpeciesNames()) {
+            String speciesBioMartName = EnsemblBioMartUtil.getBioMartSpeciesName(speciesName);
+            mappingsBySpecies.put(speciesName, Arrays.asList(
+                    EnsemblBioMartUtil.getProteinToTranscriptsMappings(speciesBioMartName, mappings),
+                    EnsemblBioMartUtil.getTranscriptToOtherIdentifiersMappings(speciesBioMartName, mappings),
+                    EnsemblBioMartUtil.getUniprotToProteinsMappings(speciesBioMartName, mappings)
+            ));
+        }
+
+        // The adaptor is not thread-safe, so the ReferenceGeneProducts (and the attributes that are needed from them) are read
+        // one species at a time, on this thread. Only the mappings are then looked up in parallel.
+        Map<Long, GKInstance> rgpInstancesByDbId = new HashMap<>();
+        Map<String, List<RGPIdentifier>> rgpIdentifiersBySpecies = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Map<String, List<String>>>> speciesMappings : mappingsBySpecies.entrySet()) {
+            String speciesName = speciesMappings.getKey();
+            if (allDataStructuresPopulated(speciesMappings.getValue().get(0), speciesMappings.getValue().get(1), speciesMappings.getValue().get(2))) {
+                logger.info("Retrieving ReferenceGeneProducts for " + speciesName);
+                GKInstance speciesInst = (GKInstance) adapter.fetchInstanceByAttribute(ReactomeJavaConstants.Species, ReactomeJavaConstants.name, "=", speciesName).iterator().next();
+                Collection<GKInstance> rgpInstances = adapter.fetchInstanceByAttribute(ReactomeJavaConstants.ReferenceGeneProduct, ReactomeJavaConstants.species, "=", speciesInst);
+                // The instances are not inflated, so load both attributes for all of them at once instead of once per instance.
+                adapter.loadInstanceAttributeValues(rgpInstances, new String[]{ReactomeJavaConstants.identifier, ReactomeJavaConstants.referenceDatabase});
+                List<RGPIdentifier> rgpIdentifiers = new ArrayList<>();
+                for (GKInstance rgpInst : rgpInstances) {
+                    String rgpIdentifier = rgpInst.getAttributeValue(ReactomeJavaConstants.identifier).toString();
+                    GKInstance refDbInst = (GKInstance) rgpInst.getAttributeValue(ReactomeJavaConstants.referenceDatabase);
+                    rgpIdentifiers.add(new RGPIdentifier(rgpInst.getDBID(), rgpIdentifier, refDbInst.getDisplayName()));
+                    rgpInstancesByDbId.put(rgpInst.getDBID(), rgpInst);
+                }
+                rgpIdentifiersBySpecies.put(speciesName, rgpIdentifiers);
+            }
+        }
+
+        Map<Long, Set<String>> newOtherIdentifiers = new ConcurrentHashMap<>();
+        rgpIdentifiersBySpecies.entrySet().parallelStream().forEach(speciesRGPs -> {
+            logger.info("Finding OtherIdentifier data for " + speciesRGPs.getKey());
+            List<Map<String, List<String>>> speciesMappings = mappingsBySpecies.get(speciesRGPs.getKey());
+            Map<String, List<String>> proteinToTranscripts = speciesMappings.get(0);
+            Map<String, List<String>> transcriptToOtherIdentifiers = speciesMappings.get(1);
+            Map<String, List<String>> uniprotToProtein = speciesMappings.get(2);
+            for (RGPIdentifier rgp : speciesRGPs.getValue()) {
+                Set<String> rgpProteins = findRGPProteins(rgp.identifier, rgp.refDbDisplayName, proteinToTranscripts, uniprotToProtein);
+                newOtherIdentifiers.put(rgp.dbId, findOtherIdentifiers(rgpProteins, proteinToTranscripts, transcriptToOtherIdentifiers));
+            }
+        });
+
+        logger.info("Found OtherIdentifier data for {} ReferenceGeneProduct instances", newOtherIdentifiers.size());
+        if (!EnsemblBioMartOtherIdentifierPopulator.this.testMode) {
+            OtherIdentifierBatchWriter batchWriter = new OtherIdentifierBatchWriter(adapter, EnsemblBioMartOtherIdentifierPopulator.batchSize, logger);
+            Map<Long, List<String>> changedOtherIdentifiers = batchWriter.addOtherIdentifiers(newOtherIdentifiers);
+            // Keep the instances that the adaptor has cached consistent with the database.
+            for (Map.Entry<Long, List<String>> changedRGP : changedOtherIdentifiers.entrySet()) {
+                rgpInstancesByDbId.get(changedRGP.getKey()).setAttributeValue(ReactomeJavaConstants.otherIdentifier, new ArrayList<>(changedRGP.getValue()));
+            }
+        }
+    }
+
     /**
      * Iterates through each protein associated with the RGP instance and finds transcripts associated with protein identifier.
      * Then it takes transcript identifier and finds all OtherIdentifiers associated with it. These identifiers
      * are then added to the 'otherIdentifier' attribute of the RGP instance. Once all identifiers have been added,
      * the instance is updated with the new data in the database.
      * @param rgpInst - GKInstance, ReferenceGeneProduct instance
-     * @param speciesBioMartName, - String, Species name in BioMart format (eg: hsapiens).
-     * @param mappings - Map<String, Map< String, List<String>>>, Super mapping structure generated by EnsemblBioMartFileProcessor.
+     * @param proteinToTranscripts - Map<String, List<String>>, Ensembl protein identifiers to Ensembl transcript identifiers, for the species.
+     * @param transcriptToOtherIdentifiers - Map<String, List<String>>, Ensembl transcript identifiers to OtherIdentifiers, for the species.
+     * @param uniprotToProtein - Map<String, List<String>>, UniProt identifiers to Ensembl protein identifiers, for the species.
      * @throws Exception - Thrown by MySQLAdaptor/GKInstance methods. Typically due to accessing data that doesn't exist or from InvalidAttributeExceptions.
      */
-    private void addOtherIdentifierDataToReferenceGeneProduct(GKInstance rgpInst, String speciesBioMartName, Map<String, Map<String, List<String>>> mappings) throws Exception {
+    private void addOtherIdentifierDataToReferenceGeneProduct(GKInstance rgpInst, Map<String, List<String>> proteinToTranscripts,
+                                                              Map<String, List<String>> transcriptToOtherIdentifiers, Map<String, List<String>> uniprotToProtein) throws Exception {
         // Retrieve protein identifier associated with reference DB.
-        Set<String> rgpProteins = findRGPProteins(rgpInst, speciesBioMartName, mappings);
+        Set<String> rgpProteins = findRGPProteins(rgpInst, proteinToTranscripts, uniprotToProtein);
         // For each protein identifier retrieved, find OtherIdentifiers associated with it and
         // add them to the 'otherIdentifier' attribute of the RGP instance.
         // TreeSet ensures the the identifiers will stay sorted.
         Set<String> otherIdentifiers = new TreeSet<>(rgpInst.getAttributeValuesList(ReactomeJavaConstants.otherIdentifier));
-        for (String protein : rgpProteins) {
-            // This check is required since the identifier taken from the RGP may not have a key in the proteinToTranscript mapping.
-            Map<String, List<String>> proteinToTranscripts = EnsemblBioMartUtil.getProteinToTranscriptsMappings(speciesBioMartName, mappings);
-            for (String transcript : proteinToTranscripts.computeIfAbsent(protein, k -> new ArrayList<>())) {
-                Map<String, List<String>> transcriptToOtherIdentifiers = EnsemblBioMartUtil.getTranscriptToOtherIdentifiersMappings(speciesBioMartName, mappings);
-                for (String newOtherIdentifier : transcriptToOtherIdentifiers.computeIfAbsent(transcript, k -> new ArrayList<>())) {
-                    otherIdentifiers.add(newOtherIdentifier);
-                }
-            }
-        }
+        otherIdentifiers.addAll(findOtherIdentifiers(rgpProteins, proteinToTranscripts, transcriptToOtherIdentifiers));
         // Now that the set has been populated, set the attribute and update instance.
         if (!EnsemblBioMartOtherIdentifierPopulator.this.testMode) {
             rgpInst.setAttributeValue(ReactomeJavaConstants.otherIdentifier, new ArrayList<>(otherIdentifiers));
@@ -92,30 +169,75 @@ public class EnsemblBioMartOtherIdentifierPopulator extends SimpleReferenceCreat
         }
     }
 
+    /**
+     * Finds the OtherIdentifiers of the transcripts of proteins.
+     * @param rgpProteins - Set<String>, Ensembl protein identifiers associated with an RGP instance.
+     * @param proteinToTranscripts - Map<String, List<String>>, Ensembl protein identifiers to Ensembl transcript identifiers, for the species.
+     * @param transcriptToOtherIdentifiers - Map<String, List<String>>, Ensembl transcript identifiers to OtherIdentifiers, for the species.
+     * @return - Set<String>, OtherIdentifiers of all of the proteins.
+     */
+    private Set<String> findOtherIdentifiers(Set<String> rgpProteins, Map<String, List<String>> proteinToTranscripts, Map<String, List<String>> transcriptToOtherIdentifiers) {
+        Set<String> otherIdentifiers = new HashSet<>();
+        for (String protein : rgpProteins) {
+            // The identifier taken from the RGP may not have a key in the proteinToTranscript mapping.
+            for (String transcript : proteinToTranscripts.getOrDefault(protein, Collections.emptyList())) {
+                otherIdentifiers.addAll(transcriptToOtherIdentifiers.getOrDefault(transcript, Collections.emptyList()));
+            }
+        }
+        return otherIdentifiers;
+    }
+
     /**
      * Find proteins associated with ReferenceGeneProduct instance.
      * @param rgpInst - GKInstance, ReferenceGeneProduct instance
-     * @param speciesBioMartName - String, Species name in BioMart format (eg: hsapiens).
-     * @param mappings - Map<String, Map< String, List<String>>>, Super mapping structure generated by EnsemblBioMartFileProcessor.
+     * @param proteinToTranscripts - Map<String, List<String>>, Ensembl protein identifiers to Ensembl transcript identifiers, for the species.
+     * @param uniprotToProtein - Map<String, List<String>>, UniProt identifiers to Ensembl protein identifiers, for the species.
      * @return - Set<String>, Set of proteins associated with RGP instance.
      * @throws Exception - Thrown when retrieving data from GKInstance that does not exist or invalid for the GKInstance class.
      */
-    private Set<String> findRGPProteins(GKInstance rgpInst, String speciesBioMartName, Map<String, Map<String, List<String>>> mappings) throws Exception {
-        Set<String> rgpProteins = new HashSet<>();
+    private Set<String> findRGPProteins(GKInstance rgpInst, Map<String, List<String>> proteinToTranscripts, Map<String, List<String>> uniprotToProtein) throws Exception {
         String rgpIdentifier = rgpInst.getAttributeValue(ReactomeJavaConstants.identifier).toString();
         GKInstance refDbInst = (GKInstance) rgpInst.getAttributeValue(ReactomeJavaConstants.referenceDatabase);
+        return findRGPProteins(rgpIdentifier, refDbInst.getDisplayName(), proteinToTranscripts, uniprotToProtein);
+    }
+
+    /**
+     * Find proteins associated with a ReferenceGeneProduct's identifier.
+     * @param rgpIdentifier - String, identifier of the ReferenceGeneProduct instance.
+     * @param refDbDisplayName - String, display name of the ReferenceGeneProduct's ReferenceDatabase.
+     * @param proteinToTranscripts - Map<String, List<String>>, Ensembl protein identifiers to Ensembl transcript identifiers, for the species.
+     * @param uniprotToProtein - Map<String, List<String>>, UniProt identifiers to Ensembl protein identifiers, for the species.
+     * @return - Set<String>, Set of proteins associated with RGP instance.
+     */
+    private Set<String> findRGPProteins(String rgpIdentifier, String refDbDisplayName, Map<String, List<String>> proteinToTranscripts, Map<String, List<String>> uniprotToProtein) {
+        Set<String> rgpProteins = new HashSet<>();
         // If reference DB is Ensembl, add the identifier associated with RGP instance.
-        String refDbDisplayName = refDbInst.getDisplayName().toLowerCase();
-        if (refDbDisplayName.contains("ensembl") && EnsemblBioMartUtil.getProteinToTranscriptsMappings(speciesBioMartName, mappings).containsKey(rgpIdentifier)) {
+        refDbDisplayName = refDbDisplayName.toLowerCase();
+        if (refDbDisplayName.contains("ensembl") && proteinToTranscripts.containsKey(rgpIdentifier)) {
             rgpProteins.add(rgpIdentifier);
         // If reference DB is Uniprot, get Ensembl protein identifier associated with
         // instance's identifier attribute, which should be a Uniprot identifier.
-        } else if (refDbDisplayName.contains("uniprot") && EnsemblBioMartUtil.getUniprotToProteinsMappings(speciesBioMartName, mappings).containsKey(rgpIdentifier)) {
-            rgpProteins.addAll(EnsemblBioMartUtil.getUniprotToProteinsMappings(speciesBioMartName, mappings).get(rgpIdentifier));
+        } else if (refDbDisplayName.contains("uniprot") && uniprotToProtein.containsKey(rgpIdentifier)) {
+            rgpProteins.addAll(uniprotToProtein.get(rgpIdentifier));
         }
         return rgpProteins;
     }
 
+    /**
+     * The attributes of a ReferenceGeneProduct that are needed to find its OtherIdentifiers.
+     */
+    private static class RGPIdentifier {
+        private final long dbId;
+        private final String identifier;
+        private final String refDbDisplayName;
+
+        RGPIdentifier(long dbId, String identifier, String refDbDisplayName) {
+            this.dbId = dbId;
+            this.identifier = identifier;
+            this.refDbDisplayName = refDbDisplayName;
+        }
+    }
+
     /**
      * Retrieve all identifiers from RGP instances, and build a map of identifiers to all associated instances.
      * @param rgpInstances - Collection<GKInstance>, Collection of ReferenceGeneProduct instances
@@ -2,6 +2,7 @@ package org.reactome.addlinks.referencecreators;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.Logger;
 import org.reactome.addlinks.db.ReferenceObjectCache;
@@ -24,6 +25,10 @@ class KEGGReferenceCreatorHelper
 
 	private static Set<String> forbiddenPrefixes = new HashSet<>();
 
+	// One lock per KEGG prefix, shared by all helpers, so that only one thread looks up (and possibly creates) the ReferenceDatabase of a prefix
+	// at a time, while the ReferenceDatabases of different prefixes can still be looked up in parallel.
+	private static ConcurrentHashMap<String, Object> prefixLocks = new ConcurrentHashMap<>();
+
 	public KEGGReferenceCreatorHelper(ReferenceObjectCache cache, Logger logger)
 	{
 		this.refObjectCache = cache;
@@ -45,9 +50,8 @@ class KEGGReferenceCreatorHelper
 			String keggSpeciesName = KEGGSpeciesCache.getSpeciesName(keggPrefix);
 			if (keggSpeciesName != null)
 			{
+				// If a new database is created, ReferenceDatabaseCreator will add it to the cache's ReferenceDatabase names.
 				targetDB = KEGGReferenceDatabaseGenerator.createReferenceDatabaseFromKEGGData(keggPrefix, keggSpeciesName, this.refObjectCache);
-				// TODO: Figure out a way to only refresh the cache if a new database was actually created. If the database already existed, it won't be created.
-				this.refObjectCache.rebuildRefDBNamesAndMappings();
 			}
 			if (targetDB == null)
 			{
@@ -64,7 +68,7 @@ class KEGGReferenceCreatorHelper
 	 * @param keggPrefix - The prefix for the KEGG Identifier.
 	 * @return An array with two elements: the first element is the ReferenceDatabase (a DB_ID, though in some cases, it could be the name of the ReferenceDatabase); the second element is the Kegg identifier, which might be
 	 */
-	public synchronized String[] determineKeggReferenceDatabase(String keggIdentifier, String keggPrefix)
+	public String[] determineKeggReferenceDatabase(String keggIdentifier, String keggPrefix)
 	{
 		String identifier = keggIdentifier;
 		String targetDB = null;
@@ -82,20 +86,24 @@ class KEGGReferenceCreatorHelper
 		}
 		else
 		{
-			Long targetDBID = KEGGReferenceDatabaseGenerator.getKeggReferenceDatabase(keggPrefix);
-			if (targetDBID != null)
-			{
-				targetDB = targetDBID.toString();
-			}
-			// If targetDB is STILL NULL, it means we weren't able to determine which KEGG ReferenceDatabase to use for this keggIdentifier.
-			// So, we can't add the cross-reference since we don't know which species-specific ReferenceDatabase to use.
-			if (targetDB == null)
+			// Without the lock, two threads could both fail to find the ReferenceDatabase of a new prefix, and both create it.
+			synchronized (KEGGReferenceCreatorHelper.prefixLocks.computeIfAbsent(String.valueOf(keggPrefix), k -> new Object()))
 			{
-				this.logger.warn("No KEGG DB Name could be obtained for this identifier: {} with this prefix: {}. The next step is to try to create a *new* ReferenceDatabase.", identifier, keggPrefix);
-
-				if (keggPrefix != null)
+				Long targetDBID = KEGGReferenceDatabaseGenerator.getKeggReferenceDatabase(keggPrefix);
+				if (targetDBID != null)
+				{
+					targetDB = targetDBID.toString();
+				}
+				// If targetDB is STILL NULL, it means we weren't able to determine which KEGG ReferenceDatabase to use for this keggIdentifier.
+				// So, we can't add the cross-reference since we don't know which species-specific ReferenceDatabase to use.
+				if (targetDB == null)
 				{
-					targetDB = this.createNewKEGGReferenceDatabase(identifier, keggPrefix);
+					this.logger.warn("No KEGG DB Name could be obtained for this identifier: {} with this prefix: {}. The next step is to try to create a *new* ReferenceDatabase.", identifier, keggPrefix);
+
+					if (keggPrefix != null)
+					{
+						targetDB = this.createNewKEGGReferenceDatabase(identifier, keggPrefix);
+					}
 				}
 			}
 		}
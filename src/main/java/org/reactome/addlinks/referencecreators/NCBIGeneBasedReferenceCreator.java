@@ -35,6 +35,32 @@ public abstract class NCBIGeneBasedReferenceCreator extends SimpleReferenceCreat
 		this.ctdGenes = mapping;
 	}
 
+	/**
+	 * Writes pending references for this reference creator and for all of its EntrezGene-based sub-creators.
+	 */
+	@Override
+	public void flushPendingReferences() throws Exception
+	{
+		super.flushPendingReferences();
+		for (EntrezGeneBasedReferenceCreator entrezGeneCreator : this.getSubCreators())
+		{
+			entrezGeneCreator.flushPendingReferences();
+		}
+	}
+
+	/**
+	 * Sets the database adaptor for this reference creator and for all of its EntrezGene-based sub-creators.
+	 */
+	@Override
+	public void setAdapter(MySQLAdaptor adapter)
+	{
+		super.setAdapter(adapter);
+		for (EntrezGeneBasedReferenceCreator entrezGeneCreator : this.getSubCreators())
+		{
+			entrezGeneCreator.setAdapter(adapter);
+		}
+	}
+
 	/**
 	 * Executes reference creators. This will run reference creators for Entrezgene based references such as CTD, dbSNP, Monarch, BioGPS
 	 * @param personID - the ID of the person creating the references.
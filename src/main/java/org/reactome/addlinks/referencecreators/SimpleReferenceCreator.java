@@ -17,6 +17,7 @@ import org.gk.persistence.MySQLAdaptor;
 import org.gk.schema.GKSchemaAttribute;
 import org.gk.schema.InvalidAttributeException;
 import org.gk.schema.SchemaClass;
+import org.reactome.addlinks.db.CrossReferenceIndex;
 import org.reactome.addlinks.db.ReferenceCreator;
 import org.reactome.addlinks.db.ReferenceObjectCache;
 
@@ -64,9 +65,33 @@ public class SimpleReferenceCreator<T> implements BatchReferenceCreator<T>
 		// Y'know, this code was lifted straight from OrphanetReferenceCreator and is pretty much unchanged. Perhaps these two (and others to follow) could pull
 		// this code up into a common parent class/interface...
 		this.adapter = adapter;
+		if (this.cache == null)
+		{
+			this.cache = new ReferenceObjectCache(this.adapter, true);
+		}
+		this.refCreator = this.createReferenceCreator();
+	}
+
+	/**
+	 * Sets the database adaptor that this reference creator will use to read and write references. Reference creators that run at the same time
+	 * should each have their own adaptor, so that they do not share a database connection (or the adaptor's instance cache).
+	 * @param adapter - the database adaptor.
+	 */
+	public void setAdapter(MySQLAdaptor adapter)
+	{
+		this.adapter = adapter;
+		this.refCreator = this.createReferenceCreator();
+	}
+
+	/**
+	 * Creates the ReferenceCreator that writes new references, using this reference creator's adaptor and classes.
+	 * @return The ReferenceCreator.
+	 */
+	private ReferenceCreator createReferenceCreator()
+	{
 		SchemaClass schemaClass = this.adapter.getSchema().getClassByName(this.classToCreateName);
 
-		SchemaClass referringSchemaClass = adapter.getSchema().getClassByName(this.classReferringToRefName);
+		SchemaClass referringSchemaClass = this.adapter.getSchema().getClassByName(this.classReferringToRefName);
 
 		GKSchemaAttribute referringSchemaAttribute = null;
 		try
@@ -83,11 +108,7 @@ public class SimpleReferenceCreator<T> implements BatchReferenceCreator<T>
 			// Can't recover if there is no valid attribute object, throw it up the stack.
 			throw new RuntimeException (e);
 		}
-		if (this.cache == null)
-		{
-			this.cache = new ReferenceObjectCache(this.adapter, true);
-		}
-		this.refCreator = new ReferenceCreator(schemaClass , referringSchemaClass, referringSchemaAttribute, this.adapter, this.logger);
+		return new ReferenceCreator(schemaClass , referringSchemaClass, referringSchemaAttribute, this.adapter, this.logger);
 	}
 
 	/**
@@ -197,6 +218,12 @@ public class SimpleReferenceCreator<T> implements BatchReferenceCreator<T>
 
 	}
 
+	@Override
+	public void flushPendingReferences() throws Exception
+	{
+		this.refCreator.flushPendingReferences();
+	}
+
 	/**
 	 * Checks to see if a cross-reference with a specific Identifier exists on a DatabaseObject.
 	 * @param sourceReference - The source Object that has cross references.
@@ -223,18 +250,18 @@ public class SimpleReferenceCreator<T> implements BatchReferenceCreator<T>
 	 */
 	protected boolean checkXRefExists(GKInstance sourceReference, String targetRefDBIdentifier, String  targetReferenceDB) throws InvalidAttributeException, Exception
 	{
-		GKInstance refDB;
+		long refDbId;
 		// Look up by DB_ID
 		if (targetReferenceDB.trim().matches("\\d+"))
 		{
-			refDB = this.adapter.fetchInstance(Long.parseLong(targetReferenceDB));
+			refDbId = Long.parseLong(targetReferenceDB.trim());
 		}
 		// Look up name in cache.
 		else
 		{
-			refDB = this.adapter.fetchInstance(Long.parseLong(this.cache.getRefDbNamesToIds().get(targetReferenceDB).get(0)));
+			refDbId = Long.parseLong(this.cache.getRefDbNamesToIds().get(targetReferenceDB).get(0));
 		}
-		return checkXRefExists(sourceReference, targetRefDBIdentifier, refDB);
+		return checkXRefExists(sourceReference, targetRefDBIdentifier, refDbId);
 	}
 
 	/**
@@ -248,39 +275,27 @@ public class SimpleReferenceCreator<T> implements BatchReferenceCreator<T>
 	 */
 	protected boolean checkXRefExists(GKInstance sourceReference, String targetRefDBIdentifier, GKInstance targetReferenceDB) throws InvalidAttributeException, Exception
 	{
-		@SuppressWarnings("unchecked")
-		Collection<GKInstance> xrefs = (Collection<GKInstance>) sourceReference.getAttributeValuesList(this.referringAttributeName);
-		StringBuilder xrefsb = new StringBuilder();
-		if (!xrefs.isEmpty())
-		{
-			for (GKInstance xref : xrefs)
-			{
-				String identifier = xref.getAttributeValue(ReactomeJavaConstants.identifier).toString();
-				xrefsb.append(identifier);
-				GKInstance xrefRefDB = (GKInstance) xref.getAttributeValue(ReactomeJavaConstants.referenceDatabase);
-				Object refdbDisplayName = xrefRefDB.getAttributeValue(ReactomeJavaConstants._displayName);
-				xrefsb.append("@").append(refdbDisplayName).append(",\t");
-				// We won't add a cross-reference if it already exists
-				if (identifier.equals( targetRefDBIdentifier ))
-				{
-					// We found a cross-reference with the same identifiers, but it's possible this identifier is used by more than one Ref DB. Need to check...
-					// Found a cross reference with the same identifer AND the same ref db displayname.
-					//if (refdbDisplayName.equals(targetReferenceDB))
-					if (xrefRefDB.getDBID().equals(targetReferenceDB.getDBID()))
-					{
-						this.logger.trace("\tcross-references *include* \"{}\": \t{}", targetRefDBIdentifier, xrefsb.toString().trim());
-						return true;
-					}
-					else
-					{
-						this.logger.trace("\tcross-references *include* \"{}\" but the cross-reference is associated with a different ref db: {} instead of {}", targetRefDBIdentifier, refdbDisplayName, targetReferenceDB);
-					}
+		return checkXRefExists(sourceReference, targetRefDBIdentifier, targetReferenceDB.getDBID());
+	}
 
-				}
-			}
-			this.logger.trace("\tcross-references do *not* include \"{}\": \t{}", targetRefDBIdentifier, xrefsb.toString().trim());
+	/**
+	 * Checks to see if a cross-reference with a specific Identifier exists on a DatabaseObject.
+	 * The check uses a CrossReferenceIndex of the existing cross-references, so it does not load the source object's cross-references from the database.
+	 * @param sourceReference - The source Object that has cross references.
+	 * @param targetRefDBIdentifier - The identifier that you are looking for.
+	 * @param targetRefDbId - The DB_ID of the target ReferenceDatabase.
+	 * @return - TRUE of sourceReference has a cross-reference to an identifier whose value is targetRefDBIdentifier, in the target ReferenceDatabase. Otherwise, FALSE.
+	 */
+	protected boolean checkXRefExists(GKInstance sourceReference, String targetRefDBIdentifier, long targetRefDbId)
+	{
+		CrossReferenceIndex index = CrossReferenceIndex.getIndex(this.adapter, this.classReferringToRefName, this.referringAttributeName, targetRefDbId);
+		boolean xrefExists = index.contains(sourceReference.getDBID(), targetRefDBIdentifier);
+		if (this.logger.isTraceEnabled())
+		{
+			this.logger.trace("\tcross-references to ReferenceDatabase {} {} \"{}\": \t{}", targetRefDbId, xrefExists ? "*include*" : "do *not* include",
+							targetRefDBIdentifier, String.join(",\t", index.getIdentifiers(sourceReference.getDBID())));
 		}
-		return false;
+		return xrefExists;
 	}
 
 	public boolean isTestMode()
@@ -4,10 +4,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
@@ -63,20 +64,17 @@ public class UPMappedIdentifiersReferenceCreator extends NCBIGeneBasedReferenceC
 		};
 
 		// First, we need a map of sourceReferences.
-		Map<String, List<GKInstance>> sourceRefMap = Collections.synchronizedMap(new HashMap<String, List<GKInstance>>(sourceReferences.size()));
+		Map<String, List<GKInstance>> sourceRefMap = new ConcurrentHashMap<>(sourceReferences.size());
 
 		sourceReferences.parallelStream().forEach(sourceRef -> {
 			try
 			{
 				String identifier = (String) ((GKInstance) sourceRef).getAttributeValue(ReactomeJavaConstants.identifier);
-				if (sourceRefMap.containsKey(identifier))
-				{
-					sourceRefMap.get(identifier).add((GKInstance) sourceRef);
-				}
-				else
-				{
-					sourceRefMap.put(identifier, new ArrayList<>( Arrays.asList( (GKInstance)sourceRef) ) );
-				}
+				sourceRefMap.compute(identifier, (k, instances) -> {
+					List<GKInstance> list = instances == null ? new ArrayList<>() : instances;
+					list.add((GKInstance) sourceRef);
+					return list;
+				});
 			}
 			catch (InvalidAttributeException e1)
 			{
@@ -92,7 +90,10 @@ public class UPMappedIdentifiersReferenceCreator extends NCBIGeneBasedReferenceC
 
 		if (mappings != null && mappings.keySet() != null && mappings.keySet().size() > 0)
 		{
-			List<String> thingsToCreate = Collections.synchronizedList(new ArrayList<String>());
+			// References that need to be created, one set for each species. The sets de-duplicate the references as they are added, without locking.
+			Map<String, Set<PendingReference>> pendingReferences = new ConcurrentHashMap<>();
+			// One helper for all identifiers. The KEGG ReferenceDatabase lookups and creation it does are synchronized in KEGGReferenceDatabaseGenerator.
+			KEGGReferenceCreatorHelper keggReferenceCreatorHelper = new KEGGReferenceCreatorHelper(this.refObjectCache, this.logger);
 			for (String speciesID : mappings.keySet())
 			{
 				if (mappings.get(speciesID).keySet().size() > 0)
@@ -103,6 +104,7 @@ public class UPMappedIdentifiersReferenceCreator extends NCBIGeneBasedReferenceC
 				{
 					this.logger.info("No references to create for species {}", speciesID);
 				}
+				Set<PendingReference> speciesPendingReferences = pendingReferences.computeIfAbsent(speciesID, k -> ConcurrentHashMap.newKeySet());
 
 				mappings.get(speciesID).keySet().parallelStream().forEach(uniprotID ->
 				{
@@ -152,15 +154,9 @@ public class UPMappedIdentifiersReferenceCreator extends NCBIGeneBasedReferenceC
 									}
 									else if (targetIsKEGG && !forbiddenKEGGPrefix)
 									{
-										synchronized (this)
-										{
-											targetDB = null;
-											KEGGReferenceCreatorHelper referenceCreatorHelper = new KEGGReferenceCreatorHelper(this.refObjectCache, this.logger);
-											String[] parts = referenceCreatorHelper.determineKeggReferenceDatabase(targetIdentifier, keggPrefix);
-											targetDB = parts[0];
-											targetIdentifier = parts[1];
-										}
-
+										String[] parts = keggReferenceCreatorHelper.determineKeggReferenceDatabase(targetIdentifier, keggPrefix);
+										targetDB = parts[0];
+										targetIdentifier = parts[1];
 									}
 									else if (this.targetRefDB.toUpperCase().contains("ENSEMBL"))
 									{
@@ -172,17 +168,18 @@ public class UPMappedIdentifiersReferenceCreator extends NCBIGeneBasedReferenceC
 										{
 											logger.error("Got a NULL targetDB for targetIdentifier: {}, sourceIdentifier: {}", targetIdentifier, sourceIdentifier);
 										}
-										boolean xrefAlreadyExists = checkXRefExists(inst, targetIdentifier, targetDB);
-										String thingToCreate = targetIdentifier+","+String.valueOf(inst.getDBID())+","+speciesID+","+targetDB;
-										if (!xrefAlreadyExists && !thingsToCreate.contains(thingToCreate) && targetDB != null)
+										if (checkXRefExists(inst, targetIdentifier, targetDB))
+										{
+											xrefAlreadyExistsCounter.getAndIncrement();
+										}
+										else if (targetDB != null)
 										{
-											//logger.info("Need to create {} references", thingsToCreate.size());
-											if (!this.testMode)
+											PendingReference pendingReference = new PendingReference(targetIdentifier, inst.getDBID(), targetDB);
+											// In test mode nothing is stored, so only the first occurrence of a reference can be counted.
+											if (this.testMode || speciesPendingReferences.add(pendingReference))
 											{
-												// Store the data for future creation as <NewIdentifier>:<DB_ID of the thing that NewIdentifier refers to>:<Species ID>
-												thingsToCreate.add(thingToCreate);
+												createdCounter.getAndIncrement();
 											}
-											createdCounter.getAndIncrement();
 										}
 									}
 								}
@@ -201,44 +198,45 @@ public class UPMappedIdentifiersReferenceCreator extends NCBIGeneBasedReferenceC
 					}
 				} );
 			}
-			// Go through the list of references that need to be created, and create them!
-			thingsToCreate.stream().sequential().forEach( newIdentifier -> {
-				String[] newIdentifierParts = newIdentifier.split(",");
-				String identifierValue = newIdentifierParts[0];
-				String referenceToValue = newIdentifierParts[1];
-				String species = newIdentifierParts[2];
-				String targetDB = newIdentifierParts[3];
-				//logger.trace("Creating new identifier {} ", identifierValue );
-				try
+			// Go through the references that need to be created, and create them! They are created one species at a time,
+			// in order of the DB_ID of the object that will refer to them, so that the writes are in a predictable order.
+			pendingReferences.keySet().stream().sorted().forEachOrdered(species -> {
+				PendingReference[] speciesPendingReferences = pendingReferences.get(species).toArray(new PendingReference[0]);
+				Arrays.parallelSort(speciesPendingReferences);
+				for (PendingReference pendingReference : speciesPendingReferences)
 				{
-
-					// The string had a species-part.
-					if (species != null && !species.trim().equals(""))
+					String referenceToValue = String.valueOf(pendingReference.referrerDbId);
+					//logger.trace("Creating new identifier {} ", pendingReference.identifier );
+					try
 					{
-						if (!this.testMode)
+						// The reference has a species.
+						if (species != null && !species.trim().equals(""))
 						{
-							this.refCreator.createIdentifier(identifierValue, referenceToValue, targetDB, personID, this.getClass().getName(), Long.valueOf(species));
+							if (!this.testMode)
+							{
+								this.refCreator.createIdentifier(pendingReference.identifier, referenceToValue, pendingReference.targetDB, personID, this.getClass().getName(), Long.valueOf(species));
+							}
+							// If target is EntrezGene, there are references to other databases that need to be created using the EntrezGene ID: BioGPS, CTD, DbSNP, Monarch
+							// NOTE: "EntrezGene" should really be referred to now as "NCBI Gene".
+							if (this.targetRefDB.toUpperCase().contains("ENTREZGENE") || this.targetRefDB.toUpperCase().contains("ENTREZ GENE") || this.targetRefDB.toUpperCase().contains("NCBI GENE"))
+							{
+								runNCBIGeneRefCreators(personID, pendingReference.identifier, referenceToValue, species, this.refObjectCache);
+							}
 						}
-						// If target is EntrezGene, there are references to other databases that need to be created using the EntrezGene ID: BioGPS, CTD, DbSNP, Monarch
-						// NOTE: "EntrezGene" should really be referred to now as "NCBI Gene".
-						if (this.targetRefDB.toUpperCase().contains("ENTREZGENE") || this.targetRefDB.toUpperCase().contains("ENTREZ GENE") || this.targetRefDB.toUpperCase().contains("NCBI GENE"))
+						// The reference does NOT have a species.
+						else
 						{
-							runNCBIGeneRefCreators(personID, identifierValue, referenceToValue, species, this.refObjectCache);
+							if (!this.testMode)
+							{
+								this.refCreator.createIdentifier(pendingReference.identifier, referenceToValue, this.targetRefDB, personID, this.getClass().getName());
+							}
 						}
 					}
-					// The string did NOT have a species-part.
-					else
+					catch (Exception e)
 					{
-						if (!this.testMode)
-						{
-							this.refCreator.createIdentifier(identifierValue, referenceToValue, this.targetRefDB, personID, this.getClass().getName());
-						}
+						throw new RuntimeException(e);
 					}
 				}
-				catch (Exception e)
-				{
-					throw new RuntimeException(e);
-				}
 			} );
 			this.logger.info("{} Reference creation summary:\n"
 							+ "\t# Identifiers created: {}\n"
@@ -293,4 +291,58 @@ public class UPMappedIdentifiersReferenceCreator extends NCBIGeneBasedReferenceC
 		}
 		return targetDB;
 	}
+
+	/**
+	 * A reference that needs to be created: the new identifier, the DB_ID of the object that will refer to it, and its ReferenceDatabase (name or DB_ID).
+	 * Pending references are ordered by the DB_ID of the referring object, then identifier, then ReferenceDatabase.
+	 */
+	private static final class PendingReference implements Comparable<PendingReference>
+	{
+		private final String identifier;
+		private final long referrerDbId;
+		private final String targetDB;
+
+		PendingReference(String identifier, long referrerDbId, String targetDB)
+		{
+			this.identifier = identifier;
+			this.referrerDbId = referrerDbId;
+			this.targetDB = targetDB;
+		}
+
+		@Override
+		public int compareTo(PendingReference other)
+		{
+			int result = Long.compare(this.referrerDbId, other.referrerDbId);
+			if (result == 0)
+			{
+				result = this.identifier.compareTo(other.identifier);
+			}
+			if (result == 0)
+			{
+				result = this.targetDB.compareTo(other.targetDB);
+			}
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+			{
+				return true;
+			}
+			if (!(obj instanceof PendingReference))
+			{
+				return false;
+			}
+			PendingReference other = (PendingReference) obj;
+			return this.referrerDbId == other.referrerDbId && this.identifier.equals(other.identifier) && this.targetDB.equals(other.targetDB);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(this.identifier, this.referrerDbId, this.targetDB);
+		}
+	}
 }
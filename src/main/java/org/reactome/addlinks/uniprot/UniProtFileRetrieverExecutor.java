@@ -2,7 +2,6 @@ package org.reactome.addlinks.uniprot;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -155,21 +154,8 @@ public class UniProtFileRetrieverExecutor implements CustomLoggable
 							}
 						}
 						// now that the pool is full of jobs, run them!
+						// There's no need to sleep between batches: UniprotFileRetriever uses UniProt's HostRateLimiter, so we won't flood their service.
 						pool.invokeAll(tasks);
-						try
-						{
-							Duration sleepDelay = Duration.ofSeconds(5);
-							logger.info("Sleeping for {} to be nice. We don't want to flood their service!", sleepDelay);
-							Thread.sleep(sleepDelay.toMillis());
-						}
-						catch (InterruptedException e)
-						{
-							e.printStackTrace();
-						}
-						catch (Exception e)
-						{
-							e.printStackTrace();
-						}
 					}
 					// try to get rid of any lingering threads that haven't been cleaned up yet.
 					pool.shutdown();
@@ -0,0 +1,136 @@
+package org.reactome.addlinks.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.gk.model.GKInstance;
+import org.junit.Test;
+
+// BatchReferenceWriter is package-private, so this test is in the same package.
+public class TestBatchReferenceWriter
+{
+	/**
+	 * The SQL and the parameters of one PreparedStatement.
+	 */
+	private static class RecordedStatement
+	{
+		private final String sql;
+		private final Map<Integer, Object> parameters = new TreeMap<>();
+		private int executions = 0;
+
+		RecordedStatement(String sql)
+		{
+			this.sql = sql;
+		}
+	}
+
+	/**
+	 * A Connection without a database, which records every PreparedStatement that is executed on it.
+	 */
+	private static Connection recordingConnection(List<RecordedStatement> statements)
+	{
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (connectionProxy, connectionMethod, connectionArgs) -> {
+			if (!connectionMethod.getName().equals("prepareStatement"))
+			{
+				throw new UnsupportedOperationException(connectionMethod.getName());
+			}
+			RecordedStatement recordedStatement = new RecordedStatement((String) connectionArgs[0]);
+			statements.add(recordedStatement);
+			return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, (statementProxy, statementMethod, statementArgs) -> {
+				switch (statementMethod.getName())
+				{
+					case "setObject":
+						recordedStatement.parameters.put((Integer) statementArgs[0], statementArgs[1]);
+						return null;
+					case "executeUpdate":
+						recordedStatement.executions++;
+						return 1;
+					case "close":
+						return null;
+					default:
+						throw new UnsupportedOperationException(statementMethod.getName());
+				}
+			});
+		});
+	}
+
+	@Test
+	public void testGroupByReferrer()
+	{
+		GKInstance first = new GKInstance();
+		GKInstance second = new GKInstance();
+		GKInstance third = new GKInstance();
+		GKInstance fourth = new GKInstance();
+		List<BatchReferenceWriter.PendingReference> chunk = Arrays.asList(new BatchReferenceWriter.PendingReference(1001, first, null, 2, "A"),
+																		new BatchReferenceWriter.PendingReference(1002, second, null, 1, "B"),
+																		new BatchReferenceWriter.PendingReference(1003, third, null, 2, "C"),
+																		new BatchReferenceWriter.PendingReference(1004, fourth, null, 3, "D"));
+
+		Map<Long, List<GKInstance>> instancesByReferrer = BatchReferenceWriter.groupByReferrer(chunk);
+
+		// Referrers are in the order they were first added, and so are each referrer's new instances.
+		assertEquals(Arrays.asList(2L, 1L, 3L), new ArrayList<>(instancesByReferrer.keySet()));
+		assertEquals(2, instancesByReferrer.get(2L).size());
+		assertSame(first, instancesByReferrer.get(2L).get(0));
+		assertSame(third, instancesByReferrer.get(2L).get(1));
+		assertSame(second, instancesByReferrer.get(1L).get(0));
+		assertSame(fourth, instancesByReferrer.get(3L).get(0));
+	}
+
+	@Test
+	public void testPlaceholders()
+	{
+		assertEquals("?", BatchReferenceWriter.placeholders(1));
+		assertEquals("?,?,?", BatchReferenceWriter.placeholders(3));
+	}
+
+	@Test
+	public void testMultiRowInsertSql()
+	{
+		BatchReferenceWriter.MultiRowInsert insert = new BatchReferenceWriter.MultiRowInsert("DatabaseObject_2_modified", Arrays.asList("DB_ID", "modified_rank", "modified", "modified_class"));
+
+		assertEquals("INSERT INTO DatabaseObject_2_modified (DB_ID, modified_rank, modified, modified_class) VALUES (?,?,?,?)", insert.getSql(1));
+		assertEquals("INSERT INTO DatabaseObject_2_modified (DB_ID, modified_rank, modified, modified_class) VALUES (?,?,?,?), (?,?,?,?), (?,?,?,?)", insert.getSql(3));
+	}
+
+	@Test
+	public void testMultiRowInsertSplitsLargeInserts() throws Exception
+	{
+		int numberOfRows = BatchReferenceWriter.MAX_ROWS_PER_STATEMENT * 2 + 1;
+		BatchReferenceWriter.MultiRowInsert insert = new BatchReferenceWriter.MultiRowInsert("ReferenceEntity", Arrays.asList("DB_ID", "identifier"));
+		for (int i = 0; i < numberOfRows; i++)
+		{
+			insert.addRow(Arrays.asList((long) i, "ID" + i));
+		}
+		List<RecordedStatement> statements = new ArrayList<>();
+		insert.execute(recordingConnection(statements));
+
+		assertEquals(3, statements.size());
+		assertEquals(insert.getSql(BatchReferenceWriter.MAX_ROWS_PER_STATEMENT), statements.get(0).sql);
+		assertEquals(insert.getSql(BatchReferenceWriter.MAX_ROWS_PER_STATEMENT), statements.get(1).sql);
+		assertEquals(insert.getSql(1), statements.get(2).sql);
+		for (RecordedStatement statement : statements)
+		{
+			assertEquals(1, statement.executions);
+		}
+
+		// Parameters are numbered from 1 in each statement, row by row.
+		RecordedStatement second = statements.get(1);
+		assertEquals(BatchReferenceWriter.MAX_ROWS_PER_STATEMENT * 2, second.parameters.size());
+		assertEquals((long) BatchReferenceWriter.MAX_ROWS_PER_STATEMENT, second.parameters.get(1));
+		assertEquals("ID" + BatchReferenceWriter.MAX_ROWS_PER_STATEMENT, second.parameters.get(2));
+		assertEquals((long) BatchReferenceWriter.MAX_ROWS_PER_STATEMENT + 1, second.parameters.get(3));
+		RecordedStatement last = statements.get(2);
+		assertEquals((long) numberOfRows - 1, last.parameters.get(1));
+		assertEquals("ID" + (numberOfRows - 1), last.parameters.get(2));
+	}
+}
@@ -0,0 +1,200 @@
+package org.reactome.addlinks.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.gk.model.GKInstance;
+import org.junit.Test;
+
+// CompactReferenceIndex is package-private, so this test is in the same package.
+public class TestCompactReferenceIndex
+{
+	/**
+	 * A resolver that makes GKInstances without a database, and records the DB_IDs of each call.
+	 */
+	private static class RecordingResolver implements CompactReferenceIndex.InstanceResolver
+	{
+		private final List<List<Long>> calls = new ArrayList<>();
+
+		@Override
+		public Map<Long, GKInstance> resolve(String className, List<Long> dbIds)
+		{
+			this.calls.add(new ArrayList<>(dbIds));
+			Map<Long, GKInstance> instances = new HashMap<>();
+			for (Long dbId : dbIds)
+			{
+				// DB_IDs over 1000000 are "missing from the database".
+				if (dbId < 1000000)
+				{
+					GKInstance instance = new GKInstance();
+					instance.setDBID(dbId);
+					instances.put(dbId, instance);
+				}
+			}
+			return instances;
+		}
+	}
+
+	private static List<Long> dbIds(List<GKInstance> instances)
+	{
+		return instances.stream().map(GKInstance::getDBID).collect(Collectors.toList());
+	}
+
+	private static CompactReferenceIndex createIndex()
+	{
+		CompactReferenceIndex index = new CompactReferenceIndex("ReferenceGeneProduct", 2);
+		index.add(101, "ReferenceGeneProduct");
+		index.setIdentifier(101, "P12345");
+		index.setReferenceDatabase(101, 2);
+		index.setSpecies(101, 48887);
+		index.add(102, "ReferenceIsoform");
+		index.setIdentifier(102, "P12345");
+		index.setReferenceDatabase(102, 2);
+		index.setSpecies(102, 48892);
+		index.add(103, "ReferenceGeneProduct");
+		index.setIdentifier(103, "Q99999");
+		index.setReferenceDatabase(103, 3);
+		index.setSpecies(103, 48887);
+		return index;
+	}
+
+	@Test
+	public void testLookups()
+	{
+		CompactReferenceIndex index = createIndex();
+		RecordingResolver resolver = new RecordingResolver();
+
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList(101L, 102L), dbIds(index.getByIdentifier("P12345", resolver)));
+		assertEquals(Arrays.asList(101L, 102L), dbIds(index.getByRefDb(2, resolver)));
+		assertEquals(Arrays.asList(101L, 103L), dbIds(index.getBySpecies(48887, resolver)));
+		assertEquals(Arrays.asList(101L), dbIds(index.getByRefDbAndSpecies(2, 48887, resolver)));
+		assertEquals(Long.valueOf(103), index.getByDbId(103, resolver).getDBID());
+		assertNull(index.getByIdentifier("NOTHERE", resolver));
+		assertNull(index.getByRefDb(4, resolver));
+		assertTrue(index.getByRefDbAndSpecies(3, 48892, resolver).isEmpty());
+		assertNull(index.getByDbId(104, resolver));
+	}
+
+	@Test
+	public void testAttributesAreOnlySetOnce()
+	{
+		CompactReferenceIndex index = createIndex();
+
+		assertFalse(index.setIdentifier(101, "OTHER"));
+		assertFalse(index.setReferenceDatabase(101, 5));
+		assertFalse(index.setSpecies(101, 5));
+		// Not in the index.
+		assertFalse(index.setIdentifier(999, "OTHER"));
+		// Adding an object again keeps its ordinal and values.
+		index.add(101, "ReferenceGeneProduct");
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList(101L, 102L), dbIds(index.getByIdentifier("P12345", new RecordingResolver())));
+	}
+
+	@Test
+	public void testRemoveAndAddAgain()
+	{
+		CompactReferenceIndex index = createIndex();
+		RecordingResolver resolver = new RecordingResolver();
+
+		assertTrue(index.remove(101));
+		assertFalse(index.remove(101));
+		assertFalse(index.contains(101));
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList(102L), dbIds(index.getByIdentifier("P12345", resolver)));
+		assertTrue(index.getByRefDbAndSpecies(2, 48887, resolver).isEmpty());
+		assertNull(index.getByDbId(101, resolver));
+
+		index.add(101, "ReferenceGeneProduct");
+		assertTrue(index.contains(101));
+		assertTrue(index.hasSpecies(101));
+		assertEquals(Arrays.asList(101L, 102L), dbIds(index.getByIdentifier("P12345", resolver)));
+	}
+
+	@Test
+	public void testSpeciesIndexWithoutOwnSpecies()
+	{
+		CompactReferenceIndex index = new CompactReferenceIndex("ReferenceRNASequence", 2);
+		index.add(201, "ReferenceRNASequence");
+		index.addToSpeciesIndex(201, 48887);
+
+		assertFalse(index.hasSpecies(201));
+		assertEquals(Arrays.asList(201L), dbIds(index.getBySpecies(48887, new RecordingResolver())));
+	}
+
+	@Test
+	public void testInstancesAreResolvedInBatches()
+	{
+		// More objects than the initial capacity, so the arrays and hash tables grow.
+		int count = CompactReferenceIndex.RESOLVE_BATCH_SIZE * 2 + 10;
+		CompactReferenceIndex index = new CompactReferenceIndex("ReferenceGeneProduct", 16);
+		for (long dbId = 1; dbId <= count; dbId++)
+		{
+			index.add(dbId, "ReferenceGeneProduct");
+			index.setReferenceDatabase(dbId, 2);
+		}
+		index.add(1000001, "ReferenceGeneProduct");
+		index.setReferenceDatabase(1000001, 2);
+		RecordingResolver resolver = new RecordingResolver();
+
+		List<GKInstance> instances = index.getByRefDb(2, resolver);
+		assertEquals(count + 1, instances.size());
+		// Nothing is fetched until it is asked for.
+		assertTrue(resolver.calls.isEmpty());
+
+		GKInstance first = instances.get(0);
+		assertEquals(1, resolver.calls.size());
+		assertEquals(CompactReferenceIndex.RESOLVE_BATCH_SIZE, resolver.calls.get(0).size());
+		// Instances that have been fetched are kept.
+		assertSame(first, instances.get(0));
+		for (int i = 0; i < count; i++)
+		{
+			assertEquals(Long.valueOf(i + 1), instances.get(i).getDBID());
+		}
+		assertEquals(3, resolver.calls.size());
+		// An object that can't be fetched is null, and is asked for again the next time.
+		assertNull(instances.get(count));
+		assertNull(instances.get(count));
+		assertEquals(5, resolver.calls.size());
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException
+	{
+		CompactReferenceIndex index = createIndex();
+		index.remove(103);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes))
+		{
+			index.writeTo(out);
+		}
+
+		CompactReferenceIndex readIndex = CompactReferenceIndex.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+		RecordingResolver resolver = new RecordingResolver();
+
+		assertEquals("ReferenceGeneProduct", readIndex.getClassName());
+		assertEquals(2, readIndex.size());
+		assertFalse(readIndex.contains(103));
+		assertEquals(Arrays.asList(101L, 102L), dbIds(readIndex.getByIdentifier("P12345", resolver)));
+		assertEquals(Arrays.asList(102L), dbIds(readIndex.getBySpecies(48892, resolver)));
+		// The read index can still be changed.
+		readIndex.add(104, "ReferenceIsoform");
+		readIndex.setIdentifier(104, "P12345");
+		assertEquals(Arrays.asList(101L, 102L, 104L), dbIds(readIndex.getByIdentifier("P12345", resolver)));
+	}
+}
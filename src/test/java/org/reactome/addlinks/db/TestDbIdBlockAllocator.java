@@ -0,0 +1,131 @@
+package org.reactome.addlinks.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.Test;
+
+// DbIdBlockAllocator.reserveBlock(Statement) is package-private, so this test is in the same package.
+public class TestDbIdBlockAllocator
+{
+	/**
+	 * A Statement without a database: each "SELECT MAX(DB_ID)" returns the next of the given values, and the updates are recorded.
+	 */
+	private static class FakeStatement implements InvocationHandler
+	{
+		private final Deque<Long> maxDbIds;
+		private final List<String> updates = new ArrayList<>();
+
+		FakeStatement(Long... maxDbIds)
+		{
+			this.maxDbIds = new ArrayDeque<>(Arrays.asList(maxDbIds));
+		}
+
+		Statement getStatement()
+		{
+			return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { Statement.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			switch (method.getName())
+			{
+				case "executeQuery":
+					long maxDbId = this.maxDbIds.remove();
+					return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (resultSetProxy, resultSetMethod, resultSetArgs) -> {
+						switch (resultSetMethod.getName())
+						{
+							case "next":
+								return true;
+							case "getLong":
+								return maxDbId;
+							case "close":
+								return null;
+							default:
+								throw new UnsupportedOperationException(resultSetMethod.getName());
+						}
+					});
+				case "executeUpdate":
+					this.updates.add((String) args[0]);
+					return 0;
+				case "close":
+					return null;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		}
+	}
+
+	@Test
+	public void testFirstBlockStartsAfterMaxDbId() throws Exception
+	{
+		DbIdBlockAllocator allocator = new DbIdBlockAllocator(null, 10);
+		FakeStatement statement = new FakeStatement(100L, 100L);
+		allocator.reserveBlock(statement.getStatement());
+
+		assertEquals(Arrays.asList("ALTER TABLE DatabaseObject AUTO_INCREMENT = 111"), statement.updates);
+		// The whole block can be handed out without going back to the database.
+		for (long expectedDbId = 101; expectedDbId <= 110; expectedDbId++)
+		{
+			assertEquals(expectedDbId, allocator.nextDbId());
+		}
+	}
+
+	@Test
+	public void testNextBlockStartsAfterPreviousBlock() throws Exception
+	{
+		DbIdBlockAllocator allocator = new DbIdBlockAllocator(null, 10);
+		allocator.reserveBlock(new FakeStatement(100L, 100L).getStatement());
+		assertEquals(101, allocator.nextDbId());
+
+		// Only a few DB_IDs from the first block have been written, so MAX(DB_ID) is still inside that block.
+		FakeStatement statement = new FakeStatement(105L, 105L);
+		allocator.reserveBlock(statement.getStatement());
+
+		assertEquals(Arrays.asList("ALTER TABLE DatabaseObject AUTO_INCREMENT = 121"), statement.updates);
+		assertEquals(111, allocator.nextDbId());
+	}
+
+	@Test
+	public void testReservationIsRetriedIfMaxDbIdChanges() throws Exception
+	{
+		DbIdBlockAllocator allocator = new DbIdBlockAllocator(null, 10);
+		// Something else stores three new instances while the first reservation is being made.
+		FakeStatement statement = new FakeStatement(100L, 103L, 103L);
+		allocator.reserveBlock(statement.getStatement());
+
+		assertEquals(Arrays.asList("ALTER TABLE DatabaseObject AUTO_INCREMENT = 111", "ALTER TABLE DatabaseObject AUTO_INCREMENT = 114"), statement.updates);
+		assertEquals(104, allocator.nextDbId());
+	}
+
+	@Test
+	public void testDefaultBlockSize() throws Exception
+	{
+		DbIdBlockAllocator allocator = new DbIdBlockAllocator(null, 0);
+		FakeStatement statement = new FakeStatement(100L, 100L);
+		allocator.reserveBlock(statement.getStatement());
+
+		assertEquals(Arrays.asList("ALTER TABLE DatabaseObject AUTO_INCREMENT = 10101"), statement.updates);
+	}
+
+	@Test
+	public void testCloseWithoutReservationConnection() throws Exception
+	{
+		DbIdBlockAllocator allocator = new DbIdBlockAllocator(null, 10);
+		allocator.reserveBlock(new FakeStatement(100L, 100L).getStatement());
+		// No connection was opened by the allocator itself, so there is nothing to close, and reserved DB_IDs can still be handed out.
+		allocator.close();
+		assertEquals(101, allocator.nextDbId());
+	}
+}
@@ -0,0 +1,159 @@
+package org.reactome.addlinks.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.gk.model.GKInstance;
+import org.gk.persistence.MySQLAdaptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+// ReferenceCacheSnapshot is package-private, so this test is in the same package.
+public class TestReferenceCacheSnapshot
+{
+	@Mock
+	MySQLAdaptor mockAdapter;
+
+	@Mock
+	MySQLAdaptor mockOtherAdapter;
+
+	private Path directory;
+
+	private final CompactReferenceIndex.InstanceResolver resolver = (className, dbIds) -> {
+		Map<Long, GKInstance> instances = new HashMap<>();
+		for (Long dbId : dbIds)
+		{
+			GKInstance instance = new GKInstance();
+			instance.setDBID(dbId);
+			instances.put(dbId, instance);
+		}
+		return instances;
+	};
+
+	@Before
+	public void setup() throws Exception
+	{
+		MockitoAnnotations.initMocks(this);
+		Mockito.when(this.mockAdapter.getDBHost()).thenReturn("localhost");
+		Mockito.when(this.mockAdapter.getDBPort()).thenReturn(3306);
+		Mockito.when(this.mockAdapter.getDBName()).thenReturn("test_reactome");
+		// Same database name, on a different server.
+		Mockito.when(this.mockOtherAdapter.getDBHost()).thenReturn("otherhost");
+		Mockito.when(this.mockOtherAdapter.getDBPort()).thenReturn(3306);
+		Mockito.when(this.mockOtherAdapter.getDBName()).thenReturn("test_reactome");
+		// The snapshot directory does not exist yet, it will be created when the first snapshot is saved.
+		this.directory = Files.createTempDirectory("snapshots").resolve("reference-caches");
+	}
+
+	private static CompactReferenceIndex createIndex()
+	{
+		CompactReferenceIndex index = new CompactReferenceIndex("ReferenceGeneProduct", 2);
+		index.add(101, "ReferenceGeneProduct");
+		index.setIdentifier(101, "P12345");
+		index.setReferenceDatabase(101, 2);
+		index.setSpecies(101, 48887);
+		index.add(102, "ReferenceIsoform");
+		index.setIdentifier(102, "P12345-2");
+		index.setReferenceDatabase(102, 2);
+		index.setSpecies(102, 48892);
+		return index;
+	}
+
+	private List<Long> dbIds(List<GKInstance> instances)
+	{
+		return instances.stream().map(GKInstance::getDBID).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testSaveAndLoad()
+	{
+		ReferenceCacheSnapshot snapshot = new ReferenceCacheSnapshot(this.directory);
+		ReferenceCacheSnapshot.Watermark watermark = new ReferenceCacheSnapshot.Watermark(102, 2, "2024-01-01 00:00:00");
+		snapshot.save(this.mockAdapter, createIndex(), watermark);
+
+		assertTrue(Files.isDirectory(this.directory));
+		// Only the snapshot itself is left behind, not the temporary file it was written to.
+		assertArrayEquals(new String[] { "test_reactome.ReferenceGeneProduct.snapshot" }, this.directory.toFile().list());
+
+		CompactReferenceIndex loadedIndex = snapshot.load(this.mockAdapter, "ReferenceGeneProduct", new ReferenceCacheSnapshot.Watermark(102, 2, "2024-01-01 00:00:00"));
+		assertNotNull(loadedIndex);
+		assertEquals("ReferenceGeneProduct", loadedIndex.getClassName());
+		assertEquals(2, loadedIndex.size());
+		assertEquals(Arrays.asList(101L), dbIds(loadedIndex.getByIdentifier("P12345", this.resolver)));
+		assertEquals(Arrays.asList(101L, 102L), dbIds(loadedIndex.getByRefDb(2, this.resolver)));
+		assertEquals(Arrays.asList(102L), dbIds(loadedIndex.getByRefDbAndSpecies(2, 48892, this.resolver)));
+	}
+
+	@Test
+	public void testStaleSnapshotIsIgnored()
+	{
+		ReferenceCacheSnapshot snapshot = new ReferenceCacheSnapshot(this.directory);
+		snapshot.save(this.mockAdapter, createIndex(), new ReferenceCacheSnapshot.Watermark(102, 2, "2024-01-01 00:00:00"));
+
+		// An object was created, deleted or modified: any part of the watermark being different makes the snapshot stale.
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceGeneProduct", new ReferenceCacheSnapshot.Watermark(103, 2, "2024-01-01 00:00:00")));
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceGeneProduct", new ReferenceCacheSnapshot.Watermark(102, 1, "2024-01-01 00:00:00")));
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceGeneProduct", new ReferenceCacheSnapshot.Watermark(102, 2, "2024-01-02 00:00:00")));
+		// Snapshots are only used for the database and class they were taken of.
+		assertNull(snapshot.load(this.mockOtherAdapter, "ReferenceGeneProduct", new ReferenceCacheSnapshot.Watermark(102, 2, "2024-01-01 00:00:00")));
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceDNASequence", new ReferenceCacheSnapshot.Watermark(102, 2, "2024-01-01 00:00:00")));
+	}
+
+	@Test
+	public void testStaleSnapshotIsReplacedWhenIndexIsRebuilt()
+	{
+		ReferenceCacheSnapshot snapshot = new ReferenceCacheSnapshot(this.directory);
+		ReferenceCacheSnapshot.Watermark oldWatermark = new ReferenceCacheSnapshot.Watermark(102, 2, "2024-01-01 00:00:00");
+		snapshot.save(this.mockAdapter, createIndex(), oldWatermark);
+
+		// The database has changed since the snapshot was taken, so the index is rebuilt (here: by hand) and saved again.
+		ReferenceCacheSnapshot.Watermark newWatermark = new ReferenceCacheSnapshot.Watermark(103, 3, "2024-01-02 00:00:00");
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceGeneProduct", newWatermark));
+		CompactReferenceIndex rebuiltIndex = createIndex();
+		rebuiltIndex.add(103, "ReferenceGeneProduct");
+		rebuiltIndex.setIdentifier(103, "Q99999");
+		snapshot.save(this.mockAdapter, rebuiltIndex, newWatermark);
+
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceGeneProduct", oldWatermark));
+		CompactReferenceIndex reloadedIndex = snapshot.load(this.mockAdapter, "ReferenceGeneProduct", newWatermark);
+		assertNotNull(reloadedIndex);
+		assertEquals(3, reloadedIndex.size());
+		assertEquals(Arrays.asList(103L), dbIds(reloadedIndex.getByIdentifier("Q99999", this.resolver)));
+		// The reloaded index can still be changed, as the reference creators will do.
+		assertTrue(reloadedIndex.remove(101));
+		assertFalse(reloadedIndex.contains(101));
+	}
+
+	@Test
+	public void testUnreadableSnapshotIsIgnored() throws Exception
+	{
+		ReferenceCacheSnapshot snapshot = new ReferenceCacheSnapshot(this.directory);
+		ReferenceCacheSnapshot.Watermark watermark = new ReferenceCacheSnapshot.Watermark(102, 2, "2024-01-01 00:00:00");
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceGeneProduct", watermark));
+
+		snapshot.save(this.mockAdapter, createIndex(), watermark);
+		Path file = this.directory.resolve("test_reactome.ReferenceGeneProduct.snapshot");
+		// A snapshot that was cut short.
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceGeneProduct", watermark));
+		// Something that is not a snapshot at all.
+		Files.write(file, "not a snapshot".getBytes());
+		assertNull(snapshot.load(this.mockAdapter, "ReferenceGeneProduct", watermark));
+	}
+}
@@ -0,0 +1,85 @@
+package org.reactome.addlinks.test;
+
+import org.junit.Test;
+import org.reactome.addlinks.dataretrieval.ensembl.BioMartFileWriter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+public class TestBioMartFileWriter {
+
+    @Test
+    public void testDuplicateLinesAreSkipped() throws IOException {
+        Path file = Files.createTempDirectory("biomart").resolve("btaurus_uniprot");
+
+        try (BioMartFileWriter fileWriter = new BioMartFileWriter(file)) {
+            assertThat(fileWriter.writeLine("ENSBTAG1\tENSBTAT1\tENSBTAP1\tP12345"), is(equalTo(true)));
+            assertThat(fileWriter.writeLine("ENSBTAG2\tENSBTAT2\tENSBTAP2\tQ12345"), is(equalTo(true)));
+            assertThat(fileWriter.writeLine("ENSBTAG1\tENSBTAT1\tENSBTAP1\tP12345"), is(equalTo(false)));
+            assertThat(fileWriter.getNumLinesWritten(), is(equalTo(2L)));
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        assertThat(lines, contains("ENSBTAG1\tENSBTAT1\tENSBTAP1\tP12345", "ENSBTAG2\tENSBTAT2\tENSBTAP2\tQ12345"));
+    }
+
+    @Test
+    public void testFileIsNotCreatedWithoutLines() throws IOException {
+        Path file = Files.createTempDirectory("biomart").resolve("scerevisiae_microarray_go_ncbi_ids");
+
+        new BioMartFileWriter(file).close();
+
+        assertThat(Files.exists(file), is(equalTo(false)));
+    }
+
+    @Test
+    public void testWriteAfterCloseFails() throws IOException {
+        Path file = Files.createTempDirectory("biomart").resolve("drerio_uniprot");
+
+        BioMartFileWriter fileWriter = new BioMartFileWriter(file);
+        fileWriter.writeLine("ENSDARG1\tENSDART1\tENSDARP1\tP12345");
+        fileWriter.close();
+        Files.delete(file);
+
+        try {
+            fileWriter.writeLine("ENSDARG2\tENSDART2\tENSDARP2\tQ12345");
+            fail("Writing after close should fail");
+        } catch (IOException e) {
+            // The file must not have been created again.
+            assertThat(Files.exists(file), is(equalTo(false)));
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersToOneFile() throws IOException {
+        Path file = Files.createTempDirectory("biomart").resolve("hsapiens_microarray_go_ncbi_ids");
+
+        // Several queries write overlapping lines at the same time, more lines than the initial size of the hash table.
+        try (BioMartFileWriter fileWriter = new BioMartFileWriter(file)) {
+            IntStream.range(0, 8).parallel().forEach(query -> {
+                for (int i = 0; i < 20000; i++) {
+                    int gene = i + query * 1000;
+                    try {
+                        fileWriter.writeLine("ENSG" + gene + "\tENST" + gene + "\tENSP" + gene + "\tGO:" + (gene % 100));
+                    } catch (IOException e) {
+                        throw new Error(e);
+                    }
+                }
+            });
+        }
+
+        List<String> lines = Files.readAllLines(file);
+        Set<String> distinctLines = new HashSet<>(lines);
+        assertThat(distinctLines.size(), is(equalTo(lines.size())));
+        assertThat(lines.size(), is(equalTo(27000)));
+    }
+}
@@ -0,0 +1,113 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactome.addlinks.DependencyScheduler;
+
+public class TestDependencyScheduler
+{
+	private ExecutorService executor;
+
+	@Before
+	public void setUp()
+	{
+		this.executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void testDependenciesFinishFirst() throws Exception
+	{
+		List<String> finished = new CopyOnWriteArrayList<>();
+		DependencyScheduler scheduler = new DependencyScheduler();
+		scheduler.addTask("creator", this.executor, Arrays.asList("processor1", "processor2", "filteredProcessor"), () -> {
+			assertTrue(finished.containsAll(Arrays.asList("processor1", "processor2")));
+			finished.add("creator");
+		});
+		scheduler.addTask("processor1", this.executor, Collections.emptyList(), () -> { Thread.sleep(50); finished.add("processor1"); });
+		scheduler.addTask("processor2", this.executor, Collections.emptyList(), () -> finished.add("processor2"));
+		scheduler.run();
+
+		assertEquals(3, finished.size());
+		assertEquals("creator", finished.get(2));
+	}
+
+	@Test
+	public void testConflictingTasksDoNotOverlap() throws Exception
+	{
+		AtomicInteger runningConflictingTasks = new AtomicInteger(0);
+		AtomicBoolean overlapped = new AtomicBoolean(false);
+		AtomicInteger maxRunningTasks = new AtomicInteger(0);
+		AtomicInteger runningTasks = new AtomicInteger(0);
+		// Tasks whose names start with "a" conflict with each other.
+		DependencyScheduler scheduler = new DependencyScheduler((name1, name2) -> name1.startsWith("a") && name2.startsWith("a"));
+		for (String name : Arrays.asList("a1", "a2", "a3", "b1", "b2"))
+		{
+			scheduler.addTask(name, this.executor, Collections.emptyList(), () -> {
+				maxRunningTasks.accumulateAndGet(runningTasks.incrementAndGet(), Math::max);
+				if (name.startsWith("a") && runningConflictingTasks.incrementAndGet() > 1)
+				{
+					overlapped.set(true);
+				}
+				Thread.sleep(50);
+				if (name.startsWith("a"))
+				{
+					runningConflictingTasks.decrementAndGet();
+				}
+				runningTasks.decrementAndGet();
+			});
+		}
+		scheduler.run();
+
+		assertFalse(overlapped.get());
+		assertTrue(maxRunningTasks.get() > 1);
+	}
+
+	@Test
+	public void testFailureStopsScheduling() throws Exception
+	{
+		AtomicBoolean dependentTaskRan = new AtomicBoolean(false);
+		DependencyScheduler scheduler = new DependencyScheduler();
+		scheduler.addTask("processor", this.executor, Collections.emptyList(), () -> { throw new IllegalArgumentException("bad file"); });
+		scheduler.addTask("creator", this.executor, Arrays.asList("processor"), () -> dependentTaskRan.set(true));
+		try
+		{
+			scheduler.run();
+			fail("The task's exception should have been thrown.");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertEquals("bad file", e.getMessage());
+		}
+		assertFalse(dependentTaskRan.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCycle() throws Exception
+	{
+		DependencyScheduler scheduler = new DependencyScheduler();
+		scheduler.addTask("task1", this.executor, Arrays.asList("task2"), () -> {});
+		scheduler.addTask("task2", this.executor, Arrays.asList("task1"), () -> {});
+		scheduler.run();
+	}
+}
@@ -0,0 +1,135 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.reactome.addlinks.fileprocessors.ensembl.EnsemblFileAggregator;
+
+public class TestEnsemblFileAggregator
+{
+	private static Path createFiles() throws IOException
+	{
+		Path directory = Files.createTempDirectory("ensembl-aggregator");
+		Files.write(directory.resolve("ENSP_batch_lookup.48892.xml"), String.join("\n",
+				"<results><opt>",
+				"<data name=\"ENSP3\" Parent=\"ENST3\" id=\"ENSP3\"/>",
+				"<data name=\"ENSP1\" Parent=\"ENST1\" id=\"ENSP1\"/>",
+				"<data name=\"ENSP2\" Parent=\"ENST2\" id=\"ENSP2\"/>",
+				"</opt><opt>",
+				"<data name=\"ENSP4\" Parent=\"ENST4\" id=\"ENSP4\"/>",
+				"<data name=\"ENSP1\" Parent=\"ENST1\" id=\"ENSP1\"/>",
+				"</opt></results>").getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("ENST_batch_lookup.48892.xml"), String.join("\n",
+				"<results><opt>",
+				"<data name=\"ENST1\" Parent=\"ENSG1\" id=\"ENST1\"/>",
+				"<data name=\"ENST2\" Parent=\"ENSG1\" id=\"ENST2\"/>",
+				"<data name=\"ENST3\" Parent=\"ENSG3\" id=\"ENST3\"/>",
+				"</opt></results>").getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("ensembl_to_ALL.48892.xml"), String.join("\n",
+				"<?xml version=\"1.0\" encoding=\"utf-8\"?>",
+				"<ensemblResponses>",
+				"<ensemblResponse id=\"ENSG1\" URL=\"url1\"><opt>",
+				"<data dbname=\"EntrezGene\" primary_id=\"1002\"/>",
+				"<data dbname=\"EntrezGene\" primary_id=\"1001\"/>",
+				"<data dbname=\"EntrezGene\" primary_id=\"1001\"/>",
+				"<data dbname=\"HGNC\" primary_id=\"HGNC:1\"/>",
+				"</opt></ensemblResponse>",
+				"<ensemblResponse id=\"ENSG3\" URL=\"url3\"><opt>",
+				"<data dbname=\"Wormbase\" primary_id=\"WBGene3\"/>",
+				"</opt></ensemblResponse>",
+				"</ensemblResponses>").getBytes(StandardCharsets.UTF_8));
+		return directory;
+	}
+
+	private static List<String> aggregate(Path directory, int maxRowsInMemory) throws IOException
+	{
+		EnsemblFileAggregator aggregator = new EnsemblFileAggregator("48892", Arrays.asList("EntrezGene", "Wormbase"), directory.toString());
+		aggregator.setMaxRowsInMemory(maxRowsInMemory);
+		aggregator.createAggregateFile();
+		return Files.readAllLines(directory.resolve("ensembl_p2xref_mapping.48892.csv")).stream().sorted().collect(Collectors.toList());
+	}
+
+	@Test
+	public void testCreateAggregateFile() throws IOException
+	{
+		Path directory = createFiles();
+
+		List<String> rows = aggregate(directory, 1000);
+
+		assertEquals(Arrays.asList(
+				"ENSP1,ENST1,ENSG1,EntrezGene,1001",
+				"ENSP1,ENST1,ENSG1,EntrezGene,1002",
+				"ENSP1,ENST1,ENSG1,Wormbase,null",
+				"ENSP2,ENST2,ENSG1,EntrezGene,1001",
+				"ENSP2,ENST2,ENSG1,EntrezGene,1002",
+				"ENSP2,ENST2,ENSG1,Wormbase,null",
+				"ENSP3,ENST3,ENSG3,EntrezGene,null",
+				"ENSP3,ENST3,ENSG3,Wormbase,WBGene3",
+				"ENSP4,ENST4,null,EntrezGene,null",
+				"ENSP4,ENST4,null,Wormbase,null"), rows);
+	}
+
+	@Test
+	public void testIdentifiersWithSeveralParents() throws IOException
+	{
+		Path directory = Files.createTempDirectory("ensembl-aggregator");
+		Files.write(directory.resolve("ENSP_batch_lookup.48892.xml"), String.join("\n",
+				"<results><opt>",
+				"<data name=\"ENSP1\" Parent=\"ENST1\" id=\"ENSP1\"/>",
+				"<data name=\"ENSP1\" Parent=\"ENST2\" id=\"ENSP1\"/>",
+				"<data name=\"ENSP2\" Parent=\"ENST3\" id=\"ENSP2\"/>",
+				"</opt></results>").getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("ENST_batch_lookup.48892.xml"), String.join("\n",
+				"<results><opt>",
+				"<data name=\"ENST1\" Parent=\"ENSG1\" id=\"ENST1\"/>",
+				"<data name=\"ENST2\" Parent=\"ENSG2\" id=\"ENST2\"/>",
+				"<data name=\"ENST3\" Parent=\"ENSG4\" id=\"ENST3\"/>",
+				"<data name=\"ENST3\" Parent=\"ENSG3\" id=\"ENST3\"/>",
+				"</opt></results>").getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("ensembl_to_ALL.48892.xml"), String.join("\n",
+				"<?xml version=\"1.0\" encoding=\"utf-8\"?>",
+				"<ensemblResponses>",
+				"<ensemblResponse id=\"ENSG1\" URL=\"url1\"><opt><data dbname=\"EntrezGene\" primary_id=\"1001\"/></opt></ensemblResponse>",
+				"<ensemblResponse id=\"ENSG2\" URL=\"url2\"><opt><data dbname=\"EntrezGene\" primary_id=\"2001\"/></opt></ensemblResponse>",
+				"<ensemblResponse id=\"ENSG3\" URL=\"url3\"><opt><data dbname=\"EntrezGene\" primary_id=\"3001\"/></opt></ensemblResponse>",
+				"<ensemblResponse id=\"ENSG4\" URL=\"url4\"><opt><data dbname=\"EntrezGene\" primary_id=\"4001\"/></opt></ensemblResponse>",
+				"</ensemblResponses>").getBytes(StandardCharsets.UTF_8));
+
+		List<String> rows = aggregate(directory, 1000);
+
+		// ENSP1 has rows for both of its ENSTs. ENST3 only uses ENSG3, its lexically first ENSG, even though ENSG4 comes first in the file.
+		assertEquals(Arrays.asList(
+				"ENSP1,ENST1,ENSG1,EntrezGene,1001",
+				"ENSP1,ENST1,ENSG1,Wormbase,null",
+				"ENSP1,ENST2,ENSG2,EntrezGene,2001",
+				"ENSP1,ENST2,ENSG2,Wormbase,null",
+				"ENSP2,ENST3,ENSG3,EntrezGene,3001",
+				"ENSP2,ENST3,ENSG3,Wormbase,null"), rows);
+	}
+
+	@Test
+	public void testCreateAggregateFileSortingOnDisk() throws IOException
+	{
+		Path directory = createFiles();
+		List<String> rowsSortedInMemory = aggregate(directory, 1000);
+
+		// With only 2 rows in memory, every file's rows are sorted in several temporary files, which are then merged.
+		List<String> rowsSortedOnDisk = aggregate(directory, 2);
+
+		assertEquals(rowsSortedInMemory, rowsSortedOnDisk);
+		// The temporary files are deleted.
+		try (Stream<Path> files = Files.list(directory))
+		{
+			assertEquals(4, files.count());
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.reactome.addlinks.fileprocessors.ensembl.EnsemblFileProcessor;
+
+public class TestEnsemblFileProcessor
+{
+	private static final String ENSEMBL_RESPONSES = String.join("\n",
+			"<?xml version=\"1.0\" encoding=\"utf-8\"?>",
+			"<ensemblResponses>",
+			"<ensemblResponse id=\"ENSG00000000001\" URL=\"http%3A%2F%2Frest.ensembl.org%2Fxrefs%2Fid%2FENSG00000000001\">",
+			"<opt>",
+			"  <data dbname=\"EntrezGene\" primary_id=\"1001\" display_id=\"GENE1\"><linkage_types>IEA</linkage_types><synonyms>SYN1</synonyms></data>",
+			"  <data dbname=\"EntrezGene\" primary_id=\"1002\" display_id=\"GENE1B\"/>",
+			"  <data dbname=\"Wormbase\" primary_id=\"WBGene00000001\"/>",
+			"  <data dbname=\"HGNC\" primary_id=\"HGNC:1\"/>",
+			"</opt></ensemblResponse>",
+			"<ensemblResponse id=\"ENSG00000000002\" URL=\"http%3A%2F%2Frest.ensembl.org%2Fxrefs%2Fid%2FENSG00000000002\">",
+			"<opt>",
+			"  <data dbname=\"EntrezGene\" primary_id=\"2001\"/>",
+			"</opt></ensemblResponse>",
+			"</ensemblResponses>");
+
+	private static EnsemblFileProcessor createProcessor(Path directory)
+	{
+		EnsemblFileProcessor processor = new EnsemblFileProcessor("test");
+		processor.setPath(directory);
+		processor.setFileGlob(directory.toString() + "/ensembl_to_ALL*xml");
+		processor.setDbs(Arrays.asList("Wormbase", "EntrezGene", "RefSeq_peptide"));
+		return processor;
+	}
+
+	@Test
+	public void testEnsemblFileProcessor() throws IOException
+	{
+		Path directory = Files.createTempDirectory("ensembl");
+		Files.write(directory.resolve("ensembl_to_ALL.48892.xml"), ENSEMBL_RESPONSES.getBytes(StandardCharsets.UTF_8));
+
+		Map<String, Map<String, List<String>>> mappings = createProcessor(directory).getIdMappingsFromFile();
+
+		assertEquals(3, mappings.size());
+		assertEquals(2, mappings.get("EntrezGene").size());
+		assertEquals(Arrays.asList("1001", "1002"), mappings.get("EntrezGene").get("ENSG00000000001"));
+		assertEquals(Arrays.asList("2001"), mappings.get("EntrezGene").get("ENSG00000000002"));
+		assertEquals(1, mappings.get("Wormbase").size());
+		assertEquals(Arrays.asList("WBGene00000001"), mappings.get("Wormbase").get("ENSG00000000001"));
+		assertTrue(mappings.get("RefSeq_peptide").isEmpty());
+		// The transformed files are only written if they are asked for.
+		assertFalse(Files.exists(directory.resolve("ensembl_to_ALL.48892.xml.EntrezGene.transformed.tsv")));
+	}
+
+	@Test
+	public void testEnsemblFileProcessorMultipleFiles() throws IOException
+	{
+		Path directory = Files.createTempDirectory("ensembl");
+		Files.write(directory.resolve("ensembl_to_ALL.48892.xml"), ENSEMBL_RESPONSES.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("ensembl_to_ALL.48895.xml"), String.join("\n",
+				"<?xml version=\"1.0\" encoding=\"utf-8\"?>",
+				"<ensemblResponses>",
+				"<ensemblResponse id=\"ENSG00000000001\" URL=\"http%3A%2F%2Frest.ensembl.org%2Fxrefs%2Fid%2FENSG00000000001\">",
+				"<opt>",
+				"  <data dbname=\"EntrezGene\" primary_id=\"1003\"/>",
+				"</opt></ensemblResponse>",
+				"<ensemblResponse id=\"ENSG00000000003\" URL=\"http%3A%2F%2Frest.ensembl.org%2Fxrefs%2Fid%2FENSG00000000003\">",
+				"<opt>",
+				"  <data dbname=\"Wormbase\" primary_id=\"WBGene00000003\"/>",
+				"</opt></ensemblResponse>",
+				"</ensemblResponses>").getBytes(StandardCharsets.UTF_8));
+		EnsemblFileProcessor parallelProcessor = createProcessor(directory);
+		parallelProcessor.setParallelism(2);
+
+		Map<String, Map<String, List<String>>> mappings = createProcessor(directory).getIdMappingsFromFile();
+
+		// The identifiers from both files are kept, in file order, instead of the second file's mappings replacing the first's.
+		assertEquals(Arrays.asList("1001", "1002", "1003"), mappings.get("EntrezGene").get("ENSG00000000001"));
+		assertEquals(Arrays.asList("2001"), mappings.get("EntrezGene").get("ENSG00000000002"));
+		assertEquals(2, mappings.get("Wormbase").size());
+		assertEquals(Arrays.asList("WBGene00000003"), mappings.get("Wormbase").get("ENSG00000000003"));
+		// Processing the files in parallel must give the same mapping as processing them one at a time.
+		assertEquals(mappings, parallelProcessor.getIdMappingsFromFile());
+	}
+
+	@Test
+	public void testEnsemblFileProcessorWritingTransformedFiles() throws IOException
+	{
+		Path directory = Files.createTempDirectory("ensembl");
+		Files.write(directory.resolve("ensembl_to_ALL.48892.xml"), ENSEMBL_RESPONSES.getBytes(StandardCharsets.UTF_8));
+		EnsemblFileProcessor processor = createProcessor(directory);
+		processor.setWriteTransformedFiles(true);
+
+		processor.getIdMappingsFromFile();
+
+		assertEquals(Arrays.asList("ENSG00000000001\t1001", "ENSG00000000001\t1002", "ENSG00000000002\t2001"),
+					Files.readAllLines(directory.resolve("ensembl_to_ALL.48892.xml.EntrezGene.transformed.tsv")));
+		assertEquals(Arrays.asList("ENSG00000000001\tWBGene00000001"),
+					Files.readAllLines(directory.resolve("ensembl_to_ALL.48892.xml.Wormbase.transformed.tsv")));
+		assertTrue(Files.readAllLines(directory.resolve("ensembl_to_ALL.48892.xml.RefSeq_peptide.transformed.tsv")).isEmpty());
+	}
+}
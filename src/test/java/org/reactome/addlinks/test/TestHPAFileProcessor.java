@@ -10,6 +10,7 @@ import static org.junit.Assert.fail;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
@@ -33,6 +34,21 @@ public class TestHPAFileProcessor {
         assertThat(testMapping.size(), is(equalTo(EXPECTED_TEST_HPA_MAPPING_SIZE)));
         assertThat(testMapping.get("P08603").get(0), is(equalTo("ENSG00000000971-CFH")));
 
+        // The file is read without being extracted.
+        assertThat(Files.exists(Paths.get(TEST_DIRECTORY, TEST_FILE)), is(false));
+    }
+
+    @Test
+    public void testHPAFileProcessorExtractingToDisk() throws IOException {
+
+        HPAFileProcessor processor = new HPAFileProcessor("test");
+        processor.setPath(Paths.get(TEST_DIRECTORY, TEST_FILE + ".zip"));
+        processor.setExtractArchivesToDisk(true);
+        Map<String, List<String>> testMapping = processor.getIdMappingsFromFile();
+
+        assertThat(testMapping.size(), is(equalTo(EXPECTED_TEST_HPA_MAPPING_SIZE)));
+        assertThat(testMapping.get("P08603").get(0), is(equalTo("ENSG00000000971-CFH")));
+
         Files.delete(Paths.get(TEST_DIRECTORY, TEST_FILE, TEST_FILE));
         Files.delete(Paths.get(TEST_DIRECTORY, TEST_FILE));
     }
@@ -47,7 +63,7 @@ public class TestHPAFileProcessor {
             fail();
         } catch (Exception e) {
             e.printStackTrace();
-            assertThat(e, is(instanceOf(NullPointerException.class)));
+            assertThat(e, is(instanceOf(UncheckedIOException.class)));
 
         }
     }
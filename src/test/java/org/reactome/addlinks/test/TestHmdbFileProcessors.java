@@ -0,0 +1,108 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+import org.reactome.addlinks.fileprocessors.hmdb.HmdbMetabolitesFileProcessor;
+import org.reactome.addlinks.fileprocessors.hmdb.HmdbMetabolitesFileProcessor.HMDBFileMappingKeys;
+import org.reactome.addlinks.fileprocessors.hmdb.HmdbProteinsFileProcessor;
+
+public class TestHmdbFileProcessors
+{
+	private static Path createZipFile(String name, String xml) throws IOException
+	{
+		Path zipFile = Files.createTempDirectory("hmdb").resolve(name + ".zip");
+		try (OutputStream outStream = Files.newOutputStream(zipFile);
+			ZipOutputStream zipStream = new ZipOutputStream(outStream))
+		{
+			zipStream.putNextEntry(new ZipEntry(name + ".xml"));
+			zipStream.write(xml.getBytes("UTF-8"));
+			zipStream.closeEntry();
+		}
+		return zipFile;
+	}
+
+	@Test
+	public void testMetabolites() throws IOException
+	{
+		Path zipFile = createZipFile("hmdb_metabolites", String.join("\n",
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+				"<hmdb xmlns=\"http://www.hmdb.ca\">",
+				"<metabolite>",
+				"  <accession>HMDB0000001</accession>",
+				"  <secondary_accessions><accession>HMDB00001</accession></secondary_accessions>",
+				"  <chebi_id>50599</chebi_id>",
+				"  <protein_associations>",
+				"    <protein><protein_accession>HMDBP00001</protein_accession><uniprot_id>P11111</uniprot_id></protein>",
+				"    <protein><protein_accession>HMDBP00002</protein_accession><uniprot_id>P22222</uniprot_id></protein>",
+				"  </protein_associations>",
+				"</metabolite>",
+				"<metabolite>",
+				"  <accession>HMDB0000002</accession>",
+				"  <chebi_id/>",
+				"  <protein_associations>",
+				"    <protein><uniprot_id>P33333</uniprot_id></protein>",
+				"  </protein_associations>",
+				"</metabolite>",
+				"<metabolite>",
+				"  <accession>HMDB0000003</accession>",
+				"  <chebi_id>12345</chebi_id>",
+				"</metabolite>",
+				"</hmdb>"));
+		HmdbMetabolitesFileProcessor processor = new HmdbMetabolitesFileProcessor("test");
+		processor.setPath(zipFile);
+
+		Map<String, Map<HMDBFileMappingKeys, ? extends Collection<String>>> mappings = processor.getIdMappingsFromFile();
+
+		assertEquals(3, mappings.size());
+		assertFalse(mappings.containsKey("HMDB00001"));
+		assertEquals(Arrays.asList("50599"), mappings.get("HMDB0000001").get(HMDBFileMappingKeys.CHEBI));
+		assertEquals(Arrays.asList("P11111", "P22222"), mappings.get("HMDB0000001").get(HMDBFileMappingKeys.UNIPROT));
+		assertNull(mappings.get("HMDB0000002").get(HMDBFileMappingKeys.CHEBI));
+		assertEquals(Arrays.asList("P33333"), mappings.get("HMDB0000002").get(HMDBFileMappingKeys.UNIPROT));
+		assertEquals(Arrays.asList("12345"), mappings.get("HMDB0000003").get(HMDBFileMappingKeys.CHEBI));
+		assertNull(mappings.get("HMDB0000003").get(HMDBFileMappingKeys.UNIPROT));
+	}
+
+	@Test
+	public void testProteins() throws IOException
+	{
+		Path zipFile = createZipFile("hmdb_proteins", String.join("\n",
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+				"<hmdb xmlns=\"http://www.hmdb.ca\">",
+				"<protein>",
+				"  <accession>HMDBP00001</accession>",
+				"  <uniprot_id>P11111</uniprot_id>",
+				"  <metabolite_associations><metabolite><accession>HMDB0000001</accession></metabolite></metabolite_associations>",
+				"</protein>",
+				"<protein>",
+				"  <accession>HMDBP00002</accession>",
+				"  <uniprot_id></uniprot_id>",
+				"</protein>",
+				"<protein>",
+				"  <uniprot_id>P33333</uniprot_id>",
+				"  <accession>HMDBP00003</accession>",
+				"</protein>",
+				"</hmdb>"));
+		HmdbProteinsFileProcessor processor = new HmdbProteinsFileProcessor("test");
+		processor.setPath(zipFile);
+
+		Map<String, String> mappings = processor.getIdMappingsFromFile();
+
+		assertEquals(2, mappings.size());
+		assertEquals("HMDBP00001", mappings.get("P11111"));
+		assertEquals("HMDBP00003", mappings.get("P33333"));
+	}
+}
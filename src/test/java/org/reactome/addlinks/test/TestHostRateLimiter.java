@@ -0,0 +1,110 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.time.Duration;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+import org.reactome.addlinks.http.client.HostRateLimiter;
+
+public class TestHostRateLimiter
+{
+	private static BasicHttpResponse createResponse(int statusCode)
+	{
+		return new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "");
+	}
+
+	@Test
+	public void testSameLimiterForSameHost()
+	{
+		HostRateLimiter limiter = HostRateLimiter.forHost("same.host.example.org");
+		assertSame(limiter, HostRateLimiter.forURI(URI.create("https://SAME.host.example.org/some/path?id=1")));
+	}
+
+	@Test
+	public void testThrottlingHalvesRate()
+	{
+		HostRateLimiter limiter = HostRateLimiter.forHost("throttled.example.org");
+		double initialRate = limiter.getRate();
+		BasicHttpResponse response = createResponse(HttpStatus.SC_TOO_MANY_REQUESTS);
+		response.addHeader("Retry-After", "0");
+		limiter.onResponse(response);
+		assertEquals(initialRate / 2, limiter.getRate(), 0.0001);
+	}
+
+	@Test
+	public void testForbiddenOnlyThrottlesConfiguredHosts()
+	{
+		HostRateLimiter limiter = HostRateLimiter.forHost("forbidden.example.org");
+		double initialRate = limiter.getRate();
+		limiter.onResponse(createResponse(HttpStatus.SC_FORBIDDEN));
+		assertEquals(initialRate, limiter.getRate(), 0.0001);
+
+		HostRateLimiter throttlingLimiter = HostRateLimiter.forHost("forbidden-when-busy.example.org");
+		throttlingLimiter.setForbiddenMeansThrottled(true);
+		initialRate = throttlingLimiter.getRate();
+		BasicHttpResponse response = createResponse(HttpStatus.SC_FORBIDDEN);
+		response.addHeader("Retry-After", "0");
+		// Link-checking never treats 403 as throttling.
+		throttlingLimiter.onResponse(response, false);
+		assertEquals(initialRate, throttlingLimiter.getRate(), 0.0001);
+		throttlingLimiter.onResponse(response);
+		assertEquals(initialRate / 2, throttlingLimiter.getRate(), 0.0001);
+	}
+
+	@Test
+	public void testSuccessIncreasesRateUpToMax()
+	{
+		HostRateLimiter limiter = HostRateLimiter.forHost("successful.example.org");
+		double initialRate = limiter.getRate();
+		limiter.onResponse(createResponse(HttpStatus.SC_OK));
+		assertTrue(limiter.getRate() > initialRate);
+		for (int i = 0; i < 1000; i++)
+		{
+			limiter.onSuccess();
+		}
+		assertEquals(limiter.getMaxRate(), limiter.getRate(), 0.0001);
+	}
+
+	@Test
+	public void testRateLimitHeadersCapRate()
+	{
+		HostRateLimiter limiter = HostRateLimiter.forHost("limited.example.org");
+		BasicHttpResponse response = createResponse(HttpStatus.SC_OK);
+		response.addHeader("X-RateLimit-Limit", "55000");
+		response.addHeader("X-RateLimit-Period", "3600");
+		response.addHeader("X-RateLimit-Remaining", "54999");
+		limiter.onResponse(response);
+		assertEquals(55000.0 / 3600.0, limiter.getMaxRate(), 0.0001);
+		assertTrue(limiter.getRate() <= limiter.getMaxRate());
+	}
+
+	@Test
+	public void testSetMaxRateCapsRate()
+	{
+		HostRateLimiter limiter = HostRateLimiter.forHost("capped.example.org");
+		limiter.setMaxRate(1.5);
+		assertEquals(1.5, limiter.getMaxRate(), 0.0001);
+		for (int i = 0; i < 1000; i++)
+		{
+			limiter.onSuccess();
+		}
+		assertEquals(1.5, limiter.getRate(), 0.0001);
+	}
+
+	@Test
+	public void testPauseDelaysAcquire() throws InterruptedException
+	{
+		HostRateLimiter limiter = HostRateLimiter.forHost("paused.example.org");
+		limiter.pause(Duration.ofMillis(300));
+		long start = System.nanoTime();
+		limiter.acquire();
+		assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 250);
+	}
+}
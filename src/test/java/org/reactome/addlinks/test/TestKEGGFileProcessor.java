@@ -0,0 +1,103 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.reactome.addlinks.fileprocessors.KEGGFileProcessor;
+import org.reactome.addlinks.fileprocessors.KEGGFileProcessor.KEGGKeys;
+
+public class TestKEGGFileProcessor
+{
+	private static KEGGFileProcessor createProcessor(Path directory)
+	{
+		KEGGFileProcessor processor = new KEGGFileProcessor("test");
+		processor.setPath(directory);
+		processor.setFileGlob(directory.toString() + "/kegg_entries*");
+		return processor;
+	}
+
+	@Test
+	public void testKEGGFileProcessor()
+	{
+		Map<String, List<Map<KEGGKeys, String>>> mappings = createProcessor(Paths.get("src/test/resources")).getIdMappingsFromFile();
+
+		assertEquals(1, mappings.size());
+		assertEquals(1, mappings.get("Q9W1A9").size());
+		Map<KEGGKeys, String> keggValues = mappings.get("Q9W1A9").get(0);
+		assertEquals("enok", keggValues.get(KEGGKeys.KEGG_IDENTIFIER));
+		assertEquals("Dmel_CG11290", keggValues.get(KEGGKeys.KEGG_GENE_ID));
+		assertEquals("dme", keggValues.get(KEGGKeys.KEGG_SPECIES));
+		assertEquals("(RefSeq) enoki mushroom, isoform B", keggValues.get(KEGGKeys.KEGG_DEFINITION));
+		assertEquals("2.3.1.48", keggValues.get(KEGGKeys.EC_NUMBERS));
+	}
+
+	@Test
+	public void testKEGGFileProcessorMultipleFiles() throws IOException
+	{
+		Path directory = createMultipleFiles();
+		Map<String, List<Map<KEGGKeys, String>>> mappings = createProcessor(directory).getIdMappingsFromFile();
+
+		assertEquals(2, mappings.size());
+		// The entry from the second file is a duplicate (same KEGG identifier) of the first entry.
+		assertEquals(2, mappings.get("P11111").size());
+		assertEquals("GENE1", mappings.get("P11111").get(0).get(KEGGKeys.KEGG_IDENTIFIER));
+		assertEquals("1.1.1.1 1.1.1.2", mappings.get("P11111").get(0).get(KEGGKeys.EC_NUMBERS));
+		// No NAME, so the gene ID is used as the identifier. Values from the previous entry must not carry over.
+		Map<KEGGKeys, String> secondEntry = mappings.get("P11111").get(1);
+		assertEquals("102", secondEntry.get(KEGGKeys.KEGG_IDENTIFIER));
+		assertNull(secondEntry.get(KEGGKeys.EC_NUMBERS));
+		assertEquals(1, mappings.get("P22222").size());
+		assertEquals("hsa", mappings.get("P22222").get(0).get(KEGGKeys.KEGG_SPECIES));
+	}
+
+	@Test
+	public void testKEGGFileProcessorParallel() throws IOException
+	{
+		Path directory = createMultipleFiles();
+		KEGGFileProcessor parallelProcessor = createProcessor(directory);
+		parallelProcessor.setParallelism(4);
+
+		// Processing the files in parallel must give the same mapping as processing them one at a time.
+		assertEquals(createProcessor(directory).getIdMappingsFromFile(), parallelProcessor.getIdMappingsFromFile());
+	}
+
+	private static Path createMultipleFiles() throws IOException
+	{
+		Path directory = Files.createTempDirectory("kegg_entries");
+		Files.write(directory.resolve("kegg_entries.1.2.txt"), String.join("\n",
+				"ENTRY       101               CDS       T01001",
+				"NAME        GENE1, OTHERNAME",
+				"ORTHOLOGY   K00001  some enzyme [EC:1.1.1.1 1.1.1.2]",
+				"ORGANISM    hsa  Homo sapiens (human)",
+				"DBLINKS     NCBI-GeneID: 101",
+				"            UniProt: P11111 P22222",
+				"///",
+				"ENTRY       102               CDS       T01001",
+				"ORGANISM    hsa  Homo sapiens (human)",
+				"DBLINKS     UniProt: P11111",
+				"///",
+				"ENTRY       103               CDS       T01001",
+				"NAME        NOUNIPROT",
+				"DBLINKS     NCBI-GeneID: 103",
+				"///",
+				"").getBytes());
+		Files.write(directory.resolve("kegg_entries.3.2.txt"), String.join("\n",
+				"ENTRY       201               CDS       T01002",
+				"NAME        GENE1",
+				"ORGANISM    mmu  Mus musculus (mouse)",
+				"DBLINKS     UniProt: P11111",
+				"///",
+				"").getBytes());
+		// Doesn't match the KEGG file name pattern, so it is ignored.
+		Files.write(directory.resolve("kegg_entries.1.2.txt.progress"), "bytesWritten=0\n".getBytes());
+		return directory;
+	}
+}
@@ -0,0 +1,64 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.reactome.addlinks.dataretrieval.executor.KeggFileRetrieverExecutor;
+
+public class TestKeggFileRetrieverExecutor
+{
+	private static final List<String> SPECIES_IDS = Collections.singletonList("48887");
+
+	@Test
+	public void testLeftoverProgressFileIsNotAMappingFile() throws IOException
+	{
+		Path directory = Files.createTempDirectory("uniprot");
+		Path mappingFile = directory.resolve("uniprot_mapping_Uniprot_To_KEGG.48887.2.txt");
+		Files.write(mappingFile, Arrays.asList("From\tTo", "P12345\thsa:1234"), StandardCharsets.UTF_8);
+		// What an interrupted UniProt download leaves next to its mapping file: a Properties file, which has a date comment and more than one line.
+		Files.write(directory.resolve("uniprot_mapping_Uniprot_To_KEGG.48887.2.txt.progress"),
+					Arrays.asList("#Mon Oct 18 10:00:00 UTC 2026", "completedBatches=1", "identifiersHash=123", "bytesWritten=24"), StandardCharsets.UTF_8);
+		Files.write(directory.resolve("uniprot_mapping_Uniprot_To_KEGG.48887.2.txt.progress.tmp"),
+					Arrays.asList("#Mon Oct 18 10:00:00 UTC 2026", "completedBatches=1"), StandardCharsets.UTF_8);
+
+		List<Path> validFiles;
+		try (Stream<Path> files = Files.list(directory))
+		{
+			validFiles = files.filter(path -> KeggFileRetrieverExecutor.isValidKEGGMappingFile(path.toString(), SPECIES_IDS)).collect(Collectors.toList());
+		}
+
+		assertEquals(Collections.singletonList(mappingFile), validFiles);
+	}
+
+	@Test
+	public void testIsValidKEGGMappingFile() throws IOException
+	{
+		Path directory = Files.createTempDirectory("uniprot");
+		Path mappingFile = directory.resolve("uniprot_mapping_Uniprot_To_KEGG.48887.2.txt");
+		Files.write(mappingFile, Arrays.asList("From\tTo", "P12345\thsa:1234"), StandardCharsets.UTF_8);
+		Path notMappedFile = directory.resolve("uniprot_mapping_Uniprot_To_KEGG.48887.2.notMapped.txt");
+		Files.write(notMappedFile, Arrays.asList("From\tTo", "P99999"), StandardCharsets.UTF_8);
+		Path emptyFile = directory.resolve("uniprot_mapping_Uniprot_To_KEGG.48888.2.txt");
+		Files.write(emptyFile, Arrays.asList("From\tTo"), StandardCharsets.UTF_8);
+
+		assertTrue(KeggFileRetrieverExecutor.isValidKEGGMappingFile(mappingFile.toString(), SPECIES_IDS));
+		assertFalse(KeggFileRetrieverExecutor.isValidKEGGMappingFile(notMappedFile.toString(), SPECIES_IDS));
+		// Only has a header.
+		assertFalse(KeggFileRetrieverExecutor.isValidKEGGMappingFile(emptyFile.toString(), Collections.singletonList("48888")));
+		// Another species.
+		assertFalse(KeggFileRetrieverExecutor.isValidKEGGMappingFile(mappingFile.toString(), Collections.singletonList("68323")));
+		assertFalse(KeggFileRetrieverExecutor.isValidKEGGMappingFile(directory.resolve("uniprot_mapping_Uniprot_To_KEGG.48887.3.txt").toString(), SPECIES_IDS));
+	}
+}
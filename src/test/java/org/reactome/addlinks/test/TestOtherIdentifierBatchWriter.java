@@ -0,0 +1,58 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.reactome.addlinks.db.OtherIdentifierBatchWriter;
+
+public class TestOtherIdentifierBatchWriter
+{
+	@Test
+	public void testFindChangedValues()
+	{
+		Map<Long, List<String>> existingValues = new HashMap<>();
+		// Already has all of its new values, in order: unchanged.
+		existingValues.put(1L, Arrays.asList("A", "B", "C"));
+		// Gets a new value in the middle.
+		existingValues.put(2L, Arrays.asList("A", "C"));
+		// Has no new values, but its existing values are not sorted.
+		existingValues.put(3L, Arrays.asList("C", "A"));
+		// 4 has no existing values, and gets new ones. 5 has no existing values and no new ones.
+		Map<Long, Set<String>> newOtherIdentifiers = new HashMap<>();
+		newOtherIdentifiers.put(1L, new TreeSet<>(Arrays.asList("C", "A")));
+		newOtherIdentifiers.put(2L, new TreeSet<>(Arrays.asList("B", "C")));
+		newOtherIdentifiers.put(3L, Collections.emptySet());
+		newOtherIdentifiers.put(4L, new TreeSet<>(Arrays.asList("Z", "Y", "Y")));
+		newOtherIdentifiers.put(5L, Collections.emptySet());
+
+		Map<Long, List<String>> changedValues = OtherIdentifierBatchWriter.findChangedValues(Arrays.asList(1L, 2L, 3L, 4L, 5L), existingValues, newOtherIdentifiers);
+
+		assertEquals(Arrays.asList(2L, 3L, 4L), Arrays.asList(changedValues.keySet().toArray()));
+		assertEquals(Arrays.asList("A", "B", "C"), changedValues.get(2L));
+		assertEquals(Arrays.asList("A", "C"), changedValues.get(3L));
+		assertEquals(Arrays.asList("Y", "Z"), changedValues.get(4L));
+	}
+
+	@Test
+	public void testOnlyTheGivenInstancesAreChecked()
+	{
+		Map<Long, List<String>> existingValues = new HashMap<>();
+		existingValues.put(1L, Arrays.asList("B", "A"));
+		Map<Long, Set<String>> newOtherIdentifiers = new HashMap<>();
+		newOtherIdentifiers.put(1L, Collections.singleton("C"));
+		newOtherIdentifiers.put(2L, Collections.singleton("D"));
+
+		Map<Long, List<String>> changedValues = OtherIdentifierBatchWriter.findChangedValues(Collections.singletonList(2L), existingValues, newOtherIdentifiers);
+
+		assertEquals(1, changedValues.size());
+		assertEquals(Collections.singletonList("D"), changedValues.get(2L));
+	}
+}
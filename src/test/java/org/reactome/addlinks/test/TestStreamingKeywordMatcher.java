@@ -0,0 +1,56 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+import org.reactome.addlinks.linkchecking.StreamingKeywordMatcher;
+
+public class TestStreamingKeywordMatcher
+{
+	@Test
+	public void testKeywordSplitAcrossPieces()
+	{
+		StreamingKeywordMatcher matcher = new StreamingKeywordMatcher("P04637", false);
+		char[] first = "<html>identifier: P04".toCharArray();
+		char[] second = "637</html>".toCharArray();
+		assertFalse(matcher.update(first, 0, first.length));
+		assertTrue(matcher.update(second, 0, second.length));
+	}
+
+	@Test
+	public void testPartialMatchesAreRecovered()
+	{
+		// A matcher that simply started again after a mismatch would miss both of these.
+		StreamingKeywordMatcher matcher = new StreamingKeywordMatcher("aab", false);
+		char[] text = "aaab".toCharArray();
+		assertTrue(matcher.update(text, 0, text.length));
+		matcher = new StreamingKeywordMatcher("abac", false);
+		text = "ababac".toCharArray();
+		assertTrue(matcher.update(text, 0, text.length));
+	}
+
+	@Test
+	public void testCaseSensitivity()
+	{
+		char[] text = "No Such Data Was Found.".toCharArray();
+		assertFalse(new StreamingKeywordMatcher("No such data was found.", false).update(text, 0, text.length));
+		assertTrue(new StreamingKeywordMatcher("No such data was found.", true).update(text, 0, text.length));
+	}
+
+	@Test
+	public void testSearchStopsWhenAllFound() throws IOException
+	{
+		StreamingKeywordMatcher keyword = new StreamingKeywordMatcher("12345", false);
+		StreamingKeywordMatcher missing = new StreamingKeywordMatcher("not in the page", false);
+		assertFalse(StreamingKeywordMatcher.search(new StringReader("<p>Gene 12345</p>"), keyword, missing));
+		assertTrue(keyword.isFound());
+		assertFalse(missing.isFound());
+
+		StreamingKeywordMatcher found = new StreamingKeywordMatcher("Gene", false);
+		assertTrue(StreamingKeywordMatcher.search(new StringReader("<p>Gene 12345</p>"), found));
+	}
+}
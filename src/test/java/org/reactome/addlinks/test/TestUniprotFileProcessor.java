@@ -0,0 +1,59 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.reactome.addlinks.fileprocessors.CompactMultimap;
+import org.reactome.addlinks.fileprocessors.UniprotFileProcessor;
+
+public class TestUniprotFileProcessor
+{
+	@Test
+	public void testUniprotFileProcessor() throws IOException
+	{
+		Path directory = Files.createTempDirectory("uniprot-mappings");
+		Files.write(directory.resolve("uniprot_mapping_Uniprot_To_PDB.9606.2.txt"), String.join("\n",
+				"From\tTo",
+				"P22222\t2XYZ",
+				"P11111\t1ABC",
+				"P22222\t1ABC",
+				"P11111\t3DEF",
+				"").getBytes());
+		Files.write(directory.resolve("uniprot_mapping_Uniprot_To_PDB.10090.2.txt"), String.join("\n",
+				"From\tTo",
+				"P11111\t1ABC",
+				"").getBytes());
+		UniprotFileProcessor processor = new UniprotFileProcessor("test");
+		processor.setPath(directory);
+		processor.setFileGlob(directory.toString() + "/uniprot_mapping_Uniprot_To_PDB*");
+
+		Map<String, Map<String, List<String>>> mappings = processor.getIdMappingsFromFile();
+
+		assertEquals(2, mappings.size());
+		Map<String, List<String>> humanMappings = mappings.get("9606");
+		assertTrue(humanMappings instanceof CompactMultimap);
+		assertEquals(2, humanMappings.size());
+		assertEquals(4, ((CompactMultimap) humanMappings).valueCount());
+		// The values keep the order of the file.
+		assertEquals(Arrays.asList("1ABC", "3DEF"), humanMappings.get("P11111"));
+		assertEquals(Arrays.asList("2XYZ", "1ABC"), humanMappings.get("P22222"));
+		assertNull(humanMappings.get("From"));
+		assertFalse(humanMappings.containsKey("P33333"));
+		assertEquals(Arrays.asList("P11111", "P22222"), humanMappings.keySet().parallelStream().collect(Collectors.toList()));
+		// Identifiers that appear more than once are only stored once.
+		assertSame(humanMappings.get("P11111").get(0), humanMappings.get("P22222").get(1));
+		assertSame(humanMappings.get("P11111").get(0), mappings.get("10090").get("P11111").get(0));
+	}
+}
@@ -30,7 +30,8 @@ public class TestVGNCFileProcessor {
         assertThat(testMapping.size(), is(equalTo(EXPECTED_TEST_VGNC_MAPPING_SIZE)));
         assertThat(testMapping.get("A0A1U7SHT6").get(0), is(equalTo("82903")));
 
-        Files.delete(Paths.get(TEST_FILEPATH.replace(".gz", "")));
+        // The file is read without being extracted.
+        assertThat(Files.exists(Paths.get(TEST_FILEPATH.replace(".gz", ""))), is(false));
     }
 
     @Test
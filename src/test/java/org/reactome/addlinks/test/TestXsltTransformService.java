@@ -0,0 +1,99 @@
+package org.reactome.addlinks.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.reactome.addlinks.fileprocessors.OrphanetFileProcessor;
+import org.reactome.addlinks.fileprocessors.XsltTransformService;
+import org.reactome.addlinks.fileprocessors.ensembl.EnsemblBatchLookupFileProcessor;
+
+public class TestXsltTransformService
+{
+	@Test
+	public void testTemplatesAreCompiledOnce() throws TransformerException
+	{
+		assertSame(XsltTransformService.getTemplates("orphanet_transform.xsl"), XsltTransformService.getTemplates("orphanet_transform.xsl"));
+	}
+
+	@Test
+	public void testTransformToLines() throws TransformerException
+	{
+		String xml = "<results><opt>"
+					+ "<data name=\"ENSGALP00000056694\" Parent=\"ENSGALT00000080481\" id=\"ENSGALP00000056694\"/>"
+					+ "<data name=\"ENSGALP00000056695\" Parent=\"ENSGALT00000061540\" id=\"ENSGALP00000056695\"/>"
+					+ "</opt><opt><data ENSGALP00000000000=\"\">"
+					+ "<ENSGALP00000056696 id=\"ENSGALP00000056696\" Parent=\"ENSGALT00000080370\"/>"
+					+ "</data></opt></results>";
+		List<String> lines = new ArrayList<>();
+
+		XsltTransformService.transformToLines("ensembl-lookup-simplifier.xsl", new StreamSource(new StringReader(xml)), lines::add);
+
+		assertEquals(Arrays.asList("ENSGALP00000056694,ENSGALT00000080481", "ENSGALP00000056695,ENSGALT00000061540", "ENSGALP00000056696,ENSGALT00000080370"), lines);
+	}
+
+	@Test
+	public void testOrphanetFileProcessor() throws IOException
+	{
+		Path file = Files.createTempDirectory("orphanet").resolve("orphanet.xml");
+		Files.write(file, String.join("\n",
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+				"<JDBOR><GeneList>",
+				"<Gene id=\"1001\"><ExternalReferenceList>",
+				"  <ExternalReference id=\"2001\"><Source>Ensembl</Source><Reference>ENSG00000000001</Reference></ExternalReference>",
+				"  <ExternalReference id=\"2002\"><Source>Reactome</Source><Reference>P11111</Reference></ExternalReference>",
+				"</ExternalReferenceList></Gene>",
+				"<Gene id=\"1002\"><ExternalReferenceList>",
+				"  <ExternalReference id=\"2003\"><Source>Ensembl</Source><Reference>ENSG00000000002</Reference></ExternalReference>",
+				"</ExternalReferenceList></Gene>",
+				"</GeneList></JDBOR>").getBytes(StandardCharsets.UTF_8));
+		OrphanetFileProcessor processor = new OrphanetFileProcessor("test");
+		processor.setPath(file);
+
+		Map<String, String> mappings = processor.getIdMappingsFromFile();
+
+		assertEquals(1, mappings.size());
+		assertEquals("1001", mappings.get("P11111"));
+		// The output goes straight to the mapping, without a transformed file.
+		assertEquals(1, Files.list(file.getParent()).count());
+	}
+
+	@Test
+	public void testEnsemblBatchLookupFileProcessorsInParallel() throws Exception
+	{
+		Path directory = Files.createTempDirectory("ensembl-batch-lookup");
+		List<Path> files = new ArrayList<>();
+		for (int i = 0; i < 8; i++)
+		{
+			Path file = directory.resolve("ENSP_batch_lookup." + i + ".xml");
+			Files.write(file, ("<results><opt><data name=\"ENSP" + i + "\" Parent=\"ENST" + i + "\" id=\"ENSP" + i + "\"/></opt></results>").getBytes(StandardCharsets.UTF_8));
+			files.add(file);
+		}
+
+		List<Map<String, String>> mappings = new ArrayList<>();
+		files.parallelStream().map(file -> {
+			EnsemblBatchLookupFileProcessor processor = new EnsemblBatchLookupFileProcessor("test");
+			processor.setPath(file);
+			return processor.getIdMappingsFromFile();
+		}).forEachOrdered(mappings::add);
+
+		for (int i = 0; i < 8; i++)
+		{
+			assertEquals(1, mappings.get(i).size());
+			assertEquals("ENST" + i, mappings.get(i).get("ENSP" + i));
+		}
+	}
+}